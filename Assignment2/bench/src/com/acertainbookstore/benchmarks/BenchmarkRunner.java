@@ -0,0 +1,72 @@
+package com.acertainbookstore.benchmarks;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * {@link BenchmarkRunner} runs the benchmarks once per thread count listed in
+ * the {@value #PROPERTY_KEY_THREADS} system property and writes the results of
+ * every run as JSON into the {@value #PROPERTY_KEY_RESULTS} directory. Any
+ * arguments are passed on to JMH, e.g. to select benchmarks or parameters.
+ */
+public final class BenchmarkRunner {
+
+	/** The Constant PROPERTY_KEY_THREADS, a comma-separated list. */
+	public static final String PROPERTY_KEY_THREADS = "bench.threads";
+
+	/** The Constant PROPERTY_KEY_RESULTS, the directory of the results. */
+	public static final String PROPERTY_KEY_RESULTS = "bench.results";
+
+	/** The Constant DEFAULT_THREADS. */
+	private static final String DEFAULT_THREADS = "1";
+
+	/** The Constant DEFAULT_RESULTS. */
+	private static final String DEFAULT_RESULTS = "bench/results";
+
+	/**
+	 * Prevents the instantiation of {@link BenchmarkRunner}.
+	 */
+	private BenchmarkRunner() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the JMH command line arguments
+	 * @throws CommandLineOptionException
+	 *             if the arguments are invalid
+	 * @throws RunnerException
+	 *             if a benchmark fails
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		Options commandLineOptions = new CommandLineOptions(args);
+		File resultsDir = new File(System.getProperty(PROPERTY_KEY_RESULTS, DEFAULT_RESULTS));
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+		if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+			throw new IllegalArgumentException(PROPERTY_KEY_RESULTS + " = " + resultsDir + " is invalid");
+		}
+
+		for (String threadsProperty : System.getProperty(PROPERTY_KEY_THREADS, DEFAULT_THREADS).split(",")) {
+			int threads = Integer.parseInt(threadsProperty.trim());
+			File resultFile = new File(resultsDir, "bench-" + timestamp + "-t" + threads + ".json");
+
+			Options options = new OptionsBuilder().parent(commandLineOptions).threads(threads)
+					.resultFormat(ResultFormatType.JSON).result(resultFile.getPath()).build();
+
+			new Runner(options).run();
+			System.out.println("Results written to " + resultFile);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.acertainbookstore.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * {@link KeySampler} draws ISBNs from a catalog following a Zipfian
+ * distribution: the book of rank k is drawn with a probability proportional to
+ * 1 / k^skew. A skew of 0 draws uniformly; around 1 a few bestsellers receive
+ * most requests.
+ */
+public final class KeySampler {
+
+	/** The ISBNs, ordered by popularity. */
+	private final int[] isbns;
+
+	/** The cumulative probabilities, or null for the uniform distribution. */
+	private final double[] cumulativeProbabilities;
+
+	/** The random number generator. */
+	private final SplittableRandom random;
+
+	/**
+	 * Instantiates a new {@link KeySampler}.
+	 *
+	 * @param isbns
+	 *            the ISBNs, ordered by popularity
+	 * @param skew
+	 *            the Zipfian exponent, at least 0
+	 * @param seed
+	 *            the seed
+	 */
+	public KeySampler(int[] isbns, double skew, long seed) {
+		if (skew < 0) {
+			throw new IllegalArgumentException("skew = " + skew + " is invalid");
+		}
+
+		this.isbns = isbns;
+		this.random = new SplittableRandom(seed);
+
+		if (skew == 0) {
+			this.cumulativeProbabilities = null;
+		} else {
+			this.cumulativeProbabilities = new double[isbns.length];
+			double sum = 0;
+
+			for (int rank = 0; rank < isbns.length; rank++) {
+				sum += 1.0 / Math.pow(rank + 1, skew);
+				cumulativeProbabilities[rank] = sum;
+			}
+
+			for (int rank = 0; rank < isbns.length; rank++) {
+				cumulativeProbabilities[rank] /= sum;
+			}
+		}
+	}
+
+	/**
+	 * Draws one ISBN.
+	 *
+	 * @return the ISBN
+	 */
+	public int next() {
+		if (cumulativeProbabilities == null) {
+			return isbns[random.nextInt(isbns.length)];
+		}
+
+		int rank = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+		rank = rank >= 0 ? rank : Math.min(-rank - 1, isbns.length - 1);
+		return isbns[rank];
+	}
+
+	/**
+	 * Draws distinct ISBNs.
+	 *
+	 * @param num
+	 *            the number of ISBNs, capped at the catalog size
+	 * @return the ISBNs
+	 */
+	public Set<Integer> nextSet(int num) {
+		int size = Math.min(num, isbns.length);
+		Set<Integer> sample = new HashSet<>();
+
+		while (sample.size() < size) {
+			sample.add(next());
+		}
+
+		return sample;
+	}
+}
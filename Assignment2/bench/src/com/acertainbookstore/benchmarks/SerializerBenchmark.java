@@ -0,0 +1,209 @@
+package com.acertainbookstore.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.client.api.ContentProvider;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * {@link SerializerBenchmark} measures the serializers on the payloads the
+ * book store puts on the wire: purchases, ISBN lookups and responses carrying
+ * stock books. Besides the time per operation, the size of the serialized
+ * payload is reported as the bytes counter; run with "-prof gc" to also
+ * report the allocation rate and the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+	/**
+	 * {@link PayloadType} implements the payloads that are benchmarked.
+	 */
+	public enum PayloadType {
+
+		/** The Set of BookCopy sent by buyBooks. */
+		PURCHASE,
+
+		/** The Set of Integer sent by getBooks. */
+		LOOKUP,
+
+		/** The BookStoreResponse holding a list of ImmutableStockBook. */
+		RESPONSE
+	}
+
+	/** The serializer. */
+	@Param({ "KRYO", "XSTREAM" })
+	public BookStoreSerializerType serializerType;
+
+	/** The payload. */
+	@Param({ "PURCHASE", "LOOKUP", "RESPONSE" })
+	public PayloadType payloadType;
+
+	/** The number of books in the payload. */
+	@Param({ "10", "1000", "100000" })
+	public int payloadSize;
+
+	/** The serializer. */
+	private BookStoreSerializer serializer;
+
+	/** The payload. */
+	private Object payload;
+
+	/** The serialized payload. */
+	private byte[] serializedPayload;
+
+	/**
+	 * {@link PayloadBytes} reports the size of the serialized payload next to
+	 * the time per operation. JMH resets the counter before every iteration,
+	 * so the benchmarks set it on every invocation.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class PayloadBytes {
+
+		/** The size of the serialized payload in bytes. */
+		public long bytes;
+	}
+
+	/**
+	 * Creates the serializer and the payload.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		serializer = serializerType.newSerializer();
+
+		switch (payloadType) {
+		case PURCHASE:
+			Set<BookCopy> bookCopies = new HashSet<>();
+
+			for (int isbn = 1; isbn <= payloadSize; isbn++) {
+				bookCopies.add(new BookCopy(isbn, 1 + isbn % 5));
+			}
+
+			payload = bookCopies;
+			break;
+
+		case LOOKUP:
+			Set<Integer> isbns = new HashSet<>();
+
+			for (int isbn = 1; isbn <= payloadSize; isbn++) {
+				isbns.add(isbn);
+			}
+
+			payload = isbns;
+			break;
+
+		case RESPONSE:
+		default:
+			List<ImmutableStockBook> books = new ArrayList<>(payloadSize);
+
+			for (int isbn = 1; isbn <= payloadSize; isbn++) {
+				books.add(new ImmutableStockBook(isbn, "Title of book " + isbn, "Author " + (isbn % 1000),
+						5.0f + isbn % 50, 10 + isbn % 90, isbn % 3, isbn % 20, (isbn % 20) * 3L, isbn % 10 == 0));
+			}
+
+			BookStoreResponse response = new BookStoreResponse();
+			response.setList(books);
+			payload = response;
+			break;
+		}
+
+		serializedPayload = serializer.serialize(payload);
+	}
+
+	/**
+	 * Serializes the payload.
+	 *
+	 * @param payloadBytes
+	 *            the payload bytes
+	 * @return the serialized payload
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Benchmark
+	public byte[] serialize(PayloadBytes payloadBytes) throws IOException {
+		payloadBytes.bytes = serializedPayload.length;
+		return serializer.serialize(payload);
+	}
+
+	/**
+	 * De-serializes the payload.
+	 *
+	 * @param payloadBytes
+	 *            the payload bytes
+	 * @return the payload
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Benchmark
+	public Object deserialize(PayloadBytes payloadBytes) throws IOException {
+		payloadBytes.bytes = serializedPayload.length;
+		return serializer.deserialize(serializedPayload);
+	}
+
+	/**
+	 * Takes the payload through the codec path of an HTTP exchange without
+	 * the network: serialized and wrapped into a {@link BytesContentProvider}
+	 * as in BookStoreUtility.performHttpExchange, copied out of the provider's
+	 * buffers, read back with a Kryo {@link Input} as the message handler does
+	 * and de-serialized.
+	 *
+	 * @param payloadBytes
+	 *            the payload bytes
+	 * @return the payload
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Benchmark
+	public Object httpCodecPath(PayloadBytes payloadBytes) throws IOException {
+		ContentProvider contentProvider = new BytesContentProvider(serializer.serialize(payload));
+		byte[] wire = new byte[(int) contentProvider.getLength()];
+		int offset = 0;
+
+		payloadBytes.bytes = wire.length;
+
+		for (ByteBuffer buffer : contentProvider) {
+			int length = buffer.remaining();
+			buffer.get(wire, offset, length);
+			offset += length;
+		}
+
+		try (Input in = new Input(new ByteArrayInputStream(wire))) {
+			return serializer.deserialize(in.readBytes(wire.length));
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.acertainbookstore.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StoreEngineBenchmark} measures the throughput of the store engines
+ * in-process, without HTTP or serialization. The catalog size, the number of
+ * books per request and the skew of the requested ISBNs are parameters; the
+ * number of threads is set per run, cf. {@link BenchmarkRunner}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreEngineBenchmark {
+
+	/** The Constant FIRST_ISBN. */
+	private static final int FIRST_ISBN = 1;
+
+	/** The Constant NUM_COPIES, large enough never to run out of stock. */
+	private static final int NUM_COPIES = 1000000000;
+
+	/** The Constant EDITOR_PICK_RATIO, one in every this many books. */
+	private static final int EDITOR_PICK_RATIO = 10;
+
+	/** The Constant NUM_PRECOMPUTED_REQUESTS per thread. */
+	private static final int NUM_PRECOMPUTED_REQUESTS = 1024;
+
+	/** The Constant ADD_BATCH_SIZE used to populate the catalog. */
+	private static final int ADD_BATCH_SIZE = 10000;
+
+	/** The engine. */
+	@Param({ "SYNCHRONIZED", "SINGLE_LOCK", "TWO_LEVEL_LOCKING" })
+	public String engine;
+
+	/** The number of books in the catalog. */
+	@Param({ "1000", "100000" })
+	public int catalogSize;
+
+	/** The number of books per request. */
+	@Param({ "1", "10" })
+	public int batchSize;
+
+	/** The Zipfian exponent of the requested ISBNs. */
+	@Param({ "0.0", "1.0" })
+	public double skew;
+
+	/** The book store. */
+	private BookStore bookStore;
+
+	/** The stock manager. */
+	private StockManager stockManager;
+
+	/** The ISBNs of the catalog, most popular first. */
+	private int[] isbns;
+
+	/** The seed handed to the next thread. */
+	private final AtomicLong nextSeed = new AtomicLong(42);
+
+	/**
+	 * Creates the engine and populates the catalog. Every tenth book is an
+	 * editor pick and every book carries one rating.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws BookStoreException {
+		switch (BookStoreEngineType.parse(engine)) {
+		case SYNCHRONIZED:
+			CertainBookStore synchronizedStore = new CertainBookStore();
+			bookStore = synchronizedStore;
+			stockManager = synchronizedStore;
+			break;
+
+		case SINGLE_LOCK:
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			bookStore = singleLockStore;
+			stockManager = singleLockStore;
+			break;
+
+		case TWO_LEVEL_LOCKING:
+		default:
+			TwoLevelLockingConcurrentCertainBookStore twoLevelStore = new TwoLevelLockingConcurrentCertainBookStore();
+			bookStore = twoLevelStore;
+			stockManager = twoLevelStore;
+			break;
+		}
+
+		isbns = new int[catalogSize];
+
+		for (int first = 0; first < catalogSize; first += ADD_BATCH_SIZE) {
+			Set<StockBook> books = new HashSet<>();
+			Set<BookEditorPick> editorPicks = new HashSet<>();
+			Set<BookRating> ratings = new HashSet<>();
+
+			for (int i = first; i < Math.min(first + ADD_BATCH_SIZE, catalogSize); i++) {
+				int isbn = FIRST_ISBN + i;
+				isbns[i] = isbn;
+				books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + (isbn % 1000), 10.0f, NUM_COPIES,
+						0, 0, 0, false));
+
+				if (i % EDITOR_PICK_RATIO == 0) {
+					editorPicks.add(new BookEditorPick(isbn, true));
+				}
+
+				ratings.add(new BookRating(isbn, isbn % 6));
+			}
+
+			stockManager.addBooks(books);
+			stockManager.updateEditorPicks(editorPicks);
+			bookStore.rateBooks(ratings);
+		}
+	}
+
+	/**
+	 * {@link Requests} holds the requests a benchmark thread cycles through,
+	 * generated up front so that sampling is not measured.
+	 */
+	@State(Scope.Thread)
+	public static class Requests {
+
+		/** The ISBN sets to look up. */
+		private List<Set<Integer>> lookups;
+
+		/** The book copy sets to buy or add. */
+		private List<Set<BookCopy>> copies;
+
+		/** The index of the next request. */
+		private int next;
+
+		/**
+		 * Generates the requests of this thread.
+		 *
+		 * @param benchmark
+		 *            the benchmark
+		 */
+		@Setup(Level.Trial)
+		public void setUp(StoreEngineBenchmark benchmark) {
+			KeySampler sampler = new KeySampler(benchmark.isbns, benchmark.skew,
+					benchmark.nextSeed.getAndIncrement());
+			lookups = new ArrayList<>(NUM_PRECOMPUTED_REQUESTS);
+			copies = new ArrayList<>(NUM_PRECOMPUTED_REQUESTS);
+
+			for (int i = 0; i < NUM_PRECOMPUTED_REQUESTS; i++) {
+				Set<Integer> lookup = sampler.nextSet(benchmark.batchSize);
+				Set<BookCopy> bookCopies = new HashSet<>();
+
+				for (int isbn : lookup) {
+					bookCopies.add(new BookCopy(isbn, 1));
+				}
+
+				lookups.add(lookup);
+				copies.add(bookCopies);
+			}
+		}
+
+		/**
+		 * Advances to the next request.
+		 *
+		 * @return the index of the request
+		 */
+		private int advance() {
+			next = (next + 1) & (NUM_PRECOMPUTED_REQUESTS - 1);
+			return next;
+		}
+	}
+
+	/**
+	 * Buys one copy of each book of a batch.
+	 *
+	 * @param requests
+	 *            the requests
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Benchmark
+	public void buyBooks(Requests requests) throws BookStoreException {
+		bookStore.buyBooks(requests.copies.get(requests.advance()));
+	}
+
+	/**
+	 * Adds one copy to each book of a batch.
+	 *
+	 * @param requests
+	 *            the requests
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Benchmark
+	public void addCopies(Requests requests) throws BookStoreException {
+		stockManager.addCopies(requests.copies.get(requests.advance()));
+	}
+
+	/**
+	 * Looks up a batch of books.
+	 *
+	 * @param requests
+	 *            the requests
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Benchmark
+	public List<Book> getBooksByISBN(Requests requests) throws BookStoreException {
+		return bookStore.getBooks(requests.lookups.get(requests.advance()));
+	}
+
+	/**
+	 * Gets a batch of editor picks.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Benchmark
+	public List<Book> getEditorPicks() throws BookStoreException {
+		return bookStore.getEditorPicks(batchSize);
+	}
+
+	/**
+	 * Gets a batch of top rated books.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Benchmark
+	public List<Book> getTopRatedBooks() throws BookStoreException {
+		return bookStore.getTopRatedBooks(batchSize);
+	}
+
+	/**
+	 * Lists the whole catalog.
+	 *
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Benchmark
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+}
@@ -17,6 +17,8 @@ import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreLockType;
+import com.acertainbookstore.utils.BookStoreMetrics;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
@@ -31,6 +33,9 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
     private Map<Integer, BookStoreBook> bookMap = null;
     private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
+    /** The metrics recording lock waits and sale misses. */
+    private final BookStoreMetrics metrics = BookStoreMetrics.getInstance();
+
     public SingleLockConcurrentCertainBookStore() {
         bookMap = new HashMap<>();
     }
@@ -83,6 +88,16 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
         validateISBNInStock(isbn);
     }
 
+    private void validate(BookRating bookRating) throws BookStoreException {
+        int rating = bookRating.getRating();
+
+        validateISBNInStock(bookRating.getISBN());
+
+        if (BookStoreUtility.isInvalidRating(rating)) {
+            throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+        }
+    }
+
     private void validateISBNInStock(Integer ISBN) throws BookStoreException {
         if (BookStoreUtility.isInvalidISBN(ISBN)) {
             throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
@@ -100,7 +115,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
     public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-        rwLock.writeLock().lock();
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (bookSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -126,7 +141,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
     public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-        rwLock.writeLock().lock();
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (bookCopiesSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -153,7 +168,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
     public List<StockBook> getBooks() {
-        rwLock.readLock().lock();
+        metrics.lock(rwLock.readLock(), BookStoreLockType.GLOBAL_READ);
         try {
             Collection<BookStoreBook> bookMapValues = bookMap.values();
             return bookMapValues.stream()
@@ -172,7 +187,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * .Set)
 	 */
     public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-        rwLock.writeLock().lock();
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (editorPicks == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -196,7 +211,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
     public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-        rwLock.writeLock().lock();
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (bookCopiesToBuy == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -222,6 +237,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
                     book = bookMap.get(saleMissEntry.getKey());
                     book.addSaleMiss(saleMissEntry.getValue());
                 }
+                metrics.recordSaleMiss();
                 throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
             }
 
@@ -242,7 +258,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * Set)
 	 */
     public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-        rwLock.readLock().lock();
+        metrics.lock(rwLock.readLock(), BookStoreLockType.GLOBAL_READ);
         try {
             if (isbnSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -266,7 +282,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
     public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-        rwLock.readLock().lock();
+        metrics.lock(rwLock.readLock(), BookStoreLockType.GLOBAL_READ);
         try {
             if (isbnSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -290,7 +306,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
     public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-        rwLock.readLock().lock();
+        metrics.lock(rwLock.readLock(), BookStoreLockType.GLOBAL_READ);
         try {
             if (numBooks < 0) {
                 throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
@@ -329,30 +345,66 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
-	@Override
-	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
-	}
+    @Override
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+        metrics.lock(rwLock.readLock(), BookStoreLockType.GLOBAL_READ);
+        try {
+            if (numBooks < 0) {
+                throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+            }
+
+            return bookMap.values().stream()
+                    .sorted((b1, b2) -> Float.compare(b2.getAverageRating(), b1.getAverageRating()))
+                    .limit(numBooks)
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
-	@Override
-	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
-	}
+    @Override
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        metrics.lock(rwLock.readLock(), BookStoreLockType.GLOBAL_READ);
+        try {
+            return bookMap.values().stream()
+                    .filter(BookStoreBook::hadSaleMiss)
+                    .map(BookStoreBook::immutableStockBook)
+                    .collect(Collectors.toList());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
-	@Override
-	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
-	}
+    @Override
+    public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
+        try {
+            if (bookRating == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            for (BookRating rating : bookRating) {
+                validate(rating);
+            }
+
+            for (BookRating rating : bookRating) {
+                bookMap.get(rating.getISBN()).addRating(rating.getRating());
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
 
 	/*
 	 * (non-Javadoc)
@@ -360,7 +412,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
     public void removeAllBooks() throws BookStoreException {
-        rwLock.writeLock().lock();
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             bookMap.clear();
         } finally {
@@ -375,7 +427,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
     public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-        rwLock.writeLock().lock();
+        metrics.lock(rwLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (isbnSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
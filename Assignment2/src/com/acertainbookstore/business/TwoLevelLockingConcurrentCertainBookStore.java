@@ -19,6 +19,8 @@ import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreLockType;
+import com.acertainbookstore.utils.BookStoreMetrics;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
@@ -38,6 +40,9 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
     // Per-book locks
     private final Map<Integer, ReadWriteLock> bookLocks = new ConcurrentHashMap<>();
 
+    /** The metrics recording lock waits and sale misses. */
+    private final BookStoreMetrics metrics = BookStoreMetrics.getInstance();
+
     public TwoLevelLockingConcurrentCertainBookStore() {
         bookMap = new HashMap<>();
     }
@@ -90,6 +95,16 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         validateISBNInStock(isbn);
     }
 
+    private void validate(BookRating bookRating) throws BookStoreException {
+        int rating = bookRating.getRating();
+
+        validateISBNInStock(bookRating.getISBN());
+
+        if (BookStoreUtility.isInvalidRating(rating)) {
+            throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+        }
+    }
+
     private void validateISBNInStock(Integer ISBN) throws BookStoreException {
         if (BookStoreUtility.isInvalidISBN(ISBN)) {
             throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
@@ -107,7 +122,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
     @Override
     public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-        globalLock.writeLock().lock();
+        metrics.lock(globalLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (bookSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -139,7 +154,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         List<ReadWriteLock> acquiredLocks = new ArrayList<>();
         try {
             for (BookCopy bookCopy : bookCopiesSet) {
@@ -151,7 +166,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
             for (Integer isbn : isbns) {
                 ReadWriteLock lock = bookLocks.get(isbn);
-                lock.writeLock().lock();
+                metrics.lock(lock.writeLock(), BookStoreLockType.BOOK_WRITE);
                 acquiredLocks.add(lock);
             }
 
@@ -174,7 +189,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
     @Override
     public List<StockBook> getBooks() {
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         try {
             // This is a read-only operation over all books
             // Acquire all locks in read mode? Not strictly necessary if we consider that no structural changes can happen while we hold global read.
@@ -200,7 +215,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
         if (editorPicks == null) {
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         List<ReadWriteLock> acquiredLocks = new ArrayList<>();
         try {
             for (BookEditorPick editorPickArg : editorPicks) {
@@ -212,7 +227,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
             for (Integer isbn : isbns) {
                 ReadWriteLock lock = bookLocks.get(isbn);
-                lock.writeLock().lock();
+                metrics.lock(lock.writeLock(), BookStoreLockType.BOOK_WRITE);
                 acquiredLocks.add(lock);
             }
 
@@ -238,7 +253,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         List<ReadWriteLock> acquiredLocks = new ArrayList<>();
         try {
             for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
@@ -249,7 +264,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 
             for (Integer isbn : isbns) {
                 ReadWriteLock lock = bookLocks.get(isbn);
-                lock.writeLock().lock();
+                metrics.lock(lock.writeLock(), BookStoreLockType.BOOK_WRITE);
                 acquiredLocks.add(lock);
             }
 
@@ -270,6 +285,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
                     BookStoreBook book = bookMap.get(saleMissEntry.getKey());
                     book.addSaleMiss(saleMissEntry.getValue());
                 }
+                metrics.recordSaleMiss();
                 throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
             }
 
@@ -299,7 +315,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         List<ReadWriteLock> acquiredLocks = new ArrayList<>();
         try {
             for (Integer ISBN : isbnSet) {
@@ -309,7 +325,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             List<Integer> sortedIsbns = isbnSet.stream().sorted().collect(Collectors.toList());
             for (Integer isbn : sortedIsbns) {
                 ReadWriteLock lock = bookLocks.get(isbn);
-                lock.readLock().lock();
+                metrics.lock(lock.readLock(), BookStoreLockType.BOOK_READ);
                 acquiredLocks.add(lock);
             }
 
@@ -335,7 +351,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             throw new BookStoreException(BookStoreConstants.NULL_INPUT);
         }
 
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         List<ReadWriteLock> acquiredLocks = new ArrayList<>();
         try {
             for (Integer ISBN : isbnSet) {
@@ -345,7 +361,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
             List<Integer> sortedIsbns = isbnSet.stream().sorted().collect(Collectors.toList());
             for (Integer isbn : sortedIsbns) {
                 ReadWriteLock lock = bookLocks.get(isbn);
-                lock.readLock().lock();
+                metrics.lock(lock.readLock(), BookStoreLockType.BOOK_READ);
                 acquiredLocks.add(lock);
             }
 
@@ -367,7 +383,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
     @Override
     public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-        globalLock.readLock().lock();
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
         try {
             if (numBooks < 0) {
                 throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
@@ -405,30 +421,79 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
-	@Override
-	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
-	}
+    @Override
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
+        try {
+            if (numBooks < 0) {
+                throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+            }
+
+            // Like getBooks(), a full scan relies on the global read lock only.
+            return bookMap.values().stream()
+                    .sorted((b1, b2) -> Float.compare(b2.getAverageRating(), b1.getAverageRating()))
+                    .limit(numBooks)
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
-	@Override
-	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
-	}
+    @Override
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
+        try {
+            return bookMap.values().stream()
+                    .filter(BookStoreBook::hadSaleMiss)
+                    .map(BookStoreBook::immutableStockBook)
+                    .collect(Collectors.toList());
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
 
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
-	@Override
-	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
-	}
+    @Override
+    public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+        if (bookRating == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        metrics.lock(globalLock.readLock(), BookStoreLockType.GLOBAL_READ);
+        List<ReadWriteLock> acquiredLocks = new ArrayList<>();
+        try {
+            for (BookRating rating : bookRating) {
+                validate(rating);
+            }
+
+            List<Integer> isbns = bookRating.stream().map(BookRating::getISBN).sorted().collect(Collectors.toList());
+
+            for (Integer isbn : isbns) {
+                ReadWriteLock lock = bookLocks.get(isbn);
+                metrics.lock(lock.writeLock(), BookStoreLockType.BOOK_WRITE);
+                acquiredLocks.add(lock);
+            }
+
+            for (BookRating rating : bookRating) {
+                bookMap.get(rating.getISBN()).addRating(rating.getRating());
+            }
+        } finally {
+            for (ReadWriteLock l : acquiredLocks) {
+                l.writeLock().unlock();
+            }
+            globalLock.readLock().unlock();
+        }
+    }
 
 	/*
 	 * (non-Javadoc)
@@ -437,7 +502,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public void removeAllBooks() throws BookStoreException {
-		globalLock.writeLock().lock();
+		metrics.lock(globalLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
 		try {
 			bookMap.clear();
 			bookLocks.clear();
@@ -454,7 +519,7 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
     @Override
     public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-        globalLock.writeLock().lock();
+        metrics.lock(globalLock.writeLock(), BookStoreLockType.GLOBAL_WRITE);
         try {
             if (isbnSet == null) {
                 throw new BookStoreException(BookStoreConstants.NULL_INPUT);
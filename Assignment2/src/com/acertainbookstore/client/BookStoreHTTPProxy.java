@@ -12,14 +12,13 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -51,11 +50,8 @@ public class BookStoreHTTPProxy implements BookStore {
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		BookStoreSerializerType serializerType = BookStoreSerializerType.fromSystemProperties();
+		serializer = ThreadLocal.withInitial(serializerType::newSerializer);
 
 		setServerAddress(serverAddress);
 		client = new HttpClient();
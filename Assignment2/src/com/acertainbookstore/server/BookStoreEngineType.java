@@ -0,0 +1,47 @@
+package com.acertainbookstore.server;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+
+/**
+ * {@link BookStoreEngineType} implements the store engines the
+ * {@link BookStoreHTTPServer} can be started with.
+ *
+ * @see CertainBookStore
+ * @see SingleLockConcurrentCertainBookStore
+ * @see TwoLevelLockingConcurrentCertainBookStore
+ */
+public enum BookStoreEngineType {
+
+	/** The engine serializing all operations with synchronized methods. */
+	SYNCHRONIZED,
+
+	/** The engine protecting the whole store with one read-write lock. */
+	SINGLE_LOCK,
+
+	/** The engine using a global intention lock and per-book locks. */
+	TWO_LEVEL_LOCKING;
+
+	/**
+	 * Parses an engine type from its name, ignoring case and accepting '-' in
+	 * place of '_'.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the book store engine type
+	 * @throws IllegalArgumentException
+	 *             if the name does not denote a supported engine
+	 */
+	public static BookStoreEngineType parse(String name) {
+		String normalizedName = name.trim().replace('-', '_');
+
+		for (BookStoreEngineType type : values()) {
+			if (type.name().equalsIgnoreCase(normalizedName)) {
+				return type;
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported engine: " + name);
+	}
+}
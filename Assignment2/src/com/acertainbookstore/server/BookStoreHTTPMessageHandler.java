@@ -15,15 +15,15 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
-import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreMetrics;
 import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreSerializerType;
 import com.acertainbookstore.utils.BookStoreUtility;
 import com.esotericsoftware.kryo.io.Input;
 
@@ -44,25 +44,48 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The stock manager. */
 	private StockManager stockManager = null;
 
+	/** The Constant METRICS_PATH on which the metrics report is served. */
+	public static final String METRICS_PATH = "/metrics";
+
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** The per-thread timer of the request being handled. */
+	private static final ThreadLocal<RequestTimer> requestTimer = ThreadLocal.withInitial(RequestTimer::new);
+
+	/** The metrics. */
+	private final BookStoreMetrics metrics = BookStoreMetrics.getInstance();
+
 	/**
-	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} using the
+	 * serializer selected by the system properties.
 	 *
 	 * @param bookStore
 	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
 	 */
 	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
+		this(bookStore, stockManager, BookStoreSerializerType.fromSystemProperties());
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param serializerType
+	 *            the serializer type
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager,
+			BookStoreSerializerType serializerType) {
 		this.bookStore = bookStore;
 		this.stockManager = stockManager;
 
 		// Setup the type of serializer.
-		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
-		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
-		}
+		serializer = ThreadLocal.withInitial(serializerType::newSerializer);
 	}
 
 	/*
@@ -76,10 +99,18 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			throws IOException, ServletException {
 		BookStoreMessageTag messageTag;
 		String requestURI;
+		RequestTimer timer = requestTimer.get();
 
+		timer.start();
 		response.setStatus(HttpServletResponse.SC_OK);
 		requestURI = request.getRequestURI();
 
+		if (METRICS_PATH.equals(requestURI)) {
+			writeMetrics(response);
+			baseRequest.setHandled(true);
+			return;
+		}
+
 		// Need to do request multiplexing
 		if (!BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock")) {
 			// The request is from the store manager; more sophisticated.
@@ -140,10 +171,27 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			}
 		}
 
+		if (messageTag != null) {
+			timer.stop(messageTag);
+		}
+
 		// Mark the request as handled so that the HTTP response can be sent
 		baseRequest.setHandled(true);
 	}
 
+	/**
+	 * Writes the metrics report as plain text.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeMetrics(HttpServletResponse response) throws IOException {
+		response.setContentType("text/plain; charset=utf-8");
+		response.getOutputStream().write(metrics.getReport().getBytes(StandardCharsets.UTF_8));
+	}
+
 	/**
 	 * Gets the stock books by ISBN.
 	 *
@@ -156,9 +204,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> isbnSet = (Set<Integer>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -167,8 +213,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -192,8 +237,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -208,9 +252,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> isbnSet = (Set<Integer>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -219,8 +261,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -235,9 +276,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -246,8 +285,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -262,10 +300,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
+		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -274,8 +309,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -294,8 +328,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -310,9 +343,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> listBookCopies = (Set<BookCopy>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -321,8 +352,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -337,9 +367,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+		Set<StockBook> newBooks = (Set<StockBook>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -348,8 +376,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -369,8 +396,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(bookStoreResponse, response);
 	}
 
 	/**
@@ -385,9 +411,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	@SuppressWarnings("unchecked")
 	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		byte[] serializedRequestContent = getSerializedRequestContent(request);
-
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> bookSet = (Set<Integer>) deserializeRequest(request);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -396,8 +420,50 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
+		writeResponse(bookStoreResponse, response);
+	}
+
+	/**
+	 * Reads and deserializes the request content, recording its size and the
+	 * time it took.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the deserialized request content
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Object deserializeRequest(HttpServletRequest request) throws IOException {
+		RequestTimer timer = requestTimer.get();
+		long startTimeInNanoSecs = System.nanoTime();
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+		Object requestContent = serializer.get().deserialize(serializedRequestContent);
+
+		timer.deserializeNanos += System.nanoTime() - startTimeInNanoSecs;
+		timer.requestBytes += serializedRequestContent.length;
+		return requestContent;
+	}
+
+	/**
+	 * Serializes and writes the response, recording its size and the time it
+	 * took.
+	 *
+	 * @param bookStoreResponse
+	 *            the book store response
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeResponse(BookStoreResponse bookStoreResponse, HttpServletResponse response)
+			throws IOException {
+		RequestTimer timer = requestTimer.get();
+		long startTimeInNanoSecs = System.nanoTime();
 		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+
 		response.getOutputStream().write(serializedResponseContent);
+		timer.serializeNanos += System.nanoTime() - startTimeInNanoSecs;
+		timer.responseBytes += serializedResponseContent.length;
 	}
 
 	/**
@@ -413,4 +479,53 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		in.close();
 		return serializedRequestContent;
 	}
+
+	/**
+	 * {@link RequestTimer} accumulates the phases of the request handled by
+	 * the current thread. It is reused across requests so that timing does not
+	 * allocate.
+	 */
+	private static final class RequestTimer {
+
+		/** The start time of the request. */
+		private long startTimeInNanoSecs;
+
+		/** The time spent deserializing. */
+		private long deserializeNanos;
+
+		/** The time spent serializing. */
+		private long serializeNanos;
+
+		/** The request size. */
+		private long requestBytes;
+
+		/** The response size. */
+		private long responseBytes;
+
+		/**
+		 * Starts timing a new request.
+		 */
+		private void start() {
+			startTimeInNanoSecs = System.nanoTime();
+			deserializeNanos = 0;
+			serializeNanos = 0;
+			requestBytes = 0;
+			responseBytes = 0;
+		}
+
+		/**
+		 * Stops timing the request and records it. The time not spent
+		 * serializing or deserializing is attributed to execution.
+		 *
+		 * @param messageTag
+		 *            the message tag
+		 */
+		private void stop(BookStoreMessageTag messageTag) {
+			long totalNanos = System.nanoTime() - startTimeInNanoSecs;
+			long executeNanos = totalNanos - deserializeNanos - serializeNanos;
+
+			BookStoreMetrics.getInstance().recordRequest(messageTag, deserializeNanos, executeNanos, serializeNanos,
+					requestBytes, responseBytes);
+		}
+	}
 }
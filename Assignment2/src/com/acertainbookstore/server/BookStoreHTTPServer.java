@@ -1,27 +1,22 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+
+import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 
+import com.acertainbookstore.utils.BookStoreMetrics;
+
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
-import com.acertainbookstore.utils.BookStoreConstants;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
- * with.
+ * with. The engine, serializer and thread pool are chosen at startup, cf.
+ * {@link BookStoreServerConfiguration}.
  */
 public class BookStoreHTTPServer {
 
-	/** The Constant defaultListenOnPort. */
-	private static final int DEFAULT_PORT = 8081;
-	private static final int MIN_THREADPOOL_SIZE = 10;
-	private static final int MAX_THREADPOOL_SIZE = 100;
-	
-	/** The constant, defining which locking scheme implementation to use
-	 *  true - single lock 
-	 *  false - two-level locking */
-	private static final boolean SINGLE_LOCK = true;
-
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -36,31 +31,48 @@ public class BookStoreHTTPServer {
 	 *            the arguments
 	 */
 	public static void main(String[] args) {
-		int listenOnPort = DEFAULT_PORT;
-		
-		BookStoreHTTPMessageHandler handler = null;
-		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
-		
-		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
+		BookStoreServerConfiguration config;
 
-		if (serverPortString != null) {
-			try {
-				listenOnPort = Integer.parseInt(serverPortString);
-			} catch (NumberFormatException ex) {
-				System.err.println("Unsupported message tag");
-			}
+		try {
+			config = BookStoreServerConfiguration.load();
+		} catch (IOException | IllegalArgumentException ex) {
+			System.err.println("Invalid server configuration: " + ex.getMessage());
+			System.exit(1);
+			return;
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
-		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
+		System.out.println("Starting the book store server with:\n" + config);
+
+		BookStoreMetrics.registerMBean();
+		BookStoreHTTPMessageHandler handler = createHandler(config);
+		QueuedThreadPool threadpool = new QueuedThreadPool(config.getMaxThreadPoolSize(),
+				config.getMinThreadPoolSize(), config.getThreadPoolIdleTimeout());
+		BookStoreHTTPServerUtility.createServer(config.getPort(), handler, threadpool);
+	}
+
+	/**
+	 * Creates the message handler for the configured engine and serializer.
+	 *
+	 * @param config
+	 *            the configuration
+	 * @return the book store HTTP message handler
+	 */
+	public static BookStoreHTTPMessageHandler createHandler(BookStoreServerConfiguration config) {
+		/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+		 * since it implements both interfaces: BookStore and StockManager */
+		switch (config.getEngine()) {
+		case SYNCHRONIZED:
+			CertainBookStore synchronizedStore = new CertainBookStore();
+			return new BookStoreHTTPMessageHandler(synchronizedStore, synchronizedStore, config.getSerializer());
+
+		case TWO_LEVEL_LOCKING:
+			TwoLevelLockingConcurrentCertainBookStore twoLevelStore = new TwoLevelLockingConcurrentCertainBookStore();
+			return new BookStoreHTTPMessageHandler(twoLevelStore, twoLevelStore, config.getSerializer());
+
+		case SINGLE_LOCK:
+		default:
+			SingleLockConcurrentCertainBookStore singleLockStore = new SingleLockConcurrentCertainBookStore();
+			return new BookStoreHTTPMessageHandler(singleLockStore, singleLockStore, config.getSerializer());
+		}
 	}
 }
@@ -0,0 +1,292 @@
+package com.acertainbookstore.server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreSerializerType;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link BookStoreServerConfiguration} holds the settings the
+ * {@link BookStoreHTTPServer} is started with. Settings are resolved from, in
+ * increasing order of precedence, the built-in defaults, the properties file
+ * named by the {@link BookStoreConstants#PROPERTY_KEY_SERVER_CONFIG} system
+ * property and the individual system properties.
+ */
+public final class BookStoreServerConfiguration {
+
+	/** The Constant DEFAULT_PORT. */
+	public static final int DEFAULT_PORT = 8081;
+
+	/** The Constant DEFAULT_MIN_THREADPOOL_SIZE. */
+	public static final int DEFAULT_MIN_THREADPOOL_SIZE = 10;
+
+	/** The Constant DEFAULT_MAX_THREADPOOL_SIZE. */
+	public static final int DEFAULT_MAX_THREADPOOL_SIZE = 100;
+
+	/** The Constant DEFAULT_THREADPOOL_IDLE_TIMEOUT in milliseconds. */
+	public static final int DEFAULT_THREADPOOL_IDLE_TIMEOUT = 60000;
+
+	/** The Constant DEFAULT_ENGINE. */
+	public static final BookStoreEngineType DEFAULT_ENGINE = BookStoreEngineType.SINGLE_LOCK;
+
+	/** The port. */
+	private final int port;
+
+	/** The engine. */
+	private final BookStoreEngineType engine;
+
+	/** The serializer. */
+	private final BookStoreSerializerType serializer;
+
+	/** The minimum thread pool size. */
+	private final int minThreadPoolSize;
+
+	/** The maximum thread pool size. */
+	private final int maxThreadPoolSize;
+
+	/** The thread pool idle timeout in milliseconds. */
+	private final int threadPoolIdleTimeout;
+
+	/**
+	 * Instantiates a new {@link BookStoreServerConfiguration} from a set of
+	 * properties. Missing properties take their default value.
+	 *
+	 * @param properties
+	 *            the properties
+	 * @throws IllegalArgumentException
+	 *             if a property has an invalid value
+	 */
+	public BookStoreServerConfiguration(Properties properties) {
+		this.port = getInt(properties, BookStoreConstants.PROPERTY_KEY_SERVER_PORT, DEFAULT_PORT);
+		this.engine = getEngine(properties);
+		this.serializer = getSerializer(properties);
+		this.minThreadPoolSize = getInt(properties, BookStoreConstants.PROPERTY_KEY_MIN_THREADPOOL_SIZE,
+				DEFAULT_MIN_THREADPOOL_SIZE);
+		this.maxThreadPoolSize = getInt(properties, BookStoreConstants.PROPERTY_KEY_MAX_THREADPOOL_SIZE,
+				DEFAULT_MAX_THREADPOOL_SIZE);
+		this.threadPoolIdleTimeout = getInt(properties, BookStoreConstants.PROPERTY_KEY_THREADPOOL_IDLE_TIMEOUT,
+				DEFAULT_THREADPOOL_IDLE_TIMEOUT);
+
+		validate();
+	}
+
+	/**
+	 * Loads the configuration from the properties file, if any, and the system
+	 * properties.
+	 *
+	 * @return the book store server configuration
+	 * @throws IOException
+	 *             Signals that the properties file could not be read.
+	 * @throws IllegalArgumentException
+	 *             if a property has an invalid value
+	 */
+	public static BookStoreServerConfiguration load() throws IOException {
+		Properties properties = new Properties();
+		String configFile = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_CONFIG);
+
+		if (!BookStoreUtility.isEmpty(configFile)) {
+			try (InputStream in = new FileInputStream(configFile)) {
+				properties.load(in);
+			}
+		}
+
+		// System properties override the ones read from the file.
+		for (String key : System.getProperties().stringPropertyNames()) {
+			properties.setProperty(key, System.getProperty(key));
+		}
+
+		return new BookStoreServerConfiguration(properties);
+	}
+
+	/**
+	 * Gets the port.
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Gets the engine.
+	 *
+	 * @return the engine
+	 */
+	public BookStoreEngineType getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Gets the serializer.
+	 *
+	 * @return the serializer
+	 */
+	public BookStoreSerializerType getSerializer() {
+		return serializer;
+	}
+
+	/**
+	 * Gets the minimum thread pool size.
+	 *
+	 * @return the minimum thread pool size
+	 */
+	public int getMinThreadPoolSize() {
+		return minThreadPoolSize;
+	}
+
+	/**
+	 * Gets the maximum thread pool size.
+	 *
+	 * @return the maximum thread pool size
+	 */
+	public int getMaxThreadPoolSize() {
+		return maxThreadPoolSize;
+	}
+
+	/**
+	 * Gets the thread pool idle timeout in milliseconds.
+	 *
+	 * @return the thread pool idle timeout
+	 */
+	public int getThreadPoolIdleTimeout() {
+		return threadPoolIdleTimeout;
+	}
+
+	/**
+	 * Returns the effective settings, one per line.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return BookStoreConstants.PROPERTY_KEY_SERVER_PORT + " = " + port + "\n"
+				+ BookStoreConstants.PROPERTY_KEY_ENGINE + " = " + engine + "\n"
+				+ BookStoreConstants.PROPERTY_KEY_SERIALIZER + " = " + serializer + "\n"
+				+ BookStoreConstants.PROPERTY_KEY_MIN_THREADPOOL_SIZE + " = " + minThreadPoolSize + "\n"
+				+ BookStoreConstants.PROPERTY_KEY_MAX_THREADPOOL_SIZE + " = " + maxThreadPoolSize + "\n"
+				+ BookStoreConstants.PROPERTY_KEY_THREADPOOL_IDLE_TIMEOUT + " = " + threadPoolIdleTimeout;
+	}
+
+	/**
+	 * Checks that the settings are consistent with each other.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if they are not
+	 */
+	private void validate() {
+		if (port < 1 || port > 65535) {
+			throw new IllegalArgumentException(BookStoreConstants.PROPERTY_KEY_SERVER_PORT + " = " + port
+					+ BookStoreConstants.INVALID);
+		}
+
+		if (minThreadPoolSize < 1) {
+			throw new IllegalArgumentException(BookStoreConstants.PROPERTY_KEY_MIN_THREADPOOL_SIZE + " = "
+					+ minThreadPoolSize + BookStoreConstants.INVALID);
+		}
+
+		if (maxThreadPoolSize < minThreadPoolSize) {
+			throw new IllegalArgumentException(BookStoreConstants.PROPERTY_KEY_MAX_THREADPOOL_SIZE + " = "
+					+ maxThreadPoolSize + " is smaller than " + BookStoreConstants.PROPERTY_KEY_MIN_THREADPOOL_SIZE
+					+ " = " + minThreadPoolSize);
+		}
+
+		if (threadPoolIdleTimeout < 0) {
+			throw new IllegalArgumentException(BookStoreConstants.PROPERTY_KEY_THREADPOOL_IDLE_TIMEOUT + " = "
+					+ threadPoolIdleTimeout + BookStoreConstants.INVALID);
+		}
+	}
+
+	/**
+	 * Gets the engine, falling back to the legacy
+	 * {@link BookStoreConstants#PROPERTY_KEY_SINGLE_LOCK} switch when no
+	 * engine is named.
+	 *
+	 * @param properties
+	 *            the properties
+	 * @return the engine
+	 */
+	private static BookStoreEngineType getEngine(Properties properties) {
+		String engineProperty = properties.getProperty(BookStoreConstants.PROPERTY_KEY_ENGINE);
+
+		if (!BookStoreUtility.isEmpty(engineProperty)) {
+			return BookStoreEngineType.parse(engineProperty);
+		}
+
+		String singleLockProperty = properties.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
+
+		if (!BookStoreUtility.isEmpty(singleLockProperty)) {
+			return getBoolean(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK, singleLockProperty)
+					? BookStoreEngineType.SINGLE_LOCK
+					: BookStoreEngineType.TWO_LEVEL_LOCKING;
+		}
+
+		return DEFAULT_ENGINE;
+	}
+
+	/**
+	 * Gets the serializer, defaulting to the one clients use.
+	 *
+	 * @param properties
+	 *            the properties
+	 * @return the serializer
+	 */
+	private static BookStoreSerializerType getSerializer(Properties properties) {
+		String serializerProperty = properties.getProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER);
+
+		if (!BookStoreUtility.isEmpty(serializerProperty)) {
+			return BookStoreSerializerType.parse(serializerProperty);
+		}
+
+		return BookStoreSerializerType.fromSystemProperties();
+	}
+
+	/**
+	 * Gets an integer property.
+	 *
+	 * @param properties
+	 *            the properties
+	 * @param key
+	 *            the key
+	 * @param defaultValue
+	 *            the default value
+	 * @return the integer
+	 */
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+
+		if (BookStoreUtility.isEmpty(value)) {
+			return defaultValue;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(key + " = " + value + BookStoreConstants.INVALID, ex);
+		}
+	}
+
+	/**
+	 * Parses a boolean property strictly, rejecting anything but true/false.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the boolean
+	 */
+	private static boolean getBoolean(String key, String value) {
+		String trimmedValue = value.trim();
+
+		if ("true".equalsIgnoreCase(trimmedValue)) {
+			return true;
+		} else if ("false".equalsIgnoreCase(trimmedValue)) {
+			return false;
+		}
+
+		throw new IllegalArgumentException(key + " = " + value + BookStoreConstants.INVALID);
+	}
+}
@@ -63,6 +63,24 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_SERVER_CONFIG naming the server properties file. */
+	public static final String PROPERTY_KEY_SERVER_CONFIG = "config";
+
+	/** The Constant PROPERTY_KEY_ENGINE. */
+	public static final String PROPERTY_KEY_ENGINE = "engine";
+
+	/** The Constant PROPERTY_KEY_SERIALIZER. */
+	public static final String PROPERTY_KEY_SERIALIZER = "serializer";
+
+	/** The Constant PROPERTY_KEY_MIN_THREADPOOL_SIZE. */
+	public static final String PROPERTY_KEY_MIN_THREADPOOL_SIZE = "threadpool.min";
+
+	/** The Constant PROPERTY_KEY_MAX_THREADPOOL_SIZE. */
+	public static final String PROPERTY_KEY_MAX_THREADPOOL_SIZE = "threadpool.max";
+
+	/** The Constant PROPERTY_KEY_THREADPOOL_IDLE_TIMEOUT in milliseconds. */
+	public static final String PROPERTY_KEY_THREADPOOL_IDLE_TIMEOUT = "threadpool.idletimeout";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,197 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link BookStoreHistogram} records non-negative values, such as latencies in
+ * nanoseconds or sizes in bytes, into log-linear buckets in the style of
+ * HdrHistogram. Every power of two is split into {@value #SUB_BUCKET_COUNT}
+ * buckets, so reported values are within about 3% of the recorded ones.
+ * Recording is thread-safe, lock-free and does not allocate.
+ */
+public final class BookStoreHistogram {
+
+	/** The Constant SUB_BUCKET_BITS. */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** The Constant SUB_BUCKET_COUNT, the buckets per power of two. */
+	public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** The Constant LINEAR_LIMIT below which every value has its own bucket. */
+	private static final long LINEAR_LIMIT = 2L * SUB_BUCKET_COUNT;
+
+	/** The Constant BUCKET_COUNT covering the whole range of long. */
+	private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+	/** The bucket counts. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/** The number of recorded values. */
+	private final AtomicLong totalCount = new AtomicLong();
+
+	/** The sum of the recorded values. */
+	private final AtomicLong totalSum = new AtomicLong();
+
+	/** The largest recorded value. */
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	public void record(long value) {
+		long nonNegativeValue = Math.max(value, 0);
+
+		counts.incrementAndGet(bucketIndex(nonNegativeValue));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(nonNegativeValue);
+
+		long currentMax = maxValue.get();
+
+		while (nonNegativeValue > currentMax && !maxValue.compareAndSet(currentMax, nonNegativeValue)) {
+			currentMax = maxValue.get();
+		}
+	}
+
+	/**
+	 * Adds the values recorded by another histogram. Concurrent recordings
+	 * into the other histogram may or may not be added.
+	 *
+	 * @param other
+	 *            the other histogram
+	 */
+	public void add(BookStoreHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long count = other.counts.get(i);
+
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+
+		totalCount.addAndGet(other.totalCount.get());
+		totalSum.addAndGet(other.totalSum.get());
+
+		long otherMax = other.maxValue.get();
+		long currentMax = maxValue.get();
+
+		while (otherMax > currentMax && !maxValue.compareAndSet(currentMax, otherMax)) {
+			currentMax = maxValue.get();
+		}
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 *
+	 * @return the max
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 *
+	 * @return the mean, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Gets the value at the given percentile, i.e. the highest value
+	 * equivalent to the bucket in which the percentile falls. Concurrent
+	 * recordings may or may not be reflected.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the value, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Gets the bucket a non-negative value falls into.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the bucket index
+	 */
+	private static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return (int) LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * Gets the highest value that falls into a bucket.
+	 *
+	 * @param index
+	 *            the bucket index
+	 * @return the value
+	 */
+	private static long highestEquivalentValue(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+
+		int offset = index - (int) LINEAR_LIMIT;
+		int shift = offset / SUB_BUCKET_COUNT + 1;
+		long mantissa = SUB_BUCKET_COUNT + offset % SUB_BUCKET_COUNT;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,20 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreLockType} implements the kinds of lock acquisitions whose
+ * wait times the store engines report to {@link BookStoreMetrics}.
+ */
+public enum BookStoreLockType {
+
+	/** The shared mode of the store-wide lock. */
+	GLOBAL_READ,
+
+	/** The exclusive mode of the store-wide lock. */
+	GLOBAL_WRITE,
+
+	/** The shared mode of a per-book lock. */
+	BOOK_READ,
+
+	/** The exclusive mode of a per-book lock. */
+	BOOK_WRITE;
+}
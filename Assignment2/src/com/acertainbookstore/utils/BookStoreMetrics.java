@@ -0,0 +1,436 @@
+package com.acertainbookstore.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link BookStoreMetrics} collects the performance metrics of the book store
+ * server: per-message latencies split into deserialization, execution and
+ * serialization, request and response sizes, lock wait times and sale misses.
+ * All recording methods are lock-free and allocation-free so that they can be
+ * called on every request. One instance is shared by the whole process.
+ *
+ * Lock waits are recorded on every lock acquisition, so every thread records
+ * them into the histograms of its own stripe, which are merged when the
+ * metrics are read. Threads acquiring different book locks then do not write
+ * to the same counters.
+ */
+public final class BookStoreMetrics implements BookStoreMetricsMBean {
+
+	/** The Constant MBEAN_NAME. */
+	public static final String MBEAN_NAME = "com.acertainbookstore:type=BookStoreMetrics";
+
+	/** The Constant NANOS_PER_MICRO. */
+	private static final double NANOS_PER_MICRO = 1000.0;
+
+	/** The Constant REPORTED_PERCENTILES. */
+	private static final double[] REPORTED_PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 100.0 };
+
+	/** The Constant REPORTED_QUANTILES labelling REPORTED_PERCENTILES. */
+	private static final String[] REPORTED_QUANTILES = { "0.5", "0.9", "0.99", "0.999", "1" };
+
+	/** The Constant LOCK_STRIPES, a power of two. */
+	private static final int LOCK_STRIPES = Math.min(64,
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+
+	/** The Constant INSTANCE. */
+	private static final BookStoreMetrics INSTANCE = new BookStoreMetrics();
+
+	/** The end-to-end latencies, indexed by message tag ordinal. */
+	private final BookStoreHistogram[] latencies = newHistograms(BookStoreMessageTag.values().length);
+
+	/** The deserialization times, indexed by message tag ordinal. */
+	private final BookStoreHistogram[] deserializeTimes = newHistograms(BookStoreMessageTag.values().length);
+
+	/** The execution times, indexed by message tag ordinal. */
+	private final BookStoreHistogram[] executeTimes = newHistograms(BookStoreMessageTag.values().length);
+
+	/** The serialization times, indexed by message tag ordinal. */
+	private final BookStoreHistogram[] serializeTimes = newHistograms(BookStoreMessageTag.values().length);
+
+	/** The request sizes, indexed by message tag ordinal. */
+	private final BookStoreHistogram[] requestSizes = newHistograms(BookStoreMessageTag.values().length);
+
+	/** The response sizes, indexed by message tag ordinal. */
+	private final BookStoreHistogram[] responseSizes = newHistograms(BookStoreMessageTag.values().length);
+
+	/** The lock wait times, indexed by stripe and lock type ordinal. */
+	private final BookStoreHistogram[][] lockWaits = new BookStoreHistogram[LOCK_STRIPES][];
+
+	/** The contended lock acquisitions, indexed by lock type ordinal. */
+	private final LongAdder[] lockConflicts = new LongAdder[BookStoreLockType.values().length];
+
+	/** The sale misses. */
+	private final LongAdder saleMisses = new LongAdder();
+
+	/**
+	 * Prevents the instantiation of a new {@link BookStoreMetrics}.
+	 */
+	private BookStoreMetrics() {
+		for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+			lockWaits[stripe] = newHistograms(BookStoreLockType.values().length);
+		}
+
+		for (int i = 0; i < lockConflicts.length; i++) {
+			lockConflicts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Gets the metrics of this process.
+	 *
+	 * @return the book store metrics
+	 */
+	public static BookStoreMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. Failures are
+	 * reported but do not prevent the server from running.
+	 */
+	public static void registerMBean() {
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			ObjectName objectName = new ObjectName(MBEAN_NAME);
+
+			if (!mBeanServer.isRegistered(objectName)) {
+				mBeanServer.registerMBean(INSTANCE, objectName);
+			}
+		} catch (JMException ex) {
+			System.err.println("Could not register " + MBEAN_NAME + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Records a handled request.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param deserializeNanos
+	 *            the time spent deserializing the request
+	 * @param executeNanos
+	 *            the time spent in the store
+	 * @param serializeNanos
+	 *            the time spent serializing the response
+	 * @param requestBytes
+	 *            the size of the request body
+	 * @param responseBytes
+	 *            the size of the response body
+	 */
+	public void recordRequest(BookStoreMessageTag messageTag, long deserializeNanos, long executeNanos,
+			long serializeNanos, long requestBytes, long responseBytes) {
+		int index = messageTag.ordinal();
+
+		latencies[index].record(deserializeNanos + executeNanos + serializeNanos);
+		deserializeTimes[index].record(deserializeNanos);
+		executeTimes[index].record(executeNanos);
+		serializeTimes[index].record(serializeNanos);
+		requestSizes[index].record(requestBytes);
+		responseSizes[index].record(responseBytes);
+	}
+
+	/**
+	 * Acquires a lock, recording how long the caller waited for it. The first
+	 * attempt is a tryLock with no timeout, which unlike tryLock() honours the
+	 * queueing policy of the lock as lock() does: a reader does not barge past
+	 * a queued writer. Only when it fails is the wait timed, and counted as a
+	 * conflict.
+	 *
+	 * @param lock
+	 *            the lock
+	 * @param lockType
+	 *            the lock type
+	 */
+	public void lock(Lock lock, BookStoreLockType lockType) {
+		BookStoreHistogram lockWait = lockWaits[(int) Thread.currentThread().getId() & (LOCK_STRIPES - 1)][lockType
+				.ordinal()];
+
+		try {
+			if (lock.tryLock(0, TimeUnit.NANOSECONDS)) {
+				lockWait.record(0);
+				return;
+			}
+		} catch (InterruptedException ex) {
+			// lock() ignores interrupts, so the thread keeps its status
+			Thread.currentThread().interrupt();
+		}
+
+		long startTimeInNanoSecs = System.nanoTime();
+		lock.lock();
+		lockWait.record(System.nanoTime() - startTimeInNanoSecs);
+		lockConflicts[lockType.ordinal()].increment();
+	}
+
+	/**
+	 * Records a purchase rejected because copies were missing.
+	 */
+	public void recordSaleMiss() {
+		saleMisses.increment();
+	}
+
+	/**
+	 * Gets the end-to-end latency histogram of a message.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @return the histogram, in nanoseconds
+	 */
+	public BookStoreHistogram getLatency(BookStoreMessageTag messageTag) {
+		return latencies[messageTag.ordinal()];
+	}
+
+	/**
+	 * Gets the lock wait histogram of a lock type, merged from the stripes.
+	 *
+	 * @param lockType
+	 *            the lock type
+	 * @return the histogram, in nanoseconds
+	 */
+	public BookStoreHistogram getLockWait(BookStoreLockType lockType) {
+		BookStoreHistogram lockWait = new BookStoreHistogram();
+
+		for (BookStoreHistogram[] stripe : lockWaits) {
+			lockWait.add(stripe[lockType.ordinal()]);
+		}
+
+		return lockWait;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.utils.BookStoreMetricsMBean#getRequestCount()
+	 */
+	@Override
+	public long getRequestCount() {
+		long count = 0;
+
+		for (BookStoreHistogram latency : latencies) {
+			count += latency.getCount();
+		}
+
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.utils.BookStoreMetricsMBean#getSaleMisses()
+	 */
+	@Override
+	public long getSaleMisses() {
+		return saleMisses.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.utils.BookStoreMetricsMBean#getLockConflicts()
+	 */
+	@Override
+	public long getLockConflicts() {
+		long conflicts = 0;
+
+		for (LongAdder lockConflict : lockConflicts) {
+			conflicts += lockConflict.sum();
+		}
+
+		return conflicts;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.utils.BookStoreMetricsMBean#getLatencyMicros(java.
+	 * lang.String, double)
+	 */
+	@Override
+	public double getLatencyMicros(String messageTag, double percentile) {
+		BookStoreMessageTag tag = BookStoreMessageTag.valueOf(messageTag.toUpperCase(Locale.ROOT));
+		return getLatency(tag).getValueAtPercentile(percentile) / NANOS_PER_MICRO;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.utils.BookStoreMetricsMBean#getLockWaitMicros(java.
+	 * lang.String, double)
+	 */
+	@Override
+	public double getLockWaitMicros(String lockType, double percentile) {
+		BookStoreLockType type = BookStoreLockType.valueOf(lockType.toUpperCase(Locale.ROOT));
+		return getLockWait(type).getValueAtPercentile(percentile) / NANOS_PER_MICRO;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.utils.BookStoreMetricsMBean#getReport()
+	 */
+	@Override
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+
+		report.append("# Latencies in microseconds, sizes in bytes.\n");
+
+		for (BookStoreMessageTag tag : BookStoreMessageTag.values()) {
+			int index = tag.ordinal();
+
+			if (latencies[index].getCount() == 0) {
+				continue;
+			}
+
+			String labels = "tag=\"" + tag + "\"";
+			appendCount(report, "bookstore_requests_total", labels, latencies[index].getCount());
+			appendTimes(report, "bookstore_request_latency_us", labels + ",phase=\"total\"", latencies[index]);
+			appendTimes(report, "bookstore_request_latency_us", labels + ",phase=\"deserialize\"",
+					deserializeTimes[index]);
+			appendTimes(report, "bookstore_request_latency_us", labels + ",phase=\"execute\"", executeTimes[index]);
+			appendTimes(report, "bookstore_request_latency_us", labels + ",phase=\"serialize\"",
+					serializeTimes[index]);
+			appendSizes(report, "bookstore_request_bytes", labels, requestSizes[index]);
+			appendSizes(report, "bookstore_response_bytes", labels, responseSizes[index]);
+		}
+
+		for (BookStoreLockType lockType : BookStoreLockType.values()) {
+			BookStoreHistogram lockWait = getLockWait(lockType);
+
+			if (lockWait.getCount() == 0) {
+				continue;
+			}
+
+			String labels = "lock=\"" + lockType + "\"";
+			appendCount(report, "bookstore_lock_acquisitions_total", labels, lockWait.getCount());
+			appendCount(report, "bookstore_lock_conflicts_total", labels, lockConflicts[lockType.ordinal()].sum());
+			appendTimes(report, "bookstore_lock_wait_us", labels, lockWait);
+		}
+
+		appendCount(report, "bookstore_sale_misses_total", null, saleMisses.sum());
+		return report.toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.utils.BookStoreMetricsMBean#reset()
+	 */
+	@Override
+	public void reset() {
+		for (BookStoreHistogram[] histograms : new BookStoreHistogram[][] { latencies, deserializeTimes,
+				executeTimes, serializeTimes, requestSizes, responseSizes }) {
+			for (BookStoreHistogram histogram : histograms) {
+				histogram.reset();
+			}
+		}
+
+		for (BookStoreHistogram[] stripe : lockWaits) {
+			for (BookStoreHistogram histogram : stripe) {
+				histogram.reset();
+			}
+		}
+
+		for (LongAdder lockConflict : lockConflicts) {
+			lockConflict.reset();
+		}
+
+		saleMisses.reset();
+	}
+
+	/**
+	 * Appends a counter to the report.
+	 *
+	 * @param report
+	 *            the report
+	 * @param name
+	 *            the metric name
+	 * @param labels
+	 *            the labels, or null
+	 * @param value
+	 *            the value
+	 */
+	private static void appendCount(StringBuilder report, String name, String labels, long value) {
+		report.append(name);
+
+		if (labels != null) {
+			report.append('{').append(labels).append('}');
+		}
+
+		report.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Appends the percentiles and mean of a histogram of nanoseconds to the
+	 * report, in microseconds.
+	 *
+	 * @param report
+	 *            the report
+	 * @param name
+	 *            the metric name
+	 * @param labels
+	 *            the labels
+	 * @param histogram
+	 *            the histogram
+	 */
+	private static void appendTimes(StringBuilder report, String name, String labels, BookStoreHistogram histogram) {
+		for (int i = 0; i < REPORTED_PERCENTILES.length; i++) {
+			report.append(name).append('{').append(labels).append(",quantile=\"").append(REPORTED_QUANTILES[i])
+					.append("\"} ")
+					.append(String.format(Locale.ROOT, "%.1f",
+							histogram.getValueAtPercentile(REPORTED_PERCENTILES[i]) / NANOS_PER_MICRO))
+					.append('\n');
+		}
+
+		report.append(name).append("_mean{").append(labels).append("} ")
+				.append(String.format(Locale.ROOT, "%.1f", histogram.getMean() / NANOS_PER_MICRO)).append('\n');
+	}
+
+	/**
+	 * Appends the percentiles and mean of a histogram of sizes to the report.
+	 *
+	 * @param report
+	 *            the report
+	 * @param name
+	 *            the metric name
+	 * @param labels
+	 *            the labels
+	 * @param histogram
+	 *            the histogram
+	 */
+	private static void appendSizes(StringBuilder report, String name, String labels, BookStoreHistogram histogram) {
+		for (int i = 0; i < REPORTED_PERCENTILES.length; i++) {
+			report.append(name).append('{').append(labels).append(",quantile=\"").append(REPORTED_QUANTILES[i])
+					.append("\"} ").append(histogram.getValueAtPercentile(REPORTED_PERCENTILES[i])).append('\n');
+		}
+
+		report.append(name).append("_mean{").append(labels).append("} ")
+				.append(String.format(Locale.ROOT, "%.1f", histogram.getMean())).append('\n');
+	}
+
+	/**
+	 * Creates an array of empty histograms.
+	 *
+	 * @param size
+	 *            the size
+	 * @return the histograms
+	 */
+	private static BookStoreHistogram[] newHistograms(int size) {
+		BookStoreHistogram[] histograms = new BookStoreHistogram[size];
+
+		for (int i = 0; i < size; i++) {
+			histograms[i] = new BookStoreHistogram();
+		}
+
+		return histograms;
+	}
+}
@@ -0,0 +1,65 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreMetricsMBean} declares the view of {@link BookStoreMetrics}
+ * exposed through JMX.
+ *
+ * @see BookStoreMetrics
+ */
+public interface BookStoreMetricsMBean {
+
+	/**
+	 * Gets the number of requests handled.
+	 *
+	 * @return the request count
+	 */
+	public long getRequestCount();
+
+	/**
+	 * Gets the number of purchases rejected because copies were missing.
+	 *
+	 * @return the sale misses
+	 */
+	public long getSaleMisses();
+
+	/**
+	 * Gets the number of lock acquisitions that had to wait.
+	 *
+	 * @return the lock conflicts
+	 */
+	public long getLockConflicts();
+
+	/**
+	 * Gets the latency of a message at the given percentile.
+	 *
+	 * @param messageTag
+	 *            the name of the message tag
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the latency in microseconds
+	 */
+	public double getLatencyMicros(String messageTag, double percentile);
+
+	/**
+	 * Gets the lock wait time of a lock type at the given percentile.
+	 *
+	 * @param lockType
+	 *            the name of the lock type
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the wait time in microseconds
+	 */
+	public double getLockWaitMicros(String lockType, double percentile);
+
+	/**
+	 * Gets all metrics in the text format served on the metrics endpoint.
+	 *
+	 * @return the report
+	 */
+	public String getReport();
+
+	/**
+	 * Clears all metrics.
+	 */
+	public void reset();
+}
@@ -0,0 +1,72 @@
+package com.acertainbookstore.utils;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreSerializerType} implements the serialization formats
+ * supported on the wire. Server and clients must agree on the same type.
+ *
+ * @see BookStoreSerializer
+ */
+public enum BookStoreSerializerType {
+
+	/** The binary serialization using Kryo. */
+	KRYO,
+
+	/** The XML serialization using XStream. */
+	XSTREAM;
+
+	/**
+	 * Creates a new serializer of this type. Serializers are not thread-safe,
+	 * so callers keep one per thread.
+	 *
+	 * @return the book store serializer
+	 */
+	public BookStoreSerializer newSerializer() {
+		switch (this) {
+		case XSTREAM:
+			return new BookStoreXStreamSerializer();
+
+		case KRYO:
+		default:
+			return new BookStoreKryoSerializer();
+		}
+	}
+
+	/**
+	 * Parses a serializer type from its name, ignoring case.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the book store serializer type
+	 * @throws IllegalArgumentException
+	 *             if the name does not denote a supported serializer
+	 */
+	public static BookStoreSerializerType parse(String name) {
+		for (BookStoreSerializerType type : values()) {
+			if (type.name().equalsIgnoreCase(name.trim())) {
+				return type;
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported serializer: " + name);
+	}
+
+	/**
+	 * Gets the serializer type selected by the
+	 * {@link BookStoreConstants#PROPERTY_KEY_SERIALIZER} system property, or
+	 * the one implied by {@link BookStoreConstants#BINARY_SERIALIZATION} when
+	 * the property is not set.
+	 *
+	 * @return the book store serializer type
+	 */
+	public static BookStoreSerializerType fromSystemProperties() {
+		String serializerProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERIALIZER);
+
+		if (!BookStoreUtility.isEmpty(serializerProperty)) {
+			return parse(serializerProperty);
+		}
+
+		return BookStoreConstants.BINARY_SERIALIZATION ? KRYO : XSTREAM;
+	}
+}
@@ -0,0 +1,204 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link BookLockSet} holds the books an operation of the
+ * {@link TwoLevelLockingConcurrentCertainBookStore} touches, each with the
+ * argument of the operation for it, and takes their locks by increasing ISBN
+ * to avoid deadlocks. Every thread reuses its own set, whose arrays only grow,
+ * so that an operation on books allocates no lists, boxed ISBNs or maps once
+ * the thread has run an operation as large.
+ *
+ * A thread uses one set at a time: an operation gets the set, adds its books,
+ * locks them and unlocks them before it returns, and calls no code that could
+ * get the set again meanwhile.
+ */
+final class BookLockSet {
+
+	/** The Constant INITIAL_CAPACITY, the books of a set before it grows. */
+	private static final int INITIAL_CAPACITY = 8;
+
+	/** The Constant INDEX_MASK, the low bits of a key holding the index. */
+	private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+	/** The set of every thread. */
+	private static final ThreadLocal<BookLockSet> LOCK_SETS = ThreadLocal.withInitial(BookLockSet::new);
+
+	/** The keys sorting the books, the ISBN in the high bits and the index in the low bits. */
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	/** The books, in the order they were added. */
+	private BookStoreBook[] books = new BookStoreBook[INITIAL_CAPACITY];
+
+	/** The arguments of the operation for the books, in the order they were added. */
+	private int[] values = new int[INITIAL_CAPACITY];
+
+	/** The stamps of the held locks, in the order they were locked. */
+	private long[] stamps = new long[INITIAL_CAPACITY];
+
+	/** The number of books. */
+	private int size = 0;
+
+	/** The number of held locks. */
+	private int numLocked = 0;
+
+	/** Whether the held locks are write locks. */
+	private boolean exclusive = false;
+
+	/**
+	 * Instantiates a new {@link BookLockSet}.
+	 */
+	private BookLockSet() {
+		// Use get().
+	}
+
+	/**
+	 * Gets the set of the current thread, emptied.
+	 *
+	 * @return the set
+	 */
+	static BookLockSet get() {
+		BookLockSet lockSet = LOCK_SETS.get();
+		lockSet.size = 0;
+		lockSet.numLocked = 0;
+		return lockSet;
+	}
+
+	/**
+	 * Adds a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @param value
+	 *            the argument of the operation for the book
+	 */
+	void add(BookStoreBook book, int value) {
+		if (size == books.length) {
+			grow();
+		}
+
+		keys[size] = ((long) book.getISBN() << 32) | size;
+		books[size] = book;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets a book.
+	 *
+	 * @param index
+	 *            the index of the book, in the order they were added
+	 * @return the book
+	 */
+	BookStoreBook getBook(int index) {
+		return books[index];
+	}
+
+	/**
+	 * Gets the argument of the operation for a book.
+	 *
+	 * @param index
+	 *            the index of the book, in the order they were added
+	 * @return the argument
+	 */
+	int getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Sets the argument of the operation for a book.
+	 *
+	 * @param index
+	 *            the index of the book, in the order they were added
+	 * @param value
+	 *            the argument
+	 */
+	void setValue(int index, int value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Takes the write locks of the books by increasing ISBN.
+	 */
+	void lockExclusively() {
+		lock(true);
+	}
+
+	/**
+	 * Takes the read locks of the books by increasing ISBN.
+	 */
+	void lockShared() {
+		lock(false);
+	}
+
+	/**
+	 * Releases the held locks, in the reverse order they were taken, and
+	 * forgets the books so that the set does not keep removed books alive.
+	 */
+	void unlock() {
+		while (numLocked > 0) {
+			numLocked--;
+			StampedLock lock = books[(int) (keys[numLocked] & INDEX_MASK)].getLock();
+
+			if (exclusive) {
+				lock.unlockWrite(stamps[numLocked]);
+			} else {
+				lock.unlockRead(stamps[numLocked]);
+			}
+		}
+
+		Arrays.fill(books, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Takes the locks of the books by increasing ISBN. The held locks are
+	 * kept in the order of the sorted keys, so that the i-th stamp belongs to
+	 * the book of the i-th key.
+	 *
+	 * @param exclusive
+	 *            whether to take the write locks
+	 */
+	private void lock(boolean exclusive) {
+		this.exclusive = exclusive;
+		Arrays.sort(keys, 0, size);
+		int lastIsbn = -1;
+
+		for (int i = 0; i < size; i++) {
+			int isbn = (int) (keys[i] >>> 32);
+			// A book added twice is locked once since the locks are not
+			// reentrant
+			if (isbn == lastIsbn) {
+				continue;
+			}
+
+			StampedLock lock = books[(int) (keys[i] & INDEX_MASK)].getLock();
+			lastIsbn = isbn;
+			keys[numLocked] = keys[i];
+			stamps[numLocked] = exclusive ? lock.writeLock() : lock.readLock();
+			numLocked++;
+		}
+	}
+
+	/**
+	 * Doubles the capacity of the set.
+	 */
+	private void grow() {
+		int capacity = books.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		books = Arrays.copyOf(books, capacity);
+		values = Arrays.copyOf(values, capacity);
+		stamps = Arrays.copyOf(stamps, capacity);
+	}
+}
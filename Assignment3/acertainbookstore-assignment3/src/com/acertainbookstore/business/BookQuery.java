@@ -0,0 +1,216 @@
+package com.acertainbookstore.business;
+
+import java.util.Comparator;
+
+/**
+ * {@link BookQuery} is used to represent the filters, the order and the limit
+ * of a query of the books. A new query matches every book, by increasing
+ * ISBN; every filter set narrows it down.
+ */
+public class BookQuery {
+
+	/**
+	 * The orders of the books a query returns.
+	 */
+	public enum Order {
+
+		/** By increasing ISBN. */
+		ISBN,
+
+		/** By increasing price, then by increasing ISBN. */
+		PRICE_ASCENDING,
+
+		/** By decreasing price, then by decreasing ISBN. */
+		PRICE_DESCENDING,
+
+		/** By decreasing average rating, then by increasing ISBN. */
+		AVERAGE_RATING;
+	}
+
+	/** The Constant BY_ISBN, the order of {@link Order#ISBN}. */
+	public static final Comparator<Book> BY_ISBN = Comparator.comparingInt(Book::getISBN);
+
+	/** The Constant BY_PRICE, the order of {@link Order#PRICE_ASCENDING}. */
+	public static final Comparator<Book> BY_PRICE = Comparator.comparingDouble(Book::getPrice).thenComparing(BY_ISBN);
+
+	/** The minimum price. */
+	private float minPrice = 0;
+
+	/** The maximum price. */
+	private float maxPrice = Float.MAX_VALUE;
+
+	/** The minimum average rating, -1 matching the books never rated. */
+	private float minAverageRating = -1;
+
+	/** Whether to match only the books in stock. */
+	private boolean inStock = false;
+
+	/** Whether to match only the editor picks. */
+	private boolean editorPick = false;
+
+	/** The order of the books. */
+	private Order order = Order.ISBN;
+
+	/** The maximum number of books. */
+	private int limit = Integer.MAX_VALUE;
+
+	/**
+	 * Instantiates a new {@link BookQuery} matching every book.
+	 */
+	public BookQuery() {
+		// Every filter is off
+	}
+
+	/**
+	 * Gets the minimum price.
+	 *
+	 * @return the minimum price
+	 */
+	public float getMinPrice() {
+		return minPrice;
+	}
+
+	/**
+	 * Sets the minimum price.
+	 *
+	 * @param minPrice
+	 *            the new minimum price
+	 */
+	public void setMinPrice(float minPrice) {
+		this.minPrice = minPrice;
+	}
+
+	/**
+	 * Gets the maximum price.
+	 *
+	 * @return the maximum price
+	 */
+	public float getMaxPrice() {
+		return maxPrice;
+	}
+
+	/**
+	 * Sets the maximum price.
+	 *
+	 * @param maxPrice
+	 *            the new maximum price
+	 */
+	public void setMaxPrice(float maxPrice) {
+		this.maxPrice = maxPrice;
+	}
+
+	/**
+	 * Checks if the query restricts the price.
+	 *
+	 * @return true, if the price range leaves out some prices
+	 */
+	public boolean hasPriceRange() {
+		return minPrice > 0 || maxPrice < Float.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the minimum average rating.
+	 *
+	 * @return the minimum average rating
+	 */
+	public float getMinAverageRating() {
+		return minAverageRating;
+	}
+
+	/**
+	 * Sets the minimum average rating.
+	 *
+	 * @param minAverageRating
+	 *            the new minimum average rating
+	 */
+	public void setMinAverageRating(float minAverageRating) {
+		this.minAverageRating = minAverageRating;
+	}
+
+	/**
+	 * Checks if the query matches only the books in stock.
+	 *
+	 * @return true, if it matches only the books in stock
+	 */
+	public boolean isInStock() {
+		return inStock;
+	}
+
+	/**
+	 * Sets whether the query matches only the books in stock.
+	 *
+	 * @param inStock
+	 *            true, to match only the books in stock
+	 */
+	public void setInStock(boolean inStock) {
+		this.inStock = inStock;
+	}
+
+	/**
+	 * Checks if the query matches only the editor picks.
+	 *
+	 * @return true, if it matches only the editor picks
+	 */
+	public boolean isEditorPick() {
+		return editorPick;
+	}
+
+	/**
+	 * Sets whether the query matches only the editor picks.
+	 *
+	 * @param editorPick
+	 *            true, to match only the editor picks
+	 */
+	public void setEditorPick(boolean editorPick) {
+		this.editorPick = editorPick;
+	}
+
+	/**
+	 * Gets the order of the books.
+	 *
+	 * @return the order
+	 */
+	public Order getOrder() {
+		return order;
+	}
+
+	/**
+	 * Sets the order of the books.
+	 *
+	 * @param order
+	 *            the new order
+	 */
+	public void setOrder(Order order) {
+		this.order = order;
+	}
+
+	/**
+	 * Gets the maximum number of books.
+	 *
+	 * @return the limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the maximum number of books.
+	 *
+	 * @param limit
+	 *            the new limit
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "price in [" + minPrice + ", " + maxPrice + "], average rating >= " + minAverageRating + ", in stock = "
+				+ inStock + ", editor pick = " + editorPick + ", order = " + order + ", limit = " + limit;
+	}
+}
@@ -0,0 +1,480 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link BookQueryIndex} holds the secondary indexes of the books of a store
+ * engine which answer a {@link BookQuery} without scanning the catalog: the
+ * books sorted by price, and a bitmap of the books in stock and one of the
+ * editor picks, indexed by a row given to every book. A query reads the books
+ * of the index expected to hold the fewest candidates, i.e. the price range or
+ * the intersection of the bitmaps, and checks the other filters on every
+ * candidate.
+ *
+ * Books are added and removed holding the exclusive lock of the engine, and
+ * queried holding its shared lock. The bitmaps follow the stock and the
+ * editor picks as they change, cf. {@link BookStoreBook}, including lock-free
+ * purchases holding the shared lock, so their bits are set atomically; a
+ * query checks every candidate again since a bit may be set a moment after
+ * the book changed.
+ */
+final class BookQueryIndex {
+
+	/** The Constant INITIAL_CAPACITY, the books of the index before it grows. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The Constant ISBN_MASK, the low bits of a price key holding the ISBN. */
+	private static final long ISBN_MASK = 0xFFFFFFFFL;
+
+	/** The Constant BY_AVERAGE_RATING, the order of {@link BookQuery.Order#AVERAGE_RATING}. */
+	private static final Comparator<RatedBook> BY_AVERAGE_RATING = Comparator
+			.comparingDouble((RatedBook ratedBook) -> -ratedBook.averageRating)
+			.thenComparingInt(ratedBook -> ratedBook.book.getISBN());
+
+	/** The books by row, null for the free rows. */
+	private BookStoreBook[] rows = new BookStoreBook[INITIAL_CAPACITY];
+
+	/** The rows below the highest row in use which are free. */
+	private int[] freeRows = new int[INITIAL_CAPACITY];
+
+	/** The number of free rows. */
+	private int numFreeRows = 0;
+
+	/** The number of rows ever used, the highest row in use plus one. */
+	private int numRows = 0;
+
+	/** The price keys, the price in the high bits and the ISBN in the low bits, sorted. */
+	private long[] priceKeys = new long[INITIAL_CAPACITY];
+
+	/** The books, in the order of the price keys. */
+	private BookStoreBook[] booksByPrice = new BookStoreBook[INITIAL_CAPACITY];
+
+	/** The number of books. */
+	private int size = 0;
+
+	/** The rows of the books in stock. */
+	private final Bitmap inStock = new Bitmap();
+
+	/** The rows of the editor picks. */
+	private final Bitmap editorPicks = new Bitmap();
+
+	/**
+	 * A set of rows whose bits are set and cleared atomically, so that books
+	 * sharing a word can change concurrently.
+	 */
+	private static final class Bitmap {
+
+		/** The words of the bitmap, replaced only when it grows. */
+		private AtomicLongArray words = new AtomicLongArray(1);
+
+		/** The number of set bits. */
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * Sets or clears a bit.
+		 *
+		 * @param row
+		 *            the row
+		 * @param value
+		 *            whether to set the bit
+		 */
+		private void set(int row, boolean value) {
+			int index = row >>> 6;
+			long mask = 1L << row;
+			long word;
+			long newWord;
+
+			do {
+				word = words.get(index);
+				newWord = value ? (word | mask) : (word & ~mask);
+
+				if (newWord == word) {
+					return;
+				}
+			} while (!words.compareAndSet(index, word, newWord));
+
+			count.addAndGet(value ? 1 : -1);
+		}
+
+		/**
+		 * Grows the bitmap to hold the given number of rows. Only called
+		 * holding the exclusive lock of the engine, so no bit changes
+		 * meanwhile.
+		 *
+		 * @param numRows
+		 *            the number of rows
+		 */
+		private void ensureCapacity(int numRows) {
+			int numWords = (numRows + 63) >>> 6;
+
+			if (numWords > words.length()) {
+				AtomicLongArray newWords = new AtomicLongArray(Math.max(numWords, words.length() * 2));
+
+				for (int i = 0; i < words.length(); i++) {
+					newWords.set(i, words.get(i));
+				}
+
+				words = newWords;
+			}
+		}
+
+		/**
+		 * Clears every bit.
+		 */
+		private void clear() {
+			words = new AtomicLongArray(1);
+			count.set(0);
+		}
+	}
+
+	/**
+	 * A book and its average rating when it was matched, which sorting by
+	 * rating uses since ratings change concurrently.
+	 */
+	private static final class RatedBook {
+
+		/** The book. */
+		private final BookStoreBook book;
+
+		/** The average rating when the book was matched. */
+		private final float averageRating;
+
+		/**
+		 * Instantiates a new {@link RatedBook}.
+		 *
+		 * @param book
+		 *            the book
+		 * @param averageRating
+		 *            the average rating
+		 */
+		private RatedBook(BookStoreBook book, float averageRating) {
+			this.book = book;
+			this.averageRating = averageRating;
+		}
+	}
+
+	/**
+	 * Adds books which are not in the index.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	void addAll(Collection<BookStoreBook> books) {
+		BookStoreBook[] newBooks = books.toArray(new BookStoreBook[books.size()]);
+		Arrays.sort(newBooks, BookQuery.BY_PRICE);
+		ensureCapacity(size + newBooks.length);
+
+		// Merges the sorted books into the price index from the back
+		int i = size - 1;
+		int j = newBooks.length - 1;
+
+		for (int k = size + newBooks.length - 1; j >= 0; k--) {
+			long newKey = priceKey(newBooks[j]);
+
+			if (i >= 0 && priceKeys[i] > newKey) {
+				priceKeys[k] = priceKeys[i];
+				booksByPrice[k] = booksByPrice[i--];
+			} else {
+				priceKeys[k] = newKey;
+				booksByPrice[k] = newBooks[j--];
+			}
+		}
+
+		size += newBooks.length;
+
+		for (BookStoreBook book : newBooks) {
+			int row = (numFreeRows > 0) ? freeRows[--numFreeRows] : numRows++;
+			rows[row] = book;
+			book.indexAt(this, row);
+			stockChanged(book);
+			editorPickChanged(book);
+		}
+	}
+
+	/**
+	 * Removes books which are in the index.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	void removeAll(Collection<BookStoreBook> books) {
+		long[] oldKeys = new long[books.size()];
+		int numOldKeys = 0;
+
+		for (BookStoreBook book : books) {
+			int row = book.getIndexRow();
+			inStock.set(row, false);
+			editorPicks.set(row, false);
+			rows[row] = null;
+			freeRows[numFreeRows++] = row;
+			book.indexAt(null, -1);
+			oldKeys[numOldKeys++] = priceKey(book);
+		}
+
+		// Moves the books between two removed books at once
+		Arrays.sort(oldKeys);
+		int from = 0;
+		int to = 0;
+
+		for (long oldKey : oldKeys) {
+			int index = Arrays.binarySearch(priceKeys, from, size, oldKey);
+			System.arraycopy(priceKeys, from, priceKeys, to, index - from);
+			System.arraycopy(booksByPrice, from, booksByPrice, to, index - from);
+			to += index - from;
+			from = index + 1;
+		}
+
+		System.arraycopy(priceKeys, from, priceKeys, to, size - from);
+		System.arraycopy(booksByPrice, from, booksByPrice, to, size - from);
+		Arrays.fill(booksByPrice, to + size - from, size, null);
+		size = to + size - from;
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	void clear() {
+		for (int row = 0; row < numRows; row++) {
+			if (rows[row] != null) {
+				rows[row].indexAt(null, -1);
+			}
+		}
+
+		rows = new BookStoreBook[INITIAL_CAPACITY];
+		freeRows = new int[INITIAL_CAPACITY];
+		priceKeys = new long[INITIAL_CAPACITY];
+		booksByPrice = new BookStoreBook[INITIAL_CAPACITY];
+		numFreeRows = 0;
+		numRows = 0;
+		size = 0;
+		inStock.clear();
+		editorPicks.clear();
+	}
+
+	/**
+	 * Updates the bit of a book which may have run out of stock or been
+	 * restocked. The bit is set again until it agrees with the copies, since
+	 * a concurrent purchase or restock may change them after they are read.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void stockChanged(BookStoreBook book) {
+		boolean isInStock;
+
+		do {
+			isInStock = book.getNumCopies() > 0;
+			inStock.set(book.getIndexRow(), isInStock);
+		} while (isInStock != book.getNumCopies() > 0);
+	}
+
+	/**
+	 * Updates the bit of a book which may have been picked or unpicked.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void editorPickChanged(BookStoreBook book) {
+		editorPicks.set(book.getIndexRow(), book.isEditorPick());
+	}
+
+	/**
+	 * Finds the books matching a query. The price index is read if its range
+	 * holds no more books than the bitmaps of the flags the query filters on,
+	 * and then stops at the limit if the books are ordered by price;
+	 * otherwise the rows set in every such bitmap are read.
+	 *
+	 * @param query
+	 *            the query
+	 * @return the books, in the order and up to the limit of the query
+	 */
+	List<BookStoreBook> query(BookQuery query) {
+		int low = query.hasPriceRange() ? lowerBound(priceKey(query.getMinPrice(), 0)) : 0;
+		int high = query.hasPriceRange() ? lowerBound(priceKey(query.getMaxPrice(), (int) ISBN_MASK)) : size;
+		int numFlagged = Integer.MAX_VALUE;
+
+		if (query.isInStock()) {
+			numFlagged = Math.min(numFlagged, inStock.count.get());
+		}
+
+		if (query.isEditorPick()) {
+			numFlagged = Math.min(numFlagged, editorPicks.count.get());
+		}
+
+		List<BookStoreBook> matches = new ArrayList<>();
+		BookQuery.Order order = query.getOrder();
+
+		if (Math.max(0, high - low) <= numFlagged) {
+			if (order == BookQuery.Order.PRICE_ASCENDING) {
+				for (int i = low; i < high && matches.size() < query.getLimit(); i++) {
+					addIfMatches(matches, booksByPrice[i], query);
+				}
+
+				return matches;
+			} else if (order == BookQuery.Order.PRICE_DESCENDING) {
+				for (int i = high - 1; i >= low && matches.size() < query.getLimit(); i--) {
+					addIfMatches(matches, booksByPrice[i], query);
+				}
+
+				return matches;
+			}
+
+			for (int i = low; i < high; i++) {
+				addIfMatches(matches, booksByPrice[i], query);
+			}
+		} else {
+			AtomicLongArray inStockWords = query.isInStock() ? inStock.words : null;
+			AtomicLongArray editorPickWords = query.isEditorPick() ? editorPicks.words : null;
+			int numWords = (numRows + 63) >>> 6;
+
+			for (int index = 0; index < numWords; index++) {
+				long word = -1L;
+
+				if (inStockWords != null) {
+					word &= inStockWords.get(index);
+				}
+
+				if (editorPickWords != null) {
+					word &= editorPickWords.get(index);
+				}
+
+				while (word != 0) {
+					addIfMatches(matches, rows[(index << 6) + Long.numberOfTrailingZeros(word)], query);
+					word &= word - 1;
+				}
+			}
+		}
+
+		return sort(matches, query);
+	}
+
+	/**
+	 * Adds a book to the matches if it passes every filter of the query. The
+	 * flags are checked again, since the bitmaps may lag behind the books.
+	 *
+	 * @param matches
+	 *            the matches
+	 * @param book
+	 *            the book
+	 * @param query
+	 *            the query
+	 */
+	private static void addIfMatches(List<BookStoreBook> matches, BookStoreBook book, BookQuery query) {
+		if (book.getPrice() >= query.getMinPrice() && book.getPrice() <= query.getMaxPrice()
+				&& book.getAverageRating() >= query.getMinAverageRating()
+				&& (!query.isInStock() || book.getNumCopies() > 0)
+				&& (!query.isEditorPick() || book.isEditorPick())) {
+			matches.add(book);
+		}
+	}
+
+	/**
+	 * Sorts the matches in the order of the query and cuts them to its limit.
+	 *
+	 * @param matches
+	 *            the matches
+	 * @param query
+	 *            the query
+	 * @return the sorted matches
+	 */
+	private static List<BookStoreBook> sort(List<BookStoreBook> matches, BookQuery query) {
+		switch (query.getOrder()) {
+		case PRICE_ASCENDING:
+			matches.sort(BookQuery.BY_PRICE);
+			break;
+
+		case PRICE_DESCENDING:
+			matches.sort(BookQuery.BY_PRICE.reversed());
+			break;
+
+		case AVERAGE_RATING:
+			List<RatedBook> ratedBooks = new ArrayList<>(matches.size());
+
+			for (BookStoreBook book : matches) {
+				ratedBooks.add(new RatedBook(book, book.getAverageRating()));
+			}
+
+			ratedBooks.sort(BY_AVERAGE_RATING);
+			matches.clear();
+
+			for (RatedBook ratedBook : ratedBooks) {
+				matches.add(ratedBook.book);
+			}
+
+			break;
+
+		default:
+			matches.sort(BookQuery.BY_ISBN);
+		}
+
+		return (matches.size() > query.getLimit()) ? matches.subList(0, query.getLimit()) : matches;
+	}
+
+	/**
+	 * Finds the position of the first price key not below a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the position, size if every key is below
+	 */
+	private int lowerBound(long key) {
+		int index = Arrays.binarySearch(priceKeys, 0, size, key);
+		return (index >= 0) ? index : -index - 1;
+	}
+
+	/**
+	 * Gets the price key of a book.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the price key
+	 */
+	private static long priceKey(BookStoreBook book) {
+		return priceKey(book.getPrice(), book.getISBN());
+	}
+
+	/**
+	 * Gets the price key of a price and an ISBN. The bits of a price which is
+	 * not negative sort like the price, and -0 is taken as 0.
+	 *
+	 * @param price
+	 *            the price
+	 * @param isbn
+	 *            the ISBN
+	 * @return the price key
+	 */
+	private static long priceKey(float price, int isbn) {
+		return ((long) Float.floatToIntBits(price + 0.0f) << 32) | (isbn & ISBN_MASK);
+	}
+
+	/**
+	 * Grows the index to hold the given number of books.
+	 *
+	 * @param capacity
+	 *            the number of books
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > priceKeys.length) {
+			int newCapacity = Math.max(capacity, priceKeys.length * 2);
+			priceKeys = Arrays.copyOf(priceKeys, newCapacity);
+			booksByPrice = Arrays.copyOf(booksByPrice, newCapacity);
+		}
+
+		// Every free row was a book, so there are at most as many rows as
+		// books once the new books took the free rows
+		if (capacity > rows.length) {
+			int newCapacity = Math.max(capacity, rows.length * 2);
+			rows = Arrays.copyOf(rows, newCapacity);
+			freeRows = Arrays.copyOf(freeRows, newCapacity);
+		}
+
+		inStock.ensureCapacity(rows.length);
+		editorPicks.ensureCapacity(rows.length);
+	}
+}
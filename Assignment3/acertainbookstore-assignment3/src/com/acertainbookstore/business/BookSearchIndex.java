@@ -0,0 +1,287 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * {@link BookSearchIndex} is an inverted index over the titles and authors of
+ * the books of a store engine. Both are split into lower case words, and
+ * every word maps to the sorted ISBNs of the books it occurs in, so that a
+ * search intersects the lists of its words instead of scanning the catalog.
+ * Adding or removing books merges the changes into the lists of their words
+ * only.
+ *
+ * The index is not thread safe: the engine changes it while holding its
+ * exclusive lock and searches it while holding its shared lock.
+ */
+final class BookSearchIndex {
+
+	/** The Constant SEPARATORS, the characters between two words. */
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/** The Constant NO_ISBNS, the result of a search matching no book. */
+	private static final int[] NO_ISBNS = new int[0];
+
+	/** The sorted ISBNs of the books every word occurs in. */
+	private final Map<String, Postings> postings = new HashMap<>();
+
+	/**
+	 * The sorted ISBNs of the books a word occurs in, as a growable array.
+	 */
+	private static final class Postings {
+
+		/** The Constant INITIAL_CAPACITY, the ISBNs of a list before it grows. */
+		private static final int INITIAL_CAPACITY = 4;
+
+		/** The ISBNs, sorted up to size. */
+		private int[] isbns = new int[INITIAL_CAPACITY];
+
+		/** The number of ISBNs. */
+		private int size = 0;
+
+		/**
+		 * Appends an ISBN, leaving the list unsorted until it is sorted.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 */
+		private void append(int isbn) {
+			ensureCapacity(size + 1);
+			isbns[size++] = isbn;
+		}
+
+		/**
+		 * Sorts the ISBNs.
+		 */
+		private void sort() {
+			Arrays.sort(isbns, 0, size);
+		}
+
+		/**
+		 * Merges sorted ISBNs which are not in the list yet. New books mostly
+		 * get increasing ISBNs, which are appended; the others are merged
+		 * from the back so that the list is not copied.
+		 *
+		 * @param delta
+		 *            the sorted ISBNs to add
+		 */
+		private void addAll(Postings delta) {
+			int oldSize = size;
+			ensureCapacity(size + delta.size);
+
+			if (oldSize == 0 || delta.isbns[0] > isbns[oldSize - 1]) {
+				System.arraycopy(delta.isbns, 0, isbns, oldSize, delta.size);
+				size += delta.size;
+				return;
+			}
+
+			int i = oldSize - 1;
+			int j = delta.size - 1;
+			size += delta.size;
+
+			for (int k = size - 1; j >= 0; k--) {
+				isbns[k] = (i >= 0 && isbns[i] > delta.isbns[j]) ? isbns[i--] : delta.isbns[j--];
+			}
+		}
+
+		/**
+		 * Removes sorted ISBNs which are in the list, moving the ISBNs
+		 * between two of them at once.
+		 *
+		 * @param delta
+		 *            the sorted ISBNs to remove
+		 */
+		private void removeAll(Postings delta) {
+			int from = 0;
+			int to = 0;
+
+			for (int j = 0; j < delta.size; j++) {
+				int index = Arrays.binarySearch(isbns, from, size, delta.isbns[j]);
+
+				if (index < 0) {
+					continue;
+				}
+
+				System.arraycopy(isbns, from, isbns, to, index - from);
+				to += index - from;
+				from = index + 1;
+			}
+
+			System.arraycopy(isbns, from, isbns, to, size - from);
+			size = to + size - from;
+
+			if (size < isbns.length / 4 && isbns.length > INITIAL_CAPACITY) {
+				isbns = Arrays.copyOf(isbns, Math.max(INITIAL_CAPACITY, size * 2));
+			}
+		}
+
+		/**
+		 * Finds the first ISBN not below the given one, galloping from a
+		 * position, so that a search moving forward through a long list costs
+		 * the logarithm of the distance it moves.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @param from
+		 *            the position to start from
+		 * @return the position of the first ISBN not below isbn, size if none
+		 */
+		private int seek(int isbn, int from) {
+			int low = from;
+			int step = 1;
+
+			while (low + step < size && isbns[low + step] < isbn) {
+				low += step;
+				step <<= 1;
+			}
+
+			int index = Arrays.binarySearch(isbns, low, Math.min(low + step + 1, size), isbn);
+			return (index >= 0) ? index : -index - 1;
+		}
+
+		/**
+		 * Grows the list to hold at least the given number of ISBNs.
+		 *
+		 * @param capacity
+		 *            the number of ISBNs
+		 */
+		private void ensureCapacity(int capacity) {
+			if (capacity > isbns.length) {
+				isbns = Arrays.copyOf(isbns, Math.max(capacity, isbns.length * 2));
+			}
+		}
+	}
+
+	/**
+	 * Splits a text into its distinct lower case words.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the words, in the order they first occur
+	 */
+	static String[] tokenize(String text) {
+		Set<String> tokens = new LinkedHashSet<>();
+
+		for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	/**
+	 * Adds books which are not in the index.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	void addAll(Collection<BookStoreBook> books) {
+		for (Map.Entry<String, Postings> delta : groupByToken(books).entrySet()) {
+			postings.computeIfAbsent(delta.getKey(), token -> new Postings()).addAll(delta.getValue());
+		}
+	}
+
+	/**
+	 * Removes books which are in the index.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	void removeAll(Collection<BookStoreBook> books) {
+		for (Map.Entry<String, Postings> delta : groupByToken(books).entrySet()) {
+			Postings tokenPostings = postings.get(delta.getKey());
+			tokenPostings.removeAll(delta.getValue());
+
+			if (tokenPostings.size == 0) {
+				postings.remove(delta.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Removes all the books.
+	 */
+	void clear() {
+		postings.clear();
+	}
+
+	/**
+	 * Finds the books whose title or author contain all the given words. The
+	 * lists of the words are intersected from the shortest one, which bounds
+	 * the work by its length, and the search stops at numBooks books.
+	 *
+	 * @param tokens
+	 *            the distinct words, as returned by {@link #tokenize(String)}
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the ISBNs of at most numBooks books, in increasing order
+	 */
+	int[] search(String[] tokens, int numBooks) {
+		Postings[] lists = new Postings[tokens.length];
+
+		for (int i = 0; i < tokens.length; i++) {
+			lists[i] = postings.get(tokens[i]);
+
+			if (lists[i] == null) {
+				return NO_ISBNS;
+			}
+		}
+
+		Arrays.sort(lists, Comparator.comparingInt((Postings list) -> list.size));
+		int[] positions = new int[lists.length];
+		int[] isbns = new int[Math.min(numBooks, lists[0].size)];
+		int found = 0;
+
+		candidates: for (int i = 0; i < lists[0].size && found < isbns.length; i++) {
+			int isbn = lists[0].isbns[i];
+
+			for (int j = 1; j < lists.length; j++) {
+				positions[j] = lists[j].seek(isbn, positions[j]);
+
+				if (positions[j] == lists[j].size) {
+					break candidates;
+				}
+
+				if (lists[j].isbns[positions[j]] != isbn) {
+					continue candidates;
+				}
+			}
+
+			isbns[found++] = isbn;
+		}
+
+		return (found == isbns.length) ? isbns : Arrays.copyOf(isbns, found);
+	}
+
+	/**
+	 * Groups the ISBNs of books by the words of their titles and authors.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the sorted ISBNs of the books every word occurs in
+	 */
+	private static Map<String, Postings> groupByToken(Collection<BookStoreBook> books) {
+		Map<String, Postings> deltas = new HashMap<>();
+
+		for (BookStoreBook book : books) {
+			for (String token : tokenize(book.getTitle() + " " + book.getAuthor())) {
+				deltas.computeIfAbsent(token, key -> new Postings()).append(book.getISBN());
+			}
+		}
+
+		for (Postings delta : deltas.values()) {
+			delta.sort();
+		}
+
+		return deltas;
+	}
+}
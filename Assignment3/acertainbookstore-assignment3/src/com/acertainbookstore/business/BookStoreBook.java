@@ -1,5 +1,10 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+import com.acertainbookstore.interfaces.BookRecordWriter;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -13,20 +18,37 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class BookStoreBook extends ImmutableBook {
 
-	/** The number of copies. */
-	private int numCopies;
-
-	/** The total rating. */
-	private long totalRating;
+	/**
+	 * The number of copies, a lock-free counter so that reservations and
+	 * single-book purchases holding only shared locks can take copies
+	 * concurrently.
+	 */
+	private final AtomicInteger numCopies = new AtomicInteger();
 
-	/** The number of times rated. */
-	private long numTimesRated;
+	/** The ratings, summed without a lock. */
+	private final RatingAccumulator ratings;
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	private final AtomicLong numSaleMisses = new AtomicLong();
 
-	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	/** Whether the book is editor picked, read by readers holding no lock. */
+	private volatile boolean editorPick;
+
+	/**
+	 * The lock of the book, taken by the stores locking every book on its
+	 * own, so that looking up a book also finds its lock.
+	 */
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * The query index of the store holding the book, told when the book runs
+	 * out of stock, is restocked, or is picked or unpicked. Set and read
+	 * holding the lock of the store, null until the store indexes the book.
+	 */
+	private BookQueryIndex index = null;
+
+	/** The row of the book in the query index. */
+	private int indexRow = -1;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -45,10 +67,9 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
 		super(isbn, title, author, price);
 
+		this.ratings = new RatingAccumulator(0, 0);
 		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
 		this.setEditorPick(false);
 	}
 
@@ -62,10 +83,28 @@ public class BookStoreBook extends ImmutableBook {
 	public BookStoreBook(StockBook bookToCopy) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
+		this.ratings = new RatingAccumulator(bookToCopy.getTotalRating(), bookToCopy.getNumTimesRated());
+		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
+		this.setNumCopies(bookToCopy.getNumCopies());
+		this.setEditorPick(bookToCopy.isEditorPick());
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreBook} from a {@link StockBook}
+	 * instance, sharing the copy of its author in the pool of the store.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 * @param authors
+	 *            the authors of the books of the store
+	 */
+	BookStoreBook(StockBook bookToCopy, StringPool authors) {
+		super(bookToCopy.getISBN(), bookToCopy.getTitle(), authors.acquire(bookToCopy.getAuthor()),
+				bookToCopy.getPrice());
+
+		this.ratings = new RatingAccumulator(bookToCopy.getTotalRating(), bookToCopy.getNumTimesRated());
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
-		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
-		this.setTotalRating(bookToCopy.getTotalRating());
 		this.setEditorPick(bookToCopy.isEditorPick());
 	}
 
@@ -75,7 +114,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return ratings.get().getTotalRating();
 	}
 
 	/**
@@ -84,7 +123,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return ratings.get().getNumTimesRated();
 	}
 
 	/**
@@ -93,7 +132,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of copies
 	 */
 	public int getNumCopies() {
-		return numCopies;
+		return numCopies.get();
 	}
 
 	/**
@@ -102,7 +141,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of sale misses
 	 */
 	public long getNumSaleMisses() {
-		return numSaleMisses;
+		return numSaleMisses.get();
 	}
 
 	/**
@@ -111,7 +150,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		return ratings.get().getAverageRating();
 	}
 
 	/**
@@ -123,26 +162,6 @@ public class BookStoreBook extends ImmutableBook {
 		return editorPick;
 	}
 
-	/**
-	 * Sets the total rating of the book.
-	 *
-	 * @param totalRating
-	 *            the new total rating
-	 */
-	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
-	}
-
-	/**
-	 * Sets the number of times that the book was rated.
-	 *
-	 * @param numTimesRated
-	 *            the new number of times rated
-	 */
-	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
-	}
-
 	/**
 	 * Sets the number of copies of a book in stock.
 	 *
@@ -150,7 +169,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new number of copies
 	 */
 	private void setNumCopies(int numCopies) {
-		this.numCopies = numCopies;
+		this.numCopies.set(numCopies);
 	}
 
 	/**
@@ -161,7 +180,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the new sale misses
 	 */
 	private void setNumSaleMisses(long numSaleMisses) {
-		this.numSaleMisses = numSaleMisses;
+		this.numSaleMisses.set(numSaleMisses);
 	}
 
 	/**
@@ -173,6 +192,10 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+
+		if (index != null) {
+			index.editorPickChanged(this);
+		}
 	}
 
 	/**
@@ -183,23 +206,71 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean areCopiesInStore(int numCopies) {
-		return this.numCopies >= numCopies;
+		return this.numCopies.get() >= numCopies;
 	}
 
 	/**
-	 * Reduces the number of copies of the books.
+	 * Reduces the number of copies of the books. The check and the decrement
+	 * are one atomic step, so concurrent callers never take more copies than
+	 * there are.
 	 *
 	 * @param numCopies
 	 *            the number of copies
 	 * @return true, if successful
 	 */
 	public boolean buyCopies(int numCopies) {
-		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
-			return true;
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
 		}
 
-		return false;
+		int numCopiesInStore;
+
+		do {
+			numCopiesInStore = this.numCopies.get();
+
+			if (numCopiesInStore < numCopies) {
+				return false;
+			}
+		} while (!this.numCopies.compareAndSet(numCopiesInStore, numCopiesInStore - numCopies));
+
+		if (numCopiesInStore == numCopies) {
+			stockChanged();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reduces the number of copies of the books like
+	 * {@link #buyCopies(int)}, or adds the copies missing to the missed sales
+	 * if there are not enough. Neither step takes a lock, so a purchase of a
+	 * single book needs no exclusive lock.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return true, if the copies were bought
+	 */
+	public boolean buyCopiesOrAddSaleMiss(int numCopies) {
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
+		}
+
+		int numCopiesInStore;
+
+		do {
+			numCopiesInStore = this.numCopies.get();
+
+			if (numCopiesInStore < numCopies) {
+				addSaleMiss(numCopies - numCopiesInStore);
+				return false;
+			}
+		} while (!this.numCopies.compareAndSet(numCopiesInStore, numCopiesInStore - numCopies));
+
+		if (numCopiesInStore == numCopies) {
+			stockChanged();
+		}
+
+		return true;
 	}
 
 	/**
@@ -210,8 +281,25 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
-			this.numSaleMisses = 0;
+			if (this.numCopies.addAndGet(numNewCopies) == numNewCopies) {
+				stockChanged();
+			}
+
+			this.numSaleMisses.set(0);
+		}
+	}
+
+	/**
+	 * Puts back copies reserved by a purchase that did not go through. Unlike
+	 * {@link #addCopies(int)}, the missed sales are kept.
+	 *
+	 * @param numReleasedCopies
+	 *            the number of released copies
+	 */
+	public void releaseCopies(int numReleasedCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numReleasedCopies)
+				&& this.numCopies.addAndGet(numReleasedCopies) == numReleasedCopies) {
+			stockChanged();
 		}
 	}
 
@@ -222,20 +310,33 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		this.numSaleMisses.addAndGet(numSaleMisses);
 	}
 
 	/**
-	 * Adds the rating to the total rating of the book.
+	 * Adds the rating to the total rating of the book, without a lock.
 	 *
 	 * @param rating
 	 *            the rating
+	 * @return true, if it is the first rating since the ratings were last
+	 *         folded, cf. {@link #foldRatings()}
 	 */
-	public void addRating(int rating) {
+	public boolean addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			return ratings.add(rating);
 		}
+
+		return false;
+	}
+
+	/**
+	 * Folds the ratings added since the last fold into the totals of the book,
+	 * and returns the average rating they give.
+	 *
+	 * @return the average rating
+	 */
+	float foldRatings() {
+		return ratings.fold().getAverageRating();
 	}
 
 	/**
@@ -245,7 +346,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean hadSaleMiss() {
-		return this.numSaleMisses > 0;
+		return this.numSaleMisses.get() > 0;
 	}
 
 	/**
@@ -260,13 +361,13 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns a {@link ImmutableBook} copy of the book. The copies share the
+	 * title and author of the book, which are immutable strings.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		return new ImmutableBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice());
 	}
 
 	/**
@@ -275,18 +376,83 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
+		RatingAccumulator.Ratings ratings = this.ratings.get();
+		return new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(),
+				this.getPrice(), this.numCopies.get(), this.numSaleMisses.get(), ratings.getNumTimesRated(),
+				ratings.getTotalRating(), this.editorPick);
+	}
+
+	/**
+	 * Writes the book as a {@link Book} record.
+	 *
+	 * @param writer
+	 *            the writer
+	 */
+	void writeRecord(BookRecordWriter writer) {
+		writer.writeBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice());
+	}
+
+	/**
+	 * Writes the book as a {@link StockBook} record, with the same counters
+	 * as {@link #immutableStockBook()}.
+	 *
+	 * @param writer
+	 *            the writer
+	 */
+	void writeStockRecord(BookRecordWriter writer) {
+		RatingAccumulator.Ratings ratings = this.ratings.get();
+		writer.writeStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies.get(), this.numSaleMisses.get(), ratings.getNumTimesRated(), ratings.getTotalRating(),
 				this.editorPick);
 	}
 
+	/**
+	 * Gets the lock of the book.
+	 *
+	 * @return the lock
+	 */
+	StampedLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Puts the book in a query index, or takes it out.
+	 *
+	 * @param index
+	 *            the query index, null to take the book out
+	 * @param row
+	 *            the row of the book in the index
+	 */
+	void indexAt(BookQueryIndex index, int row) {
+		this.index = index;
+		this.indexRow = row;
+	}
+
+	/**
+	 * Gets the row of the book in its query index.
+	 *
+	 * @return the row
+	 */
+	int getIndexRow() {
+		return indexRow;
+	}
+
+	/**
+	 * Tells the query index that the book ran out of stock or was restocked.
+	 */
+	private void stockChanged() {
+		if (index != null) {
+			index.stockChanged(this);
+		}
+	}
+
 	/**
 	 * Returns a {@link BookStoreBook} copy of the book.
 	 *
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies.get());
 	}
 }
@@ -0,0 +1,24 @@
+package com.acertainbookstore.business;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreRead} is a read of the books of a store engine, run first
+ * optimistically without a lock and again under the lock if a writer raced
+ * with it.
+ *
+ * @param <T>
+ *            the type of the result
+ */
+@FunctionalInterface
+interface BookStoreRead<T> {
+
+	/**
+	 * Reads the books.
+	 *
+	 * @return the result
+	 * @throws BookStoreException
+	 *             if the read is invalid
+	 */
+	T read() throws BookStoreException;
+}
@@ -0,0 +1,459 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link CatalogSnapshot} is one version of the catalog of a store engine:
+ * the books in stock, by ISBN. A snapshot never changes; adding or removing a
+ * book makes a new snapshot sharing all but the path to that book with the
+ * old one, so the store publishes a new version per structural change while
+ * scans keep reading the version they started with.
+ *
+ * The books are kept in a trie on the bits of their ISBN, five bits per
+ * level, whose nodes only hold the children they have. A lookup takes at most
+ * seven steps and boxes nothing, and a scan visits the books by increasing
+ * ISBN.
+ *
+ * The snapshot holds the books, not copies of them: the counters of a book
+ * still change under the book's lock, the catalog only fixes which books are
+ * in stock.
+ *
+ * Large catalogs are scanned in parallel on a pool of their own, one task per
+ * subtree of about the same number of books, and the results of the
+ * subtrees are concatenated in ISBN order. Below a threshold the fork and
+ * join cost more than they save and the scan runs in the calling thread.
+ */
+final class CatalogSnapshot {
+
+	/** The Constant BITS, the bits of the ISBN per level. */
+	private static final int BITS = 5;
+
+	/** The Constant MASK. */
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** The Constant ROOT_SHIFT, the shift of the top level. */
+	private static final int ROOT_SHIFT = 30;
+
+	/** The Constant EMPTY_NODE. */
+	private static final Node EMPTY_NODE = new Node(0, new Object[0], 0);
+
+	/**
+	 * The Constant DEFAULT_PARALLEL_THRESHOLD, measured with the
+	 * scan-benchmark target.
+	 */
+	private static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+	/**
+	 * The Constant PARALLEL_THRESHOLD, the books from which a scan runs in
+	 * parallel, never by default on a single core.
+	 */
+	private static final int PARALLEL_THRESHOLD = Integer.getInteger(BookStoreConstants.PROPERTY_KEY_SCAN_THRESHOLD,
+			Runtime.getRuntime().availableProcessors() > 1 ? DEFAULT_PARALLEL_THRESHOLD : Integer.MAX_VALUE);
+
+	/** The Constant MIN_CHUNK_SIZE, the fewest books a parallel task scans. */
+	private static final int MIN_CHUNK_SIZE = 1024;
+
+	/** The Constant CHUNKS_PER_THREAD, so that fast threads steal from slow ones. */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/** The Constant SCAN_POOL, which the scans do not share with other work. */
+	private static final ForkJoinPool SCAN_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+			pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("catalog-scan-" + thread.getPoolIndex());
+				return thread;
+			}, null, false);
+
+	/** The Constant EMPTY, the catalog without books. */
+	static final CatalogSnapshot EMPTY = new CatalogSnapshot(EMPTY_NODE, 0);
+
+	/** The root of the trie. */
+	private final Node root;
+
+	/** The number of books. */
+	private final int size;
+
+	/**
+	 * A node of the trie, whose children are nodes, or books at the last
+	 * level.
+	 */
+	private static final class Node {
+
+		/** The bitmap of the children the node has. */
+		private final int bitmap;
+
+		/** The children, in the order of their bits. */
+		private final Object[] children;
+
+		/** The number of books under the node. */
+		private final int size;
+
+		/**
+		 * Instantiates a new {@link Node}.
+		 *
+		 * @param bitmap
+		 *            the bitmap of the children
+		 * @param children
+		 *            the children
+		 * @param size
+		 *            the number of books under the node
+		 */
+		private Node(int bitmap, Object[] children, int size) {
+			this.bitmap = bitmap;
+			this.children = children;
+			this.size = size;
+		}
+
+		/**
+		 * Gets the index of a child.
+		 *
+		 * @param bit
+		 *            the bit of the child
+		 * @return the index the child has, or would have
+		 */
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link CatalogSnapshot}.
+	 *
+	 * @param root
+	 *            the root of the trie
+	 * @param size
+	 *            the number of books
+	 */
+	private CatalogSnapshot(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the book, or null if it is not in the catalog
+	 */
+	BookStoreBook get(int isbn) {
+		Node node = root;
+
+		for (int shift = ROOT_SHIFT;; shift -= BITS) {
+			int bit = bit(isbn, shift);
+
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+
+			Object child = node.children[node.index(bit)];
+
+			if (shift == 0) {
+				return (BookStoreBook) child;
+			}
+
+			node = (Node) child;
+		}
+	}
+
+	/**
+	 * Checks whether a book is in the catalog.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return true, if the book is in the catalog
+	 */
+	boolean contains(int isbn) {
+		return get(isbn) != null;
+	}
+
+	/**
+	 * Makes the catalog with a book added, or replacing the book with the same
+	 * ISBN.
+	 *
+	 * @param book
+	 *            the book
+	 * @return the new catalog
+	 */
+	CatalogSnapshot with(BookStoreBook book) {
+		int added = contains(book.getISBN()) ? 0 : 1;
+		return new CatalogSnapshot(with(root, ROOT_SHIFT, book, added), size + added);
+	}
+
+	/**
+	 * Makes the catalog with a book removed.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the new catalog, or this one if the book is not in it
+	 */
+	CatalogSnapshot without(int isbn) {
+		if (!contains(isbn)) {
+			return this;
+		}
+
+		Node newRoot = without(root, ROOT_SHIFT, isbn);
+		return new CatalogSnapshot(newRoot != null ? newRoot : EMPTY_NODE, size - 1);
+	}
+
+	/**
+	 * Performs an action for every book, by increasing ISBN.
+	 *
+	 * @param action
+	 *            the action
+	 */
+	void forEach(Consumer<? super BookStoreBook> action) {
+		forEach(root, ROOT_SHIFT, action);
+	}
+
+	/**
+	 * Collects the books passing a filter, in parallel for a large catalog.
+	 *
+	 * @param <T>
+	 *            the type of the results
+	 * @param filter
+	 *            the filter, which may run in several threads at once
+	 * @param mapper
+	 *            the mapping of a book passing the filter to its result, which
+	 *            may run in several threads at once
+	 * @return the results, by increasing ISBN of their books
+	 */
+	<T> List<T> collect(Predicate<? super BookStoreBook> filter, Function<? super BookStoreBook, ? extends T> mapper) {
+		if (size < PARALLEL_THRESHOLD) {
+			List<T> results = new ArrayList<>();
+			collect(root, ROOT_SHIFT, filter, mapper, results);
+			return results;
+		}
+
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, size / (SCAN_POOL.getParallelism() * CHUNKS_PER_THREAD));
+		return SCAN_POOL.invoke(new ScanTask<T>(root, ROOT_SHIFT, chunkSize, filter, mapper));
+	}
+
+	/**
+	 * Gets the bit of the child holding an ISBN at a level.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param shift
+	 *            the shift of the level
+	 * @return the bit
+	 */
+	private static int bit(int isbn, int shift) {
+		return 1 << ((isbn >>> shift) & MASK);
+	}
+
+	/**
+	 * Copies the path to a book with the book added.
+	 *
+	 * @param node
+	 *            the node at the level
+	 * @param shift
+	 *            the shift of the level
+	 * @param book
+	 *            the book
+	 * @param added
+	 *            1 if the book is new to the catalog, 0 if it replaces one
+	 * @return the new node
+	 */
+	private static Node with(Node node, int shift, BookStoreBook book, int added) {
+		int bit = bit(book.getISBN(), shift);
+		int index = node.index(bit);
+		boolean present = (node.bitmap & bit) != 0;
+		Object child;
+
+		if (shift == 0) {
+			child = book;
+		} else {
+			child = with(present ? (Node) node.children[index] : EMPTY_NODE, shift - BITS, book, added);
+		}
+
+		if (present) {
+			Object[] children = node.children.clone();
+			children[index] = child;
+			return new Node(node.bitmap, children, node.size + added);
+		}
+
+		Object[] children = new Object[node.children.length + 1];
+		System.arraycopy(node.children, 0, children, 0, index);
+		children[index] = child;
+		System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+		return new Node(node.bitmap | bit, children, node.size + 1);
+	}
+
+	/**
+	 * Copies the path to a book in the catalog with the book removed.
+	 *
+	 * @param node
+	 *            the node at the level
+	 * @param shift
+	 *            the shift of the level
+	 * @param isbn
+	 *            the ISBN of the book
+	 * @return the new node, or null if it has no children left
+	 */
+	private static Node without(Node node, int shift, int isbn) {
+		int bit = bit(isbn, shift);
+		int index = node.index(bit);
+		Node child = (shift == 0) ? null : without((Node) node.children[index], shift - BITS, isbn);
+
+		if (child != null) {
+			Object[] children = node.children.clone();
+			children[index] = child;
+			return new Node(node.bitmap, children, node.size - 1);
+		}
+
+		if (node.bitmap == bit) {
+			return null;
+		}
+
+		Object[] children = new Object[node.children.length - 1];
+		System.arraycopy(node.children, 0, children, 0, index);
+		System.arraycopy(node.children, index + 1, children, index, children.length - index);
+		return new Node(node.bitmap & ~bit, children, node.size - 1);
+	}
+
+	/**
+	 * Performs an action for every book under a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @param shift
+	 *            the shift of its level
+	 * @param action
+	 *            the action
+	 */
+	private static void forEach(Node node, int shift, Consumer<? super BookStoreBook> action) {
+		for (Object child : node.children) {
+			if (shift == 0) {
+				action.accept((BookStoreBook) child);
+			} else {
+				forEach((Node) child, shift - BITS, action);
+			}
+		}
+	}
+
+	/**
+	 * Collects the books passing a filter under a node.
+	 *
+	 * @param <T>
+	 *            the type of the results
+	 * @param node
+	 *            the node
+	 * @param shift
+	 *            the shift of its level
+	 * @param filter
+	 *            the filter
+	 * @param mapper
+	 *            the mapping of a book to its result
+	 * @param results
+	 *            the results to add to
+	 */
+	private static <T> void collect(Node node, int shift, Predicate<? super BookStoreBook> filter,
+			Function<? super BookStoreBook, ? extends T> mapper, List<T> results) {
+		for (Object child : node.children) {
+			if (shift != 0) {
+				collect((Node) child, shift - BITS, filter, mapper, results);
+			} else if (filter.test((BookStoreBook) child)) {
+				results.add(mapper.apply((BookStoreBook) child));
+			}
+		}
+	}
+
+	/**
+	 * A scan of a subtree, split into one task per child until the subtrees
+	 * hold a chunk of books.
+	 *
+	 * @param <T>
+	 *            the type of the results
+	 */
+	private static final class ScanTask<T> extends RecursiveTask<List<T>> {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/** The root of the subtree. */
+		private final transient Node node;
+
+		/** The shift of its level. */
+		private final int shift;
+
+		/** The most books a task scans without splitting. */
+		private final int chunkSize;
+
+		/** The filter. */
+		private final transient Predicate<? super BookStoreBook> filter;
+
+		/** The mapping of a book to its result. */
+		private final transient Function<? super BookStoreBook, ? extends T> mapper;
+
+		/**
+		 * Instantiates a new {@link ScanTask}.
+		 *
+		 * @param node
+		 *            the root of the subtree
+		 * @param shift
+		 *            the shift of its level
+		 * @param chunkSize
+		 *            the most books a task scans without splitting
+		 * @param filter
+		 *            the filter
+		 * @param mapper
+		 *            the mapping of a book to its result
+		 */
+		private ScanTask(Node node, int shift, int chunkSize, Predicate<? super BookStoreBook> filter,
+				Function<? super BookStoreBook, ? extends T> mapper) {
+			this.node = node;
+			this.shift = shift;
+			this.chunkSize = chunkSize;
+			this.filter = filter;
+			this.mapper = mapper;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<T> compute() {
+			if (node.size <= chunkSize || shift == 0) {
+				List<T> results = new ArrayList<>();
+				collect(node, shift, filter, mapper, results);
+				return results;
+			}
+
+			List<ScanTask<T>> subtasks = new ArrayList<>(node.children.length);
+
+			for (Object child : node.children) {
+				subtasks.add(new ScanTask<T>((Node) child, shift - BITS, chunkSize, filter, mapper));
+			}
+
+			invokeAll(subtasks);
+			List<T> results = new ArrayList<>();
+
+			for (ScanTask<T> subtask : subtasks) {
+				results.addAll(subtask.join());
+			}
+
+			return results;
+		}
+	}
+}
@@ -12,9 +12,13 @@ import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookRecordWriter;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
 
@@ -24,12 +28,28 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * 
  * @see BookStore
  * @see StockManager
+ * @see TwoPhaseCommitParticipant
  */
-public class CertainBookStore implements BookStore, StockManager {
+public class CertainBookStore implements BookStore, StockManager, TwoPhaseCommitParticipant, BookRecordSource {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
 	private Map<Integer, BookStoreBook> bookMap = null;
 
+	/** The copies reserved by every prepared transaction. */
+	private Map<String, Set<BookCopy>> preparedPurchases = null;
+
+	/** The books by the words of their titles and authors. */
+	private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+	/** The books by price, stock and editor pick. */
+	private final BookQueryIndex queryIndex = new BookQueryIndex();
+
+	/** One copy of every author, shared by the books. */
+	private final StringPool authors = new StringPool();
+
+	/** The live reservations, whose copies are out of the stock. */
+	private final StockReservations reservations = new StockReservations(this::releaseReservedCopies);
+
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
@@ -37,6 +57,7 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		// Constructors are not synchronized
 		bookMap = new HashMap<>();
+		preparedPurchases = new HashMap<>();
 	}
 	private synchronized void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
@@ -91,7 +112,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
 		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
-			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
 	}
 	/*
@@ -106,14 +127,29 @@ public class CertainBookStore implements BookStore, StockManager {
 		}
 
 		// Check if all are there
+		Set<Integer> isbns = new HashSet<>();
+
 		for (StockBook book : bookSet) {
 			validate(book);
+
+			// Books with the same ISBN may differ in other fields, so the
+			// set may hold several of them
+			if (!isbns.add(book.getISBN())) {
+				throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+			}
 		}
 
+		List<BookStoreBook> newBooks = new ArrayList<>(bookSet.size());
+
 		for (StockBook book : bookSet) {
 			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book, authors);
+			bookMap.put(isbn, bookStoreBook);
+			newBooks.add(bookStoreBook);
 		}
+
+		searchIndex.addAll(newBooks);
+		queryIndex.addAll(newBooks);
 	}
 
 	/*
@@ -158,6 +194,21 @@ public class CertainBookStore implements BookStore, StockManager {
 				.collect(Collectors.toList());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(com.
+	 * acertainbookstore.interfaces.BookRecordWriter)
+	 */
+	public synchronized void writeBooks(BookRecordWriter writer) {
+		writer.start(bookMap.size());
+
+		for (BookStoreBook book : bookMap.values()) {
+			book.writeStockRecord(writer);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -221,7 +272,7 @@ public class CertainBookStore implements BookStore, StockManager {
 				book = bookMap.get(saleMissEntry.getKey());
 				book.addSaleMiss(saleMissEntry.getValue());
 			}
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
 
 		// Then make the purchase.
@@ -273,6 +324,29 @@ public class CertainBookStore implements BookStore, StockManager {
 				.collect(Collectors.toList());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(java.util.
+	 * Set, com.acertainbookstore.interfaces.BookRecordWriter)
+	 */
+	public synchronized void writeBooks(Set<Integer> isbnSet, BookRecordWriter writer) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		writer.start(isbnSet.size());
+
+		for (Integer isbn : isbnSet) {
+			bookMap.get(isbn).writeRecord(writer);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -324,7 +398,73 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	@Override
 	public synchronized List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Get all books sorted by rating
+		List<BookStoreBook> sortedBooks = bookMap.values().stream()
+			.sorted((b1, b2) -> Double.compare(b2.getAverageRating(), b1.getAverageRating()))
+			.collect(Collectors.toList());
+
+		// Return at most numBooks books
+		int numBooksToReturn = Math.min(numBooks, sortedBooks.size());
+		return sortedBooks.subList(0, numBooksToReturn).stream()
+			.map(book -> book.immutableBook())
+			.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public synchronized List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		String[] tokens = BookSearchIndex.tokenize(query);
+
+		if (tokens.length == 0) {
+			throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+		}
+
+		List<Book> books = new ArrayList<>();
+
+		for (int isbn : searchIndex.search(tokens, numBooks)) {
+			books.add(bookMap.get(isbn).immutableBook());
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+	@Override
+	public synchronized List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (BookStoreUtility.isInvalidQuery(query)) {
+			throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+		}
+
+		return queryIndex.query(query).stream()
+			.map(book -> book.immutableBook())
+			.collect(Collectors.toList());
 	}
 
 	/*
@@ -334,7 +474,11 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	@Override
 	public synchronized List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		// Return books that have had sale misses
+		return bookMap.values().stream()
+			.filter(book -> book.getNumSaleMisses() > 0)
+			.map(book -> book.immutableStockBook())
+			.collect(Collectors.toList());
 	}
 
 	/*
@@ -344,7 +488,25 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	@Override
 	public synchronized void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// First validate all books exist and ratings are valid
+		for (BookRating rating : bookRating) {
+			validateISBNInStock(rating.getISBN());
+			
+			// Validate rating is between 0 and 5
+			if (rating.getRating() < 0 || rating.getRating() > 5) {
+				throw new BookStoreException(BookStoreConstants.RATING + rating.getRating() + BookStoreConstants.INVALID);
+			}
+		}
+
+		// Then update all ratings
+		for (BookRating rating : bookRating) {
+			BookStoreBook book = bookMap.get(rating.getISBN());
+			book.addRating(rating.getRating());
+		}
 	}
 
 	/*
@@ -354,6 +516,11 @@ public class CertainBookStore implements BookStore, StockManager {
 	 */
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		searchIndex.clear();
+		queryIndex.clear();
+		authors.clear();
+		preparedPurchases.clear();
+		reservations.clear();
 	}
 
 	/*
@@ -373,12 +540,157 @@ public class CertainBookStore implements BookStore, StockManager {
 			}
 
 			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 			}
 		}
 
+		List<BookStoreBook> oldBooks = new ArrayList<>(isbnSet.size());
+
 		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			oldBooks.add(bookMap.remove(isbn));
+		}
+
+		searchIndex.removeAll(oldBooks);
+		queryIndex.removeAll(oldBooks);
+
+		for (BookStoreBook book : oldBooks) {
+			authors.release(book.getAuthor());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	public synchronized void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy)
+			throws BookStoreException {
+		if (transactionId == null || bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (preparedPurchases.containsKey(transactionId)) {
+			throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+		}
+
+		// The copies leave the stock now and come back if the transaction
+		// aborts.
+		buyBooks(bookCopiesToBuy);
+		preparedPurchases.put(transactionId, new HashSet<>(bookCopiesToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#commitTransaction(
+	 * java.lang.String)
+	 */
+	public synchronized void commitTransaction(String transactionId) throws BookStoreException {
+		if (transactionId == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		preparedPurchases.remove(transactionId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#abortTransaction(
+	 * java.lang.String)
+	 */
+	public synchronized void abortTransaction(String transactionId) throws BookStoreException {
+		if (transactionId == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Set<BookCopy> reservedCopies = preparedPurchases.remove(transactionId);
+
+		if (reservedCopies == null) {
+			return;
+		}
+
+		for (BookCopy reservedCopy : reservedCopies) {
+			BookStoreBook book = bookMap.get(reservedCopy.getISBN());
+
+			// The book may have been removed since.
+			if (book != null) {
+				book.releaseCopies(reservedCopy.getNumCopies());
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+	 * getPreparedTransactions()
+	 */
+	public synchronized List<String> getPreparedTransactions() throws BookStoreException {
+		return new ArrayList<>(preparedPurchases.keySet());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	public synchronized long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis)
+			throws BookStoreException {
+		if (bookCopiesToReserve == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (ttlMillis <= 0) {
+			throw new BookStoreException(BookStoreConstants.TTL + ttlMillis + BookStoreConstants.INVALID);
+		}
+
+		// The copies leave the stock now and come back if the reservation is
+		// released or expires.
+		buyBooks(bookCopiesToReserve);
+		return reservations.add(bookCopiesToReserve, ttlMillis);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		if (!reservations.confirm(reservationId)) {
+			throw new BookStoreException(BookStoreErrorCode.NOT_FOUND,
+					BookStoreConstants.RESERVATION + reservationId + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		reservations.release(reservationId);
+	}
+
+	/**
+	 * Puts back the copies of a reservation which was released or expired.
+	 *
+	 * @param reservedCopies
+	 *            the reserved copies
+	 */
+	private synchronized void releaseReservedCopies(Set<BookCopy> reservedCopies) {
+		for (BookCopy reservedCopy : reservedCopies) {
+			BookStoreBook book = bookMap.get(reservedCopy.getISBN());
+
+			// The book may have been removed since.
+			if (book != null) {
+				book.releaseCopies(reservedCopy.getNumCopies());
+			}
 		}
 	}
 }
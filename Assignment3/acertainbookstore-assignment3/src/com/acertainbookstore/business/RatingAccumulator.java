@@ -0,0 +1,257 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link RatingAccumulator} sums the ratings of a book without a lock. Like a
+ * {@link java.util.concurrent.atomic.LongAdder}, it adds to a single base
+ * until two raters collide, and from then on to one of several cells picked by
+ * the rating thread, each on its own cache line. Unlike two adders, every
+ * rating adds its value and its count to the same cell in one step, both
+ * packed in a long, so a read never sees a rating in the total but not in the
+ * count.
+ *
+ * A packed cell overflows after hundreds of millions of ratings, so
+ * {@link #fold()} regularly moves the base and the cells to plain totals. A
+ * fold holds a sequence lock, which readers only check, so that reading the
+ * ratings never writes to memory shared with other readers.
+ */
+final class RatingAccumulator {
+
+	/** The Constant COUNT_BITS, the low bits of a cell holding the count. */
+	private static final int COUNT_BITS = 32;
+
+	/** The Constant COUNT_MASK. */
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	/** The Constant PADDING, the longs of a cache line between two cells. */
+	private static final int PADDING = 8;
+
+	/** The Constant NUM_CELLS, a power of two at least the number of cores. */
+	private static final int NUM_CELLS = Integer
+			.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+	/** The ratings added while there was no contention. */
+	private final AtomicLong base = new AtomicLong();
+
+	/** The cells, created on the first contention. */
+	private volatile AtomicLongArray cells = null;
+
+	/** Whether ratings were added since the last fold. */
+	private final AtomicBoolean dirty = new AtomicBoolean();
+
+	/** The sequence lock held by the folds. */
+	private final StampedLock foldLock = new StampedLock();
+
+	/** The total rating folded so far, guarded by foldLock. */
+	private long foldedTotalRating;
+
+	/** The number of times rated folded so far, guarded by foldLock. */
+	private long foldedNumTimesRated;
+
+	/**
+	 * The ratings of a book at one point.
+	 */
+	static final class Ratings {
+
+		/** The total rating. */
+		private final long totalRating;
+
+		/** The number of times rated. */
+		private final long numTimesRated;
+
+		/**
+		 * Instantiates a new {@link Ratings}.
+		 *
+		 * @param totalRating
+		 *            the total rating
+		 * @param numTimesRated
+		 *            the number of times rated
+		 */
+		private Ratings(long totalRating, long numTimesRated) {
+			this.totalRating = totalRating;
+			this.numTimesRated = numTimesRated;
+		}
+
+		/**
+		 * Gets the total rating.
+		 *
+		 * @return the total rating
+		 */
+		long getTotalRating() {
+			return totalRating;
+		}
+
+		/**
+		 * Gets the number of times rated.
+		 *
+		 * @return the number of times rated
+		 */
+		long getNumTimesRated() {
+			return numTimesRated;
+		}
+
+		/**
+		 * Gets the average rating.
+		 *
+		 * @return the average rating, or -1 if never rated
+		 */
+		float getAverageRating() {
+			return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link RatingAccumulator}.
+	 *
+	 * @param totalRating
+	 *            the initial total rating
+	 * @param numTimesRated
+	 *            the initial number of times rated
+	 */
+	RatingAccumulator(long totalRating, long numTimesRated) {
+		this.foldedTotalRating = totalRating;
+		this.foldedNumTimesRated = numTimesRated;
+	}
+
+	/**
+	 * Adds a rating.
+	 *
+	 * @param rating
+	 *            the rating
+	 * @return true, if it is the first rating since the last fold
+	 */
+	boolean add(int rating) {
+		long increment = ((long) rating << COUNT_BITS) + 1;
+		AtomicLongArray cells = this.cells;
+
+		if (cells == null) {
+			long ratings = base.get();
+
+			if (base.compareAndSet(ratings, ratings + increment)) {
+				return markDirty();
+			}
+
+			cells = inflate();
+		}
+
+		int cell = (int) (Thread.currentThread().getId() & (NUM_CELLS - 1));
+		cells.getAndAdd(cell * PADDING, increment);
+		return markDirty();
+	}
+
+	/**
+	 * Gets the ratings added so far. Every rating is either wholly in them or
+	 * not at all.
+	 *
+	 * @return the ratings
+	 */
+	Ratings get() {
+		long stamp = foldLock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			Ratings ratings = sum();
+
+			if (foldLock.validate(stamp)) {
+				return ratings;
+			}
+		}
+
+		// A fold is short, wait for it rather than retry
+		stamp = foldLock.readLock();
+		try {
+			return sum();
+		} finally {
+			foldLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Sums the folded totals, the base and the cells.
+	 *
+	 * @return the ratings
+	 */
+	private Ratings sum() {
+		long totalRating = foldedTotalRating;
+		long numTimesRated = foldedNumTimesRated;
+		long ratings = base.get();
+		totalRating += ratings >>> COUNT_BITS;
+		numTimesRated += ratings & COUNT_MASK;
+		AtomicLongArray cells = this.cells;
+
+		if (cells != null) {
+			for (int cell = 0; cell < NUM_CELLS; cell++) {
+				ratings = cells.get(cell * PADDING);
+				totalRating += ratings >>> COUNT_BITS;
+				numTimesRated += ratings & COUNT_MASK;
+			}
+		}
+
+		return new Ratings(totalRating, numTimesRated);
+	}
+
+	/**
+	 * Moves the ratings of the base and the cells to the folded totals, so
+	 * that the cells never overflow.
+	 *
+	 * @return the ratings after the fold
+	 */
+	Ratings fold() {
+		long stamp = foldLock.writeLock();
+		try {
+			return moveToFolded();
+		} finally {
+			foldLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Moves the ratings of the base and the cells to the folded totals.
+	 *
+	 * @return the ratings after the fold
+	 */
+	private Ratings moveToFolded() {
+		// Cleared first, so that a rating added during the fold marks it again
+		dirty.set(false);
+		long ratings = base.getAndSet(0);
+		foldedTotalRating += ratings >>> COUNT_BITS;
+		foldedNumTimesRated += ratings & COUNT_MASK;
+		AtomicLongArray cells = this.cells;
+
+		if (cells != null) {
+			for (int cell = 0; cell < NUM_CELLS; cell++) {
+				ratings = cells.getAndSet(cell * PADDING, 0);
+				foldedTotalRating += ratings >>> COUNT_BITS;
+				foldedNumTimesRated += ratings & COUNT_MASK;
+			}
+		}
+
+		return new Ratings(foldedTotalRating, foldedNumTimesRated);
+	}
+
+	/**
+	 * Marks the accumulator as needing a fold.
+	 *
+	 * @return true, if it was not marked yet
+	 */
+	private boolean markDirty() {
+		// A plain read first keeps a rating storm off the flag's cache line
+		return !dirty.get() && dirty.compareAndSet(false, true);
+	}
+
+	/**
+	 * Creates the cells if no other rater did.
+	 *
+	 * @return the cells
+	 */
+	private synchronized AtomicLongArray inflate() {
+		if (cells == null) {
+			cells = new AtomicLongArray(NUM_CELLS * PADDING);
+		}
+
+		return cells;
+	}
+}
@@ -0,0 +1,868 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookRecordWriter;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities.
+ * 
+ * @see BookStore
+ * @see StockManager
+ * @see TwoPhaseCommitParticipant
+ */
+public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager, TwoPhaseCommitParticipant, BookRecordSource {
+
+    /**
+     * The books in stock by ISBN, safe to read without the lock. Writers
+     * publish a new version holding the write lock.
+     */
+    private volatile CatalogSnapshot catalog = CatalogSnapshot.EMPTY;
+
+    /** The copies reserved by every prepared transaction, guarded by rwLock. */
+    private Map<String, Set<BookCopy>> preparedPurchases = null;
+
+    /**
+     * The sequence lock behind rwLock. Taking the write lock moves its stamp
+     * on, so a reader copying books while the stamp stays the same saw no
+     * writer.
+     */
+    private final StampedLock stampedLock = new StampedLock();
+    private final ReadWriteLock rwLock = stampedLock.asReadWriteLock();
+
+    /** The live reservations, whose copies are out of the stock. */
+    private final StockReservations reservations = new StockReservations(this::releaseReservedCopies);
+
+    /** The books sorted by average rating. */
+    private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+    /** The books by the words of their titles and authors, guarded by rwLock. */
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+    /** The books by price, stock and editor pick, guarded by rwLock. */
+    private final BookQueryIndex queryIndex = new BookQueryIndex();
+
+    /** One copy of every author, shared by the books, guarded by rwLock. */
+    private final StringPool authors = new StringPool();
+
+    public SingleLockConcurrentCertainBookStore() {
+        preparedPurchases = new HashMap<>();
+    }
+
+    private void validate(StockBook book) throws BookStoreException {
+        int isbn = book.getISBN();
+        String bookTitle = book.getTitle();
+        String bookAuthor = book.getAuthor();
+        int noCopies = book.getNumCopies();
+        float bookPrice = book.getPrice();
+
+        if (BookStoreUtility.isInvalidISBN(isbn)) {
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isEmpty(bookTitle)) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isEmpty(bookAuthor)) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isInvalidNoCopies(noCopies)) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (bookPrice < 0.0) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (catalog.contains(isbn)) {
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+        }
+    }
+
+    private void validate(BookCopy bookCopy) throws BookStoreException {
+        int isbn = bookCopy.getISBN();
+        int numCopies = bookCopy.getNumCopies();
+
+        validateISBNInStock(isbn);
+
+        if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+            throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+        }
+    }
+
+    private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+        int isbn = editorPickArg.getISBN();
+        validateISBNInStock(isbn);
+    }
+
+    private void validate(BookRating bookRating) throws BookStoreException {
+        int rating = bookRating.getRating();
+
+        validateISBNInStock(bookRating.getISBN());
+
+        if (BookStoreUtility.isInvalidRating(rating)) {
+            throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+        }
+    }
+
+    private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+        if (BookStoreUtility.isInvalidISBN(ISBN)) {
+            throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+        }
+        if (!catalog.contains(ISBN)) {
+            throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+        }
+    }
+
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+    public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+        rwLock.writeLock().lock();
+        try {
+            if (bookSet == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            Set<Integer> isbns = new HashSet<>();
+
+            for (StockBook book : bookSet) {
+                validate(book);
+
+                // Books with the same ISBN may differ in other fields, so the
+                // set may hold several of them
+                if (!isbns.add(book.getISBN())) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+                }
+            }
+
+            CatalogSnapshot newCatalog = catalog;
+            List<BookStoreBook> newBooks = new ArrayList<>(bookSet.size());
+
+            for (StockBook book : bookSet) {
+                BookStoreBook bookStoreBook = new BookStoreBook(book, authors);
+                newCatalog = newCatalog.with(bookStoreBook);
+                topRatedIndex.add(bookStoreBook);
+                newBooks.add(bookStoreBook);
+            }
+
+            searchIndex.addAll(newBooks);
+            queryIndex.addAll(newBooks);
+            catalog = newCatalog;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+    public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+        rwLock.writeLock().lock();
+        try {
+            if (bookCopiesSet == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            for (BookCopy bookCopy : bookCopiesSet) {
+                validate(bookCopy);
+            }
+
+            for (BookCopy bookCopy : bookCopiesSet) {
+                int isbn = bookCopy.getISBN();
+                int numCopies = bookCopy.getNumCopies();
+                BookStoreBook book = catalog.get(isbn);
+                book.addCopies(numCopies);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+    public List<StockBook> getBooks() throws BookStoreException {
+        // The stamp is checked once the parallel scan of the catalog joined
+        return readOptimistically(() -> catalog.collect(book -> true, BookStoreBook::immutableStockBook));
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(com.
+	 * acertainbookstore.interfaces.BookRecordWriter)
+	 */
+    public void writeBooks(BookRecordWriter writer) throws BookStoreException {
+        // The records are written in one pass, in the thread of the request
+        readOptimistically(() -> {
+            CatalogSnapshot books = catalog;
+            writer.start(books.size());
+            books.forEach(book -> book.writeStockRecord(writer));
+            return null;
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+        rwLock.writeLock().lock();
+        try {
+            if (editorPicks == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            for (BookEditorPick editorPickArg : editorPicks) {
+                validate(editorPickArg);
+            }
+
+            for (BookEditorPick editorPickArg : editorPicks) {
+                catalog.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        // Most purchases are of a single book, which needs no exclusive lock
+        if (bookCopiesToBuy != null && bookCopiesToBuy.size() == 1) {
+            buyBook(bookCopiesToBuy.iterator().next());
+            return;
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            buyBooksHoldingWriteLock(bookCopiesToBuy);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+    public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        return readOptimistically(() -> {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+
+            return isbnSet.stream()
+                    .map(isbn -> catalog.get(isbn).immutableStockBook())
+                    .collect(Collectors.toList());
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+    public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        return readOptimistically(() -> {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+
+            return isbnSet.stream()
+                    .map(isbn -> catalog.get(isbn).immutableBook())
+                    .collect(Collectors.toList());
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(java.util.
+	 * Set, com.acertainbookstore.interfaces.BookRecordWriter)
+	 */
+    public void writeBooks(Set<Integer> isbnSet, BookRecordWriter writer) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        readOptimistically(() -> {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+
+            writer.start(isbnSet.size());
+
+            for (Integer isbn : isbnSet) {
+                catalog.get(isbn).writeRecord(writer);
+            }
+
+            return null;
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+    public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            if (numBooks < 0) {
+                throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+            }
+
+            List<BookStoreBook> listAllEditorPicks = catalog.collect(BookStoreBook::isEditorPick, book -> book);
+
+            Random rand = new Random();
+            Set<Integer> tobePicked = new HashSet<>();
+            int rangePicks = listAllEditorPicks.size();
+
+            if (rangePicks <= numBooks) {
+                for (int i = 0; i < listAllEditorPicks.size(); i++) {
+                    tobePicked.add(i);
+                }
+            } else {
+                while (tobePicked.size() < numBooks) {
+                    int randNum = rand.nextInt(rangePicks);
+                    tobePicked.add(randNum);
+                }
+            }
+
+            return tobePicked.stream()
+                    .map(index -> listAllEditorPicks.get(index).immutableBook())
+                    .collect(Collectors.toList());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+    @Override
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            if (numBooks < 0) {
+                throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+            }
+
+            return topRatedIndex.getTopRated(numBooks).stream()
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+    @Override
+    public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            if (query == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            if (numBooks < 0) {
+                throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+            }
+
+            String[] tokens = BookSearchIndex.tokenize(query);
+
+            if (tokens.length == 0) {
+                throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+            }
+
+            List<Book> books = new ArrayList<>();
+
+            for (int isbn : searchIndex.search(tokens, numBooks)) {
+                books.add(catalog.get(isbn).immutableBook());
+            }
+
+            return books;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+    @Override
+    public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            if (query == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            if (BookStoreUtility.isInvalidQuery(query)) {
+                throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+            }
+
+            return queryIndex.query(query).stream()
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+    @Override
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            return catalog.collect(BookStoreBook::hadSaleMiss, BookStoreBook::immutableStockBook);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+    @Override
+    public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+        // A single rating is a lock-free add to the book
+        if (bookRating != null && bookRating.size() == 1) {
+            rateBook(bookRating.iterator().next());
+            return;
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            if (bookRating == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            for (BookRating rating : bookRating) {
+                validate(rating);
+            }
+
+            for (BookRating rating : bookRating) {
+                BookStoreBook book = catalog.get(rating.getISBN());
+
+                if (book.addRating(rating.getRating())) {
+                    topRatedIndex.rated(book);
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+    public void removeAllBooks() throws BookStoreException {
+        rwLock.writeLock().lock();
+        try {
+            catalog = CatalogSnapshot.EMPTY;
+            preparedPurchases.clear();
+            reservations.clear();
+            topRatedIndex.clear();
+            searchIndex.clear();
+            queryIndex.clear();
+            authors.clear();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+    public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+        rwLock.writeLock().lock();
+        try {
+            if (isbnSet == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            for (Integer ISBN : isbnSet) {
+                if (BookStoreUtility.isInvalidISBN(ISBN)) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+                }
+
+                if (!catalog.contains(ISBN)) {
+                    throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+                }
+            }
+
+            CatalogSnapshot newCatalog = catalog;
+            List<BookStoreBook> oldBooks = new ArrayList<>(isbnSet.size());
+
+            for (int isbn : isbnSet) {
+                oldBooks.add(newCatalog.get(isbn));
+                newCatalog = newCatalog.without(isbn);
+                topRatedIndex.remove(isbn);
+            }
+
+            searchIndex.removeAll(oldBooks);
+            queryIndex.removeAll(oldBooks);
+
+            for (BookStoreBook book : oldBooks) {
+                authors.release(book.getAuthor());
+            }
+            catalog = newCatalog;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+    @Override
+    public void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        if (transactionId == null || bookCopiesToBuy == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            if (preparedPurchases.containsKey(transactionId)) {
+                throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+            }
+
+            // The lock is not reentrant, so the purchase runs under the
+            // write lock already held, as one step with the reservation
+            buyBooksHoldingWriteLock(bookCopiesToBuy);
+            preparedPurchases.put(transactionId, new HashSet<>(bookCopiesToBuy));
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#commitTransaction(
+	 * java.lang.String)
+	 */
+    @Override
+    public void commitTransaction(String transactionId) throws BookStoreException {
+        if (transactionId == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            preparedPurchases.remove(transactionId);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#abortTransaction(
+	 * java.lang.String)
+	 */
+    @Override
+    public void abortTransaction(String transactionId) throws BookStoreException {
+        if (transactionId == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            Set<BookCopy> reservedCopies = preparedPurchases.remove(transactionId);
+
+            if (reservedCopies == null) {
+                return;
+            }
+
+            for (BookCopy reservedCopy : reservedCopies) {
+                BookStoreBook book = catalog.get(reservedCopy.getISBN());
+
+                // The book may have been removed since
+                if (book != null) {
+                    book.releaseCopies(reservedCopy.getNumCopies());
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+	 * getPreparedTransactions()
+	 */
+    @Override
+    public List<String> getPreparedTransactions() throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            return new ArrayList<>(preparedPurchases.keySet());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+    public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException {
+        if (bookCopiesToReserve == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        if (ttlMillis <= 0) {
+            throw new BookStoreException(BookStoreConstants.TTL + ttlMillis + BookStoreConstants.INVALID);
+        }
+
+        // The read lock keeps out buyBooks(), which checks the stock before
+        // taking it, but not other reservations: those only race on the
+        // lock-free counters of the books
+        rwLock.readLock().lock();
+        try {
+            for (BookCopy bookCopyToReserve : bookCopiesToReserve) {
+                validate(bookCopyToReserve);
+            }
+
+            List<BookCopy> reservedCopies = new ArrayList<>();
+            boolean saleMiss = false;
+
+            for (BookCopy bookCopyToReserve : bookCopiesToReserve) {
+                BookStoreBook book = catalog.get(bookCopyToReserve.getISBN());
+
+                if (book.buyCopiesOrAddSaleMiss(bookCopyToReserve.getNumCopies())) {
+                    reservedCopies.add(bookCopyToReserve);
+                } else {
+                    saleMiss = true;
+                }
+            }
+
+            if (!saleMiss) {
+                return reservations.add(bookCopiesToReserve, ttlMillis);
+            }
+
+            for (BookCopy reservedCopy : reservedCopies) {
+                catalog.get(reservedCopy.getISBN()).releaseCopies(reservedCopy.getNumCopies());
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+    public void confirmReservation(long reservationId) throws BookStoreException {
+        if (!reservations.confirm(reservationId)) {
+            throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.RESERVATION + reservationId + BookStoreConstants.NOT_AVAILABLE);
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+    public void releaseReservation(long reservationId) throws BookStoreException {
+        reservations.release(reservationId);
+    }
+
+    private <T> T readOptimistically(BookStoreRead<T> read) throws BookStoreException {
+        // Readers only check the stamp, so they never write to memory shared
+        // with other readers. The lock-free writers holding the read lock
+        // change one counter of one book in one step, so the stamp can
+        // ignore them.
+        long stamp = stampedLock.tryOptimisticRead();
+
+        if (stamp != 0) {
+            try {
+                T result = read.read();
+
+                if (stampedLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (BookStoreException | RuntimeException ex) {
+                if (stampedLock.validate(stamp)) {
+                    throw ex;
+                }
+            }
+        }
+
+        // A writer raced with the copy, which is made again under the lock
+        rwLock.readLock().lock();
+        try {
+            return read.read();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private void buyBooksHoldingWriteLock(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        if (bookCopiesToBuy == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        int isbn;
+        BookStoreBook book;
+        Boolean saleMiss = false;
+        Map<Integer, Integer> salesMisses = new HashMap<>();
+
+        for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+            isbn = bookCopyToBuy.getISBN();
+            validate(bookCopyToBuy);
+            book = catalog.get(isbn);
+            if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+                salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+                saleMiss = true;
+            }
+        }
+
+        if (saleMiss) {
+            for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+                book = catalog.get(saleMissEntry.getKey());
+                book.addSaleMiss(saleMissEntry.getValue());
+            }
+            throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+        }
+
+        for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+            book = catalog.get(bookCopyToBuy.getISBN());
+            book.buyCopies(bookCopyToBuy.getNumCopies());
+        }
+    }
+
+    private void buyBook(BookCopy bookCopyToBuy) throws BookStoreException {
+        // The check and the decrement are one lock-free step on the counter
+        // of the book, so the read lock only keeps out the operations
+        // replacing or resetting books
+        rwLock.readLock().lock();
+        try {
+            validate(bookCopyToBuy);
+            BookStoreBook book = catalog.get(bookCopyToBuy.getISBN());
+
+            if (!book.buyCopiesOrAddSaleMiss(bookCopyToBuy.getNumCopies())) {
+                throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private void rateBook(BookRating rating) throws BookStoreException {
+        rwLock.readLock().lock();
+        try {
+            validate(rating);
+            BookStoreBook book = catalog.get(rating.getISBN());
+
+            if (book.addRating(rating.getRating())) {
+                topRatedIndex.rated(book);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private void releaseReservedCopies(Set<BookCopy> reservedCopies) {
+        rwLock.readLock().lock();
+        try {
+            for (BookCopy reservedCopy : reservedCopies) {
+                BookStoreBook book = catalog.get(reservedCopy.getISBN());
+
+                // The book may have been removed since
+                if (book != null) {
+                    book.releaseCopies(reservedCopy.getNumCopies());
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.acertainbookstore.business;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.acertainbookstore.utils.TimerWheel;
+
+/**
+ * {@link StockReservations} keeps the live reservations of a store engine. The
+ * engine takes the copies of a reservation out of the stock before adding it
+ * here, and gets them back through its release callback when the reservation
+ * is released or expires. Whoever removes a reservation from the map first,
+ * confirmation, release or expiry, decides its fate, so none of them needs a
+ * lock.
+ *
+ * Expired reservations are reclaimed by a {@link TimerWheel} swept by a
+ * daemon thread, which only runs while reservations are pending.
+ */
+final class StockReservations {
+
+	/** The Constant TICK_MILLIS of the timer wheel. */
+	private static final long TICK_MILLIS = 10;
+
+	/** The Constant NUM_SLOTS of the timer wheel, about a minute of ticks. */
+	private static final int NUM_SLOTS = 6000;
+
+	/** The live reservations by id. */
+	private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+	/** The last reservation id given. */
+	private final AtomicLong lastReservationId = new AtomicLong();
+
+	/** The expirations of the reservations. */
+	private final TimerWheel<Long> expirations = new TimerWheel<>(NUM_SLOTS, TICK_MILLIS);
+
+	/** The callback putting back the copies of a reservation. */
+	private final Consumer<Set<BookCopy>> releaser;
+
+	/** The thread sweeping the timer wheel, null when none is pending. */
+	private Thread reaper = null;
+
+	/**
+	 * A reservation.
+	 */
+	private static final class Reservation {
+
+		/** The reserved copies. */
+		private final Set<BookCopy> bookCopies;
+
+		/** The time in nanoseconds the reservation expires at. */
+		private final long deadlineNanos;
+
+		/**
+		 * Instantiates a new {@link Reservation}.
+		 *
+		 * @param bookCopies
+		 *            the reserved copies
+		 * @param deadlineNanos
+		 *            the time the reservation expires at
+		 */
+		private Reservation(Set<BookCopy> bookCopies, long deadlineNanos) {
+			this.bookCopies = bookCopies;
+			this.deadlineNanos = deadlineNanos;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link StockReservations}.
+	 *
+	 * @param releaser
+	 *            the callback putting back the copies of a reservation
+	 */
+	StockReservations(Consumer<Set<BookCopy>> releaser) {
+		this.releaser = releaser;
+	}
+
+	/**
+	 * Adds a reservation of copies already taken out of the stock.
+	 *
+	 * @param bookCopies
+	 *            the reserved copies
+	 * @param ttlMillis
+	 *            the time to live of the reservation in milliseconds
+	 * @return the id of the reservation
+	 */
+	long add(Set<BookCopy> bookCopies, long ttlMillis) {
+		long reservationId = lastReservationId.incrementAndGet();
+		long deadlineNanos = System.nanoTime() + ttlMillis * 1000000L;
+
+		reservations.put(reservationId, new Reservation(new HashSet<>(bookCopies), deadlineNanos));
+		expirations.schedule(reservationId, deadlineNanos);
+
+		synchronized (this) {
+			if (reaper == null) {
+				reaper = new Thread(this::reap, "reservation-reaper");
+				reaper.setDaemon(true);
+				reaper.start();
+			}
+		}
+
+		return reservationId;
+	}
+
+	/**
+	 * Confirms a reservation, whose copies then stay out of the stock.
+	 *
+	 * @param reservationId
+	 *            the id of the reservation
+	 * @return true, if the reservation was live, false if it is unknown, was
+	 *         released or has expired
+	 */
+	boolean confirm(long reservationId) {
+		Reservation reservation = reservations.remove(reservationId);
+
+		if (reservation == null) {
+			return false;
+		}
+
+		// The reaper may not have come by yet
+		if (System.nanoTime() - reservation.deadlineNanos >= 0) {
+			releaser.accept(reservation.bookCopies);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Releases a reservation, putting its copies back in the stock. Releasing
+	 * a reservation which is not live has no effect.
+	 *
+	 * @param reservationId
+	 *            the id of the reservation
+	 */
+	void release(long reservationId) {
+		Reservation reservation = reservations.remove(reservationId);
+
+		if (reservation != null) {
+			releaser.accept(reservation.bookCopies);
+		}
+	}
+
+	/**
+	 * Forgets every reservation without putting back its copies, e.g. when the
+	 * books are all removed.
+	 */
+	void clear() {
+		reservations.clear();
+	}
+
+	/**
+	 * Sweeps the timer wheel until no reservation is pending.
+	 */
+	private void reap() {
+		while (true) {
+			try {
+				Thread.sleep(TICK_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+
+			expirations.advance(System.nanoTime(), this::release);
+
+			synchronized (this) {
+				if (expirations.size() == 0) {
+					reaper = null;
+					return;
+				}
+			}
+		}
+	}
+}
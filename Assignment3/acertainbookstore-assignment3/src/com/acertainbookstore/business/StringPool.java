@@ -0,0 +1,154 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link StringPool} keeps one copy of every distinct string a store engine
+ * holds many equal copies of, such as the authors of its books, so that books
+ * sharing an author share one string instead of each keeping the copy its
+ * request brought. Every string is counted by the books holding it and leaves
+ * the pool with the last of them.
+ *
+ * The pool is an open addressing table of two arrays, so that a string costs
+ * a few slots of a reference and a count rather than a map entry. It is not
+ * thread safe: the engine adds and removes books holding its exclusive lock.
+ */
+final class StringPool {
+
+	/** The Constant INITIAL_CAPACITY, the slots of a pool before it grows. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The strings, null for the free slots. */
+	private String[] values = new String[INITIAL_CAPACITY];
+
+	/** The number of books holding the string of every slot. */
+	private int[] counts = new int[INITIAL_CAPACITY];
+
+	/** The number of strings. */
+	private int size = 0;
+
+	/**
+	 * Gets the copy of a string in the pool, adding the string if the pool has
+	 * none, and counts one more holder of it.
+	 *
+	 * @param value
+	 *            the string
+	 * @return the copy of the string in the pool
+	 */
+	String acquire(String value) {
+		int slot = find(value);
+
+		if (values[slot] == null) {
+			values[slot] = value;
+			size++;
+
+			// At most half full, so that probes stay short
+			if (size * 2 > values.length) {
+				grow();
+				slot = find(value);
+			}
+		}
+
+		counts[slot]++;
+		return values[slot];
+	}
+
+	/**
+	 * Counts one less holder of a string, removing it from the pool with its
+	 * last holder.
+	 *
+	 * @param value
+	 *            the string
+	 */
+	void release(String value) {
+		int slot = find(value);
+
+		if (values[slot] == null || --counts[slot] > 0) {
+			return;
+		}
+
+		// Moves back the strings probed past the freed slot, so that a probe
+		// still stops at the first free slot
+		int mask = values.length - 1;
+		int hole = slot;
+		values[hole] = null;
+		size--;
+
+		for (int i = (slot + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			int home = hash(values[i]) & mask;
+
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				values[hole] = values[i];
+				counts[hole] = counts[i];
+				values[i] = null;
+				counts[i] = 0;
+				hole = i;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of distinct strings.
+	 *
+	 * @return the number of strings
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all the strings.
+	 */
+	void clear() {
+		values = new String[INITIAL_CAPACITY];
+		counts = new int[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Finds the slot of a string, or the free slot where it would go.
+	 *
+	 * @param value
+	 *            the string
+	 * @return the slot
+	 */
+	private int find(String value) {
+		int mask = values.length - 1;
+		int slot = hash(value) & mask;
+
+		while (values[slot] != null && !values[slot].equals(value)) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Doubles the slots of the pool.
+	 */
+	private void grow() {
+		String[] oldValues = values;
+		int[] oldCounts = counts;
+		values = new String[oldValues.length * 2];
+		counts = new int[oldValues.length * 2];
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = find(oldValues[i]);
+				values[slot] = oldValues[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the hash of a string, spreading the high bits of its hash code to
+	 * the low bits which pick the slot.
+	 *
+	 * @param value
+	 *            the string
+	 * @return the hash
+	 */
+	private static int hash(String value) {
+		int h = value.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
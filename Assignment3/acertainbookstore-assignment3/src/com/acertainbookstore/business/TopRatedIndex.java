@@ -0,0 +1,179 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * {@link TopRatedIndex} keeps the books of a store engine sorted by average
+ * rating, so that the top rated books are read without sorting the catalog.
+ * Ratings do not touch the index: a book rated for the first time since its
+ * last fold is queued, and a daemon thread folds the queued books and
+ * publishes their new averages, running only while books are queued. A reader
+ * folds the queued books first, so it always sees the ratings made before it.
+ */
+final class TopRatedIndex {
+
+	/** The Constant FOLD_MILLIS, the time between two folds. */
+	private static final long FOLD_MILLIS = 100;
+
+	/** The Constant ORDER, by decreasing average rating then by ISBN. */
+	private static final Comparator<Entry> ORDER = Comparator.comparingDouble((Entry entry) -> -entry.averageRating)
+			.thenComparingInt(entry -> entry.book.getISBN());
+
+	/** The entries sorted by average rating, guarded by this. */
+	private final NavigableSet<Entry> entries = new TreeSet<>(ORDER);
+
+	/** The entries by ISBN, guarded by this. */
+	private final Map<Integer, Entry> entriesByIsbn = new HashMap<>();
+
+	/** The books rated since their last fold, also guarding the folder. */
+	private final Queue<BookStoreBook> ratedBooks = new ConcurrentLinkedQueue<>();
+
+	/** The thread folding the rated books, null when none is queued. */
+	private Thread folder = null;
+
+	/**
+	 * A book and its published average rating.
+	 */
+	private static final class Entry {
+
+		/** The book. */
+		private final BookStoreBook book;
+
+		/** The average rating at the last fold. */
+		private final float averageRating;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param book
+		 *            the book
+		 * @param averageRating
+		 *            the average rating at the last fold
+		 */
+		private Entry(BookStoreBook book, float averageRating) {
+			this.book = book;
+			this.averageRating = averageRating;
+		}
+	}
+
+	/**
+	 * Adds a book, or replaces the book with the same ISBN.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	synchronized void add(BookStoreBook book) {
+		remove(book.getISBN());
+		Entry entry = new Entry(book, book.foldRatings());
+		entries.add(entry);
+		entriesByIsbn.put(book.getISBN(), entry);
+	}
+
+	/**
+	 * Removes a book.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	synchronized void remove(int isbn) {
+		Entry entry = entriesByIsbn.remove(isbn);
+
+		if (entry != null) {
+			entries.remove(entry);
+		}
+	}
+
+	/**
+	 * Removes every book.
+	 */
+	synchronized void clear() {
+		entries.clear();
+		entriesByIsbn.clear();
+		ratedBooks.clear();
+	}
+
+	/**
+	 * Queues a book whose ratings need folding, cf.
+	 * {@link BookStoreBook#addRating(int)}.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void rated(BookStoreBook book) {
+		ratedBooks.add(book);
+
+		synchronized (ratedBooks) {
+			if (folder == null) {
+				folder = new Thread(this::foldPeriodically, "rating-folder");
+				folder.setDaemon(true);
+				folder.start();
+			}
+		}
+	}
+
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books, by decreasing average rating
+	 */
+	synchronized List<BookStoreBook> getTopRated(int numBooks) {
+		fold();
+		List<BookStoreBook> books = new ArrayList<>();
+		Iterator<Entry> iterator = entries.iterator();
+
+		while (books.size() < numBooks && iterator.hasNext()) {
+			books.add(iterator.next().book);
+		}
+
+		return books;
+	}
+
+	/**
+	 * Folds the queued books and moves them to their new place.
+	 */
+	private synchronized void fold() {
+		BookStoreBook book;
+
+		while ((book = ratedBooks.poll()) != null) {
+			Entry entry = entriesByIsbn.get(book.getISBN());
+
+			// The book may have been removed or replaced since
+			if (entry != null && entry.book == book) {
+				add(book);
+			}
+		}
+	}
+
+	/**
+	 * Folds the queued books until none is queued.
+	 */
+	private void foldPeriodically() {
+		while (true) {
+			try {
+				Thread.sleep(FOLD_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+
+			fold();
+
+			synchronized (ratedBooks) {
+				if (ratedBooks.isEmpty()) {
+					folder = null;
+					return;
+				}
+			}
+		}
+	}
+}
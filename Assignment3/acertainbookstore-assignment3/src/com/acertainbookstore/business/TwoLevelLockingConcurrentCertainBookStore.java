@@ -0,0 +1,972 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookRecordWriter;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities.
+ * 
+ * @see BookStore
+ * @see StockManager
+ * @see TwoPhaseCommitParticipant
+ */
+public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager, TwoPhaseCommitParticipant, BookRecordSource {
+
+    // The books in stock by ISBN. Writers publish a new version holding the
+    // global write lock, so that a scan reads one version without locking
+    private volatile CatalogSnapshot catalog = CatalogSnapshot.EMPTY;
+
+    // Global lock for structural changes (intention lock). It is the read-write
+    // view of a sequence lock, like the per-book locks, so that readers can
+    // copy books without locking and check that no writer ran meanwhile. The
+    // per-book locks are held by the books, so that looking up a book finds
+    // its lock, cf. BookStoreBook#getLock()
+    private final StampedLock globalStampedLock = new StampedLock();
+    private final ReadWriteLock globalLock = globalStampedLock.asReadWriteLock();
+
+    // Copies reserved by every prepared transaction. A transaction being
+    // prepared holds PREPARING, so that a second prepare of it fails
+    private final Map<String, Set<BookCopy>> preparedPurchases = new ConcurrentHashMap<>();
+    private static final Set<BookCopy> PREPARING = Collections.unmodifiableSet(new HashSet<>());
+
+    // Live reservations, whose copies are out of the stock
+    private final StockReservations reservations = new StockReservations(this::releaseReservedCopies);
+
+    // Books sorted by average rating
+    private final TopRatedIndex topRatedIndex = new TopRatedIndex();
+
+    // Books by the words of their titles and authors, guarded by the global
+    // lock
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+
+    // Books by price, stock and editor pick, guarded by the global lock. The
+    // stock and editor pick bitmaps also change under the book locks
+    private final BookQueryIndex queryIndex = new BookQueryIndex();
+
+    // One copy of every author, shared by the books, guarded by the global
+    // lock
+    private final StringPool authors = new StringPool();
+
+    public TwoLevelLockingConcurrentCertainBookStore() {
+        // Nothing to do
+    }
+
+    private void validate(StockBook book) throws BookStoreException {
+        int isbn = book.getISBN();
+        String bookTitle = book.getTitle();
+        String bookAuthor = book.getAuthor();
+        int noCopies = book.getNumCopies();
+        float bookPrice = book.getPrice();
+
+        if (BookStoreUtility.isInvalidISBN(isbn)) {
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isEmpty(bookTitle)) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isEmpty(bookAuthor)) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (BookStoreUtility.isInvalidNoCopies(noCopies)) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (bookPrice < 0.0) {
+            throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+        }
+
+        if (catalog.contains(isbn)) {
+            throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+        }
+    }
+	
+    // The validators return the book they looked up, so that an operation
+    // validates and looks up its books in one pass
+    private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+        int isbn = bookCopy.getISBN();
+        int numCopies = bookCopy.getNumCopies();
+
+        BookStoreBook book = validateISBNInStock(isbn);
+
+        if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+            throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+        }
+
+        return book;
+    }
+	
+    private BookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
+        int isbn = editorPickArg.getISBN();
+        return validateISBNInStock(isbn);
+    }
+
+    private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+        int rating = bookRating.getRating();
+
+        BookStoreBook book = validateISBNInStock(bookRating.getISBN());
+
+        if (BookStoreUtility.isInvalidRating(rating)) {
+            throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+        }
+
+        return book;
+    }
+
+    private BookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
+        if (BookStoreUtility.isInvalidISBN(ISBN)) {
+            throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+        }
+
+        BookStoreBook book = catalog.get(ISBN);
+
+        if (book == null) {
+            throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+        }
+
+        return book;
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+    @Override
+    public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+        globalLock.writeLock().lock();
+        try {
+            if (bookSet == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            Set<Integer> isbns = new HashSet<>();
+
+            for (StockBook book : bookSet) {
+                validate(book);
+
+                // Books with the same ISBN may differ in other fields, so the
+                // set may hold several of them
+                if (!isbns.add(book.getISBN())) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + book.getISBN() + BookStoreConstants.DUPLICATED);
+                }
+            }
+
+            CatalogSnapshot newCatalog = catalog;
+            List<BookStoreBook> newBooks = new ArrayList<>(bookSet.size());
+
+            for (StockBook book : bookSet) {
+                BookStoreBook bookStoreBook = new BookStoreBook(book, authors);
+                newCatalog = newCatalog.with(bookStoreBook);
+                topRatedIndex.add(bookStoreBook);
+                newBooks.add(bookStoreBook);
+            }
+
+            searchIndex.addAll(newBooks);
+            queryIndex.addAll(newBooks);
+            catalog = newCatalog;
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+    @Override
+    public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+        if (bookCopiesSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookCopy bookCopy : bookCopiesSet) {
+                lockSet.add(validate(bookCopy), bookCopy.getNumCopies());
+            }
+
+            // Acquire locks in sorted order of ISBN to avoid deadlock
+            lockSet.lockExclusively();
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                lockSet.getBook(i).addCopies(lockSet.getValue(i));
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+    @Override
+    public List<StockBook> getBooks() throws BookStoreException {
+        // A full scan copies the books of one version of the catalog, so it
+        // neither locks nor waits for the structural changes. Like before, it
+        // does not wait for the per-book writers either
+        return catalog.collect(book -> true, BookStoreBook::immutableStockBook);
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(com.
+	 * acertainbookstore.interfaces.BookRecordWriter)
+	 */
+    @Override
+    public void writeBooks(BookRecordWriter writer) {
+        // Like getBooks, the records come from one version of the catalog
+        CatalogSnapshot books = catalog;
+        writer.start(books.size());
+        books.forEach(book -> book.writeStockRecord(writer));
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+    @Override
+    public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+        if (editorPicks == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookEditorPick editorPickArg : editorPicks) {
+                lockSet.add(validate(editorPickArg), editorPickArg.isEditorPick() ? 1 : 0);
+            }
+
+            // Lock all affected books in a defined order
+            lockSet.lockExclusively();
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                lockSet.getBook(i).setEditorPick(lockSet.getValue(i) != 0);
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+    @Override
+    public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        if (bookCopiesToBuy == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        // Most purchases are of a single book, which needs no exclusive lock
+        if (bookCopiesToBuy.size() == 1) {
+            buyBook(bookCopiesToBuy.iterator().next());
+            return;
+        }
+
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+                lockSet.add(validate(bookCopyToBuy), bookCopyToBuy.getNumCopies());
+            }
+
+            lockSet.lockExclusively();
+
+            // Check availability
+            boolean saleMiss = false;
+
+            for (int i = 0; i < lockSet.size() && !saleMiss; i++) {
+                saleMiss = !lockSet.getBook(i).areCopiesInStore(lockSet.getValue(i));
+            }
+
+            if (saleMiss) {
+                // The stock cannot change under the write locks, so the books
+                // short of copies are the same as in the check
+                for (int i = 0; i < lockSet.size(); i++) {
+                    BookStoreBook book = lockSet.getBook(i);
+
+                    if (!book.areCopiesInStore(lockSet.getValue(i))) {
+                        book.addSaleMiss(lockSet.getValue(i) - book.getNumCopies());
+                    }
+                }
+                throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+            }
+
+            // Perform the purchase
+            for (int i = 0; i < lockSet.size(); i++) {
+                lockSet.getBook(i).buyCopies(lockSet.getValue(i));
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+    @Override
+    public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        List<Integer> sortedIsbns = isbnSet.stream().sorted().collect(Collectors.toList());
+
+        return readOptimistically(sortedIsbns, () -> {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+
+            return sortedIsbns.stream()
+                    .map(isbn -> catalog.get(isbn).immutableStockBook())
+                    .collect(Collectors.toList());
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+    @Override
+    public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        List<Integer> sortedIsbns = isbnSet.stream().sorted().collect(Collectors.toList());
+
+        return readOptimistically(sortedIsbns, () -> {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+
+            return sortedIsbns.stream()
+                    .map(isbn -> catalog.get(isbn).immutableBook())
+                    .collect(Collectors.toList());
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(java.util.
+	 * Set, com.acertainbookstore.interfaces.BookRecordWriter)
+	 */
+    @Override
+    public void writeBooks(Set<Integer> isbnSet, BookRecordWriter writer) throws BookStoreException {
+        if (isbnSet == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        List<Integer> sortedIsbns = isbnSet.stream().sorted().collect(Collectors.toList());
+
+        readOptimistically(sortedIsbns, () -> {
+            for (Integer ISBN : isbnSet) {
+                validateISBNInStock(ISBN);
+            }
+
+            writer.start(sortedIsbns.size());
+
+            for (Integer isbn : sortedIsbns) {
+                catalog.get(isbn).writeRecord(writer);
+            }
+
+            return null;
+        });
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+    @Override
+    public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+        if (numBooks < 0) {
+            throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+        }
+
+        // Scans one version of the catalog, like getBooks()
+        List<BookStoreBook> listAllEditorPicks = catalog.collect(BookStoreBook::isEditorPick, book -> book);
+
+        Random rand = new Random();
+        Set<Integer> tobePicked = new HashSet<>();
+        int rangePicks = listAllEditorPicks.size();
+
+        if (rangePicks <= numBooks) {
+            for (int i = 0; i < listAllEditorPicks.size(); i++) {
+                tobePicked.add(i);
+            }
+        } else {
+            while (tobePicked.size() < numBooks) {
+                int randNum = rand.nextInt(rangePicks);
+                tobePicked.add(randNum);
+            }
+        }
+
+        return tobePicked.stream()
+                .map(index -> listAllEditorPicks.get(index).immutableBook())
+                .collect(Collectors.toList());
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+    @Override
+    public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+        globalLock.readLock().lock();
+        try {
+            if (numBooks < 0) {
+                throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+            }
+
+            // Reading the index relies on the global read lock only, which
+            // keeps the books it returns in the catalog
+            return topRatedIndex.getTopRated(numBooks).stream()
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+    @Override
+    public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+        if (query == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        if (numBooks < 0) {
+            throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+        }
+
+        String[] tokens = BookSearchIndex.tokenize(query);
+
+        if (tokens.length == 0) {
+            throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+        }
+
+        globalLock.readLock().lock();
+        try {
+            // The index changes with the catalog under the global write lock,
+            // so the ISBNs it returns are in the catalog
+            List<Book> books = new ArrayList<>();
+
+            for (int isbn : searchIndex.search(tokens, numBooks)) {
+                books.add(catalog.get(isbn).immutableBook());
+            }
+
+            return books;
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+    @Override
+    public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+        if (query == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        if (BookStoreUtility.isInvalidQuery(query)) {
+            throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+        }
+
+        globalLock.readLock().lock();
+        try {
+            return queryIndex.query(query).stream()
+                    .map(BookStoreBook::immutableBook)
+                    .collect(Collectors.toList());
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+    @Override
+    public List<StockBook> getBooksInDemand() throws BookStoreException {
+        // Scans one version of the catalog, like getBooks()
+        return catalog.collect(BookStoreBook::hadSaleMiss, BookStoreBook::immutableStockBook);
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+    @Override
+    public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+        if (bookRating == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        // A single rating is a lock-free add to the book
+        if (bookRating.size() == 1) {
+            rateBook(bookRating.iterator().next());
+            return;
+        }
+
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookRating rating : bookRating) {
+                lockSet.add(validate(rating), rating.getRating());
+            }
+
+            lockSet.lockExclusively();
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                BookStoreBook book = lockSet.getBook(i);
+
+                if (book.addRating(lockSet.getValue(i))) {
+                    topRatedIndex.rated(book);
+                }
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		globalLock.writeLock().lock();
+		try {
+			catalog = CatalogSnapshot.EMPTY;
+			preparedPurchases.clear();
+			reservations.clear();
+			topRatedIndex.clear();
+			searchIndex.clear();
+			queryIndex.clear();
+			authors.clear();
+		} finally {
+			globalLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+    @Override
+    public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+        globalLock.writeLock().lock();
+        try {
+            if (isbnSet == null) {
+                throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+            }
+
+            for (Integer ISBN : isbnSet) {
+                if (BookStoreUtility.isInvalidISBN(ISBN)) {
+                    throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+                }
+                if (!catalog.contains(ISBN)) {
+                    throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+                }
+            }
+
+            CatalogSnapshot newCatalog = catalog;
+            List<BookStoreBook> oldBooks = new ArrayList<>(isbnSet.size());
+
+            for (int isbn : isbnSet) {
+                oldBooks.add(newCatalog.get(isbn));
+                newCatalog = newCatalog.without(isbn);
+                topRatedIndex.remove(isbn);
+            }
+
+            searchIndex.removeAll(oldBooks);
+            queryIndex.removeAll(oldBooks);
+
+            for (BookStoreBook book : oldBooks) {
+                authors.release(book.getAuthor());
+            }
+            catalog = newCatalog;
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+    @Override
+    public void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+        if (transactionId == null || bookCopiesToBuy == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        // Claim the transaction before taking the copies, so that concurrent
+        // prepares of it cannot both take them
+        if (preparedPurchases.putIfAbsent(transactionId, PREPARING) != null) {
+            throw new BookStoreException(BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.DUPLICATED);
+        }
+
+        // The copies leave the stock now and come back if the transaction aborts
+        try {
+            buyBooks(bookCopiesToBuy);
+        } catch (BookStoreException | RuntimeException ex) {
+            preparedPurchases.remove(transactionId, PREPARING);
+            throw ex;
+        }
+
+        // An abort, or the removal of all books, may have dropped the claim
+        // meanwhile, and then the copies go back at once
+        Set<BookCopy> reservedCopies = new HashSet<>(bookCopiesToBuy);
+
+        if (!preparedPurchases.replace(transactionId, PREPARING, reservedCopies)) {
+            releaseCopies(reservedCopies);
+            throw new BookStoreException(BookStoreErrorCode.NOT_FOUND,
+                    BookStoreConstants.TRANSACTION + transactionId + BookStoreConstants.NOT_AVAILABLE);
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#commitTransaction(
+	 * java.lang.String)
+	 */
+    @Override
+    public void commitTransaction(String transactionId) throws BookStoreException {
+        if (transactionId == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        preparedPurchases.remove(transactionId);
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#abortTransaction(
+	 * java.lang.String)
+	 */
+    @Override
+    public void abortTransaction(String transactionId) throws BookStoreException {
+        if (transactionId == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        Set<BookCopy> reservedCopies = preparedPurchases.remove(transactionId);
+
+        if (reservedCopies != null) {
+            releaseCopies(reservedCopies);
+        }
+    }
+
+    private void releaseCopies(Set<BookCopy> reservedCopies) {
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookCopy reservedCopy : reservedCopies) {
+                BookStoreBook book = catalog.get(reservedCopy.getISBN());
+
+                // The book may have been removed since
+                if (book != null) {
+                    lockSet.add(book, reservedCopy.getNumCopies());
+                }
+            }
+
+            lockSet.lockExclusively();
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                lockSet.getBook(i).releaseCopies(lockSet.getValue(i));
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+	 * getPreparedTransactions()
+	 */
+    @Override
+    public List<String> getPreparedTransactions() throws BookStoreException {
+        return new ArrayList<>(preparedPurchases.keySet());
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+    @Override
+    public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException {
+        if (bookCopiesToReserve == null) {
+            throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+        }
+
+        if (ttlMillis <= 0) {
+            throw new BookStoreException(BookStoreConstants.TTL + ttlMillis + BookStoreConstants.INVALID);
+        }
+
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookCopy bookCopyToReserve : bookCopiesToReserve) {
+                lockSet.add(validate(bookCopyToReserve), bookCopyToReserve.getNumCopies());
+            }
+
+            // Shared locks keep out buyBooks(), which checks the stock before
+            // taking it, but not other reservations: those only race on the
+            // lock-free counters of the books
+            lockSet.lockShared();
+            boolean saleMiss = false;
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                if (!lockSet.getBook(i).buyCopiesOrAddSaleMiss(lockSet.getValue(i))) {
+                    // Nothing was taken from this book
+                    lockSet.setValue(i, 0);
+                    saleMiss = true;
+                }
+            }
+
+            if (!saleMiss) {
+                return reservations.add(bookCopiesToReserve, ttlMillis);
+            }
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                if (lockSet.getValue(i) > 0) {
+                    lockSet.getBook(i).releaseCopies(lockSet.getValue(i));
+                }
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+
+        throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+    @Override
+    public void confirmReservation(long reservationId) throws BookStoreException {
+        if (!reservations.confirm(reservationId)) {
+            throw new BookStoreException(BookStoreErrorCode.NOT_FOUND, BookStoreConstants.RESERVATION + reservationId + BookStoreConstants.NOT_AVAILABLE);
+        }
+    }
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+    @Override
+    public void releaseReservation(long reservationId) throws BookStoreException {
+        reservations.release(reservationId);
+    }
+
+    private <T> T readOptimistically(List<Integer> sortedIsbns, BookStoreRead<T> read) throws BookStoreException {
+        // Readers only check the stamps of the global lock and of the books
+        // they copy, so they never write to memory shared with other readers.
+        // The lock-free writers holding read locks change one counter of one
+        // book in one step, so the stamps can ignore them.
+        long globalStamp = globalStampedLock.tryOptimisticRead();
+        StampedLock[] locks = new StampedLock[sortedIsbns.size()];
+        long[] stamps = new long[sortedIsbns.size()];
+        boolean optimistic = (globalStamp != 0);
+
+        for (int i = 0; optimistic && i < locks.length; i++) {
+            // A book not in stock has no lock, the read reports it
+            BookStoreBook book = catalog.get(sortedIsbns.get(i));
+            locks[i] = (book != null) ? book.getLock() : null;
+            optimistic = (locks[i] == null || (stamps[i] = locks[i].tryOptimisticRead()) != 0);
+        }
+
+        if (optimistic) {
+            try {
+                T result = read.read();
+
+                if (validateStamps(globalStamp, locks, stamps)) {
+                    return result;
+                }
+            } catch (BookStoreException | RuntimeException ex) {
+                if (validateStamps(globalStamp, locks, stamps)) {
+                    throw ex;
+                }
+            }
+        }
+
+        // A writer raced with the copy, which is made again under the locks
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (Integer isbn : sortedIsbns) {
+                BookStoreBook book = catalog.get(isbn);
+
+                if (book != null) {
+                    lockSet.add(book, 0);
+                }
+            }
+
+            lockSet.lockShared();
+            return read.read();
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+    private boolean validateStamps(long globalStamp, StampedLock[] locks, long[] stamps) {
+        for (int i = 0; i < locks.length; i++) {
+            if (locks[i] != null && !locks[i].validate(stamps[i])) {
+                return false;
+            }
+        }
+
+        return globalStampedLock.validate(globalStamp);
+    }
+
+    private void rateBook(BookRating rating) throws BookStoreException {
+        globalLock.readLock().lock();
+        try {
+            BookStoreBook book = validate(rating);
+
+            // The read lock of the book only keeps out the ratings of
+            // several books, which hold the write locks of their books
+            StampedLock lock = book.getLock();
+            long stamp = lock.readLock();
+            try {
+                if (book.addRating(rating.getRating())) {
+                    topRatedIndex.rated(book);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    private void releaseReservedCopies(Set<BookCopy> reservedCopies) {
+        BookLockSet lockSet = BookLockSet.get();
+        globalLock.readLock().lock();
+        try {
+            for (BookCopy reservedCopy : reservedCopies) {
+                BookStoreBook book = catalog.get(reservedCopy.getISBN());
+
+                // The book may have been removed since
+                if (book != null) {
+                    lockSet.add(book, reservedCopy.getNumCopies());
+                }
+            }
+
+            lockSet.lockShared();
+
+            for (int i = 0; i < lockSet.size(); i++) {
+                lockSet.getBook(i).releaseCopies(lockSet.getValue(i));
+            }
+        } finally {
+            lockSet.unlock();
+            globalLock.readLock().unlock();
+        }
+    }
+
+    private void buyBook(BookCopy bookCopyToBuy) throws BookStoreException {
+        globalLock.readLock().lock();
+        try {
+            BookStoreBook book = validate(bookCopyToBuy);
+
+            // The check and the decrement are one lock-free step on the
+            // counter of the book, so its read lock only keeps out the
+            // purchases of several books, which check before they buy
+            StampedLock lock = book.getLock();
+            long stamp = lock.readLock();
+            try {
+                if (!book.buyCopiesOrAddSaleMiss(bookCopyToBuy.getNumCopies())) {
+                    throw new BookStoreException(BookStoreErrorCode.NOT_AVAILABLE, BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+}
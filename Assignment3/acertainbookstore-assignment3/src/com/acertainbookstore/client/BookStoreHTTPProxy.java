@@ -5,13 +5,16 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
@@ -29,7 +32,7 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * @see BookStore
  * @see CertainBookStore
  */
-public class BookStoreHTTPProxy implements BookStore {
+public class BookStoreHTTPProxy implements BookStore, TwoPhaseCommitParticipant {
 
 	/** The client. */
 	protected HttpClient client;
@@ -40,6 +43,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** The highest version of the store seen in a response. */
+	private final AtomicLong version = new AtomicLong();
+
 	/**
 	 * Initializes a new {@link BookStoreHTTPProxy}.
 	 *
@@ -99,7 +105,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -111,8 +117,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -131,8 +136,7 @@ public class BookStoreHTTPProxy implements BookStore {
 				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
-		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -154,7 +158,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		exchange(bookStoreRequest);
 	}
 
 	/*
@@ -163,7 +169,200 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETTOPRATEDBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlEncodedQuery = URLEncoder.encode(query, StandardCharsets.UTF_8);
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.SEARCHBOOKS + "?"
+				+ BookStoreConstants.QUERY_PARAM + "=" + urlEncodedQuery + "&" + BookStoreConstants.BOOK_NUM_PARAM
+				+ "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.QUERYBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, query);
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	@Override
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RESERVEBOOKS + "?" + BookStoreConstants.TTL_PARAM
+				+ "=" + ttlMillis;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, booksToReserve);
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
+		return (Long) bookStoreResponse.getList().get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+	@Override
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.CONFIRMRESERVATION + "?"
+				+ BookStoreConstants.RESERVATION_PARAM + "=" + reservationId;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		exchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+	@Override
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RELEASERESERVATION + "?"
+				+ BookStoreConstants.RESERVATION_PARAM + "=" + reservationId;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		exchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		String urlString = getTransactionURLString(BookStoreMessageTag.PREPAREBUYBOOKS, transactionId);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesToBuy);
+		exchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#commitTransaction(
+	 * java.lang.String)
+	 */
+	@Override
+	public void commitTransaction(String transactionId) throws BookStoreException {
+		String urlString = getTransactionURLString(BookStoreMessageTag.COMMITTRANSACTION, transactionId);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		exchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#abortTransaction(
+	 * java.lang.String)
+	 */
+	@Override
+	public void abortTransaction(String transactionId) throws BookStoreException {
+		String urlString = getTransactionURLString(BookStoreMessageTag.ABORTTRANSACTION, transactionId);
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		exchange(bookStoreRequest);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+	 * getPreparedTransactions()
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<String> getPreparedTransactions() throws BookStoreException {
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETPREPAREDTRANSACTIONS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = exchange(bookStoreRequest);
+		return (List<String>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Gets the URL of a message about a transaction.
+	 *
+	 * @param messageTag
+	 *            the message tag
+	 * @param transactionId
+	 *            the id of the transaction
+	 * @return the URL string
+	 * @throws BookStoreException
+	 *             if the id of the transaction is null
+	 */
+	private String getTransactionURLString(BookStoreMessageTag messageTag, String transactionId)
+			throws BookStoreException {
+		if (transactionId == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return serverAddress + "/" + messageTag + "?" + BookStoreConstants.TRANSACTION_PARAM + "="
+				+ URLEncoder.encode(transactionId, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the highest version of the store seen in a response, which a
+	 * replica must have applied to reflect the calls made through this proxy.
+	 *
+	 * @return the version, 0 if the store is not replicated
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Performs an HTTP exchange with the server and records the version of
+	 * the store.
+	 *
+	 * @param bookStoreRequest
+	 *            the book store request
+	 * @return the book store response
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreResponse exchange(BookStoreRequest bookStoreRequest) throws BookStoreException {
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		version.accumulateAndGet(bookStoreResponse.getVersion(), Math::max);
+		return bookStoreResponse;
 	}
 }
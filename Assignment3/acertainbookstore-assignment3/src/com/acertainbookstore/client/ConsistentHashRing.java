@@ -0,0 +1,82 @@
+package com.acertainbookstore.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link ConsistentHashRing} maps ISBNs to shards by consistent hashing. Every
+ * shard is placed on the ring at {@value #VIRTUAL_NODES_PER_SHARD} points and
+ * an ISBN belongs to the shard at the first point at or after its hash, so
+ * adding a shard only moves the ISBNs that land on its points and the load
+ * stays even across shards.
+ */
+public final class ConsistentHashRing {
+
+	/** The Constant VIRTUAL_NODES_PER_SHARD. */
+	private static final int VIRTUAL_NODES_PER_SHARD = 128;
+
+	/** The shard of every point on the ring. */
+	private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+	/** The number of shards. */
+	private final int numShards;
+
+	/**
+	 * Initializes a new {@link ConsistentHashRing}.
+	 *
+	 * @param numShards
+	 *            the number of shards
+	 */
+	public ConsistentHashRing(int numShards) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("numShards = " + numShards + ", but it must be positive");
+		}
+
+		this.numShards = numShards;
+
+		for (int shard = 0; shard < numShards; shard++) {
+			for (int virtualNode = 0; virtualNode < VIRTUAL_NODES_PER_SHARD; virtualNode++) {
+				ring.put(hash(((long) shard << 32) | virtualNode), shard);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return numShards;
+	}
+
+	/**
+	 * Gets the shard an ISBN belongs to.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @return the shard, between 0 and the number of shards - 1
+	 */
+	public int getShard(int isbn) {
+		Map.Entry<Integer, Integer> point = ring.ceilingEntry(hash(isbn));
+		return (point != null) ? point.getValue() : ring.firstEntry().getValue();
+	}
+
+	/**
+	 * Hashes a key with the finalizer of MurmurHash3, so that consecutive
+	 * ISBNs spread over the ring.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the hash
+	 */
+	private static int hash(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+}
@@ -0,0 +1,258 @@
+package com.acertainbookstore.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link DecisionLog} is the durable log of a {@link TwoPhaseCommitCoordinator}.
+ * The first line names the coordinator, then every commit decision is written
+ * and forced to disk before any participant is told to commit, and the end of
+ * a transaction is written once every participant has committed. Aborts are
+ * not logged: a prepared transaction without a commit decision is presumed
+ * aborted.
+ *
+ * Concurrent commit decisions share the forces to disk: a transaction whose
+ * decision was written before another thread's force started does not force
+ * again.
+ */
+final class DecisionLog implements Closeable {
+
+	/** The Constant COORDINATOR, the first record. */
+	private static final String COORDINATOR = "COORDINATOR";
+
+	/** The Constant COMMIT, a commit decision. */
+	private static final String COMMIT = "COMMIT";
+
+	/** The Constant END, the end of a transaction. */
+	private static final String END = "END";
+
+	/** The file. */
+	private final File file;
+
+	/** The channel appending to the file. */
+	private FileChannel channel;
+
+	/** The id of the coordinator. */
+	private final String coordinatorId;
+
+	/** The transactions committed but not ended when the log was opened. */
+	private final Set<String> unfinishedCommits = new LinkedHashSet<>();
+
+	/** Whether the log existed before, i.e. the coordinator is recovering. */
+	private final boolean recovering;
+
+	/** The bytes written, guarded by this. */
+	private long writtenPosition;
+
+	/** The bytes forced to disk, guarded by forceLock. */
+	private long forcedPosition;
+
+	/** The lock of the forces to disk. */
+	private final Object forceLock = new Object();
+
+	/**
+	 * Opens a decision log, reading the decisions of a previous run if the file
+	 * exists.
+	 *
+	 * @param file
+	 *            the file, or null for a temporary log which cannot be
+	 *            recovered
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	DecisionLog(File file) throws IOException {
+		if (file == null) {
+			file = File.createTempFile("decisions", ".log");
+			file.deleteOnExit();
+			file.delete();
+		}
+
+		this.file = file;
+		this.recovering = file.exists() && file.length() > 0;
+
+		String id = null;
+
+		if (recovering) {
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+
+			for (String line : lines) {
+				String[] record = line.split(" ", 2);
+
+				if (record.length < 2) {
+					// A record torn by a crash
+					continue;
+				}
+
+				if (COORDINATOR.equals(record[0])) {
+					id = record[1];
+				} else if (COMMIT.equals(record[0])) {
+					unfinishedCommits.add(record[1]);
+				} else if (END.equals(record[0])) {
+					unfinishedCommits.remove(record[1]);
+				}
+			}
+		}
+
+		this.coordinatorId = (id != null) ? id : UUID.randomUUID().toString();
+		open(recovering && id != null);
+	}
+
+	/**
+	 * Opens the channel, keeping the records or starting with the name of the
+	 * coordinator.
+	 *
+	 * @param append
+	 *            whether to keep the records
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void open(boolean append) throws IOException {
+		if (append) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			writtenPosition = channel.size();
+			forcedPosition = writtenPosition;
+		} else {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			writtenPosition = 0;
+			append(COORDINATOR, coordinatorId);
+			channel.force(false);
+			forcedPosition = writtenPosition;
+		}
+	}
+
+	/**
+	 * Gets the id of the coordinator.
+	 *
+	 * @return the coordinator id
+	 */
+	String getCoordinatorId() {
+		return coordinatorId;
+	}
+
+	/**
+	 * Checks whether the log was written by a previous run.
+	 *
+	 * @return true, if the coordinator is recovering
+	 */
+	boolean isRecovering() {
+		return recovering;
+	}
+
+	/**
+	 * Gets the transactions committed by a previous run which some participant
+	 * may not know of yet.
+	 *
+	 * @return the transaction ids
+	 */
+	Set<String> getUnfinishedCommits() {
+		return unfinishedCommits;
+	}
+
+	/**
+	 * Logs a commit decision and waits for it to be on disk.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void logCommit(String transactionId) throws IOException {
+		force(append(COMMIT, transactionId));
+	}
+
+	/**
+	 * Logs the end of a transaction, without forcing it to disk: at worst the
+	 * transaction is committed again on recovery.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void logEnd(String transactionId) throws IOException {
+		append(END, transactionId);
+	}
+
+	/**
+	 * Starts the log afresh once every transaction is resolved. No transaction
+	 * may be running.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	synchronized void truncate() throws IOException {
+		channel.close();
+		unfinishedCommits.clear();
+		open(false);
+	}
+
+	/**
+	 * Appends a record.
+	 *
+	 * @param type
+	 *            the type of the record
+	 * @param transactionId
+	 *            the transaction id
+	 * @return the position after the record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private synchronized long append(String type, String transactionId) throws IOException {
+		ByteBuffer record = ByteBuffer.wrap((type + " " + transactionId + "\n").getBytes(StandardCharsets.UTF_8));
+		int length = record.remaining();
+
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+
+		writtenPosition += length;
+		return writtenPosition;
+	}
+
+	/**
+	 * Forces the log to disk up to a position, unless another thread already
+	 * did.
+	 *
+	 * @param position
+	 *            the position
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void force(long position) throws IOException {
+		synchronized (forceLock) {
+			if (forcedPosition >= position) {
+				return;
+			}
+
+			long targetPosition;
+
+			synchronized (this) {
+				targetPosition = writtenPosition;
+			}
+
+			channel.force(false);
+			forcedPosition = targetPosition;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,490 @@
+package com.acertainbookstore.client;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+
+/**
+ * {@link ReplicatedBookStoreProxy} implements the {@link BookStore} and
+ * {@link StockManager} APIs over a primary BookStoreHTTPServer and its
+ * read-only replicas. Every write, and every read of the stock manager, goes
+ * to the primary. The reads of the storefront go round robin to the replicas,
+ * asking for one of two consistency levels:
+ * <ul>
+ * <li>{@link ReadConsistency#BOUNDED_STALENESS}: the replica must have been
+ * caught up with the primary at most a given number of milliseconds ago.</li>
+ * <li>{@link ReadConsistency#READ_YOUR_WRITES}: the replica must have applied
+ * every version of the primary this proxy has seen, so a client reads its own
+ * writes and never goes back in time.</li>
+ * </ul>
+ * A replica that cannot honour the consistency in time, or cannot be reached,
+ * is replaced by the primary for that read.
+ */
+public class ReplicatedBookStoreProxy implements BookStore, StockManager {
+
+	/**
+	 * The consistency levels of the reads from replicas.
+	 */
+	public enum ReadConsistency {
+
+		/** The replica is behind the primary by at most the maximum staleness. */
+		BOUNDED_STALENESS,
+
+		/** The replica has applied every write seen by the proxy. */
+		READ_YOUR_WRITES;
+	}
+
+	/** The Constant DEFAULT_PRIMARY_ADDRESS. */
+	public static final String DEFAULT_PRIMARY_ADDRESS = "http://localhost:8081";
+
+	/** The Constant DEFAULT_MAX_STALENESS_MILLIS. */
+	public static final long DEFAULT_MAX_STALENESS_MILLIS = 1000;
+
+	/** The book store of the primary. */
+	private final BookStoreHTTPProxy primaryBookStore;
+
+	/** The stock manager of the primary. */
+	private final StockManagerHTTPProxy primaryStockManager;
+
+	/** The addresses of the replicas. */
+	private final List<String> replicaAddresses;
+
+	/** The consistency of the reads from replicas. */
+	private final ReadConsistency consistency;
+
+	/** The maximum staleness in milliseconds of a bounded staleness read. */
+	private final long maxStalenessMillis;
+
+	/** The client reading from the replicas. */
+	private final HttpClient client;
+
+	/** The serializer. */
+	private final ThreadLocal<BookStoreSerializer> serializer;
+
+	/** The next replica to read from. */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	/** The highest version read from a replica. */
+	private final AtomicLong readVersion = new AtomicLong();
+
+	/**
+	 * Initializes a new {@link ReplicatedBookStoreProxy} reading its own
+	 * writes.
+	 *
+	 * @param primaryAddress
+	 *            the address of the primary
+	 * @param replicaAddresses
+	 *            the addresses of the replicas
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ReplicatedBookStoreProxy(String primaryAddress, List<String> replicaAddresses) throws Exception {
+		this(primaryAddress, replicaAddresses, ReadConsistency.READ_YOUR_WRITES, DEFAULT_MAX_STALENESS_MILLIS);
+	}
+
+	/**
+	 * Initializes a new {@link ReplicatedBookStoreProxy}.
+	 *
+	 * @param primaryAddress
+	 *            the address of the primary
+	 * @param replicaAddresses
+	 *            the addresses of the replicas
+	 * @param consistency
+	 *            the consistency of the reads from replicas
+	 * @param maxStalenessMillis
+	 *            the maximum staleness of a bounded staleness read, which
+	 *            should be well above the polling interval of the replicas
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ReplicatedBookStoreProxy(String primaryAddress, List<String> replicaAddresses, ReadConsistency consistency,
+			long maxStalenessMillis) throws Exception {
+		if (replicaAddresses.isEmpty()) {
+			throw new IllegalArgumentException("A replicated book store needs at least one replica");
+		}
+
+		this.primaryBookStore = new BookStoreHTTPProxy(primaryAddress);
+		this.primaryStockManager = new StockManagerHTTPProxy(primaryAddress + "/stock");
+		this.replicaAddresses = new ArrayList<>(replicaAddresses);
+		this.consistency = consistency;
+		this.maxStalenessMillis = maxStalenessMillis;
+
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+		} else {
+			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+		}
+
+		client = new HttpClient();
+		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		client.start();
+	}
+
+	/**
+	 * Initializes a new {@link ReplicatedBookStoreProxy} from the replicas,
+	 * primary, consistency and staleness system properties.
+	 *
+	 * @return the proxy
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static ReplicatedBookStoreProxy fromSystemProperties() throws Exception {
+		String consistencyProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_READ_CONSISTENCY);
+
+		return fromSystemProperties((consistencyProperty != null)
+				? ReadConsistency.valueOf(consistencyProperty.toUpperCase()) : ReadConsistency.READ_YOUR_WRITES);
+	}
+
+	/**
+	 * Initializes a new {@link ReplicatedBookStoreProxy} from the replicas,
+	 * primary and staleness system properties, with the given consistency.
+	 *
+	 * @param consistency
+	 *            the consistency of the reads from replicas
+	 * @return the proxy
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static ReplicatedBookStoreProxy fromSystemProperties(ReadConsistency consistency) throws Exception {
+		String stalenessProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_MAX_STALENESS);
+
+		return new ReplicatedBookStoreProxy(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_PRIMARY, DEFAULT_PRIMARY_ADDRESS),
+				Arrays.asList(System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS).split(",")), consistency,
+				(stalenessProperty != null) ? Long.parseLong(stalenessProperty) : DEFAULT_MAX_STALENESS_MILLIS);
+	}
+
+	/**
+	 * Gets the version token of the proxy, the highest version of the primary
+	 * it has seen.
+	 *
+	 * @return the version token
+	 */
+	public long getVersionToken() {
+		return Math.max(readVersion.get(), Math.max(primaryBookStore.getVersion(), primaryStockManager.getVersion()));
+	}
+
+	/**
+	 * Advances the version token, e.g. to the token of another proxy of the
+	 * same client, so that the reads also see the writes made through it.
+	 *
+	 * @param versionToken
+	 *            the version token
+	 */
+	public void advanceVersionToken(long versionToken) {
+		readVersion.accumulateAndGet(versionToken, Math::max);
+	}
+
+	/**
+	 * Stops the proxy.
+	 */
+	public void stop() {
+		primaryBookStore.stop();
+		primaryStockManager.stop();
+
+		try {
+			client.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getMessage());
+		}
+	}
+
+	/**
+	 * Reads from the next replica, or from the primary if the replica is
+	 * behind the consistency or cannot be reached.
+	 *
+	 * @param messageTag
+	 *            the message tag of the read
+	 * @param query
+	 *            the query string of the read, or null
+	 * @param inputValue
+	 *            the content of a POST read, or null for a GET read
+	 * @return the response, or null if the primary must serve the read
+	 * @throws BookStoreException
+	 *             if the replica refuses the read
+	 */
+	private BookStoreResponse readFromReplica(BookStoreMessageTag messageTag, String query, Object inputValue)
+			throws BookStoreException {
+		String replicaAddress = replicaAddresses
+				.get(Math.floorMod(nextReplica.getAndIncrement(), replicaAddresses.size()));
+		StringBuilder urlString = new StringBuilder(replicaAddress).append('/').append(messageTag).append('?');
+
+		if (query != null) {
+			urlString.append(query).append('&');
+		}
+
+		if (consistency == ReadConsistency.READ_YOUR_WRITES) {
+			urlString.append(BookStoreConstants.MIN_VERSION_PARAM).append('=').append(getVersionToken());
+		} else {
+			urlString.append(BookStoreConstants.MAX_STALENESS_PARAM).append('=').append(maxStalenessMillis);
+		}
+
+		BookStoreRequest bookStoreRequest = (inputValue != null)
+				? BookStoreRequest.newPostRequest(urlString.toString(), inputValue)
+				: BookStoreRequest.newGetRequest(urlString.toString());
+
+		try {
+			BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+					serializer.get());
+			readVersion.accumulateAndGet(bookStoreResponse.getVersion(), Math::max);
+			return bookStoreResponse;
+		} catch (BookStoreException ex) {
+			// A replica behind or out of reach is not an answer of the store
+			if (ex.getErrorCode() == BookStoreErrorCode.REPLICA_BEHIND || ex.getCause() != null) {
+				return null;
+			}
+
+			throw ex;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookStoreResponse bookStoreResponse = readFromReplica(BookStoreMessageTag.GETBOOKS, null, isbnSet);
+		return (bookStoreResponse != null) ? (List<Book>) bookStoreResponse.getList()
+				: primaryBookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		BookStoreResponse bookStoreResponse = readFromReplica(BookStoreMessageTag.GETEDITORPICKS,
+				BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks, null);
+		return (bookStoreResponse != null) ? (List<Book>) bookStoreResponse.getList()
+				: primaryBookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		BookStoreResponse bookStoreResponse = readFromReplica(BookStoreMessageTag.GETTOPRATEDBOOKS,
+				BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks, null);
+		return (bookStoreResponse != null) ? (List<Book>) bookStoreResponse.getList()
+				: primaryBookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookStoreResponse bookStoreResponse = readFromReplica(BookStoreMessageTag.SEARCHBOOKS,
+				BookStoreConstants.QUERY_PARAM + "=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&"
+						+ BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks, null);
+		return (bookStoreResponse != null) ? (List<Book>) bookStoreResponse.getList()
+				: primaryBookStore.searchBooks(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		BookStoreResponse bookStoreResponse = readFromReplica(BookStoreMessageTag.QUERYBOOKS, null, query);
+		return (bookStoreResponse != null) ? (List<Book>) bookStoreResponse.getList()
+				: primaryBookStore.queryBooks(query);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		primaryBookStore.buyBooks(bookCopiesToBuy);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		primaryBookStore.rateBooks(bookRating);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	@Override
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException {
+		return primaryBookStore.reserveBooks(booksToReserve, ttlMillis);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+	@Override
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		primaryBookStore.confirmReservation(reservationId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+	@Override
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		primaryBookStore.releaseReservation(reservationId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		primaryStockManager.addBooks(bookSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		primaryStockManager.addCopies(bookCopiesSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return primaryStockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return primaryStockManager.getBooksByISBN(isbns);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return primaryStockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		primaryStockManager.updateEditorPicks(editorPicks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		primaryStockManager.removeAllBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		primaryStockManager.removeBooks(isbnSet);
+	}
+}
@@ -0,0 +1,918 @@
+package com.acertainbookstore.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ShardedBookStoreProxy} implements the {@link BookStore} and
+ * {@link StockManager} APIs over a catalog partitioned by ISBN across several
+ * stores, usually one BookStoreHTTPServer process each. Every request
+ * is split by a {@link ConsistentHashRing}, the parts are sent to their
+ * shards in parallel and the answers are merged.
+ *
+ * Purchases that touch several shards are atomic: when every shard takes
+ * part in transactions they go through a {@link TwoPhaseCommitCoordinator}.
+ * The other requests that touch several shards are kept all-or-nothing by
+ * compensation: books to add are removed again from the shards that took them
+ * if another shard refuses its part, and the other updates first check on
+ * every shard that the books exist. Other clients may observe the
+ * intermediate state of such a request.
+ *
+ * @see ConsistentHashRing
+ * @see TwoPhaseCommitCoordinator
+ */
+public class ShardedBookStoreProxy implements BookStore, StockManager {
+
+	/** The book stores, one per shard. */
+	private final List<BookStore> bookStores;
+
+	/** The stock managers, one per shard. */
+	private final List<StockManager> stockManagers;
+
+	/** The ring mapping ISBNs to shards. */
+	private final ConsistentHashRing ring;
+
+	/** The executor sending the requests of the shards in parallel. */
+	private final ExecutorService exec;
+
+	/** The coordinator of the purchases, null if a shard has no transactions. */
+	private final TwoPhaseCommitCoordinator coordinator;
+
+	/** The reservations made through the proxy, by id. */
+	private final Map<Long, ShardedReservation> reservations = new ConcurrentHashMap<>();
+
+	/** The last reservation id given. */
+	private final AtomicLong lastReservationId = new AtomicLong();
+
+	/** The Constant MAX_RESERVATIONS kept before the expired ones are dropped. */
+	private static final int MAX_RESERVATIONS = 1024;
+
+	/**
+	 * A reservation made through the proxy, one reservation per shard.
+	 */
+	private static final class ShardedReservation {
+
+		/** The id of the reservation of every shard involved. */
+		private final Map<Integer, Long> shardReservationIds;
+
+		/** The time in nanoseconds the reservations expire at. */
+		private final long deadlineNanos;
+
+		/**
+		 * Instantiates a new {@link ShardedReservation}.
+		 *
+		 * @param shardReservationIds
+		 *            the id of the reservation of every shard involved
+		 * @param deadlineNanos
+		 *            the time the reservations expire at
+		 */
+		private ShardedReservation(Map<Integer, Long> shardReservationIds, long deadlineNanos) {
+			this.shardReservationIds = shardReservationIds;
+			this.deadlineNanos = deadlineNanos;
+		}
+	}
+
+	/**
+	 * A call made to one shard.
+	 *
+	 * @param <T>
+	 *            the type of the answer
+	 */
+	private interface ShardCall<T> {
+
+		/**
+		 * Calls the shard.
+		 *
+		 * @param shard
+		 *            the shard
+		 * @return the answer
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		T call(int shard) throws BookStoreException;
+	}
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreProxy} over HTTP servers, with a
+	 * temporary decision log.
+	 *
+	 * @param serverAddresses
+	 *            the addresses of the servers, one per shard, always given in
+	 *            the same order
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ShardedBookStoreProxy(List<String> serverAddresses) throws Exception {
+		this(serverAddresses, null);
+	}
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreProxy} over HTTP servers.
+	 *
+	 * @param serverAddresses
+	 *            the addresses of the servers, one per shard, always given in
+	 *            the same order
+	 * @param decisionLogFile
+	 *            the decision log of the purchases, or null for a temporary
+	 *            log
+	 * @throws Exception
+	 *             the exception
+	 */
+	public ShardedBookStoreProxy(List<String> serverAddresses, File decisionLogFile) throws Exception {
+		this(newBookStores(serverAddresses), newStockManagers(serverAddresses), decisionLogFile);
+	}
+
+	/**
+	 * Initializes a new {@link ShardedBookStoreProxy} over any stores.
+	 *
+	 * @param bookStores
+	 *            the book stores, one per shard
+	 * @param stockManagers
+	 *            the stock managers of the same shards
+	 * @param decisionLogFile
+	 *            the decision log of the purchases, or null for a temporary
+	 *            log
+	 * @throws IOException
+	 *             if the decision log cannot be opened
+	 * @throws BookStoreException
+	 *             if the purchases left in doubt by a previous run cannot be
+	 *             resolved
+	 */
+	public ShardedBookStoreProxy(List<BookStore> bookStores, List<StockManager> stockManagers, File decisionLogFile)
+			throws IOException, BookStoreException {
+		if (bookStores.isEmpty() || bookStores.size() != stockManagers.size()) {
+			throw new IllegalArgumentException("Every shard needs a book store and a stock manager");
+		}
+
+		this.bookStores = new ArrayList<>(bookStores);
+		this.stockManagers = new ArrayList<>(stockManagers);
+		this.ring = new ConsistentHashRing(bookStores.size());
+		this.exec = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "shard-fan-out");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		List<TwoPhaseCommitParticipant> participants = new ArrayList<>();
+
+		for (BookStore bookStore : bookStores) {
+			if (bookStore instanceof TwoPhaseCommitParticipant) {
+				participants.add((TwoPhaseCommitParticipant) bookStore);
+			}
+		}
+
+		this.coordinator = (bookStores.size() > 1 && participants.size() == bookStores.size())
+				? new TwoPhaseCommitCoordinator(participants, decisionLogFile, exec)
+				: null;
+	}
+
+	/**
+	 * Creates the book store proxies of the servers.
+	 *
+	 * @param serverAddresses
+	 *            the server addresses
+	 * @return the proxies
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static List<BookStore> newBookStores(List<String> serverAddresses) throws Exception {
+		List<BookStore> bookStores = new ArrayList<>();
+
+		for (String serverAddress : serverAddresses) {
+			bookStores.add(new BookStoreHTTPProxy(serverAddress));
+		}
+
+		return bookStores;
+	}
+
+	/**
+	 * Creates the stock manager proxies of the servers.
+	 *
+	 * @param serverAddresses
+	 *            the server addresses
+	 * @return the proxies
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static List<StockManager> newStockManagers(List<String> serverAddresses) throws Exception {
+		List<StockManager> stockManagers = new ArrayList<>();
+
+		for (String serverAddress : serverAddresses) {
+			stockManagers.add(new StockManagerHTTPProxy(serverAddress + "/stock"));
+		}
+
+		return stockManagers;
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return ring.getNumShards();
+	}
+
+	/**
+	 * Stops the proxy and the HTTP proxies of the shards.
+	 */
+	public void stop() {
+		if (coordinator != null) {
+			try {
+				coordinator.close();
+			} catch (IOException ex) {
+				System.err.println(ex.getMessage());
+			}
+		}
+
+		exec.shutdownNow();
+
+		for (BookStore bookStore : bookStores) {
+			if (bookStore instanceof BookStoreHTTPProxy) {
+				((BookStoreHTTPProxy) bookStore).stop();
+			}
+		}
+
+		for (StockManager stockManager : stockManagers) {
+			if (stockManager instanceof StockManagerHTTPProxy) {
+				((StockManagerHTTPProxy) stockManager).stop();
+			}
+		}
+	}
+
+	/**
+	 * Splits the elements of a request by shard.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            returns the ISBN of an element
+	 * @return the elements of every shard involved
+	 * @throws BookStoreException
+	 *             if the elements are null
+	 */
+	private <E> Map<Integer, Set<E>> split(Set<E> elements, ToIntFunction<E> isbnOf) throws BookStoreException {
+		if (elements == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Map<Integer, Set<E>> elementsByShard = new LinkedHashMap<>();
+
+		for (E element : elements) {
+			if (element == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			elementsByShard.computeIfAbsent(ring.getShard(isbnOf.applyAsInt(element)), shard -> new HashSet<>())
+					.add(element);
+		}
+
+		return elementsByShard;
+	}
+
+	/**
+	 * Gets all the shards.
+	 *
+	 * @return the shards
+	 */
+	private List<Integer> allShards() {
+		List<Integer> shards = new ArrayList<>();
+
+		for (int shard = 0; shard < ring.getNumShards(); shard++) {
+			shards.add(shard);
+		}
+
+		return shards;
+	}
+
+	/**
+	 * Calls the shards in parallel, or directly if there is only one, and
+	 * waits for all of them.
+	 *
+	 * @param <T>
+	 *            the type of the answers
+	 * @param shards
+	 *            the shards to call
+	 * @param call
+	 *            the call
+	 * @return the answer of every shard
+	 * @throws BookStoreException
+	 *             the first exception thrown by a shard, once all shards are
+	 *             done
+	 */
+	private <T> Map<Integer, T> fanOut(Collection<Integer> shards, ShardCall<T> call) throws BookStoreException {
+		Map<Integer, T> answers = new LinkedHashMap<>();
+
+		if (shards.size() == 1) {
+			int shard = shards.iterator().next();
+			answers.put(shard, call.call(shard));
+			return answers;
+		}
+
+		Map<Integer, Future<T>> futures = new LinkedHashMap<>();
+
+		for (int shard : shards) {
+			futures.put(shard, exec.submit(() -> call.call(shard)));
+		}
+
+		BookStoreException failure = null;
+
+		for (Map.Entry<Integer, Future<T>> future : futures.entrySet()) {
+			try {
+				answers.put(future.getKey(), future.getValue().get());
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = (ex.getCause() instanceof BookStoreException) ? (BookStoreException) ex.getCause()
+							: new BookStoreException(ex.getCause());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException(ex);
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		return answers;
+	}
+
+	/**
+	 * Calls the shards in parallel and collects what each of them threw,
+	 * rather than stopping at the first exception.
+	 *
+	 * @param shards
+	 *            the shards to call
+	 * @param call
+	 *            the call
+	 * @return the exception of every shard that failed
+	 * @throws BookStoreException
+	 *             if the calls could not be made
+	 */
+	private Map<Integer, BookStoreException> fanOutCollectingFailures(Collection<Integer> shards,
+			ShardCall<Void> call) throws BookStoreException {
+		Map<Integer, BookStoreException> answers = fanOut(shards, shard -> {
+			try {
+				call.call(shard);
+				return null;
+			} catch (BookStoreException ex) {
+				return ex;
+			}
+		});
+		answers.values().removeIf(failure -> failure == null);
+		return answers;
+	}
+
+	/**
+	 * Checks on their shards that the books exist, before updating them.
+	 *
+	 * @param <E>
+	 *            the type of the elements
+	 * @param elementsByShard
+	 *            the elements of every shard
+	 * @param isbnOf
+	 *            returns the ISBN of an element
+	 * @throws BookStoreException
+	 *             if a book does not exist
+	 */
+	private <E> void validate(Map<Integer, Set<E>> elementsByShard, ToIntFunction<E> isbnOf)
+			throws BookStoreException {
+		if (elementsByShard.size() < 2) {
+			// A single shard validates the request itself
+			return;
+		}
+
+		fanOut(elementsByShard.keySet(), shard -> {
+			Set<Integer> isbns = new HashSet<>();
+
+			for (E element : elementsByShard.get(shard)) {
+				isbns.add(isbnOf.applyAsInt(element));
+			}
+
+			return stockManagers.get(shard).getBooksByISBN(isbns);
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> bookCopiesByShard = split(bookCopiesToBuy, BookCopy::getISBN);
+
+		if (coordinator != null && bookCopiesByShard.size() > 1) {
+			coordinator.buyBooks(bookCopiesByShard);
+			return;
+		}
+
+		Map<Integer, BookStoreException> failures = fanOutCollectingFailures(bookCopiesByShard.keySet(),
+				shard -> {
+					bookStores.get(shard).buyBooks(bookCopiesByShard.get(shard));
+					return null;
+				});
+
+		if (failures.isEmpty()) {
+			return;
+		}
+
+		// Put the copies bought on the other shards back
+		List<Integer> boughtShards = new ArrayList<>(bookCopiesByShard.keySet());
+		boughtShards.removeAll(failures.keySet());
+		fanOut(boughtShards, shard -> {
+			stockManagers.get(shard).addCopies(bookCopiesByShard.get(shard));
+			return null;
+		});
+		throw failures.values().iterator().next();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	public long reserveBooks(Set<BookCopy> bookCopiesToReserve, long ttlMillis) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> bookCopiesByShard = split(bookCopiesToReserve, BookCopy::getISBN);
+
+		if (ttlMillis <= 0) {
+			throw new BookStoreException(BookStoreConstants.TTL + ttlMillis + BookStoreConstants.INVALID);
+		}
+
+		// The shards start their clocks later, so they never expire first
+		long deadlineNanos = System.nanoTime() + ttlMillis * 1000000L;
+		Map<Integer, Long> shardReservationIds = new ConcurrentHashMap<>();
+		Map<Integer, BookStoreException> failures = fanOutCollectingFailures(bookCopiesByShard.keySet(),
+				shard -> {
+					shardReservationIds.put(shard,
+							bookStores.get(shard).reserveBooks(bookCopiesByShard.get(shard), ttlMillis));
+					return null;
+				});
+
+		if (!failures.isEmpty()) {
+			// Put the copies reserved on the other shards back
+			releaseShardReservations(shardReservationIds);
+			throw failures.values().iterator().next();
+		}
+
+		if (reservations.size() >= MAX_RESERVATIONS) {
+			long nowNanos = System.nanoTime();
+			reservations.values().removeIf(reservation -> nowNanos - reservation.deadlineNanos >= 0);
+		}
+
+		long reservationId = lastReservationId.incrementAndGet();
+		reservations.put(reservationId, new ShardedReservation(shardReservationIds, deadlineNanos));
+		return reservationId;
+	}
+
+	/**
+	 * Confirms the reservation on every shard involved. The reservation is
+	 * refused as a whole once it has expired at the proxy, which happens
+	 * before it expires on the shards; a confirmation running into that
+	 * deadline may still buy the books of some shards only.
+	 *
+	 * @param reservationId
+	 *            the id of the reservation
+	 * @throws BookStoreException
+	 *             if the reservation is unknown, was released or has expired
+	 */
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		ShardedReservation reservation = reservations.remove(reservationId);
+
+		if (reservation != null && System.nanoTime() - reservation.deadlineNanos >= 0) {
+			releaseShardReservations(reservation.shardReservationIds);
+			reservation = null;
+		}
+
+		if (reservation == null) {
+			throw new BookStoreException(BookStoreErrorCode.NOT_FOUND,
+					BookStoreConstants.RESERVATION + reservationId + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		Map<Integer, Long> shardReservationIds = reservation.shardReservationIds;
+		Map<Integer, BookStoreException> failures = fanOutCollectingFailures(shardReservationIds.keySet(),
+				shard -> {
+					bookStores.get(shard).confirmReservation(shardReservationIds.get(shard));
+					return null;
+				});
+
+		if (!failures.isEmpty()) {
+			throw failures.values().iterator().next();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		ShardedReservation reservation = reservations.remove(reservationId);
+
+		if (reservation != null) {
+			releaseShardReservations(reservation.shardReservationIds);
+		}
+	}
+
+	/**
+	 * Releases the reservations of the shards.
+	 *
+	 * @param shardReservationIds
+	 *            the id of the reservation of every shard
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void releaseShardReservations(Map<Integer, Long> shardReservationIds) throws BookStoreException {
+		fanOut(shardReservationIds.keySet(), shard -> {
+			bookStores.get(shard).releaseReservation(shardReservationIds.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		Map<Integer, Set<BookRating>> ratingsByShard = split(bookRating, BookRating::getISBN);
+
+		for (BookRating rating : bookRating) {
+			if (rating.getRating() < 0 || rating.getRating() > 5) {
+				throw new BookStoreException(BookStoreConstants.RATING + rating.getRating()
+						+ BookStoreConstants.INVALID);
+			}
+		}
+
+		validate(ratingsByShard, BookRating::getISBN);
+		fanOut(ratingsByShard.keySet(), shard -> {
+			bookStores.get(shard).rateBooks(ratingsByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = split(isbnSet, Integer::intValue);
+		List<Book> books = new ArrayList<>();
+
+		for (List<Book> shardBooks : fanOut(isbnsByShard.keySet(),
+				shard -> bookStores.get(shard).getBooks(isbnsByShard.get(shard))).values()) {
+			books.addAll(shardBooks);
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The first matches overall are among the first matches of every
+		// shard, which are sorted by ISBN like the result
+		List<Book> matches = new ArrayList<>();
+
+		for (List<Book> shardBooks : fanOut(allShards(),
+				shard -> bookStores.get(shard).searchBooks(query, numBooks)).values()) {
+			matches.addAll(shardBooks);
+		}
+
+		matches.sort(Comparator.comparingInt(Book::getISBN));
+		return new ArrayList<>(matches.subList(0, Math.min(numBooks, matches.size())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (BookStoreUtility.isInvalidQuery(query)) {
+			throw new BookStoreException(BookStoreConstants.QUERY + query + BookStoreConstants.INVALID);
+		}
+
+		// The first books overall are among the first books of every shard.
+		// Ordering them by rating needs their ratings, like getTopRatedBooks
+		List<Book> matches = new ArrayList<>();
+
+		for (List<Book> shardBooks : fanOut(allShards(), shard -> {
+			List<Book> books = bookStores.get(shard).queryBooks(query);
+
+			if (query.getOrder() != BookQuery.Order.AVERAGE_RATING || books.isEmpty()) {
+				return books;
+			}
+
+			Set<Integer> isbns = new HashSet<>();
+
+			for (Book book : books) {
+				isbns.add(book.getISBN());
+			}
+
+			return new ArrayList<Book>(stockManagers.get(shard).getBooksByISBN(isbns));
+		}).values()) {
+			matches.addAll(shardBooks);
+		}
+
+		switch (query.getOrder()) {
+		case PRICE_ASCENDING:
+			matches.sort(BookQuery.BY_PRICE);
+			break;
+
+		case PRICE_DESCENDING:
+			matches.sort(BookQuery.BY_PRICE.reversed());
+			break;
+
+		case AVERAGE_RATING:
+			matches.sort(Comparator.comparingDouble((Book book) -> -((StockBook) book).getAverageRating())
+					.thenComparing(BookQuery.BY_ISBN));
+			break;
+
+		default:
+			matches.sort(BookQuery.BY_ISBN);
+		}
+
+		List<Book> books = new ArrayList<>();
+
+		for (Book book : matches.subList(0, Math.min(query.getLimit(), matches.size()))) {
+			books.add(new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice()));
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The top books overall are among the top books of every shard, whose
+		// ratings are needed to order them
+		List<StockBook> candidates = new ArrayList<>();
+
+		for (List<StockBook> shardBooks : fanOut(allShards(), shard -> {
+			Set<Integer> isbns = new HashSet<>();
+
+			for (Book book : bookStores.get(shard).getTopRatedBooks(numBooks)) {
+				isbns.add(book.getISBN());
+			}
+
+			return isbns.isEmpty() ? Collections.<StockBook> emptyList() : stockManagers.get(shard)
+					.getBooksByISBN(isbns);
+		}).values()) {
+			candidates.addAll(shardBooks);
+		}
+
+		candidates.sort((b1, b2) -> Float.compare(b2.getAverageRating(), b1.getAverageRating()));
+		List<Book> topRatedBooks = new ArrayList<>();
+
+		for (StockBook book : candidates.subList(0, Math.min(numBooks, candidates.size()))) {
+			topRatedBooks.add(new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book
+					.getPrice()));
+		}
+
+		return topRatedBooks;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numBooks == 0) {
+			return new ArrayList<>();
+		}
+
+		// A shard returning fewer than numBooks picks returned all of them.
+		// The other shards may hold any number of picks, so all of theirs are
+		// fetched: sampling every shard alike would favour the picks of the
+		// shards holding few of them
+		BookQuery allEditorPicks = new BookQuery();
+		allEditorPicks.setEditorPick(true);
+		List<Book> candidates = new ArrayList<>();
+
+		for (List<Book> shardBooks : fanOut(allShards(), shard -> {
+			List<Book> books = bookStores.get(shard).getEditorPicks(numBooks);
+			return (books.size() < numBooks) ? books : bookStores.get(shard).queryBooks(allEditorPicks);
+		}).values()) {
+			candidates.addAll(shardBooks);
+		}
+
+		Collections.shuffle(candidates);
+		return new ArrayList<>(candidates.subList(0, Math.min(numBooks, candidates.size())));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		Map<Integer, Set<StockBook>> booksByShard = split(bookSet, StockBook::getISBN);
+		Map<Integer, BookStoreException> failures = fanOutCollectingFailures(booksByShard.keySet(), shard -> {
+			stockManagers.get(shard).addBooks(booksByShard.get(shard));
+			return null;
+		});
+
+		if (failures.isEmpty()) {
+			return;
+		}
+
+		// Remove the books added to the other shards
+		List<Integer> addedShards = new ArrayList<>(booksByShard.keySet());
+		addedShards.removeAll(failures.keySet());
+		fanOut(addedShards, shard -> {
+			Set<Integer> isbns = new HashSet<>();
+
+			for (StockBook book : booksByShard.get(shard)) {
+				isbns.add(book.getISBN());
+			}
+
+			stockManagers.get(shard).removeBooks(isbns);
+			return null;
+		});
+		throw failures.values().iterator().next();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		Map<Integer, Set<BookCopy>> bookCopiesByShard = split(bookCopiesSet, BookCopy::getISBN);
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			if (bookCopy.getNumCopies() <= 0) {
+				throw new BookStoreException(BookStoreConstants.NUM_COPIES + bookCopy.getNumCopies()
+						+ BookStoreConstants.INVALID);
+			}
+		}
+
+		validate(bookCopiesByShard, BookCopy::getISBN);
+		fanOut(bookCopiesByShard.keySet(), shard -> {
+			stockManagers.get(shard).addCopies(bookCopiesByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		List<StockBook> books = new ArrayList<>();
+
+		for (List<StockBook> shardBooks : fanOut(allShards(), shard -> stockManagers.get(shard).getBooks())
+				.values()) {
+			books.addAll(shardBooks);
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = split(isbns, Integer::intValue);
+		List<StockBook> books = new ArrayList<>();
+
+		for (List<StockBook> shardBooks : fanOut(isbnsByShard.keySet(),
+				shard -> stockManagers.get(shard).getBooksByISBN(isbnsByShard.get(shard))).values()) {
+			books.addAll(shardBooks);
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<StockBook> books = new ArrayList<>();
+
+		for (List<StockBook> shardBooks : fanOut(allShards(),
+				shard -> stockManagers.get(shard).getBooksInDemand()).values()) {
+			books.addAll(shardBooks);
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		Map<Integer, Set<BookEditorPick>> editorPicksByShard = split(editorPicks, BookEditorPick::getISBN);
+		validate(editorPicksByShard, BookEditorPick::getISBN);
+		fanOut(editorPicksByShard.keySet(), shard -> {
+			stockManagers.get(shard).updateEditorPicks(editorPicksByShard.get(shard));
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		fanOut(allShards(), shard -> {
+			stockManagers.get(shard).removeAllBooks();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		Map<Integer, Set<Integer>> isbnsByShard = split(isbnSet, Integer::intValue);
+		validate(isbnsByShard, Integer::intValue);
+		fanOut(isbnsByShard.keySet(), shard -> {
+			stockManagers.get(shard).removeBooks(isbnsByShard.get(shard));
+			return null;
+		});
+	}
+}
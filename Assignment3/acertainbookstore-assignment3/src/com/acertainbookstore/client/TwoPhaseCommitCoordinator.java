@@ -0,0 +1,415 @@
+package com.acertainbookstore.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TwoPhaseCommitCoordinator} buys books atomically across several
+ * stores with two-phase commit. The purchase is prepared on every store
+ * involved, which reserves the copies; if every store agrees, the decision to
+ * commit is forced to a {@link DecisionLog} before the stores are told to
+ * commit, otherwise the stores are told to abort.
+ *
+ * A coordinator started on the log of a previous run first resolves the
+ * transactions that run left in doubt: those with a commit decision are
+ * committed on every store, every other transaction of that coordinator still
+ * prepared on a store is aborted.
+ *
+ * A commit or abort a store does not receive is sent again by a daemon
+ * thread, which only runs while such decisions are pending, until the store
+ * takes it; both messages may be received more than once.
+ *
+ * @see TwoPhaseCommitParticipant
+ * @see DecisionLog
+ */
+public class TwoPhaseCommitCoordinator implements Closeable {
+
+	/** The participants. */
+	private final List<TwoPhaseCommitParticipant> participants;
+
+	/** The decision log. */
+	private final DecisionLog decisionLog;
+
+	/** The executor sending the messages to the participants in parallel. */
+	private final ExecutorService exec;
+
+	/** The Constant RETRY_DELAY_MILLIS between two sends of a decision. */
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	/** The decisions some participants have not received, by transaction id. */
+	private final Map<String, Decision> undeliveredDecisions = new ConcurrentHashMap<>();
+
+	/** The thread sending the decisions again, null when none is pending. */
+	private Thread resolver = null;
+
+	/**
+	 * A decision on a transaction, with the participants which have not
+	 * received it.
+	 */
+	private static final class Decision {
+
+		/** Whether the transaction commits, or else aborts. */
+		private final boolean commit;
+
+		/** The indexes of the participants which have not received it. */
+		private final Set<Integer> targets;
+
+		/**
+		 * Instantiates a new {@link Decision}.
+		 *
+		 * @param commit
+		 *            whether the transaction commits
+		 * @param targets
+		 *            the indexes of the participants
+		 */
+		private Decision(boolean commit, Set<Integer> targets) {
+			this.commit = commit;
+			this.targets = ConcurrentHashMap.newKeySet();
+			this.targets.addAll(targets);
+		}
+	}
+
+	/**
+	 * Initializes a new {@link TwoPhaseCommitCoordinator}, recovering the
+	 * transactions of a previous run if the decision log exists.
+	 *
+	 * @param participants
+	 *            the participants
+	 * @param decisionLogFile
+	 *            the decision log, or null for a temporary log
+	 * @param exec
+	 *            the executor sending the messages to the participants
+	 * @throws IOException
+	 *             if the decision log cannot be opened
+	 * @throws BookStoreException
+	 *             if the transactions of the previous run cannot be resolved
+	 */
+	public TwoPhaseCommitCoordinator(List<? extends TwoPhaseCommitParticipant> participants, File decisionLogFile,
+			ExecutorService exec) throws IOException, BookStoreException {
+		this.participants = new ArrayList<>(participants);
+		this.decisionLog = new DecisionLog(decisionLogFile);
+		this.exec = exec;
+
+		if (decisionLog.isRecovering()) {
+			recover();
+		}
+	}
+
+	/**
+	 * Gets the id of the coordinator, the prefix of the ids of its
+	 * transactions.
+	 *
+	 * @return the coordinator id
+	 */
+	public String getCoordinatorId() {
+		return decisionLog.getCoordinatorId();
+	}
+
+	/**
+	 * Buys books atomically across participants.
+	 *
+	 * @param bookCopiesByParticipant
+	 *            the book copies to buy from every participant involved,
+	 *            keyed by the index of the participant
+	 * @throws BookStoreException
+	 *             the exception of a participant which refused the purchase,
+	 *             in which case no copy is bought
+	 */
+	public void buyBooks(Map<Integer, Set<BookCopy>> bookCopiesByParticipant) throws BookStoreException {
+		String transactionId = decisionLog.getCoordinatorId() + ":" + UUID.randomUUID();
+
+		// Phase one: every participant reserves its copies or votes no
+		Map<Integer, BookStoreException> votes = sendToAll(bookCopiesByParticipant.keySet(),
+				participant -> participants.get(participant).prepareBuyBooks(transactionId,
+						bookCopiesByParticipant.get(participant)));
+
+		if (!votes.isEmpty()) {
+			// Participants which failed may still have prepared
+			decide(transactionId, false, bookCopiesByParticipant.keySet());
+			throw votes.values().iterator().next();
+		}
+
+		try {
+			decisionLog.logCommit(transactionId);
+		} catch (IOException ex) {
+			decide(transactionId, false, bookCopiesByParticipant.keySet());
+			throw new BookStoreException("The decision could not be logged", ex);
+		}
+
+		// Phase two: the purchase is made, participants that miss the commit
+		// get it again later
+		decide(transactionId, true, bookCopiesByParticipant.keySet());
+	}
+
+	/**
+	 * Sends a decision to participants, and leaves it to the resolver for
+	 * those which do not receive it. The end of a committed transaction is
+	 * logged once every participant received the commit.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @param commit
+	 *            whether the transaction commits, or else aborts
+	 * @param targets
+	 *            the indexes of the participants
+	 */
+	private void decide(String transactionId, boolean commit, Set<Integer> targets) {
+		Map<Integer, BookStoreException> failures = sendToAll(targets,
+				participant -> send(transactionId, commit, participant));
+
+		if (failures.isEmpty()) {
+			if (commit) {
+				logEnd(transactionId);
+			}
+
+			return;
+		}
+
+		synchronized (this) {
+			undeliveredDecisions.put(transactionId, new Decision(commit, failures.keySet()));
+
+			if (resolver == null) {
+				resolver = new Thread(this::resolve, "two-phase-commit-resolver");
+				resolver.setDaemon(true);
+				resolver.start();
+			}
+		}
+	}
+
+	/**
+	 * Sends a decision to one participant.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 * @param commit
+	 *            whether the transaction commits, or else aborts
+	 * @param participant
+	 *            the index of the participant
+	 * @throws BookStoreException
+	 *             if the participant does not receive it
+	 */
+	private void send(String transactionId, boolean commit, int participant) throws BookStoreException {
+		if (commit) {
+			participants.get(participant).commitTransaction(transactionId);
+		} else {
+			participants.get(participant).abortTransaction(transactionId);
+		}
+	}
+
+	/**
+	 * Logs the end of a transaction every participant committed.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 */
+	private void logEnd(String transactionId) {
+		try {
+			decisionLog.logEnd(transactionId);
+		} catch (IOException ex) {
+			// Recovery commits the transaction again, which is harmless
+		}
+	}
+
+	/**
+	 * Sends the undelivered decisions again until none is left.
+	 */
+	private void resolve() {
+		while (true) {
+			try {
+				Thread.sleep(RETRY_DELAY_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+
+			sendUndeliveredDecisions();
+
+			synchronized (this) {
+				if (undeliveredDecisions.isEmpty()) {
+					resolver = null;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends every undelivered decision once, to the participants which have
+	 * not received it.
+	 */
+	private void sendUndeliveredDecisions() {
+		for (Map.Entry<String, Decision> entry : undeliveredDecisions.entrySet()) {
+			String transactionId = entry.getKey();
+			Decision decision = entry.getValue();
+
+			for (Integer target : decision.targets) {
+				try {
+					send(transactionId, decision.commit, target);
+					decision.targets.remove(target);
+				} catch (BookStoreException ex) {
+					// Sent again on the next round
+				}
+			}
+
+			if (decision.targets.isEmpty() && undeliveredDecisions.remove(transactionId, decision)
+					&& decision.commit) {
+				logEnd(transactionId);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the transactions of this coordinator prepared on some
+	 * participant: the committed ones are committed everywhere and the others
+	 * are aborted. Starts the decision log afresh if every participant could
+	 * be reached. No transaction may be running.
+	 *
+	 * @throws BookStoreException
+	 *             if a participant cannot be reached
+	 */
+	public void recover() throws BookStoreException {
+		String prefix = decisionLog.getCoordinatorId() + ":";
+		Set<String> committed = new HashSet<>(decisionLog.getUnfinishedCommits());
+		BookStoreException failure = null;
+
+		// The commits of this run not yet delivered stand as well
+		for (Map.Entry<String, Decision> entry : undeliveredDecisions.entrySet()) {
+			if (entry.getValue().commit) {
+				committed.add(entry.getKey());
+			}
+		}
+
+		for (TwoPhaseCommitParticipant participant : participants) {
+			try {
+				for (String transactionId : participant.getPreparedTransactions()) {
+					if (committed.contains(transactionId)) {
+						participant.commitTransaction(transactionId);
+					} else if (transactionId.startsWith(prefix)) {
+						participant.abortTransaction(transactionId);
+					}
+				}
+			} catch (BookStoreException ex) {
+				if (failure == null) {
+					failure = ex;
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+
+		try {
+			decisionLog.truncate();
+		} catch (IOException ex) {
+			throw new BookStoreException("The decision log could not be reset", ex);
+		}
+
+		undeliveredDecisions.clear();
+	}
+
+	/**
+	 * Sends a message to participants in parallel, or directly if there is
+	 * only one, and waits for all of them.
+	 *
+	 * @param targets
+	 *            the indexes of the participants
+	 * @param message
+	 *            the message
+	 * @return the exceptions thrown by the participants, by index, in the
+	 *         order of the targets
+	 */
+	private Map<Integer, BookStoreException> sendToAll(Set<Integer> targets, Message message) {
+		Map<Integer, BookStoreException> failures = new LinkedHashMap<>();
+
+		if (targets.size() == 1) {
+			Integer target = targets.iterator().next();
+
+			try {
+				message.send(target);
+			} catch (BookStoreException ex) {
+				failures.put(target, ex);
+			}
+
+			return failures;
+		}
+
+		Map<Integer, Future<?>> futures = new LinkedHashMap<>();
+
+		for (Integer target : targets) {
+			futures.put(target, exec.submit(() -> {
+				message.send(target);
+				return null;
+			}));
+		}
+
+		for (Map.Entry<Integer, Future<?>> future : futures.entrySet()) {
+			try {
+				future.getValue().get();
+			} catch (ExecutionException ex) {
+				failures.put(future.getKey(),
+						(ex.getCause() instanceof BookStoreException) ? (BookStoreException) ex.getCause()
+								: new BookStoreException(ex.getCause()));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				failures.put(future.getKey(), new BookStoreException(ex));
+			}
+		}
+
+		return failures;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		Thread stoppedResolver;
+
+		synchronized (this) {
+			stoppedResolver = resolver;
+			resolver = null;
+		}
+
+		if (stoppedResolver != null) {
+			stoppedResolver.interrupt();
+		}
+
+		// A last try, the commits still undelivered are resolved on recovery
+		sendUndeliveredDecisions();
+		decisionLog.close();
+	}
+
+	/**
+	 * A message sent to one participant.
+	 */
+	private interface Message {
+
+		/**
+		 * Sends the message.
+		 *
+		 * @param participant
+		 *            the index of the participant
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void send(int participant) throws BookStoreException;
+	}
+}
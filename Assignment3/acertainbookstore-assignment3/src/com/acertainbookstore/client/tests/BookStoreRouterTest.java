@@ -0,0 +1,132 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreRouter;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreRouterTest} tests the {@link BookStoreRouter}, and that the
+ * {@link BookStoreHTTPMessageHandler} answers the paths it does not route
+ * with 404.
+ *
+ * @see BookStoreRouter
+ */
+public class BookStoreRouterTest {
+
+	/** The router, routing every message tag to itself. */
+	private static BookStoreRouter<BookStoreMessageTag> router;
+
+	/**
+	 * Sets the up before class.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		Map<BookStoreMessageTag, BookStoreMessageTag> routes = new EnumMap<>(BookStoreMessageTag.class);
+
+		for (BookStoreMessageTag tag : BookStoreMessageTag.values()) {
+			routes.put(tag, tag);
+		}
+
+		router = new BookStoreRouter<>(routes);
+	}
+
+	/**
+	 * Checks that every message tag is routed at its path, with or without
+	 * the stock prefix.
+	 */
+	@Test
+	public void testRouteEveryTag() {
+		for (BookStoreMessageTag tag : BookStoreMessageTag.values()) {
+			assertEquals(tag, router.route("/" + tag));
+			assertEquals(tag, router.route(BookStoreRouter.STOCK_PREFIX + "/" + tag));
+		}
+	}
+
+	/**
+	 * Checks that a path is routed in any case, of the tag and of the stock
+	 * prefix.
+	 */
+	@Test
+	public void testRouteMixedCase() {
+		assertEquals(BookStoreMessageTag.GETBOOKS, router.route("/getbooks"));
+		assertEquals(BookStoreMessageTag.GETBOOKS, router.route("/GetBooks"));
+		assertEquals(BookStoreMessageTag.ADDBOOKS, router.route("/stock/addBooks"));
+		assertEquals(BookStoreMessageTag.ADDBOOKS, router.route("/Stock/ADDBOOKS"));
+		assertEquals(BookStoreMessageTag.ADDBOOKS, router.route("/STOCK/addbooks"));
+	}
+
+	/**
+	 * Checks that only the stock prefix followed by a tag is routed.
+	 */
+	@Test
+	public void testRouteStockPrefix() {
+		assertNull(router.route("/stock"));
+		assertNull(router.route("/stock/"));
+		assertNull(router.route("/stockADDBOOKS"));
+		assertNull(router.route("/stock/stock/ADDBOOKS"));
+		assertNull(router.route("/stock/ADDBOOKS/"));
+	}
+
+	/**
+	 * Checks that the paths of no tag are not routed.
+	 */
+	@Test
+	public void testRouteUnknownPath() {
+		assertNull(router.route("/NOSUCHTAG"));
+		assertNull(router.route("/GETBOOK"));
+		assertNull(router.route("GETBOOKS"));
+		assertNull(router.route("/GETBOOKS?isbn=1"));
+		assertNull(router.route("/"));
+	}
+
+	/**
+	 * Checks that an empty or null path is not routed.
+	 */
+	@Test
+	public void testRouteEmptyOrNullPath() {
+		assertNull(router.route(""));
+		assertNull(router.route(null));
+	}
+
+	/**
+	 * Checks that the handler answers a path it does not route with 404, and
+	 * one it routes in another case with 200.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHandlerAnswersUnknownPathWithNotFound() throws Exception {
+		CertainBookStore store = new CertainBookStore();
+		Server server = new Server(0);
+		server.setHandler(new BookStoreHTTPMessageHandler(store, store));
+		HttpClient client = new HttpClient();
+
+		try {
+			server.start();
+			client.start();
+			String address = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+			assertEquals(HttpServletResponse.SC_NOT_FOUND, client.GET(address + "/NOSUCHTAG").getStatus());
+			assertEquals(HttpServletResponse.SC_NOT_FOUND, client.GET(address + "/stock/").getStatus());
+			assertEquals(HttpServletResponse.SC_OK, client.GET(address + "/Stock/ListBooks").getStatus());
+		} finally {
+			client.stop();
+			server.stop();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -14,14 +15,21 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy.ReadConsistency;
+import com.acertainbookstore.client.ShardedBookStoreProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
 import com.acertainbookstore.utils.BookStoreException;
 
 /**
@@ -59,6 +67,18 @@ public class BookStoreTest {
 				CertainBookStore store = new CertainBookStore();
 				storeManager = store;
 				client = store;
+			} else if (System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS) != null) {
+				// The tests read their own writes, which a bounded staleness
+				// read may miss
+				ReplicatedBookStoreProxy proxy = ReplicatedBookStoreProxy
+						.fromSystemProperties(ReadConsistency.READ_YOUR_WRITES);
+				storeManager = proxy;
+				client = proxy;
+			} else if (System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVERS) != null) {
+				ShardedBookStoreProxy proxy = new ShardedBookStoreProxy(
+						Arrays.asList(System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVERS).split(",")));
+				storeManager = proxy;
+				client = proxy;
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -263,6 +283,47 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that a failed request reports the kind of its failure by its error
+	 * code, without a stack trace.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testErrorCodes() throws BookStoreException {
+		HashSet<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreErrorCode.NOT_AVAILABLE, ex.getErrorCode());
+			assertEquals(0, ex.getStackTrace().length);
+		}
+
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN + 1, 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreErrorCode.NOT_FOUND, ex.getErrorCode());
+		}
+
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(-1, 1));
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals(BookStoreErrorCode.INVALID_REQUEST, ex.getErrorCode());
+		}
+	}
+
 	/**
 	 * Tests that all books can be retrieved.
 	 *
@@ -349,6 +410,305 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that ratings, alone or several at once, are summed and reflected
+	 * right away in the top rated books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooksAndGetTopRated() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN + 1, 5));
+		client.rateBooks(ratings);
+
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 1));
+		ratings.add(new BookRating(TEST_ISBN + 1, 5));
+		client.rateBooks(ratings);
+
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 2));
+		client.rateBooks(ratings);
+
+		List<Book> topRatedBooks = client.getTopRatedBooks(2);
+		assertEquals(2, topRatedBooks.size());
+		assertEquals(TEST_ISBN + 1, topRatedBooks.get(0).getISBN());
+		assertEquals(TEST_ISBN, topRatedBooks.get(1).getISBN());
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN);
+		StockBook book = storeManager.getBooksByISBN(isbns).get(0);
+		assertEquals(2, book.getNumTimesRated());
+		assertEquals(3, book.getTotalRating());
+	}
+
+	/**
+	 * Tests that a search finds the books whose title or author contain every
+	 * word of the query, ignoring case and punctuation, and follows the books
+	 * added and removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+
+		List<Book> books = client.searchBooks("junit", 10);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+
+		books = client.searchBooks("THRONES, testin", 10);
+		assertEquals(2, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+		assertEquals(TEST_ISBN + 2, books.get(1).getISBN());
+
+		books = client.searchBooks("thrones", 1);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+
+		assertTrue(client.searchBooks("potter thrones", 10).isEmpty());
+		assertTrue(client.searchBooks("harry", 0).isEmpty());
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(TEST_ISBN + 1);
+		storeManager.removeBooks(isbns);
+
+		books = client.searchBooks("thrones", 10);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 2, books.get(0).getISBN());
+
+		try {
+			client.searchBooks(" ;, ", 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a query filters the books by price, rating, stock and editor
+	 * pick, orders and limits them, and follows purchases and picks.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testQueryBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Cheap", "Author", 5, NUM_COPIES, 0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Picked", "Author", 20, NUM_COPIES, 0, 0, 0, true));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 3, "Rated", "Author", 15, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		BookQuery query = new BookQuery();
+		query.setMaxPrice(12);
+		query.setOrder(BookQuery.Order.PRICE_ASCENDING);
+		List<Book> books = client.queryBooks(query);
+		assertEquals(2, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+		assertEquals(TEST_ISBN, books.get(1).getISBN());
+
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+		client.buyBooks(booksToBuy);
+
+		query.setInStock(true);
+		books = client.queryBooks(query);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN + 2, 4));
+		ratings.add(new BookRating(TEST_ISBN + 3, 5));
+		ratings.add(new BookRating(TEST_ISBN + 1, 2));
+		client.rateBooks(ratings);
+
+		query = new BookQuery();
+		query.setMinAverageRating(3);
+		query.setOrder(BookQuery.Order.AVERAGE_RATING);
+		books = client.queryBooks(query);
+		assertEquals(2, books.size());
+		assertEquals(TEST_ISBN + 3, books.get(0).getISBN());
+		assertEquals(TEST_ISBN + 2, books.get(1).getISBN());
+
+		query = new BookQuery();
+		query.setOrder(BookQuery.Order.PRICE_DESCENDING);
+		query.setLimit(2);
+		books = client.queryBooks(query);
+		assertEquals(2, books.size());
+		assertEquals(TEST_ISBN + 2, books.get(0).getISBN());
+		assertEquals(TEST_ISBN + 3, books.get(1).getISBN());
+
+		query = new BookQuery();
+		query.setEditorPick(true);
+		books = client.queryBooks(query);
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 2, books.get(0).getISBN());
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 2, false));
+		storeManager.updateEditorPicks(editorPicks);
+		assertTrue(client.queryBooks(query).isEmpty());
+
+		query = new BookQuery();
+		query.setMinPrice(10);
+		query.setMaxPrice(5);
+
+		try {
+			client.queryBooks(query);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that concurrent purchases of a single book never buy more copies
+	 * than in stock, and count every copy missing as a missed sale.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the buyers
+	 */
+	@Test
+	public void testConcurrentSingleBookPurchases() throws BookStoreException, InterruptedException {
+		final int numBuyers = 4;
+		Thread[] buyers = new Thread[numBuyers];
+
+		for (int buyer = 0; buyer < numBuyers; buyer++) {
+			buyers[buyer] = new Thread(() -> {
+				Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+				booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+
+				for (int copy = 0; copy < NUM_COPIES; copy++) {
+					try {
+						client.buyBooks(booksToBuy);
+					} catch (BookStoreException ex) {
+						;
+					}
+				}
+			});
+			buyers[buyer].start();
+		}
+
+		for (Thread buyer : buyers) {
+			buyer.join();
+		}
+
+		StockBook book = storeManager.getBooks().get(0);
+		assertEquals(0, book.getNumCopies());
+		assertEquals((numBuyers - 1) * NUM_COPIES, book.getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that reserved copies leave the stock and are bought on
+	 * confirmation.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReserveAndConfirm() throws BookStoreException {
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, 2));
+
+		long reservationId = client.reserveBooks(booksToReserve, 60000);
+		assertEquals(NUM_COPIES - 2, storeManager.getBooks().get(0).getNumCopies());
+
+		client.confirmReservation(reservationId);
+		assertEquals(NUM_COPIES - 2, storeManager.getBooks().get(0).getNumCopies());
+
+		// A reservation is confirmed only once
+		try {
+			client.confirmReservation(reservationId);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that released copies come back to the stock.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReleaseReservation() throws BookStoreException {
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		long reservationId = client.reserveBooks(booksToReserve, 60000);
+		assertEquals(0, storeManager.getBooks().get(0).getNumCopies());
+
+		client.releaseReservation(reservationId);
+		assertEquals(NUM_COPIES, storeManager.getBooks().get(0).getNumCopies());
+
+		try {
+			client.confirmReservation(reservationId);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that an expired reservation gives its copies back and cannot be
+	 * confirmed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the expiry
+	 */
+	@Test
+	public void testReservationExpires() throws BookStoreException, InterruptedException {
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES));
+
+		long reservationId = client.reserveBooks(booksToReserve, 100);
+		Thread.sleep(1000);
+		assertEquals(NUM_COPIES, storeManager.getBooks().get(0).getNumCopies());
+
+		try {
+			client.confirmReservation(reservationId);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that more copies than in stock cannot be reserved, which counts
+	 * as a missed sale.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testReserveTooManyBooks() throws BookStoreException {
+		Set<BookCopy> booksToReserve = new HashSet<BookCopy>();
+		booksToReserve.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1));
+
+		try {
+			client.reserveBooks(booksToReserve, 60000);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		StockBook book = storeManager.getBooks().get(0);
+		assertEquals(NUM_COPIES, book.getNumCopies());
+		assertEquals(1, book.getNumSaleMisses());
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -359,7 +719,11 @@ public class BookStoreTest {
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
 
-		if (!localTest) {
+		if (client instanceof ShardedBookStoreProxy) {
+			((ShardedBookStoreProxy) client).stop();
+		} else if (client instanceof ReplicatedBookStoreProxy) {
+			((ReplicatedBookStoreProxy) client).stop();
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) client).stop();
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
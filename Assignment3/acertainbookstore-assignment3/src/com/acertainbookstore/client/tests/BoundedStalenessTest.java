@@ -0,0 +1,130 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy.ReadConsistency;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BoundedStalenessTest} tests that the bounded staleness reads of a
+ * {@link ReplicatedBookStoreProxy} miss no write older than the bound. It runs
+ * only against a primary and its replicas, given by the replicas property.
+ *
+ * @see ReplicatedBookStoreProxy
+ */
+public class BoundedStalenessTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/**
+	 * The Constant MAX_STALENESS_MILLIS, well above the polling interval of
+	 * the replicas.
+	 */
+	private static final long MAX_STALENESS_MILLIS = 500;
+
+	/** The Constant NUM_WRITES. */
+	private static final int NUM_WRITES = 5;
+
+	/** The Constant READ_INTERVAL_MILLIS between two reads of a write. */
+	private static final long READ_INTERVAL_MILLIS = 10;
+
+	/** The proxy. */
+	private static ReplicatedBookStoreProxy proxy;
+
+	/**
+	 * Sets the up before class.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		assumeNotNull(System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS));
+
+		proxy = new ReplicatedBookStoreProxy(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_PRIMARY,
+						ReplicatedBookStoreProxy.DEFAULT_PRIMARY_ADDRESS),
+				Arrays.asList(System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS).split(",")),
+				ReadConsistency.BOUNDED_STALENESS, MAX_STALENESS_MILLIS);
+		proxy.removeAllBooks();
+	}
+
+	/**
+	 * Tear down after class.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@AfterClass
+	public static void tearDownAfterClass() throws BookStoreException {
+		if (proxy != null) {
+			proxy.removeAllBooks();
+			proxy.stop();
+		}
+	}
+
+	/**
+	 * Checks whether a read sees a book.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @return true, if the book was read
+	 */
+	private static boolean readsBook(int isbn) {
+		try {
+			return proxy.getBooks(new HashSet<>(Arrays.asList(isbn))).size() == 1;
+		} catch (BookStoreException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks that every read starting later than the staleness bound after a
+	 * book was added sees the book. The earlier reads may or may not see it.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReadsWithinStalenessBound() throws Exception {
+		// The replica truncates its staleness to whole milliseconds
+		long boundInNanoSecs = TimeUnit.MILLISECONDS.toNanos(MAX_STALENESS_MILLIS + 1);
+
+		for (int write = 0; write < NUM_WRITES; write++) {
+			int isbn = TEST_ISBN + write;
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(new ImmutableStockBook(isbn, "The Castle", "Franz Kafka", (float) 10, 5, 0, 0, 0, false));
+			proxy.addBooks(booksToAdd);
+			long writeTimeInNanoSecs = System.nanoTime();
+
+			// Reads until well past the bound, from every replica in turn
+			while (System.nanoTime() - writeTimeInNanoSecs < 2 * boundInNanoSecs) {
+				long readTimeInNanoSecs = System.nanoTime();
+				boolean read = readsBook(isbn);
+
+				if (readTimeInNanoSecs - writeTimeInNanoSecs >= boundInNanoSecs) {
+					assertTrue("Missed a write "
+							+ TimeUnit.NANOSECONDS.toMillis(readTimeInNanoSecs - writeTimeInNanoSecs) + "ms old",
+							read);
+				}
+
+				Thread.sleep(READ_INTERVAL_MILLIS);
+			}
+		}
+	}
+}
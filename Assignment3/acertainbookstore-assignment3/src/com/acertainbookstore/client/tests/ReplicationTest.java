@@ -0,0 +1,228 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.PrimaryBookStore;
+import com.acertainbookstore.server.ReplicaBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReplicationTest} tests that a replica ends in the state of its
+ * primary, both running every store engine in this process.
+ *
+ * @see PrimaryBookStore
+ * @see ReplicaBookStore
+ */
+@RunWith(Parameterized.class)
+public class ReplicationTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant TTL_MILLIS of the reservations. */
+	private static final long TTL_MILLIS = 300;
+
+	/** The Constant TIMEOUT in milliseconds, after which a wait has failed. */
+	private static final long TIMEOUT = 5000;
+
+	/** The engine. */
+	private final BookStoreEngineType engine;
+
+	/** The primary. */
+	private PrimaryBookStore primary;
+
+	/** The server of the primary. */
+	private Server server;
+
+	/** The replica. */
+	private ReplicaBookStore replica;
+
+	/**
+	 * Instantiates a new {@link ReplicationTest}.
+	 *
+	 * @param engine
+	 *            the engine
+	 */
+	public ReplicationTest(BookStoreEngineType engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Gets the engines to test.
+	 *
+	 * @return the engines
+	 */
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> engines() {
+		List<Object[]> engines = new ArrayList<>();
+
+		for (BookStoreEngineType engine : BookStoreEngineType.values()) {
+			engines.add(new Object[] { engine });
+		}
+
+		return engines;
+	}
+
+	/**
+	 * Starts a primary holding one book and a replica of it, executed before
+	 * every test case is run.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		primary = new PrimaryBookStore(engine.newBookStore());
+		server = new Server(0);
+		server.setHandler(new BookStoreHTTPMessageHandler(primary, primary));
+		server.start();
+
+		replica = new ReplicaBookStore(engine.newBookStore(),
+				"http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort());
+		replica.start();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "The Castle", "Franz Kafka", (float) 10, NUM_COPIES, 0, 0,
+				0, false));
+		primary.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Stops the replica and the primary, executed after every test case is
+	 * run.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		replica.stop();
+		server.stop();
+	}
+
+	/**
+	 * Gets the number of copies in stock of the book on the primary.
+	 *
+	 * @return the number of copies
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private int getNumCopies() throws BookStoreException {
+		return primary.getBooksByISBN(new HashSet<>(Arrays.asList(TEST_ISBN))).get(0).getNumCopies();
+	}
+
+	/**
+	 * Checks that the replica, once it has applied every write of the primary,
+	 * holds the same stock.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	private void assertReplicaMatchesPrimary() throws Exception {
+		assertTrue(replica.awaitVersion(primary.getVersion(), TIMEOUT));
+		List<StockBook> primaryBooks = primary.getBooks();
+		List<StockBook> replicaBooks = replica.getBooks();
+
+		assertEquals(primaryBooks.size(), replicaBooks.size());
+
+		for (int i = 0; i < primaryBooks.size(); i++) {
+			StockBook primaryBook = primaryBooks.get(i);
+			StockBook replicaBook = replicaBooks.get(i);
+			assertEquals(primaryBook, replicaBook);
+			assertEquals(primaryBook.getNumCopies(), replicaBook.getNumCopies());
+			assertEquals(primaryBook.getNumSaleMisses(), replicaBook.getNumSaleMisses());
+		}
+	}
+
+	/**
+	 * Checks that a purchase of the copies put back by an expired reservation
+	 * is applied on the replica after the copies come back there.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = 2 * TIMEOUT)
+	public void testBuyCopiesOfExpiredReservation() throws Exception {
+		Set<BookCopy> bookCopies = new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, NUM_COPIES)));
+		primary.reserveBooks(bookCopies, TTL_MILLIS);
+
+		// Waits until the primary shows the copies again
+		while (getNumCopies() < NUM_COPIES) {
+			Thread.sleep(10);
+		}
+
+		primary.buyBooks(bookCopies);
+
+		assertEquals(0, getNumCopies());
+		assertEquals(0, primary.getBooks().get(0).getNumSaleMisses());
+		assertReplicaMatchesPrimary();
+	}
+
+	/**
+	 * Checks that a purchase made right after a reservation expires, before
+	 * anything else ends the reservation, takes its copies on the primary and
+	 * on the replica.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = 2 * TIMEOUT)
+	public void testBuyAtExpiryOfReservation() throws Exception {
+		Set<BookCopy> bookCopies = new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, NUM_COPIES)));
+		primary.reserveBooks(bookCopies, TTL_MILLIS);
+		Thread.sleep(TTL_MILLIS);
+
+		primary.buyBooks(bookCopies);
+
+		assertEquals(0, getNumCopies());
+		assertReplicaMatchesPrimary();
+	}
+
+	/**
+	 * Checks that an expired reservation cannot be confirmed, and that its
+	 * copies come back on the primary and on the replica.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = 2 * TIMEOUT)
+	public void testConfirmExpiredReservation() throws Exception {
+		long reservationId = primary.reserveBooks(
+				new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, NUM_COPIES))), TTL_MILLIS);
+		Thread.sleep(TTL_MILLIS);
+
+		try {
+			primary.confirmReservation(reservationId);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES, getNumCopies());
+		assertReplicaMatchesPrimary();
+	}
+}
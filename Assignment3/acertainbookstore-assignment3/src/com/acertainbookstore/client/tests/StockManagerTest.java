@@ -1,8 +1,10 @@
 package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -16,10 +18,14 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy.ReadConsistency;
+import com.acertainbookstore.client.ShardedBookStoreProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
@@ -61,6 +67,18 @@ public class StockManagerTest {
 				CertainBookStore store = new CertainBookStore();
 				storeManager = store;
 				client = store;
+			} else if (System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS) != null) {
+				// The tests read their own writes, which a bounded staleness
+				// read may miss
+				ReplicatedBookStoreProxy proxy = ReplicatedBookStoreProxy
+						.fromSystemProperties(ReadConsistency.READ_YOUR_WRITES);
+				storeManager = proxy;
+				client = proxy;
+			} else if (System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVERS) != null) {
+				ShardedBookStoreProxy proxy = new ShardedBookStoreProxy(
+						Arrays.asList(System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVERS).split(",")));
+				storeManager = proxy;
+				client = proxy;
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -475,6 +493,101 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests that a full scan sees a batch of books added or removed either
+	 * wholly or not at all, while the batches keep coming.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the changes
+	 */
+	@Test
+	public void testGetBooksDuringCatalogChanges() throws BookStoreException, InterruptedException {
+		// The books of a batch spread over the shards, which change one by one
+		assumeFalse(storeManager instanceof ShardedBookStoreProxy);
+
+		final int batchSize = 10;
+		final int numBatches = 50;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		Set<Integer> isbnSet = new HashSet<Integer>();
+
+		for (int book = 1; book <= batchSize; book++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + book, "Book " + book, "Author " + book, (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+			isbnSet.add(TEST_ISBN + book);
+		}
+
+		final BookStoreException[] changeFailure = new BookStoreException[1];
+		Thread changer = new Thread(() -> {
+			try {
+				for (int batch = 0; batch < numBatches; batch++) {
+					storeManager.addBooks(booksToAdd);
+					storeManager.removeBooks(isbnSet);
+				}
+			} catch (BookStoreException ex) {
+				changeFailure[0] = ex;
+			}
+		});
+		changer.start();
+
+		while (changer.isAlive()) {
+			int numBooks = storeManager.getBooks().size();
+			assertTrue(numBooks == 1 || numBooks == 1 + batchSize);
+		}
+
+		changer.join();
+		assertNull(changeFailure[0]);
+		assertEquals(1, storeManager.getBooks().size());
+	}
+
+	/**
+	 * Tests that getBooks and the getBooks of the client return every field of
+	 * the books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksReturnsEveryField() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Little Prince", "Antoine de Saint-Exupery",
+				(float) 12.5, NUM_COPIES + 1, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+		storeManager.updateEditorPicks(editorPicks);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN + 1, 4));
+		client.rateBooks(ratings);
+
+		StockBook book = null;
+
+		for (StockBook bookInStore : storeManager.getBooks()) {
+			if (bookInStore.getISBN() == TEST_ISBN + 1) {
+				book = bookInStore;
+			}
+		}
+
+		assertNotNull(book);
+		assertEquals(booksToAdd.iterator().next(), book);
+		assertEquals(NUM_COPIES + 1, book.getNumCopies());
+		assertEquals(0, book.getNumSaleMisses());
+		assertEquals(1, book.getNumTimesRated());
+		assertEquals(4, book.getTotalRating());
+		assertTrue(book.isEditorPick());
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		isbnSet.add(TEST_ISBN + 1);
+
+		List<Book> books = client.getBooks(isbnSet);
+		assertEquals(2, books.size());
+		assertTrue(books.contains(getDefaultBook()) && books.contains(book));
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -485,7 +598,11 @@ public class StockManagerTest {
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
 
-		if (!localTest) {
+		if (client instanceof ShardedBookStoreProxy) {
+			((ShardedBookStoreProxy) client).stop();
+		} else if (client instanceof ReplicatedBookStoreProxy) {
+			((ReplicatedBookStoreProxy) client).stop();
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) client).stop();
 			((StockManagerHTTPProxy) storeManager).stop();
 		}
@@ -0,0 +1,485 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.client.TwoPhaseCommitCoordinator;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TwoPhaseCommitCoordinatorTest} tests the
+ * {@link TwoPhaseCommitCoordinator}, against participants which record the
+ * messages they receive and fail on demand, and its recovery from a decision
+ * log.
+ *
+ * @see TwoPhaseCommitCoordinator
+ */
+public class TwoPhaseCommitCoordinatorTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant TIMEOUT in milliseconds, after which a wait has failed. */
+	private static final long TIMEOUT = 10000;
+
+	/** The executor sending the messages of the coordinator. */
+	private ExecutorService exec;
+
+	/** The decision log. */
+	private File decisionLogFile;
+
+	/**
+	 * {@link StubParticipant} records the transactions it is told to prepare,
+	 * commit and abort, and fails the messages it is set to fail.
+	 */
+	private static final class StubParticipant implements TwoPhaseCommitParticipant {
+
+		/** The prepared transactions. */
+		private final Set<String> prepared = new LinkedHashSet<>();
+
+		/** The committed transactions. */
+		private final List<String> committed = new ArrayList<>();
+
+		/** The aborted transactions. */
+		private final List<String> aborted = new ArrayList<>();
+
+		/** Whether prepareBuyBooks fails. */
+		private volatile boolean failPrepare = false;
+
+		/** Whether commitTransaction fails. */
+		private volatile boolean failCommit = false;
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * prepareBuyBooks(java.lang.String, java.util.Set)
+		 */
+		@Override
+		public synchronized void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy)
+				throws BookStoreException {
+			if (failPrepare) {
+				throw new BookStoreException("prepare refused");
+			}
+
+			prepared.add(transactionId);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * commitTransaction(java.lang.String)
+		 */
+		@Override
+		public synchronized void commitTransaction(String transactionId) throws BookStoreException {
+			if (failCommit) {
+				throw new BookStoreException("commit lost");
+			}
+
+			prepared.remove(transactionId);
+			committed.add(transactionId);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * abortTransaction(java.lang.String)
+		 */
+		@Override
+		public synchronized void abortTransaction(String transactionId) throws BookStoreException {
+			prepared.remove(transactionId);
+			aborted.add(transactionId);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * getPreparedTransactions()
+		 */
+		@Override
+		public synchronized List<String> getPreparedTransactions() throws BookStoreException {
+			return new ArrayList<>(prepared);
+		}
+	}
+
+	/**
+	 * {@link UnreliableParticipant} passes the messages on to a participant,
+	 * but loses a number of the commits and aborts first.
+	 */
+	private static final class UnreliableParticipant implements TwoPhaseCommitParticipant {
+
+		/** The participant. */
+		private final TwoPhaseCommitParticipant participant;
+
+		/** The number of commits still to lose. */
+		private final AtomicInteger lostCommits = new AtomicInteger();
+
+		/** The number of aborts still to lose. */
+		private final AtomicInteger lostAborts = new AtomicInteger();
+
+		/**
+		 * Instantiates a new {@link UnreliableParticipant}.
+		 *
+		 * @param participant
+		 *            the participant
+		 */
+		private UnreliableParticipant(TwoPhaseCommitParticipant participant) {
+			this.participant = participant;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * prepareBuyBooks(java.lang.String, java.util.Set)
+		 */
+		@Override
+		public void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+			participant.prepareBuyBooks(transactionId, bookCopiesToBuy);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * commitTransaction(java.lang.String)
+		 */
+		@Override
+		public void commitTransaction(String transactionId) throws BookStoreException {
+			if (lostCommits.getAndDecrement() > 0) {
+				throw new BookStoreException("commit lost");
+			}
+
+			participant.commitTransaction(transactionId);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * abortTransaction(java.lang.String)
+		 */
+		@Override
+		public void abortTransaction(String transactionId) throws BookStoreException {
+			if (lostAborts.getAndDecrement() > 0) {
+				throw new BookStoreException("abort lost");
+			}
+
+			participant.abortTransaction(transactionId);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+		 * getPreparedTransactions()
+		 */
+		@Override
+		public List<String> getPreparedTransactions() throws BookStoreException {
+			return participant.getPreparedTransactions();
+		}
+	}
+
+	/**
+	 * Creates the executor and a fresh decision log, executed before every
+	 * test case is run.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		exec = Executors.newCachedThreadPool();
+		decisionLogFile = File.createTempFile("decisions", ".log");
+		decisionLogFile.delete();
+	}
+
+	/**
+	 * Stops the executor and deletes the decision log, executed after every
+	 * test case is run.
+	 */
+	@After
+	public void tearDown() {
+		exec.shutdownNow();
+		decisionLogFile.delete();
+	}
+
+	/**
+	 * Gets a purchase of one copy from every participant.
+	 *
+	 * @param participants
+	 *            the indexes of the participants
+	 * @return the book copies by participant
+	 */
+	private static Map<Integer, Set<BookCopy>> purchaseFrom(Integer... participants) {
+		Map<Integer, Set<BookCopy>> bookCopiesByParticipant = new HashMap<>();
+
+		for (Integer participant : participants) {
+			bookCopiesByParticipant.put(participant,
+					new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN + participant, 1))));
+		}
+
+		return bookCopiesByParticipant;
+	}
+
+	/**
+	 * Creates a store engine holding one book.
+	 *
+	 * @return the store
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static TwoLevelLockingConcurrentCertainBookStore newStore() throws BookStoreException {
+		TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "The Castle", "Franz Kafka", (float) 10, NUM_COPIES, 0, 0,
+				0, false));
+		store.addBooks(booksToAdd);
+		return store;
+	}
+
+	/**
+	 * Writes a decision log as a coordinator would have left it.
+	 *
+	 * @param lines
+	 *            the records
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeDecisionLog(String... lines) throws IOException {
+		Files.write(decisionLogFile.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks that a purchase every participant prepares is committed on all of
+	 * them, whether it involves one participant or several.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCommit() throws Exception {
+		StubParticipant first = new StubParticipant();
+		StubParticipant second = new StubParticipant();
+		String coordinatorId;
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(first, second),
+				decisionLogFile, exec)) {
+			coordinatorId = coordinator.getCoordinatorId();
+			coordinator.buyBooks(purchaseFrom(0, 1));
+			coordinator.buyBooks(purchaseFrom(1));
+		}
+
+		assertEquals(1, first.committed.size());
+		assertEquals(2, second.committed.size());
+		assertEquals(first.committed.get(0), second.committed.get(0));
+		assertTrue(first.committed.get(0).startsWith(coordinatorId + ":"));
+		assertTrue(first.prepared.isEmpty() && second.prepared.isEmpty());
+		assertTrue(first.aborted.isEmpty() && second.aborted.isEmpty());
+	}
+
+	/**
+	 * Checks that a purchase a participant refuses to prepare is aborted on
+	 * every participant, and that the refusal reaches the caller.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testPrepareFailureAborts() throws Exception {
+		StubParticipant first = new StubParticipant();
+		StubParticipant second = new StubParticipant();
+		second.failPrepare = true;
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(first, second),
+				decisionLogFile, exec)) {
+			coordinator.buyBooks(purchaseFrom(0, 1));
+			fail();
+		} catch (BookStoreException ex) {
+			assertEquals("prepare refused", ex.getMessage());
+		}
+
+		assertTrue(first.committed.isEmpty() && second.committed.isEmpty());
+		assertEquals(1, first.aborted.size());
+		assertEquals(first.aborted, second.aborted);
+		assertTrue(first.prepared.isEmpty());
+	}
+
+	/**
+	 * Checks that a purchase whose commit a participant misses is committed
+	 * on it when a coordinator recovers from the decision log.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCommitFailureRecovered() throws Exception {
+		StubParticipant first = new StubParticipant();
+		StubParticipant second = new StubParticipant();
+		second.failCommit = true;
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(first, second),
+				decisionLogFile, exec)) {
+			// The decision is made, so the purchase succeeds
+			coordinator.buyBooks(purchaseFrom(0, 1));
+		}
+
+		assertEquals(1, first.committed.size());
+		assertEquals(1, second.prepared.size());
+
+		// The participant is back, and a coordinator restarts on the log
+		second.failCommit = false;
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(first, second),
+				decisionLogFile, exec)) {
+			assertEquals(first.committed, second.committed);
+			assertTrue(second.prepared.isEmpty());
+			assertTrue(second.aborted.isEmpty());
+		}
+	}
+
+	/**
+	 * Checks that a store which misses the abort of a purchase another store
+	 * refused gets it again, and puts its copies back in stock.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testAbortFailureRetried() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = newStore();
+		UnreliableParticipant first = new UnreliableParticipant(store);
+		first.lostAborts.set(1);
+		StubParticipant second = new StubParticipant();
+		second.failPrepare = true;
+		Map<Integer, Set<BookCopy>> bookCopiesByParticipant = purchaseFrom(1);
+		bookCopiesByParticipant.put(0, new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(first, second),
+				decisionLogFile, exec)) {
+			try {
+				coordinator.buyBooks(bookCopiesByParticipant);
+				fail();
+			} catch (BookStoreException ex) {
+				assertEquals("prepare refused", ex.getMessage());
+			}
+
+			// The copies stay reserved until the abort gets through
+			while (store.getBooks().get(0).getNumCopies() < NUM_COPIES) {
+				Thread.sleep(10);
+			}
+
+			assertTrue(store.getPreparedTransactions().isEmpty());
+			assertEquals(-1, first.lostAborts.get());
+		}
+	}
+
+	/**
+	 * Checks that a participant which misses a commit gets it again, after
+	 * which the transaction is logged as ended.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testCommitFailureRetried() throws Exception {
+		StubParticipant first = new StubParticipant();
+		StubParticipant second = new StubParticipant();
+		UnreliableParticipant unreliableSecond = new UnreliableParticipant(second);
+		unreliableSecond.lostCommits.set(1);
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(
+				Arrays.asList(first, unreliableSecond), decisionLogFile, exec)) {
+			coordinator.buyBooks(purchaseFrom(0, 1));
+			assertEquals(1, second.getPreparedTransactions().size());
+
+			while (!second.getPreparedTransactions().isEmpty()) {
+				Thread.sleep(10);
+			}
+
+			assertEquals(first.committed, second.committed);
+			assertTrue(Files.readAllLines(decisionLogFile.toPath(), StandardCharsets.UTF_8)
+					.contains("END " + first.committed.get(0)));
+		}
+	}
+
+	/**
+	 * Checks that recovery commits the transactions the log decided to commit
+	 * and aborts the other transactions of the coordinator, but not those of
+	 * other coordinators.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoveryFromDecisionLog() throws Exception {
+		writeDecisionLog("COORDINATOR c1", "COMMIT c1:committed", "COMMIT c1:ended", "END c1:ended");
+		StubParticipant participant = new StubParticipant();
+		participant.prepared.addAll(Arrays.asList("c1:committed", "c1:undecided", "c2:other"));
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(participant),
+				decisionLogFile, exec)) {
+			assertEquals("c1", coordinator.getCoordinatorId());
+		}
+
+		assertEquals(Arrays.asList("c1:committed"), participant.committed);
+		assertEquals(Arrays.asList("c1:undecided"), participant.aborted);
+		assertEquals(Arrays.asList("c2:other"), participant.getPreparedTransactions());
+
+		// The log starts afresh, keeping the id of the coordinator
+		assertEquals(Arrays.asList("COORDINATOR c1"),
+				Files.readAllLines(decisionLogFile.toPath(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Checks that recovery puts back in the stock of a store engine the
+	 * copies of an undecided transaction and keeps out those of a committed
+	 * one.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRecoveryOfStoreEngine() throws Exception {
+		TwoLevelLockingConcurrentCertainBookStore store = newStore();
+		store.prepareBuyBooks("c1:committed", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+		store.prepareBuyBooks("c1:undecided", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+		writeDecisionLog("COORDINATOR c1", "COMMIT c1:committed");
+
+		try (TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(Arrays.asList(store),
+				decisionLogFile, exec)) {
+			assertTrue(store.getPreparedTransactions().isEmpty());
+			assertEquals(NUM_COPIES - 1, store.getBooks().get(0).getNumCopies());
+		}
+	}
+}
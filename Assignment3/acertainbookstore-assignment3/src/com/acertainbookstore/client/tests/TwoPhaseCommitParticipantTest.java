@@ -0,0 +1,335 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link TwoPhaseCommitParticipantTest} tests the
+ * {@link TwoPhaseCommitParticipant} interface of every store engine, in this
+ * process.
+ *
+ * @see TwoPhaseCommitParticipant
+ */
+@RunWith(Parameterized.class)
+public class TwoPhaseCommitParticipantTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The Constant TIMEOUT in milliseconds, after which a call has hung. */
+	private static final long TIMEOUT = 5000;
+
+	/** The Constant NUM_THREADS preparing one transaction at once. */
+	private static final int NUM_THREADS = 8;
+
+	/** The Constant NUM_ROUNDS of concurrent prepares. */
+	private static final int NUM_ROUNDS = 2000;
+
+	/** The engine. */
+	private final BookStoreEngineType engine;
+
+	/** The store manager. */
+	private StockManager storeManager;
+
+	/** The participant. */
+	private TwoPhaseCommitParticipant participant;
+
+	/**
+	 * Instantiates a new {@link TwoPhaseCommitParticipantTest}.
+	 *
+	 * @param engine
+	 *            the engine
+	 */
+	public TwoPhaseCommitParticipantTest(BookStoreEngineType engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Gets the engines to test.
+	 *
+	 * @return the engines
+	 */
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> engines() {
+		List<Object[]> engines = new ArrayList<>();
+
+		for (BookStoreEngineType engine : BookStoreEngineType.values()) {
+			engines.add(new Object[] { engine });
+		}
+
+		return engines;
+	}
+
+	/**
+	 * Creates a store of the engine holding two books, executed before every
+	 * test case is run.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void initializeBooks() throws BookStoreException {
+		storeManager = (StockManager) engine.newBookStore();
+		participant = (TwoPhaseCommitParticipant) storeManager;
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "The Castle", "Franz Kafka", (float) 10, NUM_COPIES, 0, 0,
+				0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Trial", "Franz Kafka", (float) 10, NUM_COPIES, 0, 0,
+				0, false));
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Gets the number of copies in stock of a book.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @return the number of copies
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private int getNumCopies(int isbn) throws BookStoreException {
+		return storeManager.getBooksByISBN(new HashSet<>(Arrays.asList(isbn))).get(0).getNumCopies();
+	}
+
+	/**
+	 * Checks that preparing the purchase of one book reserves its copies, and
+	 * does not wait on a lock the engine already holds.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testPrepareBuyOneBook() throws BookStoreException {
+		participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+
+		assertEquals(NUM_COPIES - 2, getNumCopies(TEST_ISBN));
+		assertEquals(Arrays.asList("tx"), participant.getPreparedTransactions());
+	}
+
+	/**
+	 * Checks that preparing the purchase of several books reserves the copies
+	 * of every book.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testPrepareBuySeveralBooks() throws BookStoreException {
+		participant.prepareBuyBooks("tx",
+				new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2), new BookCopy(TEST_ISBN + 1, 3))));
+
+		assertEquals(NUM_COPIES - 2, getNumCopies(TEST_ISBN));
+		assertEquals(NUM_COPIES - 3, getNumCopies(TEST_ISBN + 1));
+		assertEquals(Arrays.asList("tx"), participant.getPreparedTransactions());
+	}
+
+	/**
+	 * Checks that committing a prepared purchase keeps its copies out of the
+	 * stock and ends the transaction.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testCommitKeepsCopiesOut() throws BookStoreException {
+		participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+		participant.commitTransaction("tx");
+
+		assertEquals(NUM_COPIES - 2, getNumCopies(TEST_ISBN));
+		assertTrue(participant.getPreparedTransactions().isEmpty());
+
+		// An abort after the commit does not bring the copies back
+		participant.abortTransaction("tx");
+		assertEquals(NUM_COPIES - 2, getNumCopies(TEST_ISBN));
+	}
+
+	/**
+	 * Checks that aborting a prepared purchase puts its copies back in the
+	 * stock and ends the transaction.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testAbortReleasesCopies() throws BookStoreException {
+		participant.prepareBuyBooks("tx",
+				new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2), new BookCopy(TEST_ISBN + 1, 3))));
+		participant.abortTransaction("tx");
+
+		assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN));
+		assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN + 1));
+		assertTrue(participant.getPreparedTransactions().isEmpty());
+	}
+
+	/**
+	 * Checks that aborting a transaction again, or one that was never
+	 * prepared, has no effect.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testAbortIsIdempotent() throws BookStoreException {
+		participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+		participant.abortTransaction("tx");
+		participant.abortTransaction("tx");
+		participant.abortTransaction("unknown");
+
+		assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN));
+		assertTrue(participant.getPreparedTransactions().isEmpty());
+	}
+
+	/**
+	 * Checks that a transaction is aborted without error after its books were
+	 * removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testAbortAfterBooksRemoved() throws BookStoreException {
+		participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+		storeManager.removeBooks(new HashSet<>(Arrays.asList(TEST_ISBN)));
+		participant.abortTransaction("tx");
+
+		assertEquals(1, storeManager.getBooks().size());
+		assertTrue(participant.getPreparedTransactions().isEmpty());
+	}
+
+	/**
+	 * Checks that a transaction cannot be prepared twice, and that the second
+	 * prepare reserves nothing.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testPrepareTwiceRejected() throws BookStoreException {
+		participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 2))));
+
+		try {
+			participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES - 2, getNumCopies(TEST_ISBN));
+
+		// The first prepare still holds its copies
+		participant.abortTransaction("tx");
+		assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN));
+	}
+
+	/**
+	 * Checks that a purchase which cannot be made is not prepared and reserves
+	 * no copy of any of its books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test(timeout = TIMEOUT)
+	public void testFailedPrepareReservesNothing() throws BookStoreException {
+		try {
+			participant.prepareBuyBooks("tx", new HashSet<>(
+					Arrays.asList(new BookCopy(TEST_ISBN, 2), new BookCopy(TEST_ISBN + 1, NUM_COPIES + 1))));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(-1, 1))));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN));
+		assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN + 1));
+		assertTrue(participant.getPreparedTransactions().isEmpty());
+
+		// The transaction id is free again
+		participant.prepareBuyBooks("tx", new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+		assertEquals(NUM_COPIES - 1, getNumCopies(TEST_ISBN));
+	}
+
+	/**
+	 * Checks that of several concurrent prepares of one transaction only one
+	 * takes copies, so that an abort puts all of them back.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test(timeout = 10 * TIMEOUT)
+	public void testConcurrentPreparesOfOneTransaction() throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+
+		try {
+			for (int round = 0; round < NUM_ROUNDS; round++) {
+				String transactionId = "tx" + round;
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<Boolean>> prepares = new ArrayList<>();
+
+				// The prepares wait for each other, so that they overlap
+				for (int i = 0; i < NUM_THREADS; i++) {
+					prepares.add(exec.submit(() -> {
+						start.await();
+
+						try {
+							participant.prepareBuyBooks(transactionId,
+									new HashSet<>(Arrays.asList(new BookCopy(TEST_ISBN, 1))));
+							return true;
+						} catch (BookStoreException ex) {
+							return false;
+						}
+					}));
+				}
+
+				start.countDown();
+				int numPrepared = 0;
+
+				for (Future<Boolean> prepare : prepares) {
+					numPrepared += prepare.get() ? 1 : 0;
+				}
+
+				assertEquals(1, numPrepared);
+				assertEquals(NUM_COPIES - 1, getNumCopies(TEST_ISBN));
+
+				participant.abortTransaction(transactionId);
+				assertEquals(NUM_COPIES, getNumCopies(TEST_ISBN));
+			}
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.acertainbookstore.client.workloads;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ *
+ * AllocationBenchmark measures the bytes a steady-state buyBooks allocates
+ * per call, the way a gc profiler would, from the allocation counter of the
+ * calling thread. The copies to buy are built once and bought again and
+ * again, so that only the store allocates, and the store runs in this JVM so
+ * that the HTTP layer is left out
+ *
+ * Every point first runs as many calls as it measures, to let the JIT
+ * compile the path
+ *
+ */
+public class AllocationBenchmark {
+	private static final String DEFAULT_BOOKS = "1,2,5,20";
+	private static final String DEFAULT_ENGINES = "synchronized,single-lock,two-level-locking";
+	private static final int DEFAULT_CALLS = 200000;
+	private static final int NUM_BOOKS = 10000;
+	private static final int NUM_COPIES = 1000000000;
+
+	private AllocationBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int numCalls = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_ALLOCATION_CALLS,
+				Integer.toString(DEFAULT_CALLS)));
+		List<Integer> books = new ArrayList<>();
+		List<BookStoreEngineType> engines = new ArrayList<>();
+
+		for (String numBooks : System.getProperty(BookStoreConstants.PROPERTY_KEY_ALLOCATION_BOOKS, DEFAULT_BOOKS)
+				.split(",")) {
+			books.add(Integer.parseInt(numBooks.trim()));
+		}
+
+		for (String engine : System.getProperty(BookStoreConstants.PROPERTY_KEY_ALLOCATION_ENGINES, DEFAULT_ENGINES)
+				.split(",")) {
+			engines.add(BookStoreEngineType.parse(engine));
+		}
+
+		System.out.println("calls=" + numCalls);
+
+		for (BookStoreEngineType engine : engines) {
+			for (int numBooks : books) {
+				System.out.println(runPoint(engine, numBooks, numCalls));
+			}
+		}
+	}
+
+	/**
+	 * Creates a store of NUM_BOOKS books with enough copies to never run out
+	 */
+	private static BookStore populate(BookStoreEngineType engine) throws BookStoreException {
+		BookStore bookStore = engine.newBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		((StockManager) bookStore).addBooks(books);
+		return bookStore;
+	}
+
+	/**
+	 * Buys one copy of numBooks books per call, with ISBNs above the boxing
+	 * cache of Integer
+	 */
+	private static String runPoint(BookStoreEngineType engine, int numBooks, int numCalls) throws Exception {
+		BookStore bookStore = populate(engine);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		Set<BookCopy> bookCopies = new HashSet<>();
+
+		for (int book = 0; book < numBooks; book++) {
+			bookCopies.add(new BookCopy(NUM_BOOKS - book * 97, 1));
+		}
+
+		for (int call = 0; call < numCalls; call++) {
+			bookStore.buyBooks(bookCopies);
+		}
+
+		long startTimeInNanoSecs = System.nanoTime();
+		long startBytes = threads.getThreadAllocatedBytes(threadId);
+
+		for (int call = 0; call < numCalls; call++) {
+			bookStore.buyBooks(bookCopies);
+		}
+
+		long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+		long timeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+		return String.format("%-17s books=%-3d alloc=%10.1fB/call time=%8.4fus/call", engine, numBooks,
+				(double) bytes / numCalls, timeInNanoSecs / 1e3 / numCalls);
+	}
+}
@@ -14,13 +14,24 @@ import com.acertainbookstore.business.StockBook;
  * class
  */
 public class BookSetGenerator {
+	private static final int MAX_DRAWS_PER_ISBN = 100;
+	private static final int MAX_ISBN = 1000000;
 	private Random random;
 
 	public BookSetGenerator() {
-		// TODO Auto-generated constructor stub
 		this.random = new Random();
 	}
 
+	/**
+	 * Creates a generator that returns the same books and samples for the
+	 * same seed
+	 * 
+	 * @param seed
+	 */
+	public BookSetGenerator(long seed) {
+		this.random = new Random(seed);
+	}
+
 	/**
 	 * Returns num randomly selected isbns from the input set
 	 * 
@@ -43,6 +54,34 @@ public class BookSetGenerator {
 		return sampledISBNs;
 	}
 
+	/**
+	 * Returns num distinct isbns drawn from the input list, ordered by
+	 * popularity, following the given distribution
+	 * 
+	 * @param isbnsByPopularity
+	 * @param num
+	 * @param distribution
+	 * @return
+	 */
+	public Set<Integer> sampleFromListOfISBNs(List<Integer> isbnsByPopularity, int num,
+			KeyDistribution distribution) {
+		if (num >= isbnsByPopularity.size()) {
+			return new HashSet<>(isbnsByPopularity);
+		}
+		
+		Set<Integer> sampledISBNs = new HashSet<>();
+		
+		// A narrow hot set may hold fewer than num books, fall back to uniform
+		// draws rather than retrying forever
+		for (int draws = 0; sampledISBNs.size() < num; draws++) {
+			int rank = (draws < MAX_DRAWS_PER_ISBN * num) ? distribution.nextRank(
+					isbnsByPopularity.size(), random) : random.nextInt(isbnsByPopularity.size());
+			sampledISBNs.add(isbnsByPopularity.get(rank));
+		}
+		
+		return sampledISBNs;
+	}
+
 	/**
 	 * Return num stock books. For now return an ImmutableStockBook
 	 * 
@@ -53,8 +92,9 @@ public class BookSetGenerator {
 		Set<StockBook> books = new HashSet<>();
 		
 		for (int i = 0; i < num; i++) {
-			// Generate ISBN ensuring it's unique (using current time + random number)
-			int isbn = Math.abs(random.nextInt(100000) + (int) System.currentTimeMillis() % 100000);
+			// Draw the ISBN from the random numbers only, so that a seed
+			// reproduces the books
+			int isbn = 1 + random.nextInt(MAX_ISBN);
 			
 			// Generate random book properties
 			String title = "Book " + isbn;
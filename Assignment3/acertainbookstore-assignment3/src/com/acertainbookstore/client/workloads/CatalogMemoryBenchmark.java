@@ -0,0 +1,184 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookRecordBuffer;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ *
+ * CatalogMemoryBenchmark measures the heap a catalog takes per book, and the
+ * bytes getBooks allocates per call and per book, from the allocation counter
+ * of the calling thread. It also measures the bytes the server allocates to
+ * serialize the response of listBooks with Kryo, once from the list of
+ * getBooks and once from the records the store writes. Every book gets its own copy of its author, as the
+ * books of a request do, while many books share an author. The stores run in
+ * this JVM so that the HTTP layer is left out
+ *
+ * The heap is read after a few garbage collections, and getBooks first runs
+ * as many calls as it measures, to let the JIT compile the path
+ *
+ */
+public class CatalogMemoryBenchmark {
+	private static final String DEFAULT_ENGINES = "synchronized,single-lock,two-level-locking";
+	private static final int DEFAULT_BOOKS = 1000000;
+	private static final int DEFAULT_AUTHORS = 50000;
+	private static final int DEFAULT_CALLS = 10;
+	private static final int BOOKS_PER_BATCH = 10000;
+	private static final int NUM_GCS = 3;
+
+	/** The stream the responses are written to, which drops them. */
+	private static final OutputStream NULL_STREAM = new OutputStream() {
+		@Override
+		public void write(int b) {
+			// Drops the byte
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// Drops the bytes
+		}
+	};
+
+	private CatalogMemoryBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int numBooks = Integer.parseInt(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_MEMORY_BOOKS, Integer.toString(DEFAULT_BOOKS)));
+		int numAuthors = Integer.parseInt(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_MEMORY_AUTHORS, Integer.toString(DEFAULT_AUTHORS)));
+		int numCalls = Integer.parseInt(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_MEMORY_CALLS, Integer.toString(DEFAULT_CALLS)));
+		List<BookStoreEngineType> engines = new ArrayList<>();
+
+		for (String engine : System.getProperty(BookStoreConstants.PROPERTY_KEY_MEMORY_ENGINES, DEFAULT_ENGINES)
+				.split(",")) {
+			engines.add(BookStoreEngineType.parse(engine));
+		}
+
+		System.out.println("books=" + numBooks + " authors=" + numAuthors + " calls=" + numCalls);
+
+		for (BookStoreEngineType engine : engines) {
+			System.out.println(runPoint(engine, numBooks, numAuthors, numCalls));
+		}
+	}
+
+	/**
+	 * Gets the heap in use after a few garbage collections
+	 */
+	private static long usedHeap() {
+		for (int gc = 0; gc < NUM_GCS; gc++) {
+			System.gc();
+		}
+
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Creates a store of numBooks books by numAuthors authors, added in
+	 * batches
+	 */
+	private static StockManager populate(BookStoreEngineType engine, int numBooks, int numAuthors)
+			throws BookStoreException {
+		StockManager stockManager = (StockManager) engine.newBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= numBooks; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title of book " + isbn, "Author " + (isbn % numAuthors), 10.0f,
+					10, 0, 0, 0, false));
+
+			if (books.size() == BOOKS_PER_BATCH || isbn == numBooks) {
+				stockManager.addBooks(books);
+				books.clear();
+			}
+		}
+
+		return stockManager;
+	}
+
+	/**
+	 * Measures the heap of a catalog and the allocations of getBooks over it
+	 */
+	private static String runPoint(BookStoreEngineType engine, int numBooks, int numAuthors, int numCalls)
+			throws Exception {
+		long emptyHeap = usedHeap();
+		StockManager stockManager = populate(engine, numBooks, numAuthors);
+		long catalogHeap = usedHeap() - emptyHeap;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long books = 0;
+
+		for (int call = 0; call < numCalls; call++) {
+			books += stockManager.getBooks().size();
+		}
+
+		long startTimeInNanoSecs = System.nanoTime();
+		long startBytes = threads.getThreadAllocatedBytes(threadId);
+
+		for (int call = 0; call < numCalls; call++) {
+			books += stockManager.getBooks().size();
+		}
+
+		long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+		long timeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+
+		// Uses the results, so that the JIT cannot drop the calls
+		if (books != 2L * numCalls * numBooks) {
+			throw new IllegalStateException();
+		}
+
+		BookStoreKryoSerializer serializer = new BookStoreKryoSerializer();
+		long objectBytes = 0;
+		long recordBytes = 0;
+
+		// The first round lets the JIT compile both paths
+		for (int round = 0; round < 2; round++) {
+			startBytes = threads.getThreadAllocatedBytes(threadId);
+
+			for (int call = 0; call < numCalls; call++) {
+				BookStoreResponse response = new BookStoreResponse();
+				response.setList(stockManager.getBooks());
+				NULL_STREAM.write(serializer.serialize(response));
+			}
+
+			objectBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+			startBytes = threads.getThreadAllocatedBytes(threadId);
+
+			for (int call = 0; call < numCalls; call++) {
+				BookRecordBuffer records = serializer.getRecordBuffer();
+				((BookRecordSource) stockManager).writeBooks(records);
+				BookStoreResponse response = new BookStoreResponse();
+				response.setList(records);
+				serializer.serialize(response, NULL_STREAM);
+			}
+
+			recordBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+		}
+
+		return String.format(
+				"%-17s heap=%8.1fMB (%6.1fB/book) getBooks alloc=%8.1fMB/call (%6.1fB/book) time=%8.1fms/call"
+						+ " listBooks response alloc objects=%6.1fB/book records=%6.1fB/book",
+				engine, catalogHeap / 1e6, (double) catalogHeap / numBooks, (double) bytes / numCalls / 1e6,
+				(double) bytes / numCalls / numBooks, timeInNanoSecs / 1e6 / numCalls,
+				(double) objectBytes / numCalls / numBooks, (double) recordBytes / numCalls / numBooks);
+	}
+}
@@ -0,0 +1,120 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ *
+ * CatalogScanBenchmark measures the full-catalog reports of the stock manager,
+ * getBooks and getBooksInDemand, over catalogs of growing size. Running it
+ * once with scan.threshold=0, which scans every catalog in parallel, and once
+ * with a threshold above the largest catalog, which scans every catalog in
+ * the calling thread, gives the catalog size from which the parallel scan
+ * pays off, i.e. the default threshold of the engines. The stores run in this
+ * JVM so that the difference is the scan and not the HTTP layer
+ *
+ * Every point first runs as many calls as it measures, to let the JIT
+ * compile the path
+ *
+ */
+public class CatalogScanBenchmark {
+	private static final String DEFAULT_SIZES = "1000,4000,16000,64000,256000";
+	private static final String DEFAULT_ENGINES = "single-lock,two-level-locking";
+	private static final int DEFAULT_CALLS = 50;
+	private static final int SALE_MISS_EVERY = 10;
+
+	private CatalogScanBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int numCalls = Integer.parseInt(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_SCAN_CALLS, Integer.toString(DEFAULT_CALLS)));
+		List<Integer> sizes = new ArrayList<>();
+		List<BookStoreEngineType> engines = new ArrayList<>();
+
+		for (String size : System.getProperty(BookStoreConstants.PROPERTY_KEY_SCAN_SIZES, DEFAULT_SIZES).split(",")) {
+			sizes.add(Integer.parseInt(size.trim()));
+		}
+
+		for (String engine : System.getProperty(BookStoreConstants.PROPERTY_KEY_SCAN_ENGINES, DEFAULT_ENGINES)
+				.split(",")) {
+			engines.add(BookStoreEngineType.parse(engine));
+		}
+
+		System.out.println("calls=" + numCalls + " threshold="
+				+ System.getProperty(BookStoreConstants.PROPERTY_KEY_SCAN_THRESHOLD, "default") + " cores="
+				+ Runtime.getRuntime().availableProcessors());
+
+		for (BookStoreEngineType engine : engines) {
+			for (int size : sizes) {
+				System.out.println(runPoint(engine, size, numCalls));
+			}
+		}
+	}
+
+	/**
+	 * Creates a store of numBooks books, every SALE_MISS_EVERY-th of which
+	 * missed a sale
+	 */
+	private static StockManager populate(BookStoreEngineType engine, int numBooks) throws BookStoreException {
+		StockManager stockManager = (StockManager) engine.newBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= numBooks; isbn++) {
+			long numSaleMisses = (isbn % SALE_MISS_EVERY == 0) ? 1 : 0;
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10.0f, 10, numSaleMisses, 0, 0,
+					false));
+		}
+
+		stockManager.addBooks(books);
+		return stockManager;
+	}
+
+	/**
+	 * Times getBooks and getBooksInDemand over a catalog of numBooks books
+	 */
+	private static String runPoint(BookStoreEngineType engine, int numBooks, int numCalls) throws Exception {
+		StockManager stockManager = populate(engine, numBooks);
+		long books = 0;
+
+		for (int call = 0; call < numCalls; call++) {
+			books += stockManager.getBooks().size() + stockManager.getBooksInDemand().size();
+		}
+
+		long startTimeInNanoSecs = System.nanoTime();
+
+		for (int call = 0; call < numCalls; call++) {
+			books += stockManager.getBooks().size();
+		}
+
+		long getBooksTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+		startTimeInNanoSecs = System.nanoTime();
+
+		for (int call = 0; call < numCalls; call++) {
+			books += stockManager.getBooksInDemand().size();
+		}
+
+		long inDemandTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+
+		// Uses the results, so that the JIT cannot drop the calls
+		if (books < 0) {
+			throw new IllegalStateException();
+		}
+
+		return String.format("%-17s books=%-7d getBooks=%10.1fus getBooksInDemand=%10.1fus", engine, numBooks,
+				getBooksTimeInNanoSecs / 1e3 / numCalls, inDemandTimeInNanoSecs / 1e3 / numCalls);
+	}
+}
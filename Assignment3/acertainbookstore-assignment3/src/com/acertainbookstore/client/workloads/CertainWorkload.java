@@ -3,20 +3,26 @@
  */
 package com.acertainbookstore.client.workloads;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.Set;
 
-import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.ReplicatedBookStoreProxy;
+import com.acertainbookstore.client.ShardedBookStoreProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 
@@ -28,6 +34,21 @@ import com.acertainbookstore.business.StockBook;
  * 
  */
 public class CertainWorkload {
+	private static final String CLOSED_LOOP_MODE = "closed";
+	private static final String OPEN_LOOP_MODE = "open";
+	private static final String SWEEP_MODE = "sweep";
+	private static final String CONTENTION_MODE = "contention";
+	private static final String REPLAY_MODE = "replay";
+	private static final String COORDINATOR_MODE = "coordinator";
+	static final String AGENT_MODE = "agent";
+	private static final int DEFAULT_NUM_AGENTS = 2;
+	private static final double DEFAULT_OPEN_LOOP_RATE = 1000; // per second
+	private static final long DEFAULT_OPEN_LOOP_DURATION = 10; // seconds
+	private static final double SWEEP_START_RATE = 100; // per second
+	private static final int SWEEP_MAX_STEPS = 12;
+	private static final int SWEEP_BISECTION_STEPS = 3;
+	private static final double SWEEP_MIN_ACHIEVED_RATIO = 0.95;
+	private static final double SWEEP_MAX_P99_GROWTH = 10;
 
 	/**
 	 * @param args
@@ -39,6 +60,13 @@ public class CertainWorkload {
 		List<WorkerRunResult> workerRunResults = new ArrayList<WorkerRunResult>();
 		List<Future<WorkerRunResult>> runResults = new ArrayList<Future<WorkerRunResult>>();
 
+		// An agent gets everything it needs from its coordinator
+		if (AGENT_MODE.equals(System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_MODE))) {
+			DistributedWorkload.runAgent();
+			return;
+		}
+
 		// Initialize the RPC interfaces if its not a localTest, the variable is
 		// overriden if the property is set
 		String localTestProperty = System
@@ -49,43 +77,284 @@ public class CertainWorkload {
 		BookStore bookStore = null;
 		StockManager stockManager = null;
 		if (localTest) {
-			CertainBookStore store = new CertainBookStore();
-			bookStore = store;
-			stockManager = store;
+			String engineProperty = System
+					.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_ENGINE);
+			BookStoreEngineType engine = (engineProperty != null) ? BookStoreEngineType
+					.parse(engineProperty) : BookStoreEngineType.SYNCHRONIZED;
+			bookStore = engine.newBookStore();
+			stockManager = (StockManager) bookStore;
+		} else if (System.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICAS) != null) {
+			// The storefront reads are served by read-only replicas
+			ReplicatedBookStoreProxy replicatedProxy = ReplicatedBookStoreProxy
+					.fromSystemProperties();
+			stockManager = replicatedProxy;
+			bookStore = replicatedProxy;
+		} else if (System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVERS) != null) {
+			// The catalog is partitioned by ISBN over several servers
+			String decisionLogProperty = System
+					.getProperty(BookStoreConstants.PROPERTY_KEY_DECISION_LOG);
+			ShardedBookStoreProxy shardedProxy = new ShardedBookStoreProxy(
+					Arrays.asList(System.getProperty(
+							BookStoreConstants.PROPERTY_KEY_SERVERS).split(",")),
+					(decisionLogProperty != null) ? new File(decisionLogProperty)
+							: null);
+			stockManager = shardedProxy;
+			bookStore = shardedProxy;
 		} else {
 			stockManager = new StockManagerHTTPProxy(serverAddress + "/stock");
 			bookStore = new BookStoreHTTPProxy(serverAddress);
 		}
 
-		// Generate data in the bookstore before running the workload
-		initializeBookStoreData(bookStore, stockManager);
+		String mode = System.getProperty(
+				BookStoreConstants.PROPERTY_KEY_WORKLOAD_MODE, CLOSED_LOOP_MODE);
 
-		ExecutorService exec = Executors
-				.newFixedThreadPool(numConcurrentWorkloadThreads);
+		// Record the calls made to the bookstore, the data generation included
+		String recordProperty = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_RECORD);
+		TraceRecorder recorder = null;
+		BookStore workloadBookStore = bookStore;
+		StockManager workloadStockManager = stockManager;
+		if (recordProperty != null && !REPLAY_MODE.equals(mode)) {
+			recorder = new TraceRecorder(bookStore, stockManager, new File(
+					recordProperty));
+			workloadBookStore = recorder;
+			workloadStockManager = recorder;
+		}
 
-		for (int i = 0; i < numConcurrentWorkloadThreads; i++) {
-			WorkloadConfiguration config = new WorkloadConfiguration(bookStore,
-					stockManager);
-			Worker workerTask = new Worker(config);
-			// Keep the futures to wait for the result from the thread
-			runResults.add(exec.submit(workerTask));
+		// Generate data in the bookstore before running the workload, a
+		// replayed trace brings its own
+		if (!REPLAY_MODE.equals(mode)) {
+			initializeBookStoreData(workloadBookStore, workloadStockManager);
 		}
 
-		// Get the results from the threads using the futures returned
-		for (Future<WorkerRunResult> futureRunResult : runResults) {
-			WorkerRunResult runResult = futureRunResult.get(); // blocking call
-			workerRunResults.add(runResult);
+		String threadsProperty = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_THREADS);
+		numConcurrentWorkloadThreads = (threadsProperty != null) ? Integer
+				.parseInt(threadsProperty) : numConcurrentWorkloadThreads;
+		KeyDistribution keyDistribution = KeyDistribution.fromSystemProperties();
+
+		if (OPEN_LOOP_MODE.equals(mode)) {
+			double rate = Double.parseDouble(System.getProperty(
+					BookStoreConstants.PROPERTY_KEY_WORKLOAD_RATE,
+					String.valueOf(DEFAULT_OPEN_LOOP_RATE)));
+			reportOpenLoopMetric(runOpenLoop(workloadBookStore,
+					workloadStockManager, keyDistribution,
+					numConcurrentWorkloadThreads, rate));
+		} else if (SWEEP_MODE.equals(mode)) {
+			runRateSweep(workloadBookStore, workloadStockManager,
+					keyDistribution, numConcurrentWorkloadThreads);
+		} else if (CONTENTION_MODE.equals(mode)) {
+			ContentionScenario.run(numConcurrentWorkloadThreads);
+		} else if (COORDINATOR_MODE.equals(mode)) {
+			if (localTest) {
+				throw new IllegalArgumentException("The agents of the "
+						+ COORDINATOR_MODE + " mode need a server, run it with "
+						+ BookStoreConstants.PROPERTY_KEY_LOCAL_TEST + "=false");
+			}
+
+			int numAgents = Integer.parseInt(System.getProperty(
+					BookStoreConstants.PROPERTY_KEY_WORKLOAD_AGENTS,
+					String.valueOf(DEFAULT_NUM_AGENTS)));
+			WorkloadConfiguration template = new WorkloadConfiguration(null,
+					null);
+			template.setKeyDistribution(keyDistribution);
+			DistributedWorkload.runCoordinator(serverAddress, template,
+					numAgents, numConcurrentWorkloadThreads);
+		} else if (REPLAY_MODE.equals(mode)) {
+			double speedUp = Double.parseDouble(System.getProperty(
+					BookStoreConstants.PROPERTY_KEY_WORKLOAD_SPEED_UP, "1"));
+			TraceReplayer replayer = new TraceReplayer(new File(
+					System.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_REPLAY)),
+					bookStore, stockManager, speedUp);
+			reportReplayMetric(replayer.call());
+		} else if (CLOSED_LOOP_MODE.equals(mode)) {
+			ExecutorService exec = Executors
+					.newFixedThreadPool(numConcurrentWorkloadThreads);
+
+			for (int i = 0; i < numConcurrentWorkloadThreads; i++) {
+				WorkloadConfiguration config = newConfiguration(
+						workloadBookStore, workloadStockManager, i);
+				config.setKeyDistribution(keyDistribution);
+				Worker workerTask = new Worker(config);
+				// Keep the futures to wait for the result from the thread
+				runResults.add(exec.submit(workerTask));
+			}
+
+			// Get the results from the threads using the futures returned
+			for (Future<WorkerRunResult> futureRunResult : runResults) {
+				WorkerRunResult runResult = futureRunResult.get(); // blocking call
+				workerRunResults.add(runResult);
+			}
+
+			exec.shutdownNow(); // shutdown the executor
+			reportMetric(workerRunResults);
+		} else {
+			System.err.println("Unknown "
+					+ BookStoreConstants.PROPERTY_KEY_WORKLOAD_MODE + ": " + mode);
 		}
 
-		exec.shutdownNow(); // shutdown the executor
+		if (recorder != null) {
+			recorder.close();
+		}
 
-		// Finished initialization, stop the clients if not localTest
-		if (!localTest) {
+		// Finished the workload, stop the clients if not localTest
+		if (bookStore instanceof ShardedBookStoreProxy) {
+			((ShardedBookStoreProxy) bookStore).stop();
+		} else if (bookStore instanceof ReplicatedBookStoreProxy) {
+			((ReplicatedBookStoreProxy) bookStore).stop();
+		} else if (!localTest) {
 			((BookStoreHTTPProxy) bookStore).stop();
 			((StockManagerHTTPProxy) stockManager).stop();
 		}
+	}
 
-		reportMetric(workerRunResults);
+	/**
+	 * Runs the workload once in open loop at the given arrival rate, for the
+	 * duration set by the workload.duration property after a warm up of a
+	 * fifth of it
+	 *
+	 * @param rate
+	 *            interactions per second
+	 * @return the result of the run
+	 */
+	public static OpenLoopRunResult runOpenLoop(BookStore bookStore,
+			StockManager stockManager, KeyDistribution keyDistribution,
+			int numThreads, double rate) throws Exception {
+		long runTimeInNanoSecs = TimeUnit.SECONDS.toNanos(Long.parseLong(System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_DURATION,
+						String.valueOf(DEFAULT_OPEN_LOOP_DURATION))));
+		WorkloadConfiguration config = newConfiguration(bookStore,
+				stockManager, 0);
+		config.setKeyDistribution(keyDistribution);
+		Worker worker = new Worker(config);
+		OpenLoopRunner runner = new OpenLoopRunner(worker, numThreads, rate,
+				runTimeInNanoSecs / 5, runTimeInNanoSecs);
+		return runner.call();
+	}
+
+	/**
+	 * Runs the workload in open loop at increasing arrival rates to find the
+	 * saturation knee, i.e. the highest rate the bookstore sustains. The rate
+	 * is doubled until the bookstore saturates, then the knee is narrowed down
+	 * by bisection. A rate saturates the bookstore when less than
+	 * SWEEP_MIN_ACHIEVED_RATIO of it is achieved or when the p99 latency grows
+	 * beyond SWEEP_MAX_P99_GROWTH times the one at the starting rate
+	 */
+	public static void runRateSweep(BookStore bookStore,
+			StockManager stockManager, KeyDistribution keyDistribution,
+			int numThreads) throws Exception {
+		List<OpenLoopRunResult> results = new ArrayList<OpenLoopRunResult>();
+		OpenLoopRunResult baseline = runOpenLoop(bookStore, stockManager,
+				keyDistribution, numThreads, SWEEP_START_RATE);
+		results.add(baseline);
+		reportOpenLoopMetric(baseline);
+
+		double sustainedRate = isSaturated(baseline, baseline) ? 0 : SWEEP_START_RATE;
+		double saturatedRate = (sustainedRate == 0) ? SWEEP_START_RATE : 0;
+
+		// Double the rate until the bookstore saturates
+		for (int step = 1; saturatedRate == 0 && step < SWEEP_MAX_STEPS; step++) {
+			OpenLoopRunResult result = runOpenLoop(bookStore, stockManager,
+					keyDistribution, numThreads, sustainedRate * 2);
+			results.add(result);
+			reportOpenLoopMetric(result);
+
+			if (isSaturated(result, baseline)) {
+				saturatedRate = result.getTargetRate();
+			} else {
+				sustainedRate = result.getTargetRate();
+			}
+		}
+
+		// Narrow the knee down between the last sustained and the first
+		// saturated rate
+		for (int step = 0; sustainedRate > 0 && saturatedRate > 0
+				&& step < SWEEP_BISECTION_STEPS; step++) {
+			OpenLoopRunResult result = runOpenLoop(bookStore, stockManager,
+					keyDistribution, numThreads, (sustainedRate + saturatedRate) / 2);
+			results.add(result);
+			reportOpenLoopMetric(result);
+
+			if (isSaturated(result, baseline)) {
+				saturatedRate = result.getTargetRate();
+			} else {
+				sustainedRate = result.getTargetRate();
+			}
+		}
+
+		System.out.println("\n=== Rate Sweep ===");
+		System.out.printf("%12s %12s %10s %10s %10s%n", "target/s",
+				"achieved/s", "p50 ms", "p99 ms", "p99.9 ms");
+		for (OpenLoopRunResult result : results) {
+			System.out.printf("%12.1f %12.1f %10.2f %10.2f %10.2f%n",
+					result.getTargetRate(), result.getAchievedRate(),
+					toMillis(result.getLatencyAtPercentile(50)),
+					toMillis(result.getLatencyAtPercentile(99)),
+					toMillis(result.getLatencyAtPercentile(99.9)));
+		}
+
+		if (sustainedRate == 0) {
+			System.out.printf("%nSaturation knee: below %.1f interactions/second%n",
+					SWEEP_START_RATE);
+		} else if (saturatedRate == 0) {
+			System.out.printf("%nSaturation knee: not reached up to %.1f interactions/second%n",
+					sustainedRate);
+		} else {
+			System.out.printf("%nSaturation knee: between %.1f and %.1f interactions/second%n",
+					sustainedRate, saturatedRate);
+		}
+	}
+
+	/**
+	 * Checks whether a run saturated the bookstore compared to the baseline
+	 * run at the starting rate
+	 */
+	private static boolean isSaturated(OpenLoopRunResult result,
+			OpenLoopRunResult baseline) {
+		return result.getAchievedRate() < SWEEP_MIN_ACHIEVED_RATIO
+				* result.getTargetRate()
+				|| result.getLatencyAtPercentile(99) > SWEEP_MAX_P99_GROWTH
+						* baseline.getLatencyAtPercentile(99);
+	}
+
+	/**
+	 * Prints the latency percentiles of an open-loop run per interaction type
+	 *
+	 * @param result
+	 */
+	public static void reportOpenLoopMetric(OpenLoopRunResult result) {
+		System.out.printf("%n=== Open-Loop Metrics at %.1f interactions/second ===%n",
+				result.getTargetRate());
+		System.out.printf("Achieved Rate: %.2f interactions/second%n",
+				result.getAchievedRate());
+		System.out.println("Unfinished Interactions: "
+				+ result.getUnfinishedInteractions());
+		System.out.printf("%-24s %8s %7s %10s %10s %10s %10s%n", "Interaction",
+				"count", "failed", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+		for (InteractionType interactionType : InteractionType.values()) {
+			BookStoreHistogram latency = result.getLatency(interactionType);
+			System.out.printf("%-24s %8d %7d %10.2f %10.2f %10.2f %10.2f%n",
+					interactionType, latency.getCount(),
+					result.getFailedInteractions(interactionType),
+					toMillis(latency.getValueAtPercentile(50)),
+					toMillis(latency.getValueAtPercentile(99)),
+					toMillis(latency.getValueAtPercentile(99.9)),
+					toMillis(latency.getMax()));
+		}
+
+		// Print warning if the bookstore fell behind the arrival rate
+		if (result.getAchievedRate() < SWEEP_MIN_ACHIEVED_RATIO
+				* result.getTargetRate()) {
+			System.out.println("\nWARNING: The bookstore did not keep up with the target rate");
+		}
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds
+	 */
+	private static double toMillis(long nanoSecs) {
+		return nanoSecs / 1000000.0;
 	}
 
 	/**
@@ -141,6 +410,53 @@ public class CertainWorkload {
 		}
 	}
 
+	/**
+	 * Creates the configuration of a worker, seeded from the workload.seed
+	 * property when it is set so that repeated runs issue the same
+	 * interactions
+	 * 
+	 * @param workerIndex
+	 *            distinguishes the seeds of the workers
+	 */
+	private static WorkloadConfiguration newConfiguration(BookStore bookStore,
+			StockManager stockManager, int workerIndex) throws Exception {
+		String seedProperty = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_SEED);
+
+		if (seedProperty == null) {
+			return new WorkloadConfiguration(bookStore, stockManager);
+		}
+
+		return new WorkloadConfiguration(bookStore, stockManager,
+				Long.parseLong(seedProperty) + workerIndex + 1);
+	}
+
+	/**
+	 * Prints the latencies of a replayed trace per operation
+	 */
+	public static void reportReplayMetric(TraceReplayResult result) {
+		System.out.printf("%nReplay at %s: %d calls in %.2f s, %.1f calls/second%n",
+				(result.getSpeedUp() > 0) ? result.getSpeedUp() + "x" : "full speed",
+				result.getTotalCalls(), result.getElapsedTimeInNanoSecs() / 1000000000.0,
+				result.getAchievedRate());
+		System.out.printf("%-24s %8s %8s %10s %10s %10s%n", "operation", "calls",
+				"failed", "p50 ms", "p99 ms", "max ms");
+
+		for (TraceRecord.Operation operation : TraceRecord.Operation.values()) {
+			BookStoreHistogram latency = result.getLatency(operation);
+
+			if (latency.getCount() == 0) {
+				continue;
+			}
+
+			System.out.printf("%-24s %8d %8d %10.3f %10.3f %10.3f%n", operation,
+					latency.getCount(), result.getFailedCalls(operation),
+					toMillis(latency.getValueAtPercentile(50)),
+					toMillis(latency.getValueAtPercentile(99)),
+					toMillis(latency.getMax()));
+		}
+	}
+
 	/**
 	 * Generate the data in bookstore before the workload interactions are run
 	 * 
@@ -152,7 +468,10 @@ public class CertainWorkload {
 		
 		// TODO: You should initialize data for your bookstore here
 		
-		BookSetGenerator generator = new BookSetGenerator();
+		String seedProperty = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_SEED);
+		BookSetGenerator generator = (seedProperty != null) ? new BookSetGenerator(
+				Long.parseLong(seedProperty)) : new BookSetGenerator();
 		
 		// Initialize with 100 books
 		int initializeNumBooks = 100;
@@ -0,0 +1,128 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+
+/**
+ *
+ * ContentionScenario runs a purchase-heavy workload against every engine
+ * in-process, with purchases drawn from a Zipfian distribution of increasing
+ * skew, and reports how the throughput of each engine collapses as the
+ * purchases concentrate on a few bestsellers. Every run starts from a fresh
+ * store whose books never run out of copies, so that failed purchases do not
+ * blur the effect of lock contention
+ *
+ */
+public class ContentionScenario {
+	private static final double[] SKEWS = { 0, 0.5, 0.9, 1.2, 1.5, 2.0 };
+	private static final int NUM_BOOKS = 1000;
+	private static final int NUM_COPIES = 1000000;
+	private static final int NUM_ACTUAL_RUNS = 10000;
+	private static final float PERCENT_RARE_STOCK_MANAGER_INTERACTION = 0f;
+	private static final float PERCENT_FREQUENT_STOCK_MANAGER_INTERACTION = 5f;
+
+	private ContentionScenario() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Runs the scenario and prints the throughput per engine and skew
+	 *
+	 * @param numThreads
+	 *            the number of concurrent workers
+	 */
+	public static void run(int numThreads) throws Exception {
+		BookStoreEngineType[] engines = BookStoreEngineType.values();
+		double[][] throughputs = new double[engines.length][SKEWS.length];
+
+		// Let the JIT compile the engines before measuring, otherwise the
+		// first skews look slower than they are
+		for (BookStoreEngineType engine : engines) {
+			runOnce(engine, SKEWS[0], numThreads);
+		}
+
+		for (int i = 0; i < engines.length; i++) {
+			for (int j = 0; j < SKEWS.length; j++) {
+				throughputs[i][j] = runOnce(engines[i], SKEWS[j], numThreads);
+			}
+		}
+
+		System.out.println("\n=== Contention: successful client interactions/second ===");
+		System.out.printf("%-20s", "engine \\ skew");
+		for (double skew : SKEWS) {
+			System.out.printf(" %16.1f", skew);
+		}
+		System.out.println();
+
+		for (int i = 0; i < engines.length; i++) {
+			System.out.printf("%-20s", engines[i]);
+			for (int j = 0; j < SKEWS.length; j++) {
+				// Throughput relative to the uniform case shows the collapse
+				System.out.printf(" %9.1f (%3.0f%%)", throughputs[i][j],
+						throughputs[i][j] * 100 / throughputs[i][0]);
+			}
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Runs the workers once against a fresh store
+	 *
+	 * @return the successful client interactions per second
+	 */
+	private static double runOnce(BookStoreEngineType engine, double skew,
+			int numThreads) throws Exception {
+		BookStore bookStore = engine.newBookStore();
+		StockManager stockManager = (StockManager) bookStore;
+		KeyDistribution keyDistribution = KeyDistribution.zipfian(skew);
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author "
+					+ isbn, 10.0f, NUM_COPIES, 0, 0, 0, isbn % 10 == 0));
+		}
+		stockManager.addBooks(books);
+
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		List<Future<WorkerRunResult>> runResults = new ArrayList<Future<WorkerRunResult>>();
+
+		for (int i = 0; i < numThreads; i++) {
+			WorkloadConfiguration config = new WorkloadConfiguration(bookStore,
+					stockManager, i);
+			config.setKeyDistribution(keyDistribution);
+			config.setNumActualRuns(NUM_ACTUAL_RUNS);
+			config.setPercentRareStockManagerInteraction(PERCENT_RARE_STOCK_MANAGER_INTERACTION);
+			config.setPercentFrequentStockManagerInteraction(PERCENT_FREQUENT_STOCK_MANAGER_INTERACTION);
+			runResults.add(exec.submit(new Worker(config)));
+		}
+
+		long totalSuccessfulClientInteractions = 0;
+		long totalTimeInNanoSecs = 0;
+
+		for (Future<WorkerRunResult> futureRunResult : runResults) {
+			WorkerRunResult runResult = futureRunResult.get();
+			totalSuccessfulClientInteractions += runResult
+					.getSuccessfulFrequentBookStoreInteractionRuns();
+			totalTimeInNanoSecs += runResult.getElapsedTimeInNanoSecs();
+		}
+
+		exec.shutdownNow();
+
+		double averageTimeInSeconds = totalTimeInNanoSecs / (1000000000.0 * numThreads);
+		double throughput = totalSuccessfulClientInteractions / averageTimeInSeconds;
+		System.out.printf("%s, skew %.1f: %.1f successful client interactions/second%n",
+				engine, skew, throughput);
+		return throughput;
+	}
+}
@@ -0,0 +1,337 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * DistributedWorkload spreads the closed-loop workload over several agent
+ * processes, so that the load is not capped by what a single client JVM can
+ * generate. The coordinator waits for the agents to connect, hands each of
+ * them the shared WorkloadConfiguration, and once all of them are ready
+ * releases them at once. Every agent then runs its workers against the
+ * server and streams each worker's result back as soon as it finishes; the
+ * coordinator merges them into one report
+ *
+ * The agents are started by the coordinator on the same machine unless
+ * workload.agents.spawn is false, in which case they are started by hand
+ * with workload.mode=agent and workload.coordinator=host:port
+ *
+ * Messages are sent over a plain socket as a tag followed by its fields
+ *
+ */
+public class DistributedWorkload {
+	private static final int CONFIGURATION = 1;
+	private static final int READY = 2;
+	private static final int START = 3;
+	private static final int RESULT = 4;
+	private static final int DONE = 5;
+	private static final int DEFAULT_PORT = 9090;
+	private static final int ACCEPT_TIMEOUT_IN_MILLISECS = 60000;
+
+	private DistributedWorkload() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * Runs the coordinator and reports the merged results of the agents
+	 *
+	 * @param serverAddress
+	 *            the address of the bookstore server the agents load
+	 * @param template
+	 *            the configuration shared by all workers, without stores
+	 * @param numAgents
+	 *            the number of agents to wait for
+	 * @param numThreadsPerAgent
+	 *            the number of workers each agent runs
+	 */
+	public static void runCoordinator(String serverAddress, WorkloadConfiguration template, int numAgents,
+			int numThreadsPerAgent) throws Exception {
+		int port = getCoordinatorPort();
+		boolean spawn = Boolean.parseBoolean(System.getProperty(
+				BookStoreConstants.PROPERTY_KEY_WORKLOAD_AGENTS_SPAWN, "true"));
+		String seedProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_SEED);
+		List<Process> agentProcesses = new ArrayList<>();
+		List<Socket> agents = new ArrayList<>();
+		List<DataInputStream> ins = new ArrayList<>();
+		List<DataOutputStream> outs = new ArrayList<>();
+
+		try (ServerSocket serverSocket = new ServerSocket(port)) {
+			serverSocket.setSoTimeout(ACCEPT_TIMEOUT_IN_MILLISECS);
+
+			if (spawn) {
+				for (int i = 0; i < numAgents; i++) {
+					agentProcesses.add(spawnAgent(port));
+				}
+			}
+
+			System.out.printf("Waiting for %d agents on port %d%n", numAgents, port);
+
+			for (int i = 0; i < numAgents; i++) {
+				Socket agent = serverSocket.accept();
+				agents.add(agent);
+				ins.add(new DataInputStream(new BufferedInputStream(agent.getInputStream())));
+				outs.add(new DataOutputStream(new BufferedOutputStream(agent.getOutputStream())));
+			}
+		}
+
+		try {
+			for (int i = 0; i < numAgents; i++) {
+				DataOutputStream out = outs.get(i);
+				out.writeInt(CONFIGURATION);
+				out.writeUTF(serverAddress);
+				out.writeInt(numThreadsPerAgent);
+				out.writeBoolean(seedProperty != null);
+				out.writeLong((seedProperty != null) ? Long.parseLong(seedProperty) + (long) i * numThreadsPerAgent
+						: 0);
+				writeConfiguration(out, template);
+				out.flush();
+			}
+
+			// The barrier: nobody starts before every agent is ready
+			for (DataInputStream in : ins) {
+				expect(in, READY);
+			}
+
+			for (DataOutputStream out : outs) {
+				out.writeInt(START);
+				out.flush();
+			}
+
+			System.out.printf("Started %d agents with %d workers each%n", numAgents, numThreadsPerAgent);
+
+			List<WorkerRunResult> workerRunResults = Collections.synchronizedList(new ArrayList<>());
+			ExecutorService exec = Executors.newFixedThreadPool(numAgents);
+			List<Future<?>> readers = new ArrayList<>();
+
+			for (int i = 0; i < numAgents; i++) {
+				final int agentIndex = i;
+				final DataInputStream in = ins.get(i);
+				readers.add(exec.submit(() -> {
+					int tag;
+
+					while ((tag = in.readInt()) == RESULT) {
+						WorkerRunResult result = readResult(in);
+						workerRunResults.add(result);
+						System.out.printf("Agent %d: worker finished, %d/%d successful interactions%n",
+								agentIndex, result.getSuccessfulInteractions(), result.getTotalRuns());
+					}
+
+					if (tag != DONE) {
+						throw new IOException("Agent " + agentIndex + " sent message " + tag);
+					}
+					return null;
+				}));
+			}
+
+			for (Future<?> reader : readers) {
+				reader.get();
+			}
+
+			exec.shutdownNow();
+			CertainWorkload.reportMetric(workerRunResults);
+			reportLatency(workerRunResults);
+		} finally {
+			for (Socket agent : agents) {
+				agent.close();
+			}
+
+			for (Process agentProcess : agentProcesses) {
+				agentProcess.waitFor();
+			}
+		}
+	}
+
+	/**
+	 * Runs an agent: connects to the coordinator, waits to be started, runs
+	 * its workers and sends their results back
+	 */
+	public static void runAgent() throws Exception {
+		String coordinator = System.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_COORDINATOR,
+				"localhost:" + DEFAULT_PORT);
+		int separator = coordinator.lastIndexOf(':');
+
+		try (Socket socket = new Socket(coordinator.substring(0, separator), Integer.parseInt(coordinator
+				.substring(separator + 1)))) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			expect(in, CONFIGURATION);
+			String serverAddress = in.readUTF();
+			int numThreads = in.readInt();
+			boolean seeded = in.readBoolean();
+			long seed = in.readLong();
+			WorkloadConfiguration template = readConfiguration(in);
+
+			StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy(serverAddress + "/stock");
+			BookStoreHTTPProxy bookStore = new BookStoreHTTPProxy(serverAddress);
+			ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+			CompletionService<WorkerRunResult> runResults = new ExecutorCompletionService<>(exec);
+			List<Worker> workers = new ArrayList<>();
+
+			for (int i = 0; i < numThreads; i++) {
+				WorkloadConfiguration config = seeded ? new WorkloadConfiguration(bookStore, stockManager, seed
+						+ i + 1) : new WorkloadConfiguration(bookStore, stockManager);
+				copyConfiguration(template, config);
+				workers.add(new Worker(config));
+			}
+
+			out.writeInt(READY);
+			out.flush();
+			expect(in, START);
+
+			for (Worker worker : workers) {
+				runResults.submit(worker);
+			}
+
+			// Send every result as soon as its worker is done
+			for (int i = 0; i < numThreads; i++) {
+				WorkerRunResult result = runResults.take().get();
+				out.writeInt(RESULT);
+				writeResult(out, result);
+				out.flush();
+			}
+
+			out.writeInt(DONE);
+			out.flush();
+			exec.shutdownNow();
+			bookStore.stop();
+			stockManager.stop();
+		}
+	}
+
+	/**
+	 * Starts an agent in a new JVM with the class path and JVM arguments of
+	 * this one, output going to the console of the coordinator
+	 */
+	private static Process spawnAgent(int port) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (!argument.startsWith("-D" + BookStoreConstants.PROPERTY_KEY_WORKLOAD_MODE + "=")
+					&& !argument.startsWith("-D" + BookStoreConstants.PROPERTY_KEY_WORKLOAD_COORDINATOR + "=")) {
+				command.add(argument);
+			}
+		}
+
+		command.add("-D" + BookStoreConstants.PROPERTY_KEY_WORKLOAD_MODE + "=" + CertainWorkload.AGENT_MODE);
+		command.add("-D" + BookStoreConstants.PROPERTY_KEY_WORKLOAD_COORDINATOR + "=localhost:" + port);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(CertainWorkload.class.getName());
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	private static int getCoordinatorPort() {
+		String coordinator = System.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_COORDINATOR);
+		return (coordinator != null) ? Integer.parseInt(coordinator.substring(coordinator.lastIndexOf(':') + 1))
+				: DEFAULT_PORT;
+	}
+
+	private static void expect(DataInputStream in, int expectedTag) throws IOException {
+		int tag = in.readInt();
+
+		if (tag != expectedTag) {
+			throw new IOException("Expected message " + expectedTag + " but received " + tag);
+		}
+	}
+
+	private static void writeConfiguration(DataOutputStream out, WorkloadConfiguration config) throws IOException {
+		out.writeInt(config.getNumBooksToBuy());
+		out.writeInt(config.getNumBookCopiesToBuy());
+		out.writeInt(config.getNumEditorPicksToGet());
+		out.writeInt(config.getNumAddCopies());
+		out.writeInt(config.getNumBooksToAdd());
+		out.writeInt(config.getNumBooksWithLeastCopies());
+		out.writeInt(config.getWarmUpRuns());
+		out.writeInt(config.getNumActualRuns());
+		out.writeFloat(config.getPercentRareStockManagerInteraction());
+		out.writeFloat(config.getPercentFrequentStockManagerInteraction());
+		config.getKeyDistribution().write(out);
+	}
+
+	private static WorkloadConfiguration readConfiguration(DataInputStream in) throws Exception {
+		WorkloadConfiguration config = new WorkloadConfiguration(null, null);
+		config.setNumBooksToBuy(in.readInt());
+		config.setNumBookCopiesToBuy(in.readInt());
+		config.setNumEditorPicksToGet(in.readInt());
+		config.setNumAddCopies(in.readInt());
+		config.setNumBooksToAdd(in.readInt());
+		config.setNumBooksWithLeastCopies(in.readInt());
+		config.setWarmUpRuns(in.readInt());
+		config.setNumActualRuns(in.readInt());
+		config.setPercentRareStockManagerInteraction(in.readFloat());
+		config.setPercentFrequentStockManagerInteraction(in.readFloat());
+		config.setKeyDistribution(KeyDistribution.read(in));
+		return config;
+	}
+
+	/**
+	 * Copies the parameters of a configuration, leaving the stores and the
+	 * seed of the target alone
+	 */
+	private static void copyConfiguration(WorkloadConfiguration source, WorkloadConfiguration target) {
+		target.setNumBooksToBuy(source.getNumBooksToBuy());
+		target.setNumBookCopiesToBuy(source.getNumBookCopiesToBuy());
+		target.setNumEditorPicksToGet(source.getNumEditorPicksToGet());
+		target.setNumAddCopies(source.getNumAddCopies());
+		target.setNumBooksToAdd(source.getNumBooksToAdd());
+		target.setNumBooksWithLeastCopies(source.getNumBooksWithLeastCopies());
+		target.setWarmUpRuns(source.getWarmUpRuns());
+		target.setNumActualRuns(source.getNumActualRuns());
+		target.setPercentRareStockManagerInteraction(source.getPercentRareStockManagerInteraction());
+		target.setPercentFrequentStockManagerInteraction(source.getPercentFrequentStockManagerInteraction());
+		target.setKeyDistribution(source.getKeyDistribution());
+	}
+
+	private static void writeResult(DataOutputStream out, WorkerRunResult result) throws IOException {
+		out.writeInt(result.getSuccessfulInteractions());
+		out.writeLong(result.getElapsedTimeInNanoSecs());
+		out.writeInt(result.getTotalRuns());
+		out.writeInt(result.getSuccessfulFrequentBookStoreInteractionRuns());
+		out.writeInt(result.getTotalFrequentBookStoreInteractionRuns());
+		result.getLatency().write(out);
+	}
+
+	private static WorkerRunResult readResult(DataInputStream in) throws IOException {
+		return new WorkerRunResult(in.readInt(), in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+				BookStoreHistogram.read(in));
+	}
+
+	/**
+	 * Prints the latency percentiles over the interactions of all workers
+	 */
+	private static void reportLatency(List<WorkerRunResult> workerRunResults) {
+		BookStoreHistogram latency = new BookStoreHistogram();
+
+		for (WorkerRunResult result : workerRunResults) {
+			latency.add(result.getLatency());
+		}
+
+		System.out.printf("Latency over %d interactions: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+				latency.getCount(), latency.getValueAtPercentile(50) / 1000000.0,
+				latency.getValueAtPercentile(99) / 1000000.0, latency.getValueAtPercentile(99.9) / 1000000.0,
+				latency.getMax() / 1000000.0);
+	}
+}
@@ -0,0 +1,19 @@
+package com.acertainbookstore.client.workloads;
+
+/**
+ *
+ * InteractionType enumerates the interactions a Worker runs against the
+ * bookstore
+ *
+ */
+public enum InteractionType {
+
+	/** The new stock acquisition interaction. */
+	RARE_STOCK_MANAGER,
+
+	/** The stock replenishment interaction. */
+	FREQUENT_STOCK_MANAGER,
+
+	/** The customer interaction. */
+	FREQUENT_BOOK_STORE
+}
@@ -0,0 +1,295 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ *
+ * KeyDistribution decides how popular each book is when the workload picks
+ * books to buy. Books are ranked by popularity, rank 0 being the bestseller,
+ * and the distribution draws ranks:
+ *
+ * UNIFORM keeps the original behaviour of buying among the editor picks.
+ * ZIPFIAN draws rank k with a probability proportional to 1 / (k + 1)^skew.
+ * HOTSPOT sends hotAccessFraction of the draws to the hotSetFraction most
+ * popular books. SHIFTING_HOTSPOT moves that hot set to the next books every
+ * shiftInterval draws
+ *
+ * A KeyDistribution can be shared by several workers. Zipfian ranks are drawn
+ * by rejection-inversion (Hormann and Derflinger, "Rejection-inversion to
+ * generate variates from monotone discrete distributions", 1996), in constant
+ * time and without a table of the distribution, so that workers drawing from
+ * catalogs of different sizes do not slow each other down
+ *
+ */
+public class KeyDistribution {
+
+	/**
+	 *
+	 * Type enumerates the supported distributions
+	 *
+	 */
+	public enum Type {
+		UNIFORM, ZIPFIAN, HOTSPOT, SHIFTING_HOTSPOT
+	}
+
+	private static final double DEFAULT_SKEW = 0.99;
+	private static final double DEFAULT_HOT_SET_FRACTION = 0.1;
+	private static final double DEFAULT_HOT_ACCESS_FRACTION = 0.9;
+	private static final long DEFAULT_SHIFT_INTERVAL = 10000;
+
+	private final Type type;
+	private final double skew; // Zipfian exponent
+	private final double hotSetFraction; // fraction of books that are hot
+	private final double hotAccessFraction; // fraction of draws that are hot
+	private final long shiftInterval; // draws before the hot set moves
+	private final AtomicLong numDraws = new AtomicLong();
+	private volatile ZipfianSampler zipfianSampler; // for the last number of
+													// books
+
+	private KeyDistribution(Type type, double skew, double hotSetFraction,
+			double hotAccessFraction, long shiftInterval) {
+		if (skew < 0 || hotSetFraction <= 0 || hotSetFraction > 1
+				|| hotAccessFraction < 0 || hotAccessFraction > 1
+				|| shiftInterval < 1) {
+			throw new IllegalArgumentException("Invalid " + type
+					+ " key distribution parameters");
+		}
+
+		this.type = type;
+		this.skew = skew;
+		this.hotSetFraction = hotSetFraction;
+		this.hotAccessFraction = hotAccessFraction;
+		this.shiftInterval = shiftInterval;
+	}
+
+	public static KeyDistribution uniform() {
+		return new KeyDistribution(Type.UNIFORM, 0, DEFAULT_HOT_SET_FRACTION,
+				DEFAULT_HOT_ACCESS_FRACTION, DEFAULT_SHIFT_INTERVAL);
+	}
+
+	public static KeyDistribution zipfian(double skew) {
+		return new KeyDistribution(Type.ZIPFIAN, skew, DEFAULT_HOT_SET_FRACTION,
+				DEFAULT_HOT_ACCESS_FRACTION, DEFAULT_SHIFT_INTERVAL);
+	}
+
+	public static KeyDistribution hotspot(double hotSetFraction,
+			double hotAccessFraction) {
+		return new KeyDistribution(Type.HOTSPOT, 0, hotSetFraction,
+				hotAccessFraction, DEFAULT_SHIFT_INTERVAL);
+	}
+
+	public static KeyDistribution shiftingHotspot(double hotSetFraction,
+			double hotAccessFraction, long shiftInterval) {
+		return new KeyDistribution(Type.SHIFTING_HOTSPOT, 0, hotSetFraction,
+				hotAccessFraction, shiftInterval);
+	}
+
+	/**
+	 * Returns the distribution selected by the workload.distribution,
+	 * workload.skew, workload.hotset, workload.hotaccess and workload.shift
+	 * system properties, uniform when none is set
+	 *
+	 * @return
+	 */
+	public static KeyDistribution fromSystemProperties() {
+		String typeProperty = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_DISTRIBUTION);
+		Type type = (typeProperty != null) ? Type.valueOf(typeProperty.trim()
+				.toUpperCase()) : Type.UNIFORM;
+		double skew = getDoubleProperty(
+				BookStoreConstants.PROPERTY_KEY_WORKLOAD_SKEW, DEFAULT_SKEW);
+		double hotSetFraction = getDoubleProperty(
+				BookStoreConstants.PROPERTY_KEY_WORKLOAD_HOT_SET,
+				DEFAULT_HOT_SET_FRACTION);
+		double hotAccessFraction = getDoubleProperty(
+				BookStoreConstants.PROPERTY_KEY_WORKLOAD_HOT_ACCESS,
+				DEFAULT_HOT_ACCESS_FRACTION);
+		long shiftInterval = (long) getDoubleProperty(
+				BookStoreConstants.PROPERTY_KEY_WORKLOAD_SHIFT,
+				DEFAULT_SHIFT_INTERVAL);
+
+		return new KeyDistribution(type, skew, hotSetFraction,
+				hotAccessFraction, shiftInterval);
+	}
+
+	/**
+	 * Writes the parameters of the distribution, e.g. to hand it to the
+	 * agents of a distributed workload
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeUTF(type.name());
+		out.writeDouble(skew);
+		out.writeDouble(hotSetFraction);
+		out.writeDouble(hotAccessFraction);
+		out.writeLong(shiftInterval);
+	}
+
+	/**
+	 * Reads a distribution written by write. The draws of the shifting hot set
+	 * start over
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static KeyDistribution read(DataInput in) throws IOException {
+		return new KeyDistribution(Type.valueOf(in.readUTF()), in.readDouble(),
+				in.readDouble(), in.readDouble(), in.readLong());
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public double getSkew() {
+		return skew;
+	}
+
+	/**
+	 * Draws the rank of a book
+	 *
+	 * @param numBooks
+	 *            the number of books to draw from
+	 * @param random
+	 * @return a rank between 0 and numBooks - 1
+	 */
+	public int nextRank(int numBooks, Random random) {
+		switch (type) {
+		case ZIPFIAN:
+			return nextZipfianRank(numBooks, random);
+		case HOTSPOT:
+			return nextHotspotRank(numBooks, random);
+		case SHIFTING_HOTSPOT:
+			long shift = numDraws.getAndIncrement() / shiftInterval;
+			int hotSetSize = getHotSetSize(numBooks);
+			return (int) ((nextHotspotRank(numBooks, random) + shift * hotSetSize) % numBooks);
+		case UNIFORM:
+		default:
+			return random.nextInt(numBooks);
+		}
+	}
+
+	private int nextZipfianRank(int numBooks, Random random) {
+		ZipfianSampler sampler = zipfianSampler;
+
+		// The constants of the sampler take a few operations to compute, so
+		// workers with catalogs of different sizes just replace them
+		if (sampler == null || sampler.numBooks != numBooks) {
+			sampler = new ZipfianSampler(numBooks, skew);
+			zipfianSampler = sampler;
+		}
+
+		return sampler.nextRank(random);
+	}
+
+	private int nextHotspotRank(int numBooks, Random random) {
+		int hotSetSize = getHotSetSize(numBooks);
+
+		if (hotSetSize == numBooks || random.nextDouble() < hotAccessFraction) {
+			return random.nextInt(hotSetSize);
+		}
+
+		return hotSetSize + random.nextInt(numBooks - hotSetSize);
+	}
+
+	private int getHotSetSize(int numBooks) {
+		return Math.max(1, Math.min(numBooks, (int) Math.round(numBooks * hotSetFraction)));
+	}
+
+	/**
+	 *
+	 * ZipfianSampler draws ranks by rejection-inversion: it inverts the
+	 * integral of a continuous hat function over the ranks, and rejects the
+	 * few draws that fall outside the probability of the rank they round to
+	 *
+	 */
+	private static final class ZipfianSampler {
+		private final int numBooks;
+		private final double skew;
+		private final double hIntegralX1;
+		private final double hIntegralNumBooks;
+		private final double s;
+
+		private ZipfianSampler(int numBooks, double skew) {
+			this.numBooks = numBooks;
+			this.skew = skew;
+			this.hIntegralX1 = hIntegral(1.5) - 1;
+			this.hIntegralNumBooks = hIntegral(numBooks + 0.5);
+			this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+		}
+
+		private int nextRank(Random random) {
+			while (true) {
+				double u = hIntegralNumBooks + random.nextDouble() * (hIntegralX1 - hIntegralNumBooks);
+				double x = hIntegralInverse(u);
+				int k = (int) (x + 0.5);
+
+				// Rounding may step just outside the ranks
+				k = Math.max(1, Math.min(numBooks, k));
+
+				if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+					return k - 1;
+				}
+			}
+		}
+
+		/**
+		 * The hat function, 1 / x^skew
+		 */
+		private double h(double x) {
+			return Math.exp(-skew * Math.log(x));
+		}
+
+		/**
+		 * The integral of h, (x^(1 - skew) - 1) / (1 - skew), also for a skew
+		 * of 1
+		 */
+		private double hIntegral(double x) {
+			double logX = Math.log(x);
+			return expm1OverX((1 - skew) * logX) * logX;
+		}
+
+		private double hIntegralInverse(double x) {
+			double t = Math.max(-1, x * (1 - skew));
+			return Math.exp(log1pOverX(t) * x);
+		}
+
+		private static double log1pOverX(double x) {
+			return (Math.abs(x) > 1e-8) ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+		}
+
+		private static double expm1OverX(double x) {
+			return (Math.abs(x) > 1e-8) ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+		}
+	}
+
+	private static double getDoubleProperty(String key, double defaultValue) {
+		String value = System.getProperty(key);
+		return (value != null) ? Double.parseDouble(value.trim()) : defaultValue;
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+		case ZIPFIAN:
+			return type + "(skew=" + skew + ")";
+		case HOTSPOT:
+			return type + "(hotset=" + hotSetFraction + ", hotaccess=" + hotAccessFraction + ")";
+		case SHIFTING_HOTSPOT:
+			return type + "(hotset=" + hotSetFraction + ", hotaccess=" + hotAccessFraction + ", shift="
+					+ shiftInterval + ")";
+		case UNIFORM:
+		default:
+			return type.toString();
+		}
+	}
+}
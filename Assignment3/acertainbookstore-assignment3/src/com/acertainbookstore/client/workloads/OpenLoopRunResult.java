@@ -0,0 +1,101 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * OpenLoopRunResult class represents the result of an open-loop run at one
+ * target arrival rate. Latencies are measured from the intended start time of
+ * each interaction, so the time interactions spend queued behind slow ones is
+ * included
+ *
+ */
+public class OpenLoopRunResult {
+	private final double targetRate; // interactions per second asked for
+	private final long elapsedTimeInNanoSecs; // time from the first intended
+												// start to the last completion
+	private final Map<InteractionType, BookStoreHistogram> latencies = new EnumMap<>(InteractionType.class);
+	private final Map<InteractionType, Long> failedInteractions = new EnumMap<>(InteractionType.class);
+	private final long unfinishedInteractions; // interactions still queued
+												// when the run was cut off
+
+	public OpenLoopRunResult(double targetRate, long elapsedTimeInNanoSecs,
+			Map<InteractionType, BookStoreHistogram> latencies, Map<InteractionType, Long> failedInteractions,
+			long unfinishedInteractions) {
+		this.targetRate = targetRate;
+		this.elapsedTimeInNanoSecs = elapsedTimeInNanoSecs;
+		this.latencies.putAll(latencies);
+		this.failedInteractions.putAll(failedInteractions);
+		this.unfinishedInteractions = unfinishedInteractions;
+	}
+
+	public double getTargetRate() {
+		return targetRate;
+	}
+
+	public long getElapsedTimeInNanoSecs() {
+		return elapsedTimeInNanoSecs;
+	}
+
+	/**
+	 * Returns the latency histogram, in nanoseconds, of an interaction type
+	 *
+	 * @param interactionType
+	 * @return
+	 */
+	public BookStoreHistogram getLatency(InteractionType interactionType) {
+		return latencies.get(interactionType);
+	}
+
+	public long getFailedInteractions(InteractionType interactionType) {
+		return failedInteractions.get(interactionType);
+	}
+
+	public long getUnfinishedInteractions() {
+		return unfinishedInteractions;
+	}
+
+	/**
+	 * Returns the number of interactions recorded, including the failed and
+	 * unfinished ones
+	 *
+	 * @return
+	 */
+	public long getTotalInteractions() {
+		long totalInteractions = 0;
+
+		for (BookStoreHistogram latency : latencies.values()) {
+			totalInteractions += latency.getCount();
+		}
+
+		return totalInteractions;
+	}
+
+	/**
+	 * Returns the rate at which interactions finished, successfully or not
+	 *
+	 * @return interactions per second
+	 */
+	public double getAchievedRate() {
+		return (getTotalInteractions() - unfinishedInteractions) / (elapsedTimeInNanoSecs / 1000000000.0);
+	}
+
+	/**
+	 * Returns the value at a percentile over all interaction types
+	 *
+	 * @param percentile
+	 * @return latency in nanoseconds
+	 */
+	public long getLatencyAtPercentile(double percentile) {
+		BookStoreHistogram all = new BookStoreHistogram();
+
+		for (BookStoreHistogram latency : latencies.values()) {
+			all.add(latency);
+		}
+
+		return all.getValueAtPercentile(percentile);
+	}
+}
@@ -0,0 +1,191 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * OpenLoopRunner issues interactions at a fixed target arrival rate,
+ * independently of how fast the bookstore answers, and hands them to a pool of
+ * threads. Unlike the closed loop of Worker.call, a slow interaction does not
+ * delay the next ones from being issued: they queue up, and since latency is
+ * measured from the intended start time, the queueing shows up in the tail
+ * (i.e. the measurement does not suffer from coordinated omission)
+ *
+ * Every thread of the pool draws its books from its own generator, seeded
+ * from the seed of the worker and the index of the thread, so that the
+ * threads neither contend on one generator nor interleave their draws
+ *
+ */
+public class OpenLoopRunner implements Callable<OpenLoopRunResult> {
+	private final Worker worker;
+	private final int numThreads;
+	private final double targetRate; // interactions per second
+	private final long warmUpTimeInNanoSecs;
+	private final long runTimeInNanoSecs;
+	private final Map<InteractionType, BookStoreHistogram> latencies = new EnumMap<>(InteractionType.class);
+	private final Map<InteractionType, AtomicLong> failedInteractions = new EnumMap<>(InteractionType.class);
+	private final ThreadLocal<BookSetGenerator> bookSetGenerator = new ThreadLocal<>();
+
+	/**
+	 * @param worker
+	 *            runs the interactions, shared by all threads
+	 * @param numThreads
+	 *            the number of threads running interactions
+	 * @param targetRate
+	 *            the interactions issued per second
+	 * @param warmUpTimeInNanoSecs
+	 *            the time during which interactions are issued but not
+	 *            recorded
+	 * @param runTimeInNanoSecs
+	 *            the time during which interactions are issued and recorded
+	 */
+	public OpenLoopRunner(Worker worker, int numThreads, double targetRate, long warmUpTimeInNanoSecs,
+			long runTimeInNanoSecs) {
+		if (numThreads < 1 || targetRate <= 0 || warmUpTimeInNanoSecs < 0 || runTimeInNanoSecs <= 0) {
+			throw new IllegalArgumentException("Invalid open-loop run parameters");
+		}
+
+		this.worker = worker;
+		this.numThreads = numThreads;
+		this.targetRate = targetRate;
+		this.warmUpTimeInNanoSecs = warmUpTimeInNanoSecs;
+		this.runTimeInNanoSecs = runTimeInNanoSecs;
+
+		for (InteractionType interactionType : InteractionType.values()) {
+			latencies.put(interactionType, new BookStoreHistogram());
+			failedInteractions.put(interactionType, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Issues the interactions on schedule and waits for them to finish. Once
+	 * the schedule is over, interactions get as long again as the run time to
+	 * finish; those still queued after that are recorded as unfinished with
+	 * the latency they had accumulated so far
+	 */
+	public OpenLoopRunResult call() throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads, new GeneratorThreadFactory());
+		Random rand = new Random(worker.getSeed());
+		double intervalInNanoSecs = 1000000000.0 / targetRate;
+		long startTimeInNanoSecs = System.nanoTime();
+		long recordFromInNanoSecs = startTimeInNanoSecs + warmUpTimeInNanoSecs;
+		long endTimeInNanoSecs = recordFromInNanoSecs + runTimeInNanoSecs;
+		long unfinishedInteractions = 0;
+
+		for (long count = 0;; count++) {
+			long intendedStartTimeInNanoSecs = startTimeInNanoSecs + (long) (count * intervalInNanoSecs);
+
+			if (intendedStartTimeInNanoSecs >= endTimeInNanoSecs) {
+				break;
+			}
+
+			long waitTimeInNanoSecs;
+
+			while ((waitTimeInNanoSecs = intendedStartTimeInNanoSecs - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(waitTimeInNanoSecs);
+			}
+
+			exec.execute(new ScheduledInteraction(worker.chooseInteraction(rand.nextFloat() * 100f),
+					intendedStartTimeInNanoSecs, intendedStartTimeInNanoSecs >= recordFromInNanoSecs));
+		}
+
+		exec.shutdown();
+
+		if (!exec.awaitTermination(runTimeInNanoSecs, TimeUnit.NANOSECONDS)) {
+			List<Runnable> queuedInteractions = exec.shutdownNow();
+			long now = System.nanoTime();
+
+			for (Runnable queuedInteraction : queuedInteractions) {
+				ScheduledInteraction interaction = (ScheduledInteraction) queuedInteraction;
+
+				if (interaction.recorded) {
+					latencies.get(interaction.interactionType).record(now - interaction.intendedStartTimeInNanoSecs);
+					unfinishedInteractions++;
+				}
+			}
+
+			exec.awaitTermination(runTimeInNanoSecs, TimeUnit.NANOSECONDS);
+		}
+
+		Map<InteractionType, Long> failed = new EnumMap<>(InteractionType.class);
+
+		for (Map.Entry<InteractionType, AtomicLong> entry : failedInteractions.entrySet()) {
+			failed.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return new OpenLoopRunResult(targetRate, System.nanoTime() - recordFromInNanoSecs, latencies, failed,
+				unfinishedInteractions);
+	}
+
+	/**
+	 *
+	 * GeneratorThreadFactory creates the threads of the pool, numbered in the
+	 * order the pool asks for them, each with its own book set generator. The
+	 * seeds skip the seed of the worker, which already seeds the choice of the
+	 * interactions
+	 *
+	 */
+	private final class GeneratorThreadFactory implements ThreadFactory {
+		private final AtomicInteger nextThreadIndex = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			long seed = worker.getSeed() + nextThreadIndex.getAndIncrement() + 1;
+
+			return new Thread(() -> {
+				bookSetGenerator.set(new BookSetGenerator(seed));
+				runnable.run();
+			});
+		}
+	}
+
+	/**
+	 *
+	 * ScheduledInteraction is an interaction together with the time it was
+	 * supposed to start
+	 *
+	 */
+	private final class ScheduledInteraction implements Runnable {
+		private final InteractionType interactionType;
+		private final long intendedStartTimeInNanoSecs;
+		private final boolean recorded; // false during the warm up
+
+		private ScheduledInteraction(InteractionType interactionType, long intendedStartTimeInNanoSecs,
+				boolean recorded) {
+			this.interactionType = interactionType;
+			this.intendedStartTimeInNanoSecs = intendedStartTimeInNanoSecs;
+			this.recorded = recorded;
+		}
+
+		public void run() {
+			boolean successful = true;
+
+			try {
+				worker.runInteraction(interactionType, bookSetGenerator.get());
+			} catch (BookStoreException ex) {
+				successful = false;
+			}
+
+			if (recorded) {
+				latencies.get(interactionType).record(System.nanoTime() - intendedStartTimeInNanoSecs);
+
+				if (!successful) {
+					failedInteractions.get(interactionType).incrementAndGet();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * ReaderScalingBenchmark measures how the reads of a store scale with the
+ * number of reader threads. Readers alternate getBooks and getBooksByISBN of
+ * a few random books, while writer threads buy two books at a time, which
+ * takes exclusive locks and so invalidates the optimistic reads. The stores
+ * run in this JVM so that the difference is the locking and not the HTTP
+ * layer
+ *
+ * Each point runs closed loop for the configured duration, the first fifth of
+ * which is a warm up
+ *
+ */
+public class ReaderScalingBenchmark {
+	private static final String DEFAULT_THREADS = "1,4,16,32,64";
+	private static final String DEFAULT_ENGINES = "synchronized,single-lock,two-level-locking";
+	private static final int DEFAULT_WRITERS = 1;
+	private static final int DEFAULT_DURATION = 5;
+	private static final int BOOKS_PER_READ = 5;
+	private static final int NUM_BOOKS = 10000;
+	private static final int NUM_COPIES = 1000000000;
+
+	private ReaderScalingBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int durationInSecs = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_READERS_DURATION,
+				Integer.toString(DEFAULT_DURATION)));
+		int numWriters = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_READERS_WRITERS,
+				Integer.toString(DEFAULT_WRITERS)));
+		List<Integer> threads = new ArrayList<>();
+		List<BookStoreEngineType> engines = new ArrayList<>();
+
+		for (String numThreads : System.getProperty(BookStoreConstants.PROPERTY_KEY_READERS_THREADS, DEFAULT_THREADS)
+				.split(",")) {
+			threads.add(Integer.parseInt(numThreads.trim()));
+		}
+
+		for (String engine : System.getProperty(BookStoreConstants.PROPERTY_KEY_READERS_ENGINES, DEFAULT_ENGINES)
+				.split(",")) {
+			engines.add(BookStoreEngineType.parse(engine));
+		}
+
+		System.out.println("duration=" + durationInSecs + "s writers=" + numWriters + " cores="
+				+ Runtime.getRuntime().availableProcessors());
+
+		for (BookStoreEngineType engine : engines) {
+			for (int numThreads : threads) {
+				System.out.println(runPoint(engine, numThreads, numWriters, durationInSecs));
+			}
+		}
+	}
+
+	/**
+	 * Creates a store of NUM_BOOKS books with enough copies to never run out
+	 */
+	private static BookStore populate(BookStoreEngineType engine) throws BookStoreException {
+		BookStore bookStore = engine.newBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		((StockManager) bookStore).addBooks(books);
+		return bookStore;
+	}
+
+	/**
+	 * Reads BOOKS_PER_READ random books per call from numReaders threads
+	 * while numWriters threads buy two random books per call
+	 */
+	private static String runPoint(BookStoreEngineType engine, int numReaders, int numWriters, int durationInSecs)
+			throws Exception {
+		BookStore bookStore = populate(engine);
+		StockManager stockManager = (StockManager) bookStore;
+		ExecutorService exec = Executors.newFixedThreadPool(numReaders + numWriters);
+		List<Future<Long>> readerFutures = new ArrayList<>();
+		List<Future<Long>> writerFutures = new ArrayList<>();
+		List<BookStoreHistogram> latencies = new ArrayList<>();
+		long startTimeInNanoSecs = System.nanoTime();
+		long measureTimeInNanoSecs = startTimeInNanoSecs + durationInSecs * 200000000L;
+		long endTimeInNanoSecs = startTimeInNanoSecs + durationInSecs * 1000000000L;
+
+		// Writers first, so that busy readers cannot delay their start
+		for (int writer = 0; writer < numWriters; writer++) {
+			Random random = new Random(-1 - writer);
+			writerFutures.add(exec.submit(() -> {
+				long calls = 0;
+
+				while (System.nanoTime() < endTimeInNanoSecs) {
+					Set<BookCopy> bookCopies = new HashSet<>();
+					int firstIsbn = 1 + random.nextInt(NUM_BOOKS);
+					bookCopies.add(new BookCopy(firstIsbn, 1));
+					bookCopies.add(new BookCopy(1 + firstIsbn % NUM_BOOKS, 1));
+					bookStore.buyBooks(bookCopies);
+
+					if (System.nanoTime() >= measureTimeInNanoSecs) {
+						calls++;
+					}
+				}
+
+				return calls;
+			}));
+		}
+
+		for (int reader = 0; reader < numReaders; reader++) {
+			BookStoreHistogram latency = new BookStoreHistogram();
+			Random random = new Random(reader);
+			latencies.add(latency);
+			readerFutures.add(exec.submit(() -> {
+				long calls = 0;
+
+				while (System.nanoTime() < endTimeInNanoSecs) {
+					Set<Integer> isbns = new HashSet<>();
+
+					while (isbns.size() < BOOKS_PER_READ) {
+						isbns.add(1 + random.nextInt(NUM_BOOKS));
+					}
+
+					long callStartTimeInNanoSecs = System.nanoTime();
+
+					if (calls % 2 == 0) {
+						bookStore.getBooks(isbns);
+					} else {
+						stockManager.getBooksByISBN(isbns);
+					}
+
+					long callEndTimeInNanoSecs = System.nanoTime();
+
+					if (callStartTimeInNanoSecs >= measureTimeInNanoSecs) {
+						latency.record(callEndTimeInNanoSecs - callStartTimeInNanoSecs);
+					}
+
+					calls++;
+				}
+
+				return latency.getCount();
+			}));
+		}
+
+		long reads = 0;
+		long writes = 0;
+
+		for (Future<Long> future : readerFutures) {
+			reads += future.get();
+		}
+
+		for (Future<Long> future : writerFutures) {
+			writes += future.get();
+		}
+
+		exec.shutdownNow();
+		BookStoreHistogram latency = new BookStoreHistogram();
+
+		for (BookStoreHistogram readerLatency : latencies) {
+			latency.add(readerLatency);
+		}
+
+		double measuredTimeInSecs = (endTimeInNanoSecs - measureTimeInNanoSecs) / 1e9;
+		return String.format(
+				"%-17s readers=%-3d reads=%10.1f/s mean=%8.4fms p50=%8.4fms p99=%8.4fms writes=%9.1f/s", engine,
+				numReaders, reads / measuredTimeInSecs, latency.getMean() / 1e6,
+				latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+				writes / measuredTimeInSecs);
+	}
+}
@@ -0,0 +1,173 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * ReservationBenchmark compares hot-item checkouts done with buyBooks against
+ * the same checkouts done with reserveBooks followed by confirmReservation.
+ * Every checkout takes one copy of the same hot book and one copy of a random
+ * cold book, so buyBooks serializes all the checkouts on the hot book while
+ * the reservations only race on its counter. The stores run in this JVM so
+ * that the difference is the locking and not the HTTP layer
+ *
+ * Each point runs closed loop for the configured duration, the first fifth of
+ * which is a warm up
+ *
+ */
+public class ReservationBenchmark {
+	private static final String DEFAULT_THREADS = "1,4,16";
+	private static final String DEFAULT_ENGINES = "single-lock,two-level-locking";
+	private static final int DEFAULT_DURATION = 5;
+	private static final long DEFAULT_TTL = 60000;
+	private static final int HOT_ISBN = 1;
+	private static final int NUM_BOOKS = 10000;
+	private static final int NUM_COPIES = 1000000000;
+
+	private ReservationBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int durationInSecs = Integer.parseInt(System.getProperty(
+				BookStoreConstants.PROPERTY_KEY_RESERVATION_DURATION, Integer.toString(DEFAULT_DURATION)));
+		long ttlInMillis = Long.parseLong(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_RESERVATION_TTL, Long.toString(DEFAULT_TTL)));
+		List<Integer> threads = new ArrayList<>();
+		List<BookStoreEngineType> engines = new ArrayList<>();
+
+		for (String numThreads : System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_RESERVATION_THREADS, DEFAULT_THREADS).split(",")) {
+			threads.add(Integer.parseInt(numThreads.trim()));
+		}
+
+		for (String engine : System.getProperty(BookStoreConstants.PROPERTY_KEY_RESERVATION_ENGINES, DEFAULT_ENGINES)
+				.split(",")) {
+			engines.add(BookStoreEngineType.parse(engine));
+		}
+
+		System.out.println("duration=" + durationInSecs + "s ttl=" + ttlInMillis + "ms");
+
+		for (BookStoreEngineType engine : engines) {
+			for (int numThreads : threads) {
+				System.out.println(runPoint(engine, false, numThreads, durationInSecs, ttlInMillis));
+				System.out.println(runPoint(engine, true, numThreads, durationInSecs, ttlInMillis));
+			}
+		}
+	}
+
+	/**
+	 * Creates a store of NUM_BOOKS books with enough copies to never run out
+	 */
+	private static BookStore populate(BookStoreEngineType engine) throws BookStoreException {
+		BookStore bookStore = engine.newBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		((StockManager) bookStore).addBooks(books);
+		return bookStore;
+	}
+
+	/**
+	 * Checks out the hot book and a cold book per call from numThreads
+	 * threads, buying them directly or reserving then confirming them
+	 */
+	private static String runPoint(BookStoreEngineType engine, boolean reserve, int numThreads, int durationInSecs,
+			long ttlInMillis) throws Exception {
+		BookStore bookStore = populate(engine);
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		List<Future<long[]>> futures = new ArrayList<>();
+		List<BookStoreHistogram> latencies = new ArrayList<>();
+		long startTimeInNanoSecs = System.nanoTime();
+		long measureTimeInNanoSecs = startTimeInNanoSecs + durationInSecs * 200000000L;
+		long endTimeInNanoSecs = startTimeInNanoSecs + durationInSecs * 1000000000L;
+
+		for (int thread = 0; thread < numThreads; thread++) {
+			BookStoreHistogram latency = new BookStoreHistogram();
+			Random random = new Random(thread);
+			latencies.add(latency);
+			futures.add(exec.submit(() -> {
+				long successfulCalls = 0;
+				long failedCalls = 0;
+
+				while (System.nanoTime() < endTimeInNanoSecs) {
+					Set<BookCopy> bookCopies = new HashSet<>();
+					bookCopies.add(new BookCopy(HOT_ISBN, 1));
+					bookCopies.add(new BookCopy(HOT_ISBN + 1 + random.nextInt(NUM_BOOKS - 1), 1));
+					long callStartTimeInNanoSecs = System.nanoTime();
+					boolean success = true;
+
+					try {
+						if (reserve) {
+							bookStore.confirmReservation(bookStore.reserveBooks(bookCopies, ttlInMillis));
+						} else {
+							bookStore.buyBooks(bookCopies);
+						}
+					} catch (BookStoreException ex) {
+						success = false;
+					}
+
+					long callEndTimeInNanoSecs = System.nanoTime();
+
+					if (callStartTimeInNanoSecs >= measureTimeInNanoSecs) {
+						if (success) {
+							successfulCalls++;
+							latency.record(callEndTimeInNanoSecs - callStartTimeInNanoSecs);
+						} else {
+							failedCalls++;
+						}
+					}
+				}
+
+				return new long[] { successfulCalls, failedCalls };
+			}));
+		}
+
+		long successfulCalls = 0;
+		long failedCalls = 0;
+
+		for (Future<long[]> future : futures) {
+			long[] calls = future.get();
+			successfulCalls += calls[0];
+			failedCalls += calls[1];
+		}
+
+		exec.shutdownNow();
+		BookStoreHistogram latency = new BookStoreHistogram();
+
+		for (BookStoreHistogram threadLatency : latencies) {
+			latency.add(threadLatency);
+		}
+
+		double measuredTimeInSecs = (endTimeInNanoSecs - measureTimeInNanoSecs) / 1e9;
+		return String.format(
+				"%-17s %-7s threads=%-3d throughput=%10.1f/s mean=%8.4fms p50=%8.4fms p99=%8.4fms failed=%d",
+				engine, reserve ? "reserve" : "buy", numThreads, successfulCalls / measuredTimeInSecs,
+				latency.getMean() / 1e6, latency.getValueAtPercentile(50) / 1e6,
+				latency.getValueAtPercentile(99) / 1e6, failedCalls);
+	}
+}
@@ -0,0 +1,112 @@
+package com.acertainbookstore.client.workloads;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.acertainbookstore.server.BookStoreRouter;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ *
+ * RouterBenchmark measures the time and the bytes allocated to route the path
+ * of a request, from the allocation counter of the calling thread, once with
+ * the parsing the HTTP handler used to do and once with the
+ * {@link BookStoreRouter}. The paths are those the clients send, the same
+ * paths in other cases, and a path no route serves
+ *
+ * Every path first runs as many lookups as it measures, to let the JIT compile
+ * both paths
+ *
+ */
+public class RouterBenchmark {
+	private static final int DEFAULT_CALLS = 10000000;
+	private static final String[] PATHS = { "/GETBOOKS", "/stock/ADDBOOKS", "/stock/getstockbooksbyisbn",
+			"/Stock/ListBooks", "/NOSUCHTAG" };
+
+	private RouterBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int numCalls = Integer.parseInt(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_ROUTER_CALLS, Integer.toString(DEFAULT_CALLS)));
+		Map<BookStoreMessageTag, BookStoreMessageTag> routes = new EnumMap<>(BookStoreMessageTag.class);
+
+		for (BookStoreMessageTag tag : BookStoreMessageTag.values()) {
+			routes.put(tag, tag);
+		}
+
+		BookStoreRouter<BookStoreMessageTag> router = new BookStoreRouter<>(routes);
+		System.out.println("calls=" + numCalls);
+
+		for (String path : PATHS) {
+			System.out.println(runPoint(router, path, numCalls));
+		}
+	}
+
+	/**
+	 * Routes a path as the HTTP handler used to, by parsing it into a message
+	 * tag, without the message it printed for the paths no route serves
+	 */
+	private static BookStoreMessageTag parse(String requestURI) {
+		if (requestURI.toLowerCase().startsWith("/stock")) {
+			requestURI = requestURI.substring(6);
+		}
+
+		try {
+			return BookStoreMessageTag.valueOf(requestURI.substring(1).toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Measures the lookups of a path with both routers
+	 */
+	private static String runPoint(BookStoreRouter<BookStoreMessageTag> router, String path, int numCalls) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long parseTime = 0;
+		long parseBytes = 0;
+		long routeTime = 0;
+		long routeBytes = 0;
+		int found = 0;
+
+		// The first round lets the JIT compile both paths
+		for (int round = 0; round < 2; round++) {
+			long startTimeInNanoSecs = System.nanoTime();
+			long startBytes = threads.getThreadAllocatedBytes(threadId);
+
+			for (int call = 0; call < numCalls; call++) {
+				found += (parse(path) != null) ? 1 : 0;
+			}
+
+			parseBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+			parseTime = System.nanoTime() - startTimeInNanoSecs;
+			startTimeInNanoSecs = System.nanoTime();
+			startBytes = threads.getThreadAllocatedBytes(threadId);
+
+			for (int call = 0; call < numCalls; call++) {
+				found += (router.route(path) != null) ? 1 : 0;
+			}
+
+			routeBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+			routeTime = System.nanoTime() - startTimeInNanoSecs;
+		}
+
+		// Uses the results, so that the JIT cannot drop the lookups
+		if (found != 0 && found != 4 * numCalls) {
+			throw new IllegalStateException();
+		}
+
+		return String.format("%-28s parse=%7.1fns/call (%6.1fB/call) router=%7.1fns/call (%6.1fB/call)", path,
+				(double) parseTime / numCalls, (double) parseBytes / numCalls, (double) routeTime / numCalls,
+				(double) routeBytes / numCalls);
+	}
+}
@@ -0,0 +1,339 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.server.Server;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * ScalabilitySweep runs the closed-loop workload of Worker over a grid of
+ * transports, engines, catalog sizes, read/write mixes and thread counts, and
+ * reports how throughput and latency scale along each axis. It writes one CSV
+ * row per point to sweep.csv and renders the throughput and p99 latency
+ * against the number of threads, one line per engine, as SVG charts
+ *
+ * A mix is written rare/frequent, the percentages of the rare and frequent
+ * stock manager interactions, the rest being customer interactions. The store
+ * is populated once per engine and catalog size, every book having enough
+ * copies that purchases never run out. For the http transport every engine is
+ * served by a Jetty server started in this JVM
+ *
+ */
+public class ScalabilitySweep {
+	private static final String LOCAL_TRANSPORT = "local";
+	private static final String HTTP_TRANSPORT = "http";
+	private static final String DEFAULT_THREADS = "1,2,4,8,16,32";
+	private static final String DEFAULT_CATALOGS = "100,1000,10000,100000";
+	private static final String DEFAULT_MIXES = "0/0,1/10,10/30";
+	private static final String DEFAULT_TRANSPORTS = LOCAL_TRANSPORT + "," + HTTP_TRANSPORT;
+	private static final int DEFAULT_RUNS = 500;
+	private static final int DEFAULT_PORT = 8082;
+	private static final String DEFAULT_OUTPUT = "sweep-results";
+	private static final int NUM_COPIES = 1000000000;
+	private static final int EDITOR_PICK_EVERY = 10; // every tenth book is
+														// an editor pick
+	private static final int ADD_BOOKS_BATCH_SIZE = 10000;
+
+	private ScalabilitySweep() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		List<BookStoreEngineType> engines = new ArrayList<>();
+		String enginesProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_ENGINES);
+
+		if (enginesProperty == null) {
+			for (BookStoreEngineType engine : BookStoreEngineType.values()) {
+				engines.add(engine);
+			}
+		} else {
+			for (String engine : splitProperty(enginesProperty)) {
+				engines.add(BookStoreEngineType.parse(engine));
+			}
+		}
+
+		List<Integer> threads = parseIntegers(System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_THREADS,
+				DEFAULT_THREADS));
+		List<Integer> catalogs = parseIntegers(System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_CATALOGS,
+				DEFAULT_CATALOGS));
+		List<String> mixes = splitProperty(System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_MIXES,
+				DEFAULT_MIXES));
+		List<String> transports = splitProperty(System.getProperty(
+				BookStoreConstants.PROPERTY_KEY_SWEEP_TRANSPORTS, DEFAULT_TRANSPORTS));
+		int numRuns = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_RUNS,
+				String.valueOf(DEFAULT_RUNS)));
+		int port = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_PORT,
+				String.valueOf(DEFAULT_PORT)));
+		File outputDirectory = new File(System.getProperty(BookStoreConstants.PROPERTY_KEY_SWEEP_OUTPUT,
+				DEFAULT_OUTPUT));
+
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IOException("Cannot create " + outputDirectory);
+		}
+
+		List<SweepPoint> points = new ArrayList<>();
+
+		for (String transport : transports) {
+			if (!LOCAL_TRANSPORT.equals(transport) && !HTTP_TRANSPORT.equals(transport)) {
+				throw new IllegalArgumentException("Unknown transport " + transport);
+			}
+
+			for (BookStoreEngineType engine : engines) {
+				for (int catalogSize : catalogs) {
+					BookStore bookStore = engine.newBookStore();
+					StockManager stockManager = (StockManager) bookStore;
+					Server server = null;
+
+					if (HTTP_TRANSPORT.equals(transport)) {
+						server = BookStoreHTTPServerUtility.startServer(port,
+								new BookStoreHTTPMessageHandler(bookStore, stockManager), null);
+						bookStore = new BookStoreHTTPProxy("http://localhost:" + port);
+						stockManager = new StockManagerHTTPProxy("http://localhost:" + port + "/stock");
+					}
+
+					try {
+						populate(stockManager, catalogSize);
+
+						for (String mix : mixes) {
+							for (int numThreads : threads) {
+								SweepPoint point = runPoint(transport, engine, catalogSize, mix, numThreads,
+										numRuns, bookStore, stockManager);
+								System.out.println(point);
+								points.add(point);
+							}
+						}
+					} finally {
+						if (server != null) {
+							((BookStoreHTTPProxy) bookStore).stop();
+							((StockManagerHTTPProxy) stockManager).stop();
+							server.stop();
+						}
+					}
+				}
+			}
+		}
+
+		writeCsv(new File(outputDirectory, "sweep.csv"), points);
+		writeCharts(outputDirectory, points, transports, engines, catalogs, mixes, threads);
+		System.out.println("Results written to " + outputDirectory.getAbsolutePath());
+	}
+
+	/**
+	 * Adds books 1 to catalogSize to an empty store, in batches so that the
+	 * requests stay small over http
+	 */
+	private static void populate(StockManager stockManager, int catalogSize) throws BookStoreException {
+		stockManager.removeAllBooks();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= catalogSize; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+					isbn % EDITOR_PICK_EVERY == 0));
+
+			if (books.size() == ADD_BOOKS_BATCH_SIZE || isbn == catalogSize) {
+				stockManager.addBooks(books);
+				books.clear();
+			}
+		}
+	}
+
+	/**
+	 * Runs numThreads workers against the store and aggregates their results
+	 */
+	private static SweepPoint runPoint(String transport, BookStoreEngineType engine, int catalogSize, String mix,
+			int numThreads, int numRuns, BookStore bookStore, StockManager stockManager) throws Exception {
+		String[] percentages = mix.split("/");
+
+		if (percentages.length != 2) {
+			throw new IllegalArgumentException("Invalid mix " + mix + ", expected rare/frequent");
+		}
+
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		List<Future<WorkerRunResult>> runResults = new ArrayList<Future<WorkerRunResult>>();
+
+		for (int i = 0; i < numThreads; i++) {
+			// Seed the workers alike at every point so that points compare
+			WorkloadConfiguration config = new WorkloadConfiguration(bookStore, stockManager, i);
+			config.setPercentRareStockManagerInteraction(Float.parseFloat(percentages[0]));
+			config.setPercentFrequentStockManagerInteraction(Float.parseFloat(percentages[1]));
+			config.setWarmUpRuns(numRuns / 5);
+			config.setNumActualRuns(numRuns);
+			runResults.add(exec.submit(new Worker(config)));
+		}
+
+		SweepPoint point = new SweepPoint(transport, engine, catalogSize, mix, numThreads);
+		long totalTimeInNanoSecs = 0;
+
+		for (Future<WorkerRunResult> futureRunResult : runResults) {
+			WorkerRunResult runResult = futureRunResult.get();
+			point.successfulInteractions += runResult.getSuccessfulInteractions();
+			point.totalInteractions += runResult.getTotalRuns();
+			point.latency.add(runResult.getLatency());
+			totalTimeInNanoSecs += runResult.getElapsedTimeInNanoSecs();
+		}
+
+		exec.shutdownNow();
+
+		// Workers run side by side, so the throughput is over their average
+		// time like in CertainWorkload
+		double averageTimeInSeconds = totalTimeInNanoSecs / (1000000000.0 * numThreads);
+		point.throughput = point.successfulInteractions / averageTimeInSeconds;
+		return point;
+	}
+
+	private static void writeCsv(File file, List<SweepPoint> points) throws IOException {
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("transport,engine,threads,catalog,mix,successful,total,throughput,success_rate,"
+					+ "mean_ms,p50_ms,p99_ms,p999_ms,max_ms");
+
+			for (SweepPoint point : points) {
+				out.printf("%s,%s,%d,%d,%s,%d,%d,%.2f,%.4f,%.3f,%.3f,%.3f,%.3f,%.3f%n", point.transport,
+						point.engine, point.numThreads, point.catalogSize, point.mix, point.successfulInteractions,
+						point.totalInteractions, point.throughput, point.getSuccessRate(),
+						toMillis(point.latency.getMean()), toMillis(point.latency.getValueAtPercentile(50)),
+						toMillis(point.latency.getValueAtPercentile(99)),
+						toMillis(point.latency.getValueAtPercentile(99.9)), toMillis(point.latency.getMax()));
+			}
+		}
+	}
+
+	/**
+	 * Renders a throughput and a p99 latency chart for every transport,
+	 * catalog size and mix, with the threads on the x axis
+	 */
+	private static void writeCharts(File outputDirectory, List<SweepPoint> points, List<String> transports,
+			List<BookStoreEngineType> engines, List<Integer> catalogs, List<String> mixes, List<Integer> threads)
+			throws IOException {
+		for (String transport : transports) {
+			for (int catalogSize : catalogs) {
+				for (String mix : mixes) {
+					String group = transport + ", " + catalogSize + " books, mix " + mix;
+					String fileSuffix = transport + "-" + catalogSize + "-" + mix.replace('/', '-') + ".svg";
+					SweepChart throughputChart = new SweepChart("Throughput (" + group + ")", "threads",
+							"successful interactions/s", threads);
+					SweepChart latencyChart = new SweepChart("p99 latency (" + group + ")", "threads",
+							"p99 latency (ms)", threads);
+
+					for (BookStoreEngineType engine : engines) {
+						double[] throughputs = new double[threads.size()];
+						double[] latencies = new double[threads.size()];
+
+						for (int i = 0; i < threads.size(); i++) {
+							SweepPoint point = findPoint(points, transport, engine, catalogSize, mix,
+									threads.get(i));
+							throughputs[i] = (point != null) ? point.throughput : Double.NaN;
+							latencies[i] = (point != null) ? toMillis(point.latency.getValueAtPercentile(99))
+									: Double.NaN;
+						}
+
+						throughputChart.addSeries(engine.toString(), throughputs);
+						latencyChart.addSeries(engine.toString(), latencies);
+					}
+
+					throughputChart.write(new File(outputDirectory, "throughput-" + fileSuffix));
+					latencyChart.write(new File(outputDirectory, "p99-" + fileSuffix));
+				}
+			}
+		}
+	}
+
+	private static SweepPoint findPoint(List<SweepPoint> points, String transport, BookStoreEngineType engine,
+			int catalogSize, String mix, int numThreads) {
+		for (SweepPoint point : points) {
+			if (point.transport.equals(transport) && point.engine == engine && point.catalogSize == catalogSize
+					&& point.mix.equals(mix) && point.numThreads == numThreads) {
+				return point;
+			}
+		}
+		return null;
+	}
+
+	private static List<String> splitProperty(String value) {
+		List<String> values = new ArrayList<>();
+
+		for (String part : value.split(",")) {
+			if (!part.trim().isEmpty()) {
+				values.add(part.trim());
+			}
+		}
+
+		return values;
+	}
+
+	private static List<Integer> parseIntegers(String value) {
+		List<Integer> values = new ArrayList<>();
+
+		for (String part : splitProperty(value)) {
+			values.add(Integer.parseInt(part));
+		}
+
+		return values;
+	}
+
+	private static double toMillis(double nanoSecs) {
+		return nanoSecs / 1000000.0;
+	}
+
+	/**
+	 *
+	 * SweepPoint holds the aggregated results of the workers at one point of
+	 * the sweep
+	 *
+	 */
+	private static final class SweepPoint {
+		private final String transport;
+		private final BookStoreEngineType engine;
+		private final int catalogSize;
+		private final String mix;
+		private final int numThreads;
+		private long successfulInteractions = 0;
+		private long totalInteractions = 0;
+		private double throughput = 0; // successful interactions per second
+		private final BookStoreHistogram latency = new BookStoreHistogram();
+
+		private SweepPoint(String transport, BookStoreEngineType engine, int catalogSize, String mix,
+				int numThreads) {
+			this.transport = transport;
+			this.engine = engine;
+			this.catalogSize = catalogSize;
+			this.mix = mix;
+			this.numThreads = numThreads;
+		}
+
+		private double getSuccessRate() {
+			return (totalInteractions > 0) ? successfulInteractions / (double) totalInteractions : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s, %d books, mix %s, %d threads: %.1f interactions/s, p99 %.3f ms",
+					transport, engine, catalogSize, mix, numThreads, throughput,
+					toMillis(latency.getValueAtPercentile(99)));
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * SearchBenchmark measures the latency of searchBooks over catalogs of
+ * growing size. Titles are drawn from a skewed vocabulary, so that a few
+ * words occur in a large share of the books, and every query is made of
+ * words of the title and author of a random book, so that it matches at
+ * least one. The stores run in this JVM so that the latency is the search and
+ * not the HTTP layer
+ *
+ * Every point first runs as many searches as it measures, to let the JIT
+ * compile the path
+ *
+ */
+public class SearchBenchmark {
+	private static final String DEFAULT_SIZES = "10000,100000,1000000";
+	private static final String DEFAULT_ENGINES = "synchronized,single-lock,two-level-locking";
+	private static final int DEFAULT_CALLS = 20000;
+	private static final int VOCABULARY_SIZE = 50000;
+	private static final int NUM_AUTHORS = 100000;
+	private static final int WORDS_PER_TITLE = 4;
+	private static final int BOOKS_PER_SEARCH = 10;
+	private static final int BOOKS_PER_BATCH = 10000;
+
+	private SearchBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int numCalls = Integer.parseInt(
+				System.getProperty(BookStoreConstants.PROPERTY_KEY_SEARCH_CALLS, Integer.toString(DEFAULT_CALLS)));
+		List<Integer> sizes = new ArrayList<>();
+		List<BookStoreEngineType> engines = new ArrayList<>();
+
+		for (String size : System.getProperty(BookStoreConstants.PROPERTY_KEY_SEARCH_SIZES, DEFAULT_SIZES)
+				.split(",")) {
+			sizes.add(Integer.parseInt(size.trim()));
+		}
+
+		for (String engine : System.getProperty(BookStoreConstants.PROPERTY_KEY_SEARCH_ENGINES, DEFAULT_ENGINES)
+				.split(",")) {
+			engines.add(BookStoreEngineType.parse(engine));
+		}
+
+		System.out.println("calls=" + numCalls + " books/search=" + BOOKS_PER_SEARCH);
+
+		for (BookStoreEngineType engine : engines) {
+			for (int size : sizes) {
+				System.out.println(runPoint(engine, size, numCalls));
+			}
+		}
+	}
+
+	/**
+	 * Gets a word of the vocabulary, the lower the index the more frequent
+	 */
+	private static String word(int index) {
+		StringBuilder word = new StringBuilder();
+
+		do {
+			word.append((char) ('a' + index % 26));
+			index /= 26;
+		} while (index > 0);
+
+		return word.toString();
+	}
+
+	/**
+	 * Draws the index of a word, squaring a uniform draw so that the first
+	 * words are the most frequent
+	 */
+	private static int nextWord(Random random) {
+		double draw = random.nextDouble();
+		return (int) (draw * draw * VOCABULARY_SIZE);
+	}
+
+	/**
+	 * Gets the title of a book, the same for every store of the benchmark
+	 */
+	private static String title(int isbn) {
+		Random random = new Random(isbn);
+		StringBuilder title = new StringBuilder(word(nextWord(random)));
+
+		for (int i = 1; i < WORDS_PER_TITLE; i++) {
+			title.append(' ').append(word(nextWord(random)));
+		}
+
+		return title.toString();
+	}
+
+	/**
+	 * Gets the author of a book
+	 */
+	private static String author(int isbn) {
+		return "Author " + word(isbn % NUM_AUTHORS);
+	}
+
+	/**
+	 * Creates a store of numBooks books, added in batches
+	 */
+	private static BookStore populate(BookStoreEngineType engine, int numBooks) throws BookStoreException {
+		BookStore bookStore = engine.newBookStore();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= numBooks; isbn++) {
+			books.add(new ImmutableStockBook(isbn, title(isbn), author(isbn), 10.0f, 10, 0, 0, 0, false));
+
+			if (books.size() == BOOKS_PER_BATCH || isbn == numBooks) {
+				((StockManager) bookStore).addBooks(books);
+				books.clear();
+			}
+		}
+
+		return bookStore;
+	}
+
+	/**
+	 * Makes a query of one to three words of a random book, its first title
+	 * words and then its author
+	 */
+	private static String query(Random random, int numBooks) {
+		int isbn = 1 + random.nextInt(numBooks);
+		String[] words = title(isbn).split(" ");
+
+		switch (random.nextInt(3)) {
+		case 0:
+			return words[0];
+		case 1:
+			return words[0] + " " + words[1];
+		default:
+			return words[0] + " " + author(isbn);
+		}
+	}
+
+	/**
+	 * Times numCalls searches over a catalog of numBooks books
+	 */
+	private static String runPoint(BookStoreEngineType engine, int numBooks, int numCalls) throws Exception {
+		BookStore bookStore = populate(engine, numBooks);
+		Random random = new Random(numBooks);
+		String[] queries = new String[numCalls];
+		BookStoreHistogram latency = new BookStoreHistogram();
+		long books = 0;
+
+		for (int call = 0; call < numCalls; call++) {
+			queries[call] = query(random, numBooks);
+		}
+
+		for (int call = 0; call < numCalls; call++) {
+			books += bookStore.searchBooks(queries[call], BOOKS_PER_SEARCH).size();
+		}
+
+		for (int call = 0; call < numCalls; call++) {
+			long startTimeInNanoSecs = System.nanoTime();
+			books += bookStore.searchBooks(queries[call], BOOKS_PER_SEARCH).size();
+			latency.record(System.nanoTime() - startTimeInNanoSecs);
+		}
+
+		// Every query matches at least the book it was made from
+		if (books < 2L * numCalls) {
+			throw new IllegalStateException("Too few matches: " + books);
+		}
+
+		return String.format("%-17s books=%-8d mean=%8.4fms p50=%8.4fms p99=%8.4fms max=%8.4fms", engine, numBooks,
+				latency.getMean() / 1e6, latency.getValueAtPercentile(50) / 1e6,
+				latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6);
+	}
+}
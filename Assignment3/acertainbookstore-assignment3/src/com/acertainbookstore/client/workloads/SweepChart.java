@@ -0,0 +1,161 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * SweepChart renders a line chart as a standalone SVG file, one line per
+ * series over the same x values. The x values are spaced evenly, which suits
+ * the doubling thread counts of a sweep
+ *
+ */
+public class SweepChart {
+	private static final String[] COLORS = { "#1f77b4", "#d62728", "#2ca02c", "#ff7f0e", "#9467bd", "#8c564b" };
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 400;
+	private static final int MARGIN_LEFT = 80;
+	private static final int MARGIN_RIGHT = 160;
+	private static final int MARGIN_TOP = 40;
+	private static final int MARGIN_BOTTOM = 50;
+	private static final int NUM_Y_TICKS = 5;
+
+	private final String title;
+	private final String xLabel;
+	private final String yLabel;
+	private final List<Integer> xValues;
+	private final Map<String, double[]> series = new LinkedHashMap<>();
+
+	public SweepChart(String title, String xLabel, String yLabel, List<Integer> xValues) {
+		this.title = title;
+		this.xLabel = xLabel;
+		this.yLabel = yLabel;
+		this.xValues = xValues;
+	}
+
+	/**
+	 * Adds a line to the chart
+	 *
+	 * @param name
+	 *            the name shown in the legend
+	 * @param yValues
+	 *            one value per x value, NaN for a missing point
+	 */
+	public void addSeries(String name, double[] yValues) {
+		if (yValues.length != xValues.size()) {
+			throw new IllegalArgumentException("Series " + name + " does not match the x values");
+		}
+		series.put(name, yValues);
+	}
+
+	/**
+	 * Writes the chart to a file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		int plotWidth = WIDTH - MARGIN_LEFT - MARGIN_RIGHT;
+		int plotHeight = HEIGHT - MARGIN_TOP - MARGIN_BOTTOM;
+		double maxY = 0;
+
+		for (double[] yValues : series.values()) {
+			for (double y : yValues) {
+				if (!Double.isNaN(y)) {
+					maxY = Math.max(maxY, y);
+				}
+			}
+		}
+
+		maxY = (maxY > 0) ? maxY * 1.1 : 1;
+
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.printf("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" "
+					+ "font-family=\"sans-serif\" font-size=\"12\">%n", WIDTH, HEIGHT);
+			out.printf("<rect width=\"%d\" height=\"%d\" fill=\"white\"/>%n", WIDTH, HEIGHT);
+			out.printf("<text x=\"%d\" y=\"%d\" text-anchor=\"middle\" font-size=\"14\">%s</text>%n",
+					MARGIN_LEFT + plotWidth / 2, MARGIN_TOP / 2 + 5, escape(title));
+
+			// Axes, grid and labels
+			out.printf("<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\" stroke=\"black\"/>%n", MARGIN_LEFT,
+					MARGIN_TOP + plotHeight, MARGIN_LEFT + plotWidth, MARGIN_TOP + plotHeight);
+			out.printf("<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\" stroke=\"black\"/>%n", MARGIN_LEFT,
+					MARGIN_TOP, MARGIN_LEFT, MARGIN_TOP + plotHeight);
+
+			for (int tick = 0; tick <= NUM_Y_TICKS; tick++) {
+				double y = maxY * tick / NUM_Y_TICKS;
+				double py = toPixelY(y, maxY, plotHeight);
+				out.printf("<line x1=\"%d\" y1=\"%.1f\" x2=\"%d\" y2=\"%.1f\" stroke=\"#dddddd\"/>%n",
+						MARGIN_LEFT, py, MARGIN_LEFT + plotWidth, py);
+				out.printf("<text x=\"%d\" y=\"%.1f\" text-anchor=\"end\">%s</text>%n", MARGIN_LEFT - 5,
+						py + 4, formatTick(y));
+			}
+
+			for (int i = 0; i < xValues.size(); i++) {
+				double px = toPixelX(i, plotWidth);
+				out.printf("<text x=\"%.1f\" y=\"%d\" text-anchor=\"middle\">%d</text>%n", px,
+						MARGIN_TOP + plotHeight + 18, xValues.get(i));
+			}
+
+			out.printf("<text x=\"%d\" y=\"%d\" text-anchor=\"middle\">%s</text>%n", MARGIN_LEFT + plotWidth / 2,
+					HEIGHT - 10, escape(xLabel));
+			out.printf("<text x=\"15\" y=\"%d\" text-anchor=\"middle\" transform=\"rotate(-90 15 %d)\">%s</text>%n",
+					MARGIN_TOP + plotHeight / 2, MARGIN_TOP + plotHeight / 2, escape(yLabel));
+
+			// One polyline and legend entry per series
+			int seriesIndex = 0;
+
+			for (Map.Entry<String, double[]> entry : series.entrySet()) {
+				String color = COLORS[seriesIndex % COLORS.length];
+				StringBuilder points = new StringBuilder();
+				double[] yValues = entry.getValue();
+
+				for (int i = 0; i < yValues.length; i++) {
+					if (Double.isNaN(yValues[i])) {
+						continue;
+					}
+
+					double px = toPixelX(i, plotWidth);
+					double py = toPixelY(yValues[i], maxY, plotHeight);
+					points.append(String.format("%.1f,%.1f ", px, py));
+					out.printf("<circle cx=\"%.1f\" cy=\"%.1f\" r=\"3\" fill=\"%s\"/>%n", px, py, color);
+				}
+
+				out.printf("<polyline points=\"%s\" fill=\"none\" stroke=\"%s\" stroke-width=\"2\"/>%n",
+						points.toString().trim(), color);
+
+				int legendY = MARGIN_TOP + 10 + seriesIndex * 18;
+				out.printf("<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\" stroke=\"%s\" stroke-width=\"2\"/>%n",
+						MARGIN_LEFT + plotWidth + 10, legendY, MARGIN_LEFT + plotWidth + 30, legendY, color);
+				out.printf("<text x=\"%d\" y=\"%d\">%s</text>%n", MARGIN_LEFT + plotWidth + 35, legendY + 4,
+						escape(entry.getKey()));
+				seriesIndex++;
+			}
+
+			out.println("</svg>");
+		}
+	}
+
+	private double toPixelX(int index, int plotWidth) {
+		if (xValues.size() == 1) {
+			return MARGIN_LEFT + plotWidth / 2.0;
+		}
+		return MARGIN_LEFT + plotWidth * index / (double) (xValues.size() - 1);
+	}
+
+	private static double toPixelY(double y, double maxY, int plotHeight) {
+		return MARGIN_TOP + plotHeight - plotHeight * y / maxY;
+	}
+
+	private static String formatTick(double value) {
+		return (value >= 100) ? String.format("%.0f", value) : String.format("%.2f", value);
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
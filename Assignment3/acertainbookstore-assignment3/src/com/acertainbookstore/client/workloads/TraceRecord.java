@@ -0,0 +1,282 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ *
+ * TraceRecord class represents one call to the bookstore in a workload trace:
+ * the stream (i.e. thread) that issued it, when it was issued relative to the
+ * start of the trace, the operation and its arguments. A record is written as
+ *
+ * stream (int), offset in nanoseconds (long), operation (byte), arguments
+ *
+ * where sets are written as their size followed by their elements, and books
+ * field by field
+ *
+ */
+public final class TraceRecord {
+
+	/**
+	 *
+	 * Operation enumerates the calls of the BookStore and StockManager
+	 * interfaces. The code identifies it in the trace and must not change
+	 *
+	 */
+	public enum Operation {
+		BUY_BOOKS(1), RATE_BOOKS(2), GET_BOOKS(3), GET_TOP_RATED_BOOKS(4), GET_EDITOR_PICKS(5), ADD_BOOKS(
+				6), ADD_COPIES(7), GET_STOCK_BOOKS(8), GET_STOCK_BOOKS_BY_ISBN(9), GET_BOOKS_IN_DEMAND(
+				10), UPDATE_EDITOR_PICKS(11), REMOVE_ALL_BOOKS(12), REMOVE_BOOKS(13);
+
+		private final byte code;
+
+		private Operation(int code) {
+			this.code = (byte) code;
+		}
+
+		private static Operation fromCode(byte code) throws IOException {
+			for (Operation operation : values()) {
+				if (operation.code == code) {
+					return operation;
+				}
+			}
+			throw new IOException("Unknown trace operation " + code);
+		}
+	}
+
+	private final int stream;
+	private final long offsetInNanoSecs; // since the start of the trace
+	private final Operation operation;
+	private final Object arguments; // a set, a number or null
+
+	public TraceRecord(int stream, long offsetInNanoSecs, Operation operation, Object arguments) {
+		this.stream = stream;
+		this.offsetInNanoSecs = offsetInNanoSecs;
+		this.operation = operation;
+		this.arguments = arguments;
+	}
+
+	public int getStream() {
+		return stream;
+	}
+
+	public long getOffsetInNanoSecs() {
+		return offsetInNanoSecs;
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * Issues the call again
+	 *
+	 * @param bookStore
+	 * @param stockManager
+	 * @throws BookStoreException
+	 */
+	@SuppressWarnings("unchecked")
+	public void replay(BookStore bookStore, StockManager stockManager) throws BookStoreException {
+		switch (operation) {
+		case BUY_BOOKS:
+			bookStore.buyBooks((Set<BookCopy>) arguments);
+			break;
+		case RATE_BOOKS:
+			bookStore.rateBooks((Set<BookRating>) arguments);
+			break;
+		case GET_BOOKS:
+			bookStore.getBooks((Set<Integer>) arguments);
+			break;
+		case GET_TOP_RATED_BOOKS:
+			bookStore.getTopRatedBooks((Integer) arguments);
+			break;
+		case GET_EDITOR_PICKS:
+			bookStore.getEditorPicks((Integer) arguments);
+			break;
+		case ADD_BOOKS:
+			stockManager.addBooks((Set<StockBook>) arguments);
+			break;
+		case ADD_COPIES:
+			stockManager.addCopies((Set<BookCopy>) arguments);
+			break;
+		case GET_STOCK_BOOKS:
+			stockManager.getBooks();
+			break;
+		case GET_STOCK_BOOKS_BY_ISBN:
+			stockManager.getBooksByISBN((Set<Integer>) arguments);
+			break;
+		case GET_BOOKS_IN_DEMAND:
+			stockManager.getBooksInDemand();
+			break;
+		case UPDATE_EDITOR_PICKS:
+			stockManager.updateEditorPicks((Set<BookEditorPick>) arguments);
+			break;
+		case REMOVE_ALL_BOOKS:
+			stockManager.removeAllBooks();
+			break;
+		case REMOVE_BOOKS:
+		default:
+			stockManager.removeBooks((Set<Integer>) arguments);
+			break;
+		}
+	}
+
+	/**
+	 * Writes the record
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(stream);
+		out.writeLong(offsetInNanoSecs);
+		out.writeByte(operation.code);
+
+		switch (operation) {
+		case BUY_BOOKS:
+		case ADD_COPIES:
+			Set<BookCopy> bookCopies = (Set<BookCopy>) arguments;
+			out.writeInt(bookCopies.size());
+			for (BookCopy bookCopy : bookCopies) {
+				out.writeInt(bookCopy.getISBN());
+				out.writeInt(bookCopy.getNumCopies());
+			}
+			break;
+		case RATE_BOOKS:
+			Set<BookRating> bookRatings = (Set<BookRating>) arguments;
+			out.writeInt(bookRatings.size());
+			for (BookRating bookRating : bookRatings) {
+				out.writeInt(bookRating.getISBN());
+				out.writeInt(bookRating.getRating());
+			}
+			break;
+		case GET_BOOKS:
+		case GET_STOCK_BOOKS_BY_ISBN:
+		case REMOVE_BOOKS:
+			Set<Integer> isbns = (Set<Integer>) arguments;
+			out.writeInt(isbns.size());
+			for (Integer isbn : isbns) {
+				out.writeInt(isbn);
+			}
+			break;
+		case GET_TOP_RATED_BOOKS:
+		case GET_EDITOR_PICKS:
+			out.writeInt((Integer) arguments);
+			break;
+		case ADD_BOOKS:
+			Set<StockBook> books = (Set<StockBook>) arguments;
+			out.writeInt(books.size());
+			for (StockBook book : books) {
+				out.writeInt(book.getISBN());
+				out.writeUTF(book.getTitle());
+				out.writeUTF(book.getAuthor());
+				out.writeFloat(book.getPrice());
+				out.writeInt(book.getNumCopies());
+				out.writeLong(book.getNumSaleMisses());
+				out.writeLong(book.getNumTimesRated());
+				out.writeLong(book.getTotalRating());
+				out.writeBoolean(book.isEditorPick());
+			}
+			break;
+		case UPDATE_EDITOR_PICKS:
+			Set<BookEditorPick> editorPicks = (Set<BookEditorPick>) arguments;
+			out.writeInt(editorPicks.size());
+			for (BookEditorPick editorPick : editorPicks) {
+				out.writeInt(editorPick.getISBN());
+				out.writeBoolean(editorPick.isEditorPick());
+			}
+			break;
+		case GET_STOCK_BOOKS:
+		case GET_BOOKS_IN_DEMAND:
+		case REMOVE_ALL_BOOKS:
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Reads a record written by write
+	 *
+	 * @param in
+	 * @return the record
+	 * @throws IOException
+	 */
+	public static TraceRecord read(DataInput in) throws IOException {
+		int stream = in.readInt();
+		long offsetInNanoSecs = in.readLong();
+		Operation operation = Operation.fromCode(in.readByte());
+		Object arguments = null;
+		int size;
+
+		switch (operation) {
+		case BUY_BOOKS:
+		case ADD_COPIES:
+			size = in.readInt();
+			Set<BookCopy> bookCopies = new HashSet<>();
+			for (int i = 0; i < size; i++) {
+				bookCopies.add(new BookCopy(in.readInt(), in.readInt()));
+			}
+			arguments = bookCopies;
+			break;
+		case RATE_BOOKS:
+			size = in.readInt();
+			Set<BookRating> bookRatings = new HashSet<>();
+			for (int i = 0; i < size; i++) {
+				bookRatings.add(new BookRating(in.readInt(), in.readInt()));
+			}
+			arguments = bookRatings;
+			break;
+		case GET_BOOKS:
+		case GET_STOCK_BOOKS_BY_ISBN:
+		case REMOVE_BOOKS:
+			size = in.readInt();
+			Set<Integer> isbns = new HashSet<>();
+			for (int i = 0; i < size; i++) {
+				isbns.add(in.readInt());
+			}
+			arguments = isbns;
+			break;
+		case GET_TOP_RATED_BOOKS:
+		case GET_EDITOR_PICKS:
+			arguments = in.readInt();
+			break;
+		case ADD_BOOKS:
+			size = in.readInt();
+			Set<StockBook> books = new HashSet<>();
+			for (int i = 0; i < size; i++) {
+				books.add(new ImmutableStockBook(in.readInt(), in.readUTF(), in.readUTF(), in.readFloat(),
+						in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean()));
+			}
+			arguments = books;
+			break;
+		case UPDATE_EDITOR_PICKS:
+			size = in.readInt();
+			Set<BookEditorPick> editorPicks = new HashSet<>();
+			for (int i = 0; i < size; i++) {
+				editorPicks.add(new BookEditorPick(in.readInt(), in.readBoolean()));
+			}
+			arguments = editorPicks;
+			break;
+		case GET_STOCK_BOOKS:
+		case GET_BOOKS_IN_DEMAND:
+		case REMOVE_ALL_BOOKS:
+		default:
+			break;
+		}
+
+		return new TraceRecord(stream, offsetInNanoSecs, operation, arguments);
+	}
+}
@@ -0,0 +1,172 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ *
+ * TraceRecorder sits in front of a bookstore and writes every call made
+ * through it to a trace file before passing it on. Each thread calling it is
+ * recorded as its own stream, numbered in the order the threads first call
+ * it, so that TraceReplayer can issue the calls again with the same
+ * concurrency and timing
+ *
+ * The trace is a gzipped sequence of TraceRecords after a header of MAGIC and
+ * VERSION
+ *
+ */
+public class TraceRecorder implements BookStore, StockManager, Closeable {
+	public static final int MAGIC = 0x42535452; // "BSTR"
+	public static final int VERSION = 1;
+
+	private final BookStore bookStore;
+	private final StockManager stockManager;
+	private final DataOutputStream out;
+	private final long startTimeInNanoSecs;
+	private final AtomicInteger numStreams = new AtomicInteger();
+	private final ThreadLocal<Integer> stream = ThreadLocal.withInitial(numStreams::getAndIncrement);
+
+	public TraceRecorder(BookStore bookStore, StockManager stockManager, File traceFile) throws IOException {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(
+				traceFile))));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.startTimeInNanoSecs = System.nanoTime();
+	}
+
+	private void record(TraceRecord.Operation operation, Object arguments) throws BookStoreException {
+		TraceRecord record = new TraceRecord(stream.get(), System.nanoTime() - startTimeInNanoSecs, operation,
+				arguments);
+
+		synchronized (out) {
+			try {
+				record.write(out);
+			} catch (IOException ex) {
+				throw new BookStoreException("Could not record " + operation, ex);
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		synchronized (out) {
+			out.close();
+		}
+	}
+
+	public void buyBooks(Set<BookCopy> booksToBuy) throws BookStoreException {
+		record(TraceRecord.Operation.BUY_BOOKS, booksToBuy);
+		bookStore.buyBooks(booksToBuy);
+	}
+
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		record(TraceRecord.Operation.RATE_BOOKS, bookRating);
+		bookStore.rateBooks(bookRating);
+	}
+
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		record(TraceRecord.Operation.GET_BOOKS, isbnSet);
+		return bookStore.getBooks(isbnSet);
+	}
+
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		record(TraceRecord.Operation.GET_TOP_RATED_BOOKS, numBooks);
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		record(TraceRecord.Operation.GET_EDITOR_PICKS, numBooks);
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/**
+	 * Searches are passed on without being recorded: the workload never makes
+	 * any, so a replay would not need them
+	 */
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, numBooks);
+	}
+
+	/**
+	 * Queries are passed on without being recorded, like searches
+	 */
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		return bookStore.queryBooks(query);
+	}
+
+	/**
+	 * Reservations are passed on without being recorded: the workload never
+	 * makes any, and a replay could not map the recorded reservation ids to
+	 * the ones of the replayed run
+	 */
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException {
+		return bookStore.reserveBooks(booksToReserve, ttlMillis);
+	}
+
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		bookStore.confirmReservation(reservationId);
+	}
+
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		bookStore.releaseReservation(reservationId);
+	}
+
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		record(TraceRecord.Operation.ADD_BOOKS, bookSet);
+		stockManager.addBooks(bookSet);
+	}
+
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		record(TraceRecord.Operation.ADD_COPIES, bookCopiesSet);
+		stockManager.addCopies(bookCopiesSet);
+	}
+
+	public List<StockBook> getBooks() throws BookStoreException {
+		record(TraceRecord.Operation.GET_STOCK_BOOKS, null);
+		return stockManager.getBooks();
+	}
+
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		record(TraceRecord.Operation.GET_STOCK_BOOKS_BY_ISBN, isbns);
+		return stockManager.getBooksByISBN(isbns);
+	}
+
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		record(TraceRecord.Operation.GET_BOOKS_IN_DEMAND, null);
+		return stockManager.getBooksInDemand();
+	}
+
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		record(TraceRecord.Operation.UPDATE_EDITOR_PICKS, editorPicks);
+		stockManager.updateEditorPicks(editorPicks);
+	}
+
+	public void removeAllBooks() throws BookStoreException {
+		record(TraceRecord.Operation.REMOVE_ALL_BOOKS, null);
+		stockManager.removeAllBooks();
+	}
+
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		record(TraceRecord.Operation.REMOVE_BOOKS, isbnSet);
+		stockManager.removeBooks(isbnSet);
+	}
+}
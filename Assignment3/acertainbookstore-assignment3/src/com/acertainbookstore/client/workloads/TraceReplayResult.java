@@ -0,0 +1,70 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * TraceReplayResult class represents the result of replaying a trace, with
+ * the latency of the replayed calls per operation
+ *
+ */
+public class TraceReplayResult {
+	private final double speedUp; // 0 when replayed as fast as possible
+	private final long elapsedTimeInNanoSecs; // time to replay the streams
+												// after the first one
+	private final Map<TraceRecord.Operation, BookStoreHistogram> latencies = new EnumMap<>(
+			TraceRecord.Operation.class);
+	private final Map<TraceRecord.Operation, Long> failedCalls = new EnumMap<>(TraceRecord.Operation.class);
+
+	public TraceReplayResult(double speedUp, long elapsedTimeInNanoSecs,
+			Map<TraceRecord.Operation, BookStoreHistogram> latencies, Map<TraceRecord.Operation, Long> failedCalls) {
+		this.speedUp = speedUp;
+		this.elapsedTimeInNanoSecs = elapsedTimeInNanoSecs;
+		this.latencies.putAll(latencies);
+		this.failedCalls.putAll(failedCalls);
+	}
+
+	public double getSpeedUp() {
+		return speedUp;
+	}
+
+	public long getElapsedTimeInNanoSecs() {
+		return elapsedTimeInNanoSecs;
+	}
+
+	/**
+	 * Returns the latency histogram, in nanoseconds, of an operation
+	 *
+	 * @param operation
+	 * @return
+	 */
+	public BookStoreHistogram getLatency(TraceRecord.Operation operation) {
+		return latencies.get(operation);
+	}
+
+	public long getFailedCalls(TraceRecord.Operation operation) {
+		return failedCalls.get(operation);
+	}
+
+	public long getTotalCalls() {
+		long totalCalls = 0;
+
+		for (BookStoreHistogram latency : latencies.values()) {
+			totalCalls += latency.getCount();
+		}
+
+		return totalCalls;
+	}
+
+	/**
+	 * Returns the rate at which the calls were replayed
+	 *
+	 * @return calls per second
+	 */
+	public double getAchievedRate() {
+		return getTotalCalls() / (elapsedTimeInNanoSecs / 1000000000.0);
+	}
+}
@@ -0,0 +1,180 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * TraceReplayer issues the calls of a trace written by TraceRecorder against
+ * any bookstore, local or remote. The first stream, which populated the store
+ * before the workers started, is replayed on its own first. The other streams
+ * are then replayed side by side, one thread each, every call at its recorded
+ * offset divided by the speed up; a speed up of 0 issues the calls as fast as
+ * possible. As in OpenLoopRunner, latency is measured from the intended start
+ * of each call, so a store slower than the recorded one shows up in the tail
+ *
+ */
+public class TraceReplayer implements Callable<TraceReplayResult> {
+	private final List<List<TraceRecord>> streams = new ArrayList<>();
+	private final BookStore bookStore;
+	private final StockManager stockManager;
+	private final double speedUp;
+	private final Map<TraceRecord.Operation, BookStoreHistogram> latencies = new EnumMap<>(
+			TraceRecord.Operation.class);
+	private final Map<TraceRecord.Operation, AtomicLong> failedCalls = new EnumMap<>(
+			TraceRecord.Operation.class);
+
+	/**
+	 * @param traceFile
+	 *            the trace written by TraceRecorder
+	 * @param bookStore
+	 * @param stockManager
+	 * @param speedUp
+	 *            how many times faster than recorded to issue the calls, 0
+	 *            for as fast as possible
+	 * @throws IOException
+	 *             if the trace cannot be read
+	 */
+	public TraceReplayer(File traceFile, BookStore bookStore, StockManager stockManager, double speedUp)
+			throws IOException {
+		if (speedUp < 0) {
+			throw new IllegalArgumentException("Invalid speed up " + speedUp);
+		}
+
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.speedUp = speedUp;
+
+		for (TraceRecord.Operation operation : TraceRecord.Operation.values()) {
+			latencies.put(operation, new BookStoreHistogram());
+			failedCalls.put(operation, new AtomicLong());
+		}
+
+		Map<Integer, List<TraceRecord>> recordsByStream = new TreeMap<>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+				new FileInputStream(traceFile))))) {
+			if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION) {
+				throw new IOException(traceFile + " is not a trace of this version");
+			}
+
+			while (true) {
+				TraceRecord record;
+
+				try {
+					record = TraceRecord.read(in);
+				} catch (EOFException ex) {
+					break;
+				}
+
+				recordsByStream.computeIfAbsent(record.getStream(), stream -> new ArrayList<>()).add(record);
+			}
+		}
+
+		streams.addAll(recordsByStream.values());
+	}
+
+	public int getNumStreams() {
+		return streams.size();
+	}
+
+	/**
+	 * Replays the trace and waits for every stream to finish
+	 */
+	public TraceReplayResult call() throws Exception {
+		if (streams.isEmpty()) {
+			return toResult(0);
+		}
+
+		// The first stream sets the store up and is not measured
+		for (TraceRecord record : streams.get(0)) {
+			try {
+				record.replay(bookStore, stockManager);
+			} catch (BookStoreException ex) {
+				// The store may already hold some books, carry on
+			}
+		}
+
+		if (streams.size() == 1) {
+			return toResult(0);
+		}
+
+		long firstOffsetInNanoSecs = Long.MAX_VALUE;
+
+		for (List<TraceRecord> stream : streams.subList(1, streams.size())) {
+			firstOffsetInNanoSecs = Math.min(firstOffsetInNanoSecs, stream.get(0).getOffsetInNanoSecs());
+		}
+
+		ExecutorService exec = Executors.newFixedThreadPool(streams.size() - 1);
+		List<Future<?>> futures = new ArrayList<>();
+		long startTimeInNanoSecs = System.nanoTime();
+
+		for (List<TraceRecord> stream : streams.subList(1, streams.size())) {
+			final long baseOffsetInNanoSecs = firstOffsetInNanoSecs;
+			futures.add(exec.submit(() -> replayStream(stream, startTimeInNanoSecs, baseOffsetInNanoSecs)));
+		}
+
+		for (Future<?> future : futures) {
+			future.get();
+		}
+
+		long elapsedTimeInNanoSecs = System.nanoTime() - startTimeInNanoSecs;
+		exec.shutdownNow();
+		return toResult(elapsedTimeInNanoSecs);
+	}
+
+	private void replayStream(List<TraceRecord> stream, long startTimeInNanoSecs, long baseOffsetInNanoSecs) {
+		for (TraceRecord record : stream) {
+			long intendedStartTimeInNanoSecs = System.nanoTime();
+
+			if (speedUp > 0) {
+				intendedStartTimeInNanoSecs = startTimeInNanoSecs
+						+ (long) ((record.getOffsetInNanoSecs() - baseOffsetInNanoSecs) / speedUp);
+				long waitTimeInNanoSecs;
+
+				while ((waitTimeInNanoSecs = intendedStartTimeInNanoSecs - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(waitTimeInNanoSecs);
+				}
+			}
+
+			try {
+				record.replay(bookStore, stockManager);
+			} catch (BookStoreException ex) {
+				failedCalls.get(record.getOperation()).incrementAndGet();
+			}
+
+			latencies.get(record.getOperation()).record(System.nanoTime() - intendedStartTimeInNanoSecs);
+		}
+	}
+
+	private TraceReplayResult toResult(long elapsedTimeInNanoSecs) {
+		Map<TraceRecord.Operation, Long> failed = new EnumMap<>(TraceRecord.Operation.class);
+
+		for (Map.Entry<TraceRecord.Operation, AtomicLong> entry : failedCalls.entrySet()) {
+			failed.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return new TraceReplayResult(speedUp, elapsedTimeInNanoSecs, latencies, failed);
+	}
+}
@@ -0,0 +1,236 @@
+package com.acertainbookstore.client.workloads;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.server.Server;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.ConsistentHashRing;
+import com.acertainbookstore.client.ShardedBookStoreProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreEngineType;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
+
+/**
+ *
+ * TwoPhaseCommitBenchmark compares the latency and throughput of buying two
+ * books from one server with buyBooks against buying two books held by
+ * different shards, which a ShardedBookStoreProxy commits with two-phase
+ * commit. Every server is a Jetty server started in this JVM, so both sides
+ * pay for the same HTTP layer and the difference is the extra round trip and
+ * the forced write of the decision log
+ *
+ * Each point runs closed loop for the configured duration, the first fifth of
+ * which is a warm up
+ *
+ */
+public class TwoPhaseCommitBenchmark {
+	private static final int DEFAULT_SHARDS = 2;
+	private static final String DEFAULT_THREADS = "1,4,16";
+	private static final int DEFAULT_DURATION = 5;
+	private static final int DEFAULT_PORT = 8083;
+	private static final int BOOKS_PER_SHARD = 1000;
+	private static final int NUM_COPIES = 1000000000;
+
+	private TwoPhaseCommitBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int numShards = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_TWOPC_SHARDS,
+				Integer.toString(DEFAULT_SHARDS)));
+		int durationInSecs = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_TWOPC_DURATION,
+				Integer.toString(DEFAULT_DURATION)));
+		int port = Integer.parseInt(System.getProperty(BookStoreConstants.PROPERTY_KEY_TWOPC_PORT,
+				Integer.toString(DEFAULT_PORT)));
+		String engineProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_TWOPC_ENGINE);
+		BookStoreEngineType engine = (engineProperty != null) ? BookStoreEngineType.parse(engineProperty)
+				: BookStoreEngineType.TWO_LEVEL_LOCKING;
+		String decisionLogProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_DECISION_LOG);
+		List<Integer> threads = new ArrayList<>();
+
+		for (String numThreads : System.getProperty(BookStoreConstants.PROPERTY_KEY_TWOPC_THREADS, DEFAULT_THREADS)
+				.split(",")) {
+			threads.add(Integer.parseInt(numThreads.trim()));
+		}
+
+		if (numShards < 2) {
+			throw new IllegalArgumentException("A distributed purchase needs at least 2 shards");
+		}
+
+		List<Server> servers = new ArrayList<>();
+		List<String> serverAddresses = new ArrayList<>();
+
+		for (int shard = 0; shard <= numShards; shard++) {
+			BookStore bookStore = engine.newBookStore();
+			servers.add(BookStoreHTTPServerUtility.startServer(port + shard,
+					new BookStoreHTTPMessageHandler(bookStore, (StockManager) bookStore), null));
+			serverAddresses.add("http://localhost:" + (port + shard));
+		}
+
+		// The first server is the single node, the others are the shards
+		BookStoreHTTPProxy singleNode = new BookStoreHTTPProxy(serverAddresses.get(0));
+		StockManagerHTTPProxy singleNodeStockManager = new StockManagerHTTPProxy(serverAddresses.get(0) + "/stock");
+		ShardedBookStoreProxy sharded = new ShardedBookStoreProxy(serverAddresses.subList(1, numShards + 1),
+				(decisionLogProperty != null) ? new File(decisionLogProperty) : null);
+
+		try {
+			List<List<Integer>> isbnsByShard = populate(sharded, numShards);
+			List<List<Integer>> singleNodeIsbns = populate(singleNodeStockManager, 1);
+
+			System.out.println("engine=" + engine + " shards=" + numShards + " duration=" + durationInSecs + "s");
+
+			for (int numThreads : threads) {
+				System.out.println(runPoint("single-node", singleNode, numThreads, durationInSecs, singleNodeIsbns));
+				System.out.println(runPoint("2pc", sharded, numThreads, durationInSecs, isbnsByShard));
+			}
+		} finally {
+			sharded.stop();
+			singleNode.stop();
+			singleNodeStockManager.stop();
+
+			for (Server server : servers) {
+				server.stop();
+			}
+		}
+	}
+
+	/**
+	 * Adds BOOKS_PER_SHARD books per shard and returns the ISBNs held by
+	 * every shard
+	 */
+	private static List<List<Integer>> populate(StockManager stockManager, int numShards) throws BookStoreException {
+		stockManager.removeAllBooks();
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= BOOKS_PER_SHARD * numShards; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author " + isbn, 10.0f, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+
+		stockManager.addBooks(books);
+		return groupByShard(numShards);
+	}
+
+	/**
+	 * Groups the ISBNs added by populate by the shard they belong to
+	 */
+	private static List<List<Integer>> groupByShard(int numShards) {
+		ConsistentHashRing ring = new ConsistentHashRing(numShards);
+		List<List<Integer>> isbnsByShard = new ArrayList<>();
+
+		for (int shard = 0; shard < numShards; shard++) {
+			isbnsByShard.add(new ArrayList<>());
+		}
+
+		for (int isbn = 1; isbn <= BOOKS_PER_SHARD * numShards; isbn++) {
+			isbnsByShard.get(ring.getShard(isbn)).add(isbn);
+		}
+
+		return isbnsByShard;
+	}
+
+	/**
+	 * Buys two books per call from numThreads threads. With several shards the
+	 * two books always come from two different shards
+	 */
+	private static String runPoint(String name, BookStore bookStore, int numThreads, int durationInSecs,
+			List<List<Integer>> isbnsByShard) throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		List<Future<long[]>> futures = new ArrayList<>();
+		List<BookStoreHistogram> latencies = new ArrayList<>();
+		long startTimeInNanoSecs = System.nanoTime();
+		long measureTimeInNanoSecs = startTimeInNanoSecs + durationInSecs * 200000000L;
+		long endTimeInNanoSecs = startTimeInNanoSecs + durationInSecs * 1000000000L;
+
+		for (int thread = 0; thread < numThreads; thread++) {
+			BookStoreHistogram latency = new BookStoreHistogram();
+			Random random = new Random(thread);
+			latencies.add(latency);
+			futures.add(exec.submit(() -> {
+				long successfulCalls = 0;
+				long failedCalls = 0;
+
+				while (System.nanoTime() < endTimeInNanoSecs) {
+					Set<BookCopy> bookCopies = new HashSet<>();
+					int firstShard = random.nextInt(isbnsByShard.size());
+					int secondShard = (isbnsByShard.size() == 1) ? firstShard
+							: (firstShard + 1 + random.nextInt(isbnsByShard.size() - 1)) % isbnsByShard.size();
+					List<Integer> firstIsbns = isbnsByShard.get(firstShard);
+					List<Integer> secondIsbns = isbnsByShard.get(secondShard);
+					int firstIsbn = firstIsbns.get(random.nextInt(firstIsbns.size()));
+					int secondIsbn;
+
+					do {
+						secondIsbn = secondIsbns.get(random.nextInt(secondIsbns.size()));
+					} while (secondIsbn == firstIsbn);
+
+					bookCopies.add(new BookCopy(firstIsbn, 1));
+					bookCopies.add(new BookCopy(secondIsbn, 1));
+					long callStartTimeInNanoSecs = System.nanoTime();
+					boolean success = true;
+
+					try {
+						bookStore.buyBooks(bookCopies);
+					} catch (BookStoreException ex) {
+						success = false;
+					}
+
+					long callEndTimeInNanoSecs = System.nanoTime();
+
+					if (callStartTimeInNanoSecs >= measureTimeInNanoSecs) {
+						if (success) {
+							successfulCalls++;
+							latency.record(callEndTimeInNanoSecs - callStartTimeInNanoSecs);
+						} else {
+							failedCalls++;
+						}
+					}
+				}
+
+				return new long[] { successfulCalls, failedCalls };
+			}));
+		}
+
+		long successfulCalls = 0;
+		long failedCalls = 0;
+
+		for (Future<long[]> future : futures) {
+			long[] calls = future.get();
+			successfulCalls += calls[0];
+			failedCalls += calls[1];
+		}
+
+		exec.shutdownNow();
+		BookStoreHistogram latency = new BookStoreHistogram();
+
+		for (BookStoreHistogram threadLatency : latencies) {
+			latency.add(threadLatency);
+		}
+
+		double measuredTimeInSecs = (endTimeInNanoSecs - measureTimeInNanoSecs) / 1e9;
+		return String.format("%-12s threads=%-3d throughput=%9.1f/s mean=%7.3fms p50=%7.3fms p99=%7.3fms failed=%d",
+				name, numThreads, successfulCalls / measuredTimeInSecs, latency.getMean() / 1e6,
+				latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6, failedCalls);
+	}
+}
@@ -9,11 +9,13 @@ import java.util.Set;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.HashMap;
 
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreHistogram;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.StockBook;
@@ -28,6 +30,9 @@ public class Worker implements Callable<WorkerRunResult> {
     private WorkloadConfiguration configuration = null;
     private int numSuccessfulFrequentBookStoreInteraction = 0;
     private int numTotalFrequentBookStoreInteraction = 0;
+    private volatile List<Integer> catalogISBNs = null; // sorted, refreshed by
+							// the stock manager
+							// interactions
 
     public Worker(WorkloadConfiguration config) {
 	configuration = config;
@@ -45,18 +50,14 @@ public class Worker implements Callable<WorkerRunResult> {
      */
     private boolean runInteraction(float chooseInteraction) {
 	try {
-	    float percentRareStockManagerInteraction = configuration.getPercentRareStockManagerInteraction();
-	    float percentFrequentStockManagerInteraction = configuration.getPercentFrequentStockManagerInteraction();
-
-	    if (chooseInteraction < percentRareStockManagerInteraction) {
-		runRareStockManagerInteraction();
-	    } else if (chooseInteraction < percentRareStockManagerInteraction
-		    + percentFrequentStockManagerInteraction) {
-		runFrequentStockManagerInteraction();
-	    } else {
+	    InteractionType interactionType = chooseInteraction(chooseInteraction);
+
+	    if (interactionType == InteractionType.FREQUENT_BOOK_STORE) {
 		numTotalFrequentBookStoreInteraction++;
-		runFrequentBookStoreInteraction();
+		runInteraction(interactionType);
 		numSuccessfulFrequentBookStoreInteraction++;
+	    } else {
+		runInteraction(interactionType);
 	    }
 	} catch (BookStoreException ex) {
 	    return false;
@@ -64,6 +65,72 @@ public class Worker implements Callable<WorkerRunResult> {
 	return true;
     }
 
+    /**
+     * Chooses the interaction to run according to the configured
+     * distributions
+     * 
+     * @param chooseInteraction
+     *            a number between 0 and 100
+     * @return the interaction type
+     */
+    InteractionType chooseInteraction(float chooseInteraction) {
+	float percentRareStockManagerInteraction = configuration.getPercentRareStockManagerInteraction();
+	float percentFrequentStockManagerInteraction = configuration.getPercentFrequentStockManagerInteraction();
+
+	if (chooseInteraction < percentRareStockManagerInteraction) {
+	    return InteractionType.RARE_STOCK_MANAGER;
+	} else if (chooseInteraction < percentRareStockManagerInteraction
+		+ percentFrequentStockManagerInteraction) {
+	    return InteractionType.FREQUENT_STOCK_MANAGER;
+	}
+	return InteractionType.FREQUENT_BOOK_STORE;
+    }
+
+    /**
+     * Runs an interaction with the configured book set generator
+     * 
+     * @param interactionType
+     * @throws BookStoreException
+     */
+    private void runInteraction(InteractionType interactionType) throws BookStoreException {
+	runInteraction(interactionType, configuration.getBookSetGenerator());
+    }
+
+    /**
+     * Runs an interaction without updating the counts, so that it can be
+     * called from several threads at once, each with its own book set
+     * generator
+     * 
+     * @param interactionType
+     * @param bookSetGenerator
+     * @throws BookStoreException
+     */
+    void runInteraction(InteractionType interactionType, BookSetGenerator bookSetGenerator)
+	    throws BookStoreException {
+	switch (interactionType) {
+	case RARE_STOCK_MANAGER:
+	    runRareStockManagerInteraction(bookSetGenerator);
+	    break;
+	case FREQUENT_STOCK_MANAGER:
+	    runFrequentStockManagerInteraction();
+	    break;
+	case FREQUENT_BOOK_STORE:
+	default:
+	    runFrequentBookStoreInteraction(bookSetGenerator);
+	    break;
+	}
+    }
+
+    /**
+     * Returns the seed of the random choices of this worker, derived from the
+     * configured one since that already seeds the book set generator
+     * 
+     * @return
+     */
+    long getSeed() {
+	return ~configuration.getSeed();
+    }
+
     /**
      * Run the workloads trying to respect the distributions of the interactions
      * and return result in the end
@@ -74,8 +141,9 @@ public class Worker implements Callable<WorkerRunResult> {
 	long endTimeInNanoSecs = 0;
 	int successfulInteractions = 0;
 	long timeForRunsInNanoSecs = 0;
+	BookStoreHistogram latency = new BookStoreHistogram();
 
-	Random rand = new Random();
+	Random rand = new Random(getSeed());
 	float chooseInteraction;
 
 	// Perform the warmup runs
@@ -92,14 +160,16 @@ public class Worker implements Callable<WorkerRunResult> {
 	startTimeInNanoSecs = System.nanoTime();
 	while (count++ <= configuration.getNumActualRuns()) {
 	    chooseInteraction = rand.nextFloat() * 100f;
+	    long runStartTimeInNanoSecs = System.nanoTime();
 	    if (runInteraction(chooseInteraction)) {
 		successfulInteractions++;
 	    }
+	    latency.record(System.nanoTime() - runStartTimeInNanoSecs);
 	}
 	endTimeInNanoSecs = System.nanoTime();
 	timeForRunsInNanoSecs += (endTimeInNanoSecs - startTimeInNanoSecs);
 	return new WorkerRunResult(successfulInteractions, timeForRunsInNanoSecs, configuration.getNumActualRuns(),
-		numSuccessfulFrequentBookStoreInteraction, numTotalFrequentBookStoreInteraction);
+		numSuccessfulFrequentBookStoreInteraction, numTotalFrequentBookStoreInteraction, latency);
     }
 
     /**
@@ -107,7 +177,7 @@ public class Worker implements Callable<WorkerRunResult> {
      * 
      * @throws BookStoreException
      */
-    private void runRareStockManagerInteraction() throws BookStoreException {
+    private void runRareStockManagerInteraction(BookSetGenerator bookSetGenerator) throws BookStoreException {
 	// Get the list of all books in the store
 	List<StockBook> currentBooks = configuration.getStockManager().getBooks();
 	
@@ -118,8 +188,7 @@ public class Worker implements Callable<WorkerRunResult> {
 	}
 	
 	// Generate a set of new books
-	Set<StockBook> candidateBooks = configuration.getBookSetGenerator()
-		.nextSetOfStockBooks(configuration.getNumBooksToAdd());
+	Set<StockBook> candidateBooks = bookSetGenerator.nextSetOfStockBooks(configuration.getNumBooksToAdd());
 	
 	// Filter out books that already exist
 	Set<StockBook> booksToAdd = new HashSet<>();
@@ -132,7 +201,12 @@ public class Worker implements Callable<WorkerRunResult> {
 	// Add the new books if any were found
 	if (!booksToAdd.isEmpty()) {
 	    configuration.getStockManager().addBooks(booksToAdd);
+
+	    for (StockBook book : booksToAdd) {
+		currentISBNs.add(book.getISBN());
+	    }
 	}
+	updateCatalog(currentISBNs);
     }
 
     /**
@@ -143,6 +217,11 @@ public class Worker implements Callable<WorkerRunResult> {
     private void runFrequentStockManagerInteraction() throws BookStoreException {
 	// Get all books
 	List<StockBook> books = configuration.getStockManager().getBooks();
+	Set<Integer> currentISBNs = new HashSet<>();
+	for (StockBook book : books) {
+	    currentISBNs.add(book.getISBN());
+	}
+	updateCatalog(currentISBNs);
 	
 	// Sort by number of copies (ascending)
 	Collections.sort(books, (a, b) -> Integer.compare(a.getNumCopies(), b.getNumCopies()));
@@ -169,7 +248,7 @@ public class Worker implements Callable<WorkerRunResult> {
      * 
      * @throws BookStoreException
      */
-    private void runFrequentBookStoreInteraction() throws BookStoreException {
+    private void runFrequentBookStoreInteraction(BookSetGenerator bookSetGenerator) throws BookStoreException {
 	// Get editor picks (returns List<Book>)
 	List<Book> editorPicks = configuration.getBookStore().getEditorPicks(
 		configuration.getNumEditorPicksToGet());
@@ -180,9 +259,16 @@ public class Worker implements Callable<WorkerRunResult> {
 	    editorPickISBNs.add(book.getISBN());
 	}
 	
-	// Sample some books to buy
-	Set<Integer> isbnsToBuy = configuration.getBookSetGenerator()
-		.sampleFromSetOfISBNs(editorPickISBNs, configuration.getNumBooksToBuy());
+	// Sample some books to buy, among the editor picks unless the books are
+	// drawn from the whole catalog by popularity
+	KeyDistribution keyDistribution = configuration.getKeyDistribution();
+	Set<Integer> isbnsToBuy;
+	if (keyDistribution.getType() == KeyDistribution.Type.UNIFORM) {
+	    isbnsToBuy = bookSetGenerator.sampleFromSetOfISBNs(editorPickISBNs, configuration.getNumBooksToBuy());
+	} else {
+	    isbnsToBuy = bookSetGenerator.sampleFromListOfISBNs(getCatalogISBNs(),
+		    configuration.getNumBooksToBuy(), keyDistribution);
+	}
 	
 	// Create the purchase list
 	Set<BookCopy> booksToBuy = new HashSet<>();
@@ -196,4 +282,36 @@ public class Worker implements Callable<WorkerRunResult> {
 	}
     }
 
+    /**
+     * Returns the isbns in the store ordered by popularity, i.e. by isbn,
+     * fetching them if no stock manager interaction has run yet
+     * 
+     * @return
+     * @throws BookStoreException
+     */
+    private List<Integer> getCatalogISBNs() throws BookStoreException {
+	List<Integer> isbns = catalogISBNs;
+	if (isbns == null) {
+	    Set<Integer> currentISBNs = new HashSet<>();
+	    for (StockBook book : configuration.getStockManager().getBooks()) {
+		currentISBNs.add(book.getISBN());
+	    }
+	    isbns = updateCatalog(currentISBNs);
+	}
+	return isbns;
+    }
+
+    /**
+     * Replaces the isbns drawn from by popularity
+     * 
+     * @param isbns
+     * @return the isbns ordered by popularity
+     */
+    private List<Integer> updateCatalog(Collection<Integer> isbns) {
+	List<Integer> sortedISBNs = new ArrayList<>(isbns);
+	Collections.sort(sortedISBNs);
+	catalogISBNs = sortedISBNs;
+	return sortedISBNs;
+    }
+
 }
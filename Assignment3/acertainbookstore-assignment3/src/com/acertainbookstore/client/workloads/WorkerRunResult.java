@@ -1,5 +1,7 @@
 package com.acertainbookstore.client.workloads;
 
+import com.acertainbookstore.utils.BookStoreHistogram;
+
 /**
  * 
  * WorkerRunResult class represents the result returned by a worker class after
@@ -19,15 +21,26 @@ public class WorkerRunResult {
 	private int totalFrequentBookStoreInteractionRuns; // total number of
 														// bookstore interaction
 														// runs
+	private BookStoreHistogram latency; // latency of each actual run, in
+										// nanoseconds
 
 	public WorkerRunResult(int successfulInteractions, long elapsedTimeInNanoSecs,
 			int totalRuns, int successfulFrequentBookStoreInteractionRuns,
 			int totalFrequentBookStoreInteractionRuns) {
+		this(successfulInteractions, elapsedTimeInNanoSecs, totalRuns,
+				successfulFrequentBookStoreInteractionRuns,
+				totalFrequentBookStoreInteractionRuns, new BookStoreHistogram());
+	}
+
+	public WorkerRunResult(int successfulInteractions, long elapsedTimeInNanoSecs,
+			int totalRuns, int successfulFrequentBookStoreInteractionRuns,
+			int totalFrequentBookStoreInteractionRuns, BookStoreHistogram latency) {
 		this.setSuccessfulInteractions(successfulInteractions);
 		this.setElapsedTimeInNanoSecs(elapsedTimeInNanoSecs);
 		this.setTotalRuns(totalRuns);
 		this.setSuccessfulFrequentBookStoreInteractionRuns(successfulFrequentBookStoreInteractionRuns);
 		this.setTotalFrequentBookStoreInteractionRuns(totalFrequentBookStoreInteractionRuns);
+		this.setLatency(latency);
 	}
 
 	public int getTotalRuns() {
@@ -72,4 +85,12 @@ public class WorkerRunResult {
 		this.totalFrequentBookStoreInteractionRuns = totalFrequentBookStoreInteractionRuns;
 	}
 
+	public BookStoreHistogram getLatency() {
+		return latency;
+	}
+
+	public void setLatency(BookStoreHistogram latency) {
+		this.latency = latency;
+	}
+
 }
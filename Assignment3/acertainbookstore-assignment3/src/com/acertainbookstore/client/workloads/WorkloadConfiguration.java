@@ -1,5 +1,7 @@
 package com.acertainbookstore.client.workloads;
 
+import java.util.Random;
+
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 
@@ -20,13 +22,29 @@ public class WorkloadConfiguration {
 	private int numActualRuns = 500;
 	private float percentRareStockManagerInteraction = 10f;
 	private float percentFrequentStockManagerInteraction = 30f;
+	private KeyDistribution keyDistribution = KeyDistribution.uniform();
+	private long seed; // seeds the worker and the book set generator
 	private BookSetGenerator bookSetGenerator = null;
 	private StockManager stockManager = null;
 	private BookStore bookStore = null;
 
 	public WorkloadConfiguration(BookStore bookStore, StockManager stockManager) throws Exception {
+		this(bookStore, stockManager, new Random().nextLong());
+	}
+
+	/**
+	 * Creates a configuration whose worker issues the same interactions for
+	 * the same seed, given the same answers from the bookstore
+	 * 
+	 * @param bookStore
+	 * @param stockManager
+	 * @param seed
+	 * @throws Exception
+	 */
+	public WorkloadConfiguration(BookStore bookStore, StockManager stockManager, long seed) throws Exception {
 		// Create a new one so that it is not shared
-		bookSetGenerator = new BookSetGenerator();
+		bookSetGenerator = new BookSetGenerator(seed);
+		this.seed = seed;
 		this.bookStore = bookStore;
 		this.stockManager = stockManager;
 	}
@@ -137,4 +155,16 @@ public class WorkloadConfiguration {
 		this.bookSetGenerator = bookSetGenerator;
 	}
 
+	public KeyDistribution getKeyDistribution() {
+		return keyDistribution;
+	}
+
+	public void setKeyDistribution(KeyDistribution keyDistribution) {
+		this.keyDistribution = keyDistribution;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
 }
@@ -0,0 +1,39 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Set;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * The BookRecordSource interface is implemented by the stores which write the
+ * books of a read straight into a {@link BookRecordWriter}, holding the same
+ * protection as the read returning them as a list. The server serializes the
+ * records in place of the list, which it never builds.
+ */
+public interface BookRecordSource {
+
+	/**
+	 * Writes the stock records of all the books, as
+	 * {@link StockManager#getBooks()} returns them.
+	 *
+	 * @param writer
+	 *            the writer
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void writeBooks(BookRecordWriter writer) throws BookStoreException;
+
+	/**
+	 * Writes the records of a set of books, as
+	 * {@link BookStore#getBooks(Set)} returns them. Nothing is written if the
+	 * set is invalid.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books
+	 * @param writer
+	 *            the writer
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void writeBooks(Set<Integer> isbnSet, BookRecordWriter writer) throws BookStoreException;
+}
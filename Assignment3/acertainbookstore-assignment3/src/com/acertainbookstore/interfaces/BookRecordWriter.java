@@ -0,0 +1,60 @@
+package com.acertainbookstore.interfaces;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * The BookRecordWriter interface is implemented by the buffers a store engine
+ * writes the fields of its books into, one record per book, so that a
+ * response carries the books without a copy of every book as an object.
+ */
+public interface BookRecordWriter {
+
+	/**
+	 * Starts the records over, dropping those written before, so that a read
+	 * made again after a writer raced with it writes every book once.
+	 *
+	 * @param numBooks
+	 *            the number of records to come
+	 */
+	public void start(int numBooks);
+
+	/**
+	 * Writes the record of a book, as a {@link Book}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 */
+	public void writeBook(int isbn, String title, String author, float price);
+
+	/**
+	 * Writes the record of a book, as a {@link StockBook}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param totalRating
+	 *            the total rating
+	 * @param editorPick
+	 *            whether the book is editor picked
+	 */
+	public void writeStockBook(int isbn, String title, String author, float price, int numCopies, long numSaleMisses,
+			long numTimesRated, long totalRating, boolean editorPick);
+}
@@ -5,6 +5,7 @@ import java.util.Set;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -67,4 +68,71 @@ public interface BookStore {
 	 *             the book store exception
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Searches the books by title and author. The query is split into words,
+	 * ignoring case and punctuation, and a book matches if every word of the
+	 * query is a word of its title or of its author.
+	 *
+	 * @param query
+	 *            the words to search for
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return at most numBooks matching books, by increasing ISBN
+	 * @throws BookStoreException
+	 *             if the query has no words
+	 */
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException;
+
+	/**
+	 * Queries the books by price, average rating, stock and editor pick, and
+	 * sorts them, so that a client gets the books it filters for instead of
+	 * the whole catalog.
+	 *
+	 * @param query
+	 *            the filters, the order and the limit
+	 * @return the books matching every filter of the query, in its order and
+	 *         up to its limit
+	 * @throws BookStoreException
+	 *             if the query is invalid
+	 */
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException;
+
+	/**
+	 * Reserves the sets of books specified, with the same checks as
+	 * {@link #buyBooks(Set)}. The copies leave the stock at once and are held
+	 * for the client until the reservation is confirmed, released, or expires
+	 * after its time to live, so that a long checkout holds a reservation
+	 * instead of locks on the books.
+	 *
+	 * @param booksToReserve
+	 *            the books to reserve
+	 * @param ttlMillis
+	 *            the time to live of the reservation in milliseconds
+	 * @return the id of the reservation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException;
+
+	/**
+	 * Buys the books of a reservation.
+	 *
+	 * @param reservationId
+	 *            the id of the reservation
+	 * @throws BookStoreException
+	 *             if the reservation is unknown, was released or has expired
+	 */
+	public void confirmReservation(long reservationId) throws BookStoreException;
+
+	/**
+	 * Puts back the books of a reservation. Releasing a reservation which was
+	 * confirmed, released or has expired has no effect.
+	 *
+	 * @param reservationId
+	 *            the id of the reservation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void releaseReservation(long reservationId) throws BookStoreException;
 }
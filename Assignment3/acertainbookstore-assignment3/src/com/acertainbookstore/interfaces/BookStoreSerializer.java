@@ -1,6 +1,7 @@
 package com.acertainbookstore.interfaces;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * {@link BookStoreSerializer} specifies the serialization and de-serialization
@@ -19,6 +20,20 @@ public interface BookStoreSerializer {
 	 */
 	byte[] serialize(Object object) throws IOException;
 
+	/**
+	 * Serializes an object into a stream.
+	 *
+	 * @param object
+	 *            the object
+	 * @param outStream
+	 *            the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	default void serialize(Object object, OutputStream outStream) throws IOException {
+		outStream.write(serialize(object));
+	}
+
 	/**
 	 * De-serializes a sequence of bytes into an object.
 	 *
@@ -0,0 +1,63 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * The TwoPhaseCommitParticipant interface lets a coordinator buy books
+ * atomically across several stores. A purchase is first prepared on every
+ * store, which reserves the copies, and then either committed or aborted on
+ * all of them.
+ */
+public interface TwoPhaseCommitParticipant {
+
+	/**
+	 * Reserves the copies of a purchase, with the same checks as
+	 * {@link BookStore#buyBooks(Set)}. The copies stay reserved until the
+	 * transaction is committed or aborted.
+	 *
+	 * @param transactionId
+	 *            the id of the transaction, unique across coordinators
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @throws BookStoreException
+	 *             if the purchase cannot be made, the vote against the
+	 *             transaction
+	 */
+	public void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException;
+
+	/**
+	 * Makes the purchase of a prepared transaction final. Committing a
+	 * transaction which is not prepared has no effect.
+	 *
+	 * @param transactionId
+	 *            the id of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void commitTransaction(String transactionId) throws BookStoreException;
+
+	/**
+	 * Puts back the copies reserved by a prepared transaction. Aborting a
+	 * transaction which is not prepared has no effect.
+	 *
+	 * @param transactionId
+	 *            the id of the transaction
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void abortTransaction(String transactionId) throws BookStoreException;
+
+	/**
+	 * Gets the transactions prepared but neither committed nor aborted, so
+	 * that a recovering coordinator can resolve them.
+	 *
+	 * @return the ids of the prepared transactions
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<String> getPreparedTransactions() throws BookStoreException;
+}
@@ -0,0 +1,17 @@
+package com.acertainbookstore.interfaces;
+
+/**
+ * The VersionedBookStore interface is implemented by the stores taking part in
+ * replication. Every write to the primary gives it a new version and a
+ * replica's version is the last version of the primary it applied, so a
+ * client can tell whether a replica has seen its writes.
+ */
+public interface VersionedBookStore {
+
+	/**
+	 * Gets the version of the store.
+	 *
+	 * @return the version, 0 before the first write
+	 */
+	public long getVersion();
+}
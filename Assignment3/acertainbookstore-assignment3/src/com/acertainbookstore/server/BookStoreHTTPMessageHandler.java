@@ -3,6 +3,10 @@ package com.acertainbookstore.server;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -13,13 +17,22 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.interfaces.VersionedBookStore;
+import com.acertainbookstore.utils.BookRecordBuffer;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
@@ -38,20 +51,52 @@ import com.esotericsoftware.kryo.io.Input;
  */
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
+	/** The Constant CONSISTENCY_TIMEOUT_MILLIS a replica waits for a version. */
+	private static final long CONSISTENCY_TIMEOUT_MILLIS = 1000;
+
 	/** The book store. */
-	private CertainBookStore myBookStore = null;
+	private BookStore bookStore = null;
+
+	/** The stock manager. */
+	private StockManager stockManager = null;
 
 	/** The serializer. */
 	private static ThreadLocal<BookStoreSerializer> serializer;
 
+	/** The routes of the requests, by path. */
+	private final BookStoreRouter<Route> router;
+
+	/**
+	 * {@link Route} serves the requests of one message tag.
+	 */
+	@FunctionalInterface
+	private interface Route {
+
+		/**
+		 * Serves a request.
+		 *
+		 * @param request
+		 *            the request
+		 * @param response
+		 *            the response
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void handle(HttpServletRequest request, HttpServletResponse response) throws IOException;
+	}
+
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
 	 *
 	 * @param bookStore
 	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
 	 */
-	public BookStoreHTTPMessageHandler(CertainBookStore bookStore) {
-		myBookStore = bookStore;
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager) {
+		this.bookStore = bookStore;
+		this.stockManager = stockManager;
+		this.router = new BookStoreRouter<>(createRoutes());
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
@@ -70,76 +115,52 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
 			throws IOException, ServletException {
-		BookStoreMessageTag messageTag;
-		String requestURI;
-
-		response.setStatus(HttpServletResponse.SC_OK);
-		requestURI = request.getRequestURI();
-
-		// Need to do request multiplexing
-		if (!BookStoreUtility.isEmpty(requestURI) && requestURI.toLowerCase().startsWith("/stock")) {
-			// The request is from the store manager; more sophisticated.
-			// security features could be added here.
-			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI.substring(6));
-		} else {
-			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI);
-		}
+		Route route = router.route(request.getRequestURI());
 
-		// The RequestURI before the switch.
-		if (messageTag == null) {
-			System.err.println("No message tag.");
+		if (route == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 		} else {
-			switch (messageTag) {
-			case REMOVEBOOKS:
-				removeBooks(request, response);
-				break;
-
-			case REMOVEALLBOOKS:
-				removeAllBooks(response);
-				break;
-
-			case ADDBOOKS:
-				addBooks(request, response);
-				break;
-
-			case ADDCOPIES:
-				addCopies(request, response);
-				break;
-
-			case LISTBOOKS:
-				listBooks(response);
-				break;
-
-			case UPDATEEDITORPICKS:
-				updateEditorPicks(request, response);
-				break;
-
-			case BUYBOOKS:
-				buyBooks(request, response);
-				break;
-
-			case GETBOOKS:
-				getBooks(request, response);
-				break;
-
-			case GETEDITORPICKS:
-				getEditorPicks(request, response);
-				break;
-
-			case GETSTOCKBOOKSBYISBN:
-				getStockBooksByISBN(request, response);
-				break;
-
-			default:
-				System.err.println("Unsupported message tag.");
-				break;
-			}
+			response.setStatus(HttpServletResponse.SC_OK);
+			route.handle(request, response);
 		}
 
 		// Mark the request as handled so that the HTTP response can be sent
 		baseRequest.setHandled(true);
 	}
 
+	/**
+	 * Creates the route of every message tag.
+	 *
+	 * @return the routes
+	 */
+	private Map<BookStoreMessageTag, Route> createRoutes() {
+		Map<BookStoreMessageTag, Route> routes = new EnumMap<>(BookStoreMessageTag.class);
+		routes.put(BookStoreMessageTag.REMOVEBOOKS, this::removeBooks);
+		routes.put(BookStoreMessageTag.REMOVEALLBOOKS, (request, response) -> removeAllBooks(response));
+		routes.put(BookStoreMessageTag.ADDBOOKS, this::addBooks);
+		routes.put(BookStoreMessageTag.ADDCOPIES, this::addCopies);
+		routes.put(BookStoreMessageTag.LISTBOOKS, (request, response) -> listBooks(response));
+		routes.put(BookStoreMessageTag.UPDATEEDITORPICKS, this::updateEditorPicks);
+		routes.put(BookStoreMessageTag.BUYBOOKS, this::buyBooks);
+		routes.put(BookStoreMessageTag.GETBOOKS, this::getBooks);
+		routes.put(BookStoreMessageTag.GETEDITORPICKS, this::getEditorPicks);
+		routes.put(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, this::getStockBooksByISBN);
+		routes.put(BookStoreMessageTag.RATEBOOKS, this::rateBooks);
+		routes.put(BookStoreMessageTag.GETTOPRATEDBOOKS, this::getTopRatedBooks);
+		routes.put(BookStoreMessageTag.SEARCHBOOKS, this::searchBooks);
+		routes.put(BookStoreMessageTag.QUERYBOOKS, this::queryBooks);
+		routes.put(BookStoreMessageTag.GETBOOKSINDEMAND, (request, response) -> getBooksInDemand(response));
+		routes.put(BookStoreMessageTag.PREPAREBUYBOOKS, this::prepareBuyBooks);
+		routes.put(BookStoreMessageTag.COMMITTRANSACTION, this::commitTransaction);
+		routes.put(BookStoreMessageTag.ABORTTRANSACTION, this::abortTransaction);
+		routes.put(BookStoreMessageTag.GETPREPAREDTRANSACTIONS, (request, response) -> getPreparedTransactions(response));
+		routes.put(BookStoreMessageTag.GETREPLICATIONLOG, this::getReplicationLog);
+		routes.put(BookStoreMessageTag.RESERVEBOOKS, this::reserveBooks);
+		routes.put(BookStoreMessageTag.CONFIRMRESERVATION, this::confirmReservation);
+		routes.put(BookStoreMessageTag.RELEASERESERVATION, this::releaseReservation);
+		return routes;
+	}
+
 	/**
 	 * Gets the stock books by ISBN.
 	 *
@@ -158,13 +179,435 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(myBookStore.getBooksByISBN(isbnSet));
+			bookStoreResponse.setList(stockManager.getBooksByISBN(isbnSet));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Rates the books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rateBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Set<BookRating> bookRatings = (Set<BookRating>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStore.rateBooks(bookRatings);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getTopRatedBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			checkConsistency(request);
+			bookStoreResponse.setList(bookStore.getTopRatedBooks(numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Searches the books by title and author.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void searchBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String query = URLDecoder.decode(request.getParameter(BookStoreConstants.QUERY_PARAM), StandardCharsets.UTF_8);
+		String numBooksString = URLDecoder.decode(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM), StandardCharsets.UTF_8);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
+			checkConsistency(request);
+			bookStoreResponse.setList(bookStore.searchBooks(query, numBooks));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Queries the books by price, average rating, stock and editor pick.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void queryBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		BookQuery query = (BookQuery) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			checkConsistency(request);
+			bookStoreResponse.setList(bookStore.queryBooks(query));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Gets the books in demand.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getBooksInDemand(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(stockManager.getBooksInDemand());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Prepares a purchase of a transaction.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void prepareBuyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		String transactionId = request.getParameter(BookStoreConstants.TRANSACTION_PARAM);
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			getParticipant().prepareBuyBooks(transactionId, bookCopiesToBuy);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Commits a transaction.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void commitTransaction(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String transactionId = request.getParameter(BookStoreConstants.TRANSACTION_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			getParticipant().commitTransaction(transactionId);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Aborts a transaction.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void abortTransaction(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String transactionId = request.getParameter(BookStoreConstants.TRANSACTION_PARAM);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			getParticipant().abortTransaction(transactionId);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Gets the prepared transactions.
+	 *
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getPreparedTransactions(HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStoreResponse.setList(getParticipant().getPreparedTransactions());
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Reserves books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("unchecked")
+	private void reserveBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		byte[] serializedRequestContent = getSerializedRequestContent(request);
+
+		Set<BookCopy> bookCopiesToReserve = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			long ttlMillis = convertStringToLong(request.getParameter(BookStoreConstants.TTL_PARAM));
+			List<Long> reservationIds = new ArrayList<>();
+			reservationIds.add(bookStore.reserveBooks(bookCopiesToReserve, ttlMillis));
+			bookStoreResponse.setList(reservationIds);
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Confirms a reservation.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void confirmReservation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStore.confirmReservation(
+					convertStringToLong(request.getParameter(BookStoreConstants.RESERVATION_PARAM)));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Releases a reservation.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void releaseReservation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			bookStore.releaseReservation(
+					convertStringToLong(request.getParameter(BookStoreConstants.RESERVATION_PARAM)));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Gets the writes of the primary after the version a replica applied.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void getReplicationLog(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			if (!(bookStore instanceof PrimaryBookStore)) {
+				throw new BookStoreException(BookStoreErrorCode.UNSUPPORTED, "The book store is not a primary");
+			}
+
+			long version = convertStringToLong(request.getParameter(BookStoreConstants.VERSION_PARAM));
+			bookStoreResponse.setList(((PrimaryBookStore) bookStore).getEntriesAfter(version));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
+	}
+
+	/**
+	 * Checks that a replica serving a read is as recent as the client asked
+	 * for, waiting a little for the version the client needs. Any other store
+	 * is always recent enough.
+	 *
+	 * @param request
+	 *            the request
+	 * @throws BookStoreException
+	 *             if the replica is behind
+	 */
+	private void checkConsistency(HttpServletRequest request) throws BookStoreException {
+		if (!(bookStore instanceof ReplicaBookStore)) {
+			return;
+		}
+
+		ReplicaBookStore replica = (ReplicaBookStore) bookStore;
+		String minVersionString = request.getParameter(BookStoreConstants.MIN_VERSION_PARAM);
+		String maxStalenessString = request.getParameter(BookStoreConstants.MAX_STALENESS_PARAM);
+
+		if (minVersionString != null) {
+			try {
+				if (!replica.awaitVersion(convertStringToLong(minVersionString), CONSISTENCY_TIMEOUT_MILLIS)) {
+					throw new BookStoreException(BookStoreErrorCode.REPLICA_BEHIND, BookStoreConstants.REPLICA_BEHIND);
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException(BookStoreErrorCode.REPLICA_BEHIND, BookStoreConstants.REPLICA_BEHIND, ex);
+			}
+		}
+
+		if (maxStalenessString != null
+				&& replica.getStalenessMillis() > convertStringToLong(maxStalenessString)) {
+			throw new BookStoreException(BookStoreErrorCode.REPLICA_BEHIND, BookStoreConstants.REPLICA_BEHIND);
+		}
+	}
+
+	/**
+	 * Converts a request parameter to a long.
+	 *
+	 * @param str
+	 *            the parameter
+	 * @return the long
+	 * @throws BookStoreException
+	 *             if the parameter is not a long
+	 */
+	private static long convertStringToLong(String str) throws BookStoreException {
+		try {
+			return Long.parseLong(str);
+		} catch (NumberFormatException ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	/**
+	 * Serializes a response, with the version of the store if it is
+	 * replicated.
+	 *
+	 * @param response
+	 *            the response
+	 * @param bookStoreResponse
+	 *            the book store response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeResponse(HttpServletResponse response, BookStoreResponse bookStoreResponse) throws IOException {
+		if (bookStore instanceof VersionedBookStore) {
+			bookStoreResponse.setVersion(((VersionedBookStore) bookStore).getVersion());
+		}
+
+		serializer.get().serialize(bookStoreResponse, response.getOutputStream());
+	}
+
+	/**
+	 * Gets the buffer a store writes the books of a response into, if the
+	 * store writes books as records and the serializer reads them.
+	 *
+	 * @param store
+	 *            the store
+	 * @return the buffer, or null to list the books as objects
+	 */
+	private static BookRecordBuffer getRecordBuffer(Object store) {
+		BookStoreSerializer bookStoreSerializer = serializer.get();
+
+		if (!(store instanceof BookRecordSource) || !(bookStoreSerializer instanceof BookStoreKryoSerializer)) {
+			return null;
+		}
+
+		return ((BookStoreKryoSerializer) bookStoreSerializer).getRecordBuffer();
+	}
+
+	/**
+	 * Gets the book store as a participant of transactions.
+	 *
+	 * @return the participant
+	 * @throws BookStoreException
+	 *             if the book store does not take part in transactions
+	 */
+	private TwoPhaseCommitParticipant getParticipant() throws BookStoreException {
+		if (!(bookStore instanceof TwoPhaseCommitParticipant)) {
+			throw new BookStoreException(BookStoreErrorCode.UNSUPPORTED, "The book store does not support transactions");
+		}
+
+		return (TwoPhaseCommitParticipant) bookStore;
 	}
 
 	/**
@@ -183,13 +626,13 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
 		try {
 			int numBooks = BookStoreUtility.convertStringToInt(numBooksString);
-			bookStoreResponse.setList(myBookStore.getEditorPicks(numBooks));
+			checkConsistency(request);
+			bookStoreResponse.setList(bookStore.getEditorPicks(numBooks));
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -210,13 +653,20 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStoreResponse.setList(myBookStore.getBooks(isbnSet));
+			checkConsistency(request);
+			BookRecordBuffer records = getRecordBuffer(bookStore);
+
+			if (records != null) {
+				((BookRecordSource) bookStore).writeBooks(isbnSet, records);
+				bookStoreResponse.setList(records);
+			} else {
+				bookStoreResponse.setList(bookStore.getBooks(isbnSet));
+			}
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -237,13 +687,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.buyBooks(bookCopiesToBuy);
+			bookStore.buyBooks(bookCopiesToBuy);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -265,13 +714,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.updateEditorPicks(mapEditorPicksValues);
+			stockManager.updateEditorPicks(mapEditorPicksValues);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -284,10 +732,21 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	 */
 	private void listBooks(HttpServletResponse response) throws IOException {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
-		bookStoreResponse.setList(myBookStore.getBooks());
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		try {
+			BookRecordBuffer records = getRecordBuffer(stockManager);
+
+			if (records != null) {
+				((BookRecordSource) stockManager).writeBooks(records);
+				bookStoreResponse.setList(records);
+			} else {
+				bookStoreResponse.setList(stockManager.getBooks());
+			}
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -308,13 +767,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addCopies(listBookCopies);
+			stockManager.addCopies(listBookCopies);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -335,13 +793,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.addBooks(newBooks);
+			stockManager.addBooks(newBooks);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -356,13 +813,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.removeAllBooks();
+			stockManager.removeAllBooks();
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
@@ -383,13 +839,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			myBookStore.removeBooks(bookSet);
+			stockManager.removeBooks(bookSet);
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
-		response.getOutputStream().write(serializedResponseContent);
+		writeResponse(response, bookStoreResponse);
 	}
 
 	/**
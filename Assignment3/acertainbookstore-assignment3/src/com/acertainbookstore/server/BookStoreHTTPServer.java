@@ -2,7 +2,8 @@ package com.acertainbookstore.server;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
-import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 
 /**
@@ -16,6 +17,12 @@ public class BookStoreHTTPServer {
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
 
+	/** The roles of a server. */
+	private static final String ROLE_STANDALONE = "standalone";
+	private static final String ROLE_PRIMARY = "primary";
+	private static final String ROLE_REPLICA = "replica";
+	private static final String DEFAULT_PRIMARY = "http://localhost:8081";
+
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -28,13 +35,33 @@ public class BookStoreHTTPServer {
 	 *
 	 * @param args
 	 *            the arguments
+	 * @throws Exception
+	 *             if a replica cannot reach its primary
 	 */
-	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
+	public static void main(String[] args) throws Exception {
+		String engineString = System.getProperty(BookStoreConstants.PROPERTY_KEY_ENGINE);
+		BookStoreEngineType engine = (engineString != null) ? BookStoreEngineType.parse(engineString)
+				: BookStoreEngineType.SYNCHRONIZED;
+		BookStore bookStore = engine.newBookStore();
+		String role = System.getProperty(BookStoreConstants.PROPERTY_KEY_ROLE, ROLE_STANDALONE);
+
+		if (ROLE_PRIMARY.equals(role)) {
+			bookStore = new PrimaryBookStore(bookStore);
+		} else if (ROLE_REPLICA.equals(role)) {
+			String primaryAddress = System.getProperty(BookStoreConstants.PROPERTY_KEY_PRIMARY, DEFAULT_PRIMARY);
+			ReplicaBookStore replica = new ReplicaBookStore(bookStore, primaryAddress);
+			replica.start();
+			bookStore = replica;
+		} else if (!ROLE_STANDALONE.equals(role)) {
+			throw new IllegalArgumentException("Unknown role: " + role);
+		}
+
 		int listenOnPort = DEFAULT_PORT;
+		int maxThreadPoolSize = MAX_THREADPOOL_SIZE;
 
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore);
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(bookStore, (StockManager) bookStore);
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
+		String maxThreadPoolSizeString = System.getProperty(BookStoreConstants.PROPERTY_KEY_MAX_THREADPOOL_SIZE);
 
 		if (serverPortString != null) {
 			try {
@@ -44,7 +71,11 @@ public class BookStoreHTTPServer {
 			}
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
+		if (maxThreadPoolSizeString != null) {
+			maxThreadPoolSize = Math.max(MIN_THREADPOOL_SIZE, Integer.parseInt(maxThreadPoolSizeString));
+		}
+
+		QueuedThreadPool threadpool = new QueuedThreadPool(maxThreadPoolSize, MIN_THREADPOOL_SIZE);
 		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
 	}
 }
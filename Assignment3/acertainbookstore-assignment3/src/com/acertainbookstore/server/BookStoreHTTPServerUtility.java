@@ -31,6 +31,30 @@ public class BookStoreHTTPServerUtility {
 	 * @return true, if successful
 	 */
 	public static void createServer(int port, AbstractHandler handler, QueuedThreadPool threadpool) {
+		try {
+			startServer(port, handler, threadpool).join();
+		} catch (Exception ex) {
+			System.err.println(ex.getStackTrace());
+		}
+
+	}
+
+	/**
+	 * Starts a server on the port without blocking the calling thread, which
+	 * is responsible for stopping it.
+	 *
+	 * @param port
+	 *            the port
+	 * @param handler
+	 *            the handler
+	 * @param threadpool
+	 *            the thread pool, or null for the default one
+	 * @return the started server
+	 * @throws Exception
+	 *             if the server could not be started
+	 */
+	public static Server startServer(int port, AbstractHandler handler, QueuedThreadPool threadpool)
+			throws Exception {
 		Server server = null;
 		if (threadpool != null) {
 			server = new Server(threadpool);
@@ -45,13 +69,8 @@ public class BookStoreHTTPServerUtility {
 			server.setHandler(handler);
 		}
 
-		try {
-			server.start();
-			server.join();
-		} catch (Exception ex) {
-			System.err.println(ex.getStackTrace());
-		}
-
+		server.start();
+		return server;
 	}
 
 	/**
@@ -0,0 +1,66 @@
+package com.acertainbookstore.server;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * {@link BookStoreRouter} maps the paths of requests to their routes. Every
+ * message tag is served at "/TAG" and at "/stock/TAG", in any case, as the
+ * {@link BookStoreHTTPMessageHandler} always did; the paths are computed once,
+ * so that routing a request neither parses nor allocates.
+ *
+ * The paths in the case the clients send, and in lower case, are looked up by
+ * hash; any other case falls back to a case insensitive search.
+ *
+ * @param <R>
+ *            the type of the routes
+ */
+public final class BookStoreRouter<R> {
+
+	/** The Constant STOCK_PREFIX, the prefix of the stock manager's paths. */
+	public static final String STOCK_PREFIX = "/stock";
+
+	/** The routes by path, in the cases looked up by hash. */
+	private final Map<String, R> routesByPath = new HashMap<>();
+
+	/** The routes by path, in any case. */
+	private final TreeMap<String, R> routesByPathIgnoringCase = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	/**
+	 * Instantiates a new {@link BookStoreRouter}.
+	 *
+	 * @param routes
+	 *            the route of every message tag served
+	 */
+	public BookStoreRouter(Map<BookStoreMessageTag, R> routes) {
+		for (Map.Entry<BookStoreMessageTag, R> route : routes.entrySet()) {
+			String path = "/" + route.getKey().name();
+
+			for (String prefix : new String[] { "", STOCK_PREFIX }) {
+				routesByPath.put(prefix + path, route.getValue());
+				routesByPath.put((prefix + path).toLowerCase(Locale.ROOT), route.getValue());
+				routesByPathIgnoringCase.put(prefix + path, route.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Gets the route of a path.
+	 *
+	 * @param path
+	 *            the path
+	 * @return the route, or null if no route serves the path
+	 */
+	public R route(String path) {
+		if (path == null) {
+			return null;
+		}
+
+		R route = routesByPath.get(path);
+		return (route != null) ? route : routesByPathIgnoringCase.get(path);
+	}
+}
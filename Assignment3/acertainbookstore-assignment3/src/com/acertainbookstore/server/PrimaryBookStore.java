@@ -0,0 +1,624 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookRecordWriter;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.interfaces.VersionedBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.ReplicationLogEntry;
+import com.acertainbookstore.utils.ReplicationLogEntry.Operation;
+
+/**
+ * {@link PrimaryBookStore} serves a store engine and ships its writes to
+ * read-only replicas. Every write is applied and appended to a
+ * {@link ReplicationLog} under one lock, so that the replicas apply the writes
+ * in the order the primary did; reads go straight to the engine. Purchases are
+ * logged even when they fail, since a failed purchase still records the missed
+ * sales.
+ *
+ * A reservation is shipped as a prepared transaction, which never expires on
+ * the replicas, and ends with a commit when it is confirmed or an abort when
+ * it is released or expires on the primary. The primary expires the
+ * reservations itself, before every write, and gives the engine a longer time
+ * to live; were the engine to put back the copies first, a purchase of them
+ * could reach the log before the abort that frees them on the replicas.
+ *
+ * @see ReplicaBookStore
+ */
+public class PrimaryBookStore implements BookStore, StockManager, BookRecordSource, TwoPhaseCommitParticipant, VersionedBookStore {
+
+	/** The Constant DEFAULT_LOG_CAPACITY. */
+	private static final int DEFAULT_LOG_CAPACITY = 100000;
+
+	/** The Constant POLL_TIMEOUT_MILLIS, how long a replica waits for a write. */
+	public static final long POLL_TIMEOUT_MILLIS = 100;
+
+	/** The book store of the engine. */
+	private final BookStore bookStore;
+
+	/** The stock manager of the engine. */
+	private final StockManager stockManager;
+
+	/** The engine as a participant of transactions. */
+	private final TwoPhaseCommitParticipant participant;
+
+	/** The engine as a source of book records. */
+	private final BookRecordSource recordSource;
+
+	/** The replication log. */
+	private final ReplicationLog replicationLog = new ReplicationLog(DEFAULT_LOG_CAPACITY);
+
+	/** The lock ordering the writes. */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/**
+	 * The Constant RESERVATION_GRACE_MILLIS, how much longer a reservation
+	 * lives in the engine than on the primary.
+	 */
+	private static final long RESERVATION_GRACE_MILLIS = 1000;
+
+	/** The Constant RESERVATION_TRANSACTION_PREFIX of the ids of the reservations. */
+	private static final String RESERVATION_TRANSACTION_PREFIX = "reservation:";
+
+	/** The copies reserved by every prepared transaction, guarded by writeLock. */
+	private final Map<String, Set<BookCopy>> preparedPurchases = new HashMap<>();
+
+	/**
+	 * The deadline in nanoseconds of every live reservation, well before the
+	 * deadline of the engine, guarded by writeLock.
+	 */
+	private final Map<Long, Long> reservationDeadlines = new HashMap<>();
+
+	/**
+	 * Instantiates a new {@link PrimaryBookStore}.
+	 *
+	 * @param bookStore
+	 *            the engine, which must also implement {@link StockManager},
+	 *            {@link TwoPhaseCommitParticipant} and {@link BookRecordSource}
+	 */
+	public PrimaryBookStore(BookStore bookStore) {
+		this.bookStore = bookStore;
+		this.stockManager = (StockManager) bookStore;
+		this.participant = (TwoPhaseCommitParticipant) bookStore;
+		this.recordSource = (BookRecordSource) bookStore;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.VersionedBookStore#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return replicationLog.getVersion();
+	}
+
+	/**
+	 * Gets the writes after a version for a replica, waiting a little for one
+	 * if there is none yet. A replica too far behind gets a snapshot of the
+	 * store instead.
+	 *
+	 * @param afterVersion
+	 *            the last version the replica applied
+	 * @return the entries
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<ReplicationLogEntry> getEntriesAfter(long afterVersion) throws BookStoreException {
+		List<ReplicationLogEntry> entries;
+
+		try {
+			entries = replicationLog.awaitEntriesAfter(afterVersion, POLL_TIMEOUT_MILLIS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(ex);
+		}
+
+		// The replicas poll often enough to end the expired reservations
+		if (writeLock.tryLock()) {
+			try {
+				expireReservations();
+			} finally {
+				writeLock.unlock();
+			}
+		}
+
+		if (entries != null) {
+			return entries;
+		}
+
+		writeLock.lock();
+		try {
+			List<StockBook> books = stockManager.getBooks();
+			Map<String, Set<BookCopy>> prepared = new HashMap<>();
+
+			for (Map.Entry<String, Set<BookCopy>> purchase : preparedPurchases.entrySet()) {
+				prepared.put(purchase.getKey(), new HashSet<>(purchase.getValue()));
+			}
+
+			ReplicationLogEntry snapshot = new ReplicationLogEntry(Operation.RESTORE, new ArrayList<>(books), null);
+			snapshot.setPreparedPurchases(prepared);
+			snapshot.setVersion(replicationLog.getVersion());
+			return Collections.singletonList(snapshot);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Appends a write to the replication log. The caller holds the write lock.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param argument
+	 *            the argument, copied
+	 * @param transactionId
+	 *            the transaction id, or null
+	 */
+	private void log(Operation operation, Set<?> argument, String transactionId) {
+		replicationLog.append(
+				new ReplicationLogEntry(operation, (argument != null) ? new HashSet<>(argument) : null, transactionId));
+	}
+
+	/**
+	 * Takes the write lock and ends the expired reservations, so that the write
+	 * is logged after the aborts of the copies it may use.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void lockForWrite() throws BookStoreException {
+		writeLock.lock();
+		try {
+			expireReservations();
+		} catch (BookStoreException ex) {
+			writeLock.unlock();
+			throw ex;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		lockForWrite();
+		try {
+			bookStore.buyBooks(bookCopiesToBuy);
+		} finally {
+			if (bookCopiesToBuy != null) {
+				log(Operation.BUY_BOOKS, bookCopiesToBuy, null);
+			}
+
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	@Override
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException {
+		lockForWrite();
+		try {
+			long deadlineNanos = System.nanoTime() + ttlMillis * 1000000L;
+			long reservationId;
+
+			try {
+				reservationId = bookStore.reserveBooks(booksToReserve,
+						(ttlMillis > 0 && ttlMillis < Long.MAX_VALUE - RESERVATION_GRACE_MILLIS)
+								? ttlMillis + RESERVATION_GRACE_MILLIS : ttlMillis);
+			} catch (BookStoreException ex) {
+				// A refused reservation still records the missed sales
+				if (booksToReserve != null && ttlMillis > 0) {
+					log(Operation.BUY_BOOKS, booksToReserve, null);
+				}
+
+				throw ex;
+			}
+
+			String transactionId = RESERVATION_TRANSACTION_PREFIX + reservationId;
+			reservationDeadlines.put(reservationId, deadlineNanos);
+			preparedPurchases.put(transactionId, new HashSet<>(booksToReserve));
+			log(Operation.PREPARE_BUY_BOOKS, booksToReserve, transactionId);
+			return reservationId;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+	@Override
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		lockForWrite();
+		try {
+			boolean live = reservationDeadlines.remove(reservationId) != null;
+
+			try {
+				bookStore.confirmReservation(reservationId);
+			} catch (BookStoreException ex) {
+				if (live) {
+					endReservation(reservationId, Operation.ABORT_TRANSACTION);
+				}
+
+				throw ex;
+			}
+
+			if (live) {
+				endReservation(reservationId, Operation.COMMIT_TRANSACTION);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+	@Override
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		lockForWrite();
+		try {
+			bookStore.releaseReservation(reservationId);
+
+			if (reservationDeadlines.remove(reservationId) != null) {
+				endReservation(reservationId, Operation.ABORT_TRANSACTION);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Ends the reservations past their deadline, putting back their copies in
+	 * the engine. The caller holds the write lock.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void expireReservations() throws BookStoreException {
+		if (reservationDeadlines.isEmpty()) {
+			return;
+		}
+
+		long nowNanos = System.nanoTime();
+		List<Long> expiredReservationIds = new ArrayList<>();
+
+		for (Map.Entry<Long, Long> reservation : reservationDeadlines.entrySet()) {
+			if (nowNanos - reservation.getValue() >= 0) {
+				expiredReservationIds.add(reservation.getKey());
+			}
+		}
+
+		for (long reservationId : expiredReservationIds) {
+			bookStore.releaseReservation(reservationId);
+			reservationDeadlines.remove(reservationId);
+			endReservation(reservationId, Operation.ABORT_TRANSACTION);
+		}
+	}
+
+	/**
+	 * Ends the prepared transaction shipping a reservation to the replicas.
+	 * The caller holds the write lock.
+	 *
+	 * @param reservationId
+	 *            the id of the reservation
+	 * @param operation
+	 *            the commit or abort of the transaction
+	 */
+	private void endReservation(long reservationId, Operation operation) {
+		String transactionId = RESERVATION_TRANSACTION_PREFIX + reservationId;
+		preparedPurchases.remove(transactionId);
+		log(operation, null, transactionId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		lockForWrite();
+		try {
+			bookStore.rateBooks(bookRating);
+			log(Operation.RATE_BOOKS, bookRating, null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		lockForWrite();
+		try {
+			stockManager.addBooks(bookSet);
+			log(Operation.ADD_BOOKS, bookSet, null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		lockForWrite();
+		try {
+			stockManager.addCopies(bookCopiesSet);
+			log(Operation.ADD_COPIES, bookCopiesSet, null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		lockForWrite();
+		try {
+			stockManager.updateEditorPicks(editorPicks);
+			log(Operation.UPDATE_EDITOR_PICKS, editorPicks, null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		lockForWrite();
+		try {
+			stockManager.removeAllBooks();
+			preparedPurchases.clear();
+			reservationDeadlines.clear();
+			log(Operation.REMOVE_ALL_BOOKS, null, null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		lockForWrite();
+		try {
+			stockManager.removeBooks(isbnSet);
+			log(Operation.REMOVE_BOOKS, isbnSet, null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#prepareBuyBooks(
+	 * java.lang.String, java.util.Set)
+	 */
+	@Override
+	public void prepareBuyBooks(String transactionId, Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		lockForWrite();
+		try {
+			participant.prepareBuyBooks(transactionId, bookCopiesToBuy);
+			preparedPurchases.put(transactionId, new HashSet<>(bookCopiesToBuy));
+		} finally {
+			if (transactionId != null && bookCopiesToBuy != null) {
+				log(Operation.PREPARE_BUY_BOOKS, bookCopiesToBuy, transactionId);
+			}
+
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#commitTransaction(
+	 * java.lang.String)
+	 */
+	@Override
+	public void commitTransaction(String transactionId) throws BookStoreException {
+		lockForWrite();
+		try {
+			participant.commitTransaction(transactionId);
+			preparedPurchases.remove(transactionId);
+			log(Operation.COMMIT_TRANSACTION, null, transactionId);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#abortTransaction(
+	 * java.lang.String)
+	 */
+	@Override
+	public void abortTransaction(String transactionId) throws BookStoreException {
+		lockForWrite();
+		try {
+			participant.abortTransaction(transactionId);
+			preparedPurchases.remove(transactionId);
+			log(Operation.ABORT_TRANSACTION, null, transactionId);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.TwoPhaseCommitParticipant#
+	 * getPreparedTransactions()
+	 */
+	@Override
+	public List<String> getPreparedTransactions() throws BookStoreException {
+		return participant.getPreparedTransactions();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+	@Override
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		return bookStore.queryBooks(query);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(com.
+	 * acertainbookstore.interfaces.BookRecordWriter)
+	 */
+	@Override
+	public void writeBooks(BookRecordWriter writer) throws BookStoreException {
+		recordSource.writeBooks(writer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(java.util.
+	 * Set, com.acertainbookstore.interfaces.BookRecordWriter)
+	 */
+	@Override
+	public void writeBooks(Set<Integer> isbnSet, BookRecordWriter writer) throws BookStoreException {
+		recordSource.writeBooks(isbnSet, writer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbns);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+}
@@ -0,0 +1,534 @@
+package com.acertainbookstore.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookQuery;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookRecordWriter;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.interfaces.TwoPhaseCommitParticipant;
+import com.acertainbookstore.interfaces.VersionedBookStore;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreErrorCode;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreRequest;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStreamSerializer;
+import com.acertainbookstore.utils.ReplicationLogEntry;
+
+/**
+ * {@link ReplicaBookStore} is a read-only copy of a {@link PrimaryBookStore}.
+ * A background thread keeps fetching the writes of the primary and applies
+ * them to a local store engine in the order of the primary, so the replica
+ * serves reads of a state the primary was in. Writes from clients are
+ * refused.
+ *
+ * The replica knows the last version of the primary it applied and since when
+ * it has been known to be caught up, so a read can ask for a minimum version
+ * or a maximum staleness.
+ *
+ * @see PrimaryBookStore
+ */
+public class ReplicaBookStore implements BookStore, StockManager, BookRecordSource, VersionedBookStore, Runnable {
+
+	/** The Constant RETRY_DELAY_MILLIS after the primary could not be reached. */
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	/** The book store of the engine. */
+	private final BookStore bookStore;
+
+	/** The stock manager of the engine. */
+	private final StockManager stockManager;
+
+	/** The engine as a participant of transactions. */
+	private final TwoPhaseCommitParticipant participant;
+
+	/** The engine as a source of book records. */
+	private final BookRecordSource recordSource;
+
+	/** The address of the primary. */
+	private final String primaryAddress;
+
+	/** The client fetching the writes. */
+	private final HttpClient client;
+
+	/** The serializer. */
+	private final BookStoreSerializer serializer;
+
+	/** The last version applied, guarded by this for the waits. */
+	private volatile long version = 0;
+
+	/** The time in nanoseconds the replica was last known to be caught up. */
+	private volatile long caughtUpTimeInNanoSecs;
+
+	/** The thread applying the writes. */
+	private Thread applier;
+
+	/**
+	 * Instantiates a new {@link ReplicaBookStore}.
+	 *
+	 * @param bookStore
+	 *            the engine, which must also implement {@link StockManager},
+	 *            {@link TwoPhaseCommitParticipant} and {@link BookRecordSource}
+	 * @param primaryAddress
+	 *            the address of the primary
+	 * @throws Exception
+	 *             if the client cannot be started
+	 */
+	public ReplicaBookStore(BookStore bookStore, String primaryAddress) throws Exception {
+		this.bookStore = bookStore;
+		this.stockManager = (StockManager) bookStore;
+		this.participant = (TwoPhaseCommitParticipant) bookStore;
+		this.recordSource = (BookRecordSource) bookStore;
+		this.primaryAddress = primaryAddress;
+		this.caughtUpTimeInNanoSecs = System.nanoTime() - Long.MAX_VALUE / 2;
+
+		if (BookStoreConstants.BINARY_SERIALIZATION) {
+			serializer = new BookStoreKryoSerializer();
+		} else {
+			serializer = new BookStoreXStreamSerializer();
+		}
+
+		client = new HttpClient();
+		client.start();
+	}
+
+	/**
+	 * Starts applying the writes of the primary.
+	 */
+	public synchronized void start() {
+		if (applier == null) {
+			applier = new Thread(this, "replica-applier");
+			applier.setDaemon(true);
+			applier.start();
+		}
+	}
+
+	/**
+	 * Stops applying the writes of the primary.
+	 */
+	public synchronized void stop() {
+		if (applier != null) {
+			applier.interrupt();
+			applier = null;
+		}
+
+		try {
+			client.stop();
+		} catch (Exception ex) {
+			System.err.println(ex.getMessage());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			long requestTimeInNanoSecs = System.nanoTime();
+
+			try {
+				String urlString = primaryAddress + "/stock/" + BookStoreMessageTag.GETREPLICATIONLOG + "?"
+						+ BookStoreConstants.VERSION_PARAM + "=" + version;
+				BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client,
+						BookStoreRequest.newGetRequest(urlString), serializer);
+
+				for (Object entry : bookStoreResponse.getList()) {
+					apply((ReplicationLogEntry) entry);
+				}
+
+				// The primary had no later write when the request was sent
+				if (version >= bookStoreResponse.getVersion()) {
+					caughtUpTimeInNanoSecs = requestTimeInNanoSecs;
+				}
+			} catch (BookStoreException ex) {
+				try {
+					Thread.sleep(RETRY_DELAY_MILLIS);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies a write of the primary to the engine.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	@SuppressWarnings("unchecked")
+	private void apply(ReplicationLogEntry entry) {
+		try {
+			switch (entry.getOperation()) {
+			case ADD_BOOKS:
+				stockManager.addBooks((Set<StockBook>) entry.getArgument());
+				break;
+
+			case ADD_COPIES:
+				stockManager.addCopies((Set<BookCopy>) entry.getArgument());
+				break;
+
+			case UPDATE_EDITOR_PICKS:
+				stockManager.updateEditorPicks((Set<BookEditorPick>) entry.getArgument());
+				break;
+
+			case BUY_BOOKS:
+				bookStore.buyBooks((Set<BookCopy>) entry.getArgument());
+				break;
+
+			case RATE_BOOKS:
+				bookStore.rateBooks((Set<BookRating>) entry.getArgument());
+				break;
+
+			case REMOVE_BOOKS:
+				stockManager.removeBooks((Set<Integer>) entry.getArgument());
+				break;
+
+			case REMOVE_ALL_BOOKS:
+				stockManager.removeAllBooks();
+				break;
+
+			case PREPARE_BUY_BOOKS:
+				participant.prepareBuyBooks(entry.getTransactionId(), (Set<BookCopy>) entry.getArgument());
+				break;
+
+			case COMMIT_TRANSACTION:
+				participant.commitTransaction(entry.getTransactionId());
+				break;
+
+			case ABORT_TRANSACTION:
+				participant.abortTransaction(entry.getTransactionId());
+				break;
+
+			case RESTORE:
+				restore((List<StockBook>) entry.getArgument(), entry.getPreparedPurchases());
+				break;
+
+			default:
+				break;
+			}
+		} catch (BookStoreException ex) {
+			// The write failed on the primary too, e.g. a purchase of books
+			// out of stock, and left the same missed sales
+		}
+
+		synchronized (this) {
+			version = entry.getVersion();
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Replaces the content of the engine with a snapshot of the primary.
+	 *
+	 * @param books
+	 *            the books of the primary, without the reserved copies
+	 * @param preparedPurchases
+	 *            the copies reserved by the prepared transactions
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void restore(List<StockBook> books, Map<String, Set<BookCopy>> preparedPurchases)
+			throws BookStoreException {
+		Map<Integer, Integer> reservedCopies = new HashMap<>();
+
+		for (Set<BookCopy> bookCopies : preparedPurchases.values()) {
+			for (BookCopy bookCopy : bookCopies) {
+				reservedCopies.merge(bookCopy.getISBN(), bookCopy.getNumCopies(), Integer::sum);
+			}
+		}
+
+		Set<StockBook> restoredBooks = new HashSet<>();
+
+		for (StockBook book : books) {
+			restoredBooks.add(new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+					book.getPrice(), book.getNumCopies() + reservedCopies.getOrDefault(book.getISBN(), 0),
+					book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick()));
+		}
+
+		stockManager.removeAllBooks();
+		stockManager.addBooks(restoredBooks);
+
+		// Reserve the copies again so that the transactions can still end
+		for (Map.Entry<String, Set<BookCopy>> purchase : preparedPurchases.entrySet()) {
+			participant.prepareBuyBooks(purchase.getKey(), purchase.getValue());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.VersionedBookStore#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Waits until the replica has applied a version of the primary.
+	 *
+	 * @param minVersion
+	 *            the version
+	 * @param timeoutMillis
+	 *            how long to wait
+	 * @return true, if the version is applied
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized boolean awaitVersion(long minVersion, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remainingMillis = timeoutMillis;
+
+		while (version < minVersion && remainingMillis > 0) {
+			wait(remainingMillis);
+			remainingMillis = deadline - System.currentTimeMillis();
+		}
+
+		return version >= minVersion;
+	}
+
+	/**
+	 * Gets how far behind the primary the replica may be.
+	 *
+	 * @return the staleness in milliseconds
+	 */
+	public long getStalenessMillis() {
+		return (System.nanoTime() - caughtUpTimeInNanoSecs) / 1000000;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	@Override
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		return bookStore.getBooks(isbnSet);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	@Override
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		return bookStore.getEditorPicks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		return bookStore.getTopRatedBooks(numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, int numBooks) throws BookStoreException {
+		return bookStore.searchBooks(query, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#queryBooks(com.acertainbookstore.
+	 * business.BookQuery)
+	 */
+	@Override
+	public List<Book> queryBooks(BookQuery query) throws BookStoreException {
+		return bookStore.queryBooks(query);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	@Override
+	public List<StockBook> getBooks() throws BookStoreException {
+		return stockManager.getBooks();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(com.
+	 * acertainbookstore.interfaces.BookRecordWriter)
+	 */
+	@Override
+	public void writeBooks(BookRecordWriter writer) throws BookStoreException {
+		recordSource.writeBooks(writer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookRecordSource#writeBooks(java.util.
+	 * Set, com.acertainbookstore.interfaces.BookRecordWriter)
+	 */
+	@Override
+	public void writeBooks(Set<Integer> isbnSet, BookRecordWriter writer) throws BookStoreException {
+		recordSource.writeBooks(isbnSet, writer);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	@Override
+	public List<StockBook> getBooksByISBN(Set<Integer> isbns) throws BookStoreException {
+		return stockManager.getBooksByISBN(isbns);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return stockManager.getBooksInDemand();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	@Override
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#reserveBooks(java.util.Set,
+	 * long)
+	 */
+	@Override
+	public long reserveBooks(Set<BookCopy> booksToReserve, long ttlMillis) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#confirmReservation(long)
+	 */
+	@Override
+	public void confirmReservation(long reservationId) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#releaseReservation(long)
+	 */
+	@Override
+	public void releaseReservation(long reservationId) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	@Override
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	@Override
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	@Override
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	@Override
+	public void removeAllBooks() throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	@Override
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		throw new BookStoreException(BookStoreErrorCode.READ_ONLY_REPLICA, BookStoreConstants.READ_ONLY_REPLICA);
+	}
+}
@@ -0,0 +1,108 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.acertainbookstore.utils.ReplicationLogEntry;
+
+/**
+ * {@link ReplicationLog} keeps the latest writes of a {@link PrimaryBookStore}
+ * in memory for the replicas to fetch. It holds at most a fixed number of
+ * entries; a replica asking for older ones gets a snapshot instead.
+ */
+final class ReplicationLog {
+
+	/** The maximum number of entries sent in one answer. */
+	private static final int MAX_BATCH_SIZE = 1000;
+
+	/** The maximum number of entries kept. */
+	private final int capacity;
+
+	/** The entries, oldest first. */
+	private final ArrayDeque<ReplicationLogEntry> entries = new ArrayDeque<>();
+
+	/** The version of the latest entry. */
+	private long version = 0;
+
+	/**
+	 * Instantiates a new {@link ReplicationLog}.
+	 *
+	 * @param capacity
+	 *            the maximum number of entries kept
+	 */
+	ReplicationLog(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Gets the version of the latest entry.
+	 *
+	 * @return the version
+	 */
+	synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Appends an entry, giving it the next version, and wakes up the replicas
+	 * waiting for it.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	synchronized void append(ReplicationLogEntry entry) {
+		entry.setVersion(++version);
+		entries.addLast(entry);
+
+		if (entries.size() > capacity) {
+			entries.removeFirst();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Gets the entries after a version, waiting for one if there is none yet.
+	 *
+	 * @param afterVersion
+	 *            the last version the replica applied
+	 * @param timeoutMillis
+	 *            how long to wait for a new entry
+	 * @return the entries, possibly none if the wait timed out, or null if the
+	 *         entries after the version are no longer kept
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	synchronized List<ReplicationLogEntry> awaitEntriesAfter(long afterVersion, long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remainingMillis = timeoutMillis;
+
+		while (version == afterVersion && remainingMillis > 0) {
+			wait(remainingMillis);
+			remainingMillis = deadline - System.currentTimeMillis();
+		}
+
+		long oldestVersion = version - entries.size() + 1;
+
+		if (afterVersion > version || afterVersion + 1 < oldestVersion) {
+			// The replica is ahead of a restarted primary or too far behind
+			return null;
+		}
+
+		List<ReplicationLogEntry> batch = new ArrayList<>();
+
+		for (ReplicationLogEntry entry : entries) {
+			if (entry.getVersion() > afterVersion) {
+				batch.add(entry);
+
+				if (batch.size() == MAX_BATCH_SIZE) {
+					break;
+				}
+			}
+		}
+
+		return batch;
+	}
+}
@@ -0,0 +1,200 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.interfaces.BookRecordSource;
+import com.acertainbookstore.interfaces.BookRecordWriter;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * {@link BookRecordBuffer} holds the books a {@link BookRecordSource} wrote as
+ * records in the binary format of Kryo, so that a response lists them without
+ * a copy of every book as an object. The buffer is a list to the response
+ * holding it; {@link RecordSerializer} writes the records as they are and
+ * reads them back as a list of {@link ImmutableBook} and
+ * {@link ImmutableStockBook}.
+ *
+ * @see BookStoreKryoSerializer
+ */
+public final class BookRecordBuffer extends AbstractList<Book> implements BookRecordWriter {
+
+	/** The Constant INITIAL_CAPACITY, the bytes of a new buffer. */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	/** The Constant EXPECTED_RECORD_SIZE, the bytes reserved per record. */
+	private static final int EXPECTED_RECORD_SIZE = 48;
+
+	/** The records. */
+	private final Output output = new Output(INITIAL_CAPACITY, -1);
+
+	/** The number of records. */
+	private int size = 0;
+
+	/** The books of the records, decoded at the first access. */
+	private List<Book> books = null;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookRecordWriter#start(int)
+	 */
+	@Override
+	public void start(int numBooks) {
+		long expectedCapacity = (long) numBooks * EXPECTED_RECORD_SIZE;
+
+		// Reserves the records at once, rather than copying them as it grows
+		if (output.getBuffer().length < expectedCapacity) {
+			output.setBuffer(new byte[(int) Math.min(expectedCapacity, Integer.MAX_VALUE - 8)], -1);
+		}
+
+		output.setPosition(0);
+		size = numBooks;
+		books = null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookRecordWriter#writeBook(int,
+	 * java.lang.String, java.lang.String, float)
+	 */
+	@Override
+	public void writeBook(int isbn, String title, String author, float price) {
+		output.writeBoolean(false);
+		writeBookFields(isbn, title, author, price);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookRecordWriter#writeStockBook(int,
+	 * java.lang.String, java.lang.String, float, int, long, long, long,
+	 * boolean)
+	 */
+	@Override
+	public void writeStockBook(int isbn, String title, String author, float price, int numCopies, long numSaleMisses,
+			long numTimesRated, long totalRating, boolean editorPick) {
+		output.writeBoolean(true);
+		writeBookFields(isbn, title, author, price);
+		output.writeVarInt(numCopies, true);
+		output.writeVarLong(numSaleMisses, true);
+		output.writeVarLong(numTimesRated, true);
+		output.writeVarLong(totalRating, true);
+		output.writeBoolean(editorPick);
+	}
+
+	/**
+	 * Gets the bytes the buffer holds, to tell whether to keep it for the
+	 * next response.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return output.getBuffer().length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractList#get(int)
+	 */
+	@Override
+	public Book get(int index) {
+		// Only a response serialized by other means reads the books
+		if (books == null) {
+			books = readRecords(new Input(output.getBuffer(), 0, output.position()), size);
+		}
+
+		return books.get(index);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the fields every record starts with.
+	 */
+	private void writeBookFields(int isbn, String title, String author, float price) {
+		output.writeVarInt(isbn, true);
+		output.writeString(title);
+		output.writeString(author);
+		output.writeFloat(price);
+	}
+
+	/**
+	 * Reads records into books.
+	 *
+	 * @param input
+	 *            the input, at the first record
+	 * @param numBooks
+	 *            the number of records
+	 * @return the books
+	 */
+	private static List<Book> readRecords(Input input, int numBooks) {
+		List<Book> books = new ArrayList<>(numBooks);
+
+		for (int i = 0; i < numBooks; i++) {
+			boolean stockBook = input.readBoolean();
+			int isbn = input.readVarInt(true);
+			String title = input.readString();
+			String author = input.readString();
+			float price = input.readFloat();
+
+			if (stockBook) {
+				books.add(new ImmutableStockBook(isbn, title, author, price, input.readVarInt(true),
+						input.readVarLong(true), input.readVarLong(true), input.readVarLong(true),
+						input.readBoolean()));
+			} else {
+				books.add(new ImmutableBook(isbn, title, author, price));
+			}
+		}
+
+		return books;
+	}
+
+	/**
+	 * {@link RecordSerializer} writes a {@link BookRecordBuffer} as its number
+	 * of records and the records, and reads it back as a list of books.
+	 */
+	static final class RecordSerializer extends Serializer<List<Book>> {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.esotericsoftware.kryo.Serializer#write(com.esotericsoftware.
+		 * kryo.Kryo, com.esotericsoftware.kryo.io.Output, java.lang.Object)
+		 */
+		@Override
+		public void write(Kryo kryo, Output output, List<Book> object) {
+			BookRecordBuffer records = (BookRecordBuffer) object;
+			output.writeVarInt(records.size, true);
+			output.writeBytes(records.output.getBuffer(), 0, records.output.position());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see com.esotericsoftware.kryo.Serializer#read(com.esotericsoftware.
+		 * kryo.Kryo, com.esotericsoftware.kryo.io.Input, java.lang.Class)
+		 */
+		@Override
+		public List<Book> read(Kryo kryo, Input input, Class<List<Book>> type) {
+			return readRecords(input, input.readVarInt(true));
+		}
+	}
+}
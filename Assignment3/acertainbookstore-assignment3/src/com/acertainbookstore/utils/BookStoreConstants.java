@@ -19,6 +19,27 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant QUERY_PARAM of a search. */
+	public static final String QUERY_PARAM = "query";
+
+	/** The Constant TRANSACTION_PARAM. */
+	public static final String TRANSACTION_PARAM = "transaction_id";
+
+	/** The Constant RESERVATION_PARAM. */
+	public static final String RESERVATION_PARAM = "reservation_id";
+
+	/** The Constant TTL_PARAM in milliseconds of a reservation. */
+	public static final String TTL_PARAM = "ttl";
+
+	/** The Constant VERSION_PARAM, the last version a replica applied. */
+	public static final String VERSION_PARAM = "version";
+
+	/** The Constant MIN_VERSION_PARAM of a read from a replica. */
+	public static final String MIN_VERSION_PARAM = "min_version";
+
+	/** The Constant MAX_STALENESS_PARAM in milliseconds of a read from a replica. */
+	public static final String MAX_STALENESS_PARAM = "max_staleness";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -51,6 +72,24 @@ public final class BookStoreConstants {
 	/** The Constant RATING. */
 	public static final String RATING = "The rating: ";
 
+	/** The Constant QUERY. */
+	public static final String QUERY = "The query: ";
+
+	/** The Constant TRANSACTION. */
+	public static final String TRANSACTION = "The transaction: ";
+
+	/** The Constant RESERVATION. */
+	public static final String RESERVATION = "The reservation: ";
+
+	/** The Constant TTL. */
+	public static final String TTL = "The time to live: ";
+
+	/** The Constant READ_ONLY_REPLICA. */
+	public static final String READ_ONLY_REPLICA = "The replica is read only";
+
+	/** The Constant REPLICA_BEHIND. */
+	public static final String REPLICA_BEHIND = "The replica is behind the requested consistency";
+
 	/** The Constant NULL_INPUT. */
 	public static final String NULL_INPUT = "null input parameters";
 
@@ -60,6 +99,192 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_SERVERS, a comma separated list of shard addresses. */
+	public static final String PROPERTY_KEY_SERVERS = "servers";
+
+	/** The Constant PROPERTY_KEY_DECISION_LOG of the coordinator of the sharded purchases. */
+	public static final String PROPERTY_KEY_DECISION_LOG = "decisionlog";
+
+	/** The Constant PROPERTY_KEY_ROLE of a server, standalone, primary or replica. */
+	public static final String PROPERTY_KEY_ROLE = "role";
+
+	/** The Constant PROPERTY_KEY_PRIMARY, the address of the primary of a replica. */
+	public static final String PROPERTY_KEY_PRIMARY = "primary";
+
+	/** The Constant PROPERTY_KEY_REPLICAS, a comma separated list of replica addresses. */
+	public static final String PROPERTY_KEY_REPLICAS = "replicas";
+
+	/** The Constant PROPERTY_KEY_READ_CONSISTENCY of the reads from replicas. */
+	public static final String PROPERTY_KEY_READ_CONSISTENCY = "consistency";
+
+	/** The Constant PROPERTY_KEY_MAX_STALENESS in milliseconds of the reads from replicas. */
+	public static final String PROPERTY_KEY_MAX_STALENESS = "staleness";
+
+	/** The Constant PROPERTY_KEY_ENGINE. */
+	public static final String PROPERTY_KEY_ENGINE = "engine";
+
+	/** The Constant PROPERTY_KEY_MAX_THREADPOOL_SIZE. */
+	public static final String PROPERTY_KEY_MAX_THREADPOOL_SIZE = "threadpool.max";
+
+	/** The Constant PROPERTY_KEY_SCAN_THRESHOLD, the books from which the engines scan in parallel. */
+	public static final String PROPERTY_KEY_SCAN_THRESHOLD = "scan.threshold";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_MODE. */
+	public static final String PROPERTY_KEY_WORKLOAD_MODE = "workload.mode";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_RATE. */
+	public static final String PROPERTY_KEY_WORKLOAD_RATE = "workload.rate";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_DURATION in seconds. */
+	public static final String PROPERTY_KEY_WORKLOAD_DURATION = "workload.duration";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_THREADS. */
+	public static final String PROPERTY_KEY_WORKLOAD_THREADS = "workload.threads";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_ENGINE used in local tests. */
+	public static final String PROPERTY_KEY_WORKLOAD_ENGINE = "workload.engine";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_DISTRIBUTION of the books bought. */
+	public static final String PROPERTY_KEY_WORKLOAD_DISTRIBUTION = "workload.distribution";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_SKEW of the Zipfian distribution. */
+	public static final String PROPERTY_KEY_WORKLOAD_SKEW = "workload.skew";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_HOT_SET, the fraction of hot books. */
+	public static final String PROPERTY_KEY_WORKLOAD_HOT_SET = "workload.hotset";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_HOT_ACCESS, the fraction of hot draws. */
+	public static final String PROPERTY_KEY_WORKLOAD_HOT_ACCESS = "workload.hotaccess";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_SHIFT, the draws before the hot set moves. */
+	public static final String PROPERTY_KEY_WORKLOAD_SHIFT = "workload.shift";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_SEED of the workers and the generated books. */
+	public static final String PROPERTY_KEY_WORKLOAD_SEED = "workload.seed";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_RECORD, the trace file to record to. */
+	public static final String PROPERTY_KEY_WORKLOAD_RECORD = "workload.record";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_REPLAY, the trace file to replay. */
+	public static final String PROPERTY_KEY_WORKLOAD_REPLAY = "workload.replay";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_SPEED_UP of a replay, 0 for full speed. */
+	public static final String PROPERTY_KEY_WORKLOAD_SPEED_UP = "workload.speedup";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_AGENTS, the number of agents of a coordinator. */
+	public static final String PROPERTY_KEY_WORKLOAD_AGENTS = "workload.agents";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_AGENTS_SPAWN, whether the coordinator starts its agents. */
+	public static final String PROPERTY_KEY_WORKLOAD_AGENTS_SPAWN = "workload.agents.spawn";
+
+	/** The Constant PROPERTY_KEY_WORKLOAD_COORDINATOR, the host:port of the coordinator. */
+	public static final String PROPERTY_KEY_WORKLOAD_COORDINATOR = "workload.coordinator";
+
+	/** The Constant PROPERTY_KEY_TWOPC_SHARDS, the shards of the distributed purchases. */
+	public static final String PROPERTY_KEY_TWOPC_SHARDS = "twopc.shards";
+
+	/** The Constant PROPERTY_KEY_TWOPC_THREADS, a comma separated list. */
+	public static final String PROPERTY_KEY_TWOPC_THREADS = "twopc.threads";
+
+	/** The Constant PROPERTY_KEY_TWOPC_DURATION in seconds of every point. */
+	public static final String PROPERTY_KEY_TWOPC_DURATION = "twopc.duration";
+
+	/** The Constant PROPERTY_KEY_TWOPC_ENGINE of the stores. */
+	public static final String PROPERTY_KEY_TWOPC_ENGINE = "twopc.engine";
+
+	/** The Constant PROPERTY_KEY_TWOPC_PORT, the first port of the servers. */
+	public static final String PROPERTY_KEY_TWOPC_PORT = "twopc.port";
+
+	/** The Constant PROPERTY_KEY_RESERVATION_THREADS, a comma separated list. */
+	public static final String PROPERTY_KEY_RESERVATION_THREADS = "reservation.threads";
+
+	/** The Constant PROPERTY_KEY_RESERVATION_DURATION in seconds of every point. */
+	public static final String PROPERTY_KEY_RESERVATION_DURATION = "reservation.duration";
+
+	/** The Constant PROPERTY_KEY_RESERVATION_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_RESERVATION_ENGINES = "reservation.engines";
+
+	/** The Constant PROPERTY_KEY_RESERVATION_TTL in milliseconds of the reservations. */
+	public static final String PROPERTY_KEY_RESERVATION_TTL = "reservation.ttl";
+
+	/** The Constant PROPERTY_KEY_READERS_THREADS, a comma separated list. */
+	public static final String PROPERTY_KEY_READERS_THREADS = "readers.threads";
+
+	/** The Constant PROPERTY_KEY_READERS_WRITERS, the writer threads running alongside. */
+	public static final String PROPERTY_KEY_READERS_WRITERS = "readers.writers";
+
+	/** The Constant PROPERTY_KEY_READERS_DURATION in seconds of every point. */
+	public static final String PROPERTY_KEY_READERS_DURATION = "readers.duration";
+
+	/** The Constant PROPERTY_KEY_READERS_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_READERS_ENGINES = "readers.engines";
+
+	/** The Constant PROPERTY_KEY_ALLOCATION_CALLS, the measured calls of every point. */
+	public static final String PROPERTY_KEY_ALLOCATION_CALLS = "allocation.calls";
+
+	/** The Constant PROPERTY_KEY_ALLOCATION_BOOKS, a comma separated list of books per purchase. */
+	public static final String PROPERTY_KEY_ALLOCATION_BOOKS = "allocation.books";
+
+	/** The Constant PROPERTY_KEY_ALLOCATION_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_ALLOCATION_ENGINES = "allocation.engines";
+
+	/** The Constant PROPERTY_KEY_SCAN_SIZES, a comma separated list of catalog sizes. */
+	public static final String PROPERTY_KEY_SCAN_SIZES = "scan.sizes";
+
+	/** The Constant PROPERTY_KEY_SCAN_CALLS, the measured calls of every point. */
+	public static final String PROPERTY_KEY_SCAN_CALLS = "scan.calls";
+
+	/** The Constant PROPERTY_KEY_SCAN_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_SCAN_ENGINES = "scan.engines";
+
+	/** The Constant PROPERTY_KEY_SEARCH_SIZES, a comma separated list of catalog sizes. */
+	public static final String PROPERTY_KEY_SEARCH_SIZES = "search.sizes";
+
+	/** The Constant PROPERTY_KEY_SEARCH_CALLS, the measured searches of every point. */
+	public static final String PROPERTY_KEY_SEARCH_CALLS = "search.calls";
+
+	/** The Constant PROPERTY_KEY_SEARCH_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_SEARCH_ENGINES = "search.engines";
+
+	/** The Constant PROPERTY_KEY_MEMORY_BOOKS, the books of the catalog. */
+	public static final String PROPERTY_KEY_MEMORY_BOOKS = "memory.books";
+
+	/** The Constant PROPERTY_KEY_MEMORY_AUTHORS, the distinct authors of the catalog. */
+	public static final String PROPERTY_KEY_MEMORY_AUTHORS = "memory.authors";
+
+	/** The Constant PROPERTY_KEY_MEMORY_CALLS, the measured getBooks calls. */
+	public static final String PROPERTY_KEY_MEMORY_CALLS = "memory.calls";
+
+	/** The Constant PROPERTY_KEY_MEMORY_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_MEMORY_ENGINES = "memory.engines";
+
+	/** The Constant PROPERTY_KEY_ROUTER_CALLS, the measured lookups per path. */
+	public static final String PROPERTY_KEY_ROUTER_CALLS = "router.calls";
+
+	/** The Constant PROPERTY_KEY_SWEEP_ENGINES, a comma separated list. */
+	public static final String PROPERTY_KEY_SWEEP_ENGINES = "sweep.engines";
+
+	/** The Constant PROPERTY_KEY_SWEEP_THREADS, a comma separated list. */
+	public static final String PROPERTY_KEY_SWEEP_THREADS = "sweep.threads";
+
+	/** The Constant PROPERTY_KEY_SWEEP_CATALOGS, a comma separated list of sizes. */
+	public static final String PROPERTY_KEY_SWEEP_CATALOGS = "sweep.catalogs";
+
+	/** The Constant PROPERTY_KEY_SWEEP_MIXES, a comma separated list of rare/frequent stock manager percentages. */
+	public static final String PROPERTY_KEY_SWEEP_MIXES = "sweep.mixes";
+
+	/** The Constant PROPERTY_KEY_SWEEP_TRANSPORTS, local and/or http. */
+	public static final String PROPERTY_KEY_SWEEP_TRANSPORTS = "sweep.transports";
+
+	/** The Constant PROPERTY_KEY_SWEEP_RUNS per worker and point. */
+	public static final String PROPERTY_KEY_SWEEP_RUNS = "sweep.runs";
+
+	/** The Constant PROPERTY_KEY_SWEEP_PORT of the servers started for http. */
+	public static final String PROPERTY_KEY_SWEEP_PORT = "sweep.port";
+
+	/** The Constant PROPERTY_KEY_SWEEP_OUTPUT directory of the CSV and charts. */
+	public static final String PROPERTY_KEY_SWEEP_OUTPUT = "sweep.output";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,30 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link BookStoreErrorCode} is the kind of a {@link BookStoreException}. The
+ * server sends the code and the message of a failure to the client, which
+ * tells the failures apart by their codes.
+ */
+public enum BookStoreErrorCode {
+
+	/** The request is invalid, e.g. a null input or an invalid ISBN. */
+	INVALID_REQUEST,
+
+	/** A book, ISBN or reservation of the request is not in the store. */
+	NOT_FOUND,
+
+	/** The store has too few copies of a book, a sale miss. */
+	NOT_AVAILABLE,
+
+	/** The request writes to a read only replica. */
+	READ_ONLY_REPLICA,
+
+	/** The replica is behind the consistency the request asks for. */
+	REPLICA_BEHIND,
+
+	/** The store does not support the request. */
+	UNSUPPORTED,
+
+	/** The request failed for a reason outside the store, e.g. an I/O error. */
+	INTERNAL_ERROR;
+}
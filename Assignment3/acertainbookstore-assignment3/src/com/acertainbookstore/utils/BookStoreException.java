@@ -1,49 +1,95 @@
 package com.acertainbookstore.utils;
 
 /**
- * {@link BookStoreException} signals a book store error.
+ * {@link BookStoreException} signals a book store error. A store refusing a
+ * request, e.g. for a sale miss, throws it without a stack trace, which would
+ * cost more than the request; only a failure with a cause, which is rare and
+ * outside the store, records one.
  */
 public class BookStoreException extends Exception {
 
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 1L;
 
+	/** The error code. */
+	private final BookStoreErrorCode errorCode;
+
 	/**
 	 * Instantiates a new {@link BookStoreException}.
 	 */
 	public BookStoreException() {
-		super();
+		this(BookStoreErrorCode.INVALID_REQUEST, null);
 	}
 
 	/**
-	 * Instantiates a new {@link BookStoreException}.
+	 * Instantiates a new {@link BookStoreException} for an invalid request.
 	 *
 	 * @param message
 	 *            the message
 	 */
 	public BookStoreException(String message) {
-		super(message);
+		this(BookStoreErrorCode.INVALID_REQUEST, message);
 	}
 
 	/**
 	 * Instantiates a new {@link BookStoreException}.
 	 *
+	 * @param errorCode
+	 *            the error code
+	 * @param message
+	 *            the message
+	 */
+	public BookStoreException(BookStoreErrorCode errorCode, String message) {
+		super(message, null, false, false);
+		this.errorCode = errorCode;
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreException} for an internal error.
+	 *
 	 * @param message
 	 *            the message
 	 * @param cause
 	 *            the cause
 	 */
 	public BookStoreException(String message, Throwable cause) {
-		super(message, cause);
+		this(BookStoreErrorCode.INTERNAL_ERROR, message, cause);
 	}
 
 	/**
 	 * Instantiates a new {@link BookStoreException}.
 	 *
+	 * @param errorCode
+	 *            the error code
+	 * @param message
+	 *            the message
+	 * @param cause
+	 *            the cause
+	 */
+	public BookStoreException(BookStoreErrorCode errorCode, String message, Throwable cause) {
+		super(message, cause);
+		this.errorCode = errorCode;
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreException} for an internal error, or
+	 * with the code of the cause if it is a {@link BookStoreException}.
+	 *
 	 * @param ex
 	 *            the exception
 	 */
 	public BookStoreException(Throwable ex) {
 		super(ex);
+		this.errorCode = (ex instanceof BookStoreException) ? ((BookStoreException) ex).getErrorCode()
+				: BookStoreErrorCode.INTERNAL_ERROR;
+	}
+
+	/**
+	 * Gets the error code.
+	 *
+	 * @return the error code
+	 */
+	public BookStoreErrorCode getErrorCode() {
+		return errorCode;
 	}
 }
@@ -0,0 +1,265 @@
+package com.acertainbookstore.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link BookStoreHistogram} records non-negative values, such as latencies in
+ * nanoseconds or sizes in bytes, into log-linear buckets in the style of
+ * HdrHistogram. Every power of two is split into {@value #SUB_BUCKET_COUNT}
+ * buckets, so reported values are within about 3% of the recorded ones.
+ * Recording is thread-safe, lock-free and does not allocate.
+ */
+public final class BookStoreHistogram {
+
+	/** The Constant SUB_BUCKET_BITS. */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** The Constant SUB_BUCKET_COUNT, the buckets per power of two. */
+	public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** The Constant LINEAR_LIMIT below which every value has its own bucket. */
+	private static final long LINEAR_LIMIT = 2L * SUB_BUCKET_COUNT;
+
+	/** The Constant BUCKET_COUNT covering the whole range of long. */
+	private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE) + 1;
+
+	/** The bucket counts. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/** The number of recorded values. */
+	private final AtomicLong totalCount = new AtomicLong();
+
+	/** The sum of the recorded values. */
+	private final AtomicLong totalSum = new AtomicLong();
+
+	/** The largest recorded value. */
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	public void record(long value) {
+		long nonNegativeValue = Math.max(value, 0);
+
+		counts.incrementAndGet(bucketIndex(nonNegativeValue));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(nonNegativeValue);
+		updateMax(nonNegativeValue);
+	}
+
+	/**
+	 * Adds the values recorded by another histogram to this one.
+	 *
+	 * @param other
+	 *            the other histogram
+	 */
+	public void add(BookStoreHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long count = other.counts.get(i);
+
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+
+		totalCount.addAndGet(other.totalCount.get());
+		totalSum.addAndGet(other.totalSum.get());
+		updateMax(other.maxValue.get());
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 *
+	 * @return the max
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 *
+	 * @return the mean, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Gets the value at the given percentile, i.e. the highest value
+	 * equivalent to the bucket in which the percentile falls. Concurrent
+	 * recordings may or may not be reflected.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the value, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Writes the recorded values, only the non-empty buckets being written.
+	 * Concurrent recordings may or may not be reflected.
+	 *
+	 * @param out
+	 *            the output
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(DataOutput out) throws IOException {
+		int nonEmptyBuckets = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (counts.get(i) != 0) {
+				nonEmptyBuckets++;
+			}
+		}
+
+		out.writeLong(totalCount.get());
+		out.writeLong(totalSum.get());
+		out.writeLong(maxValue.get());
+		out.writeInt(nonEmptyBuckets);
+
+		for (int i = 0, written = 0; i < BUCKET_COUNT && written < nonEmptyBuckets; i++) {
+			long count = counts.get(i);
+
+			if (count != 0) {
+				out.writeInt(i);
+				out.writeLong(count);
+				written++;
+			}
+		}
+	}
+
+	/**
+	 * Reads a histogram written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 *            the input
+	 * @return the histogram
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static BookStoreHistogram read(DataInput in) throws IOException {
+		BookStoreHistogram histogram = new BookStoreHistogram();
+		histogram.totalCount.set(in.readLong());
+		histogram.totalSum.set(in.readLong());
+		histogram.maxValue.set(in.readLong());
+		int nonEmptyBuckets = in.readInt();
+
+		for (int i = 0; i < nonEmptyBuckets; i++) {
+			int bucket = in.readInt();
+
+			if (bucket < 0 || bucket >= BUCKET_COUNT) {
+				throw new IOException("Invalid histogram bucket " + bucket);
+			}
+
+			histogram.counts.set(bucket, in.readLong());
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Raises the largest recorded value to the given one, if it is larger.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	private void updateMax(long value) {
+		long currentMax = maxValue.get();
+
+		while (value > currentMax && !maxValue.compareAndSet(currentMax, value)) {
+			currentMax = maxValue.get();
+		}
+	}
+
+	/**
+	 * Gets the bucket a non-negative value falls into.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the bucket index
+	 */
+	private static int bucketIndex(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return (int) LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * Gets the highest value that falls into a bucket.
+	 *
+	 * @param index
+	 *            the bucket index
+	 * @return the value
+	 */
+	private static long highestEquivalentValue(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+
+		int offset = index - (int) LINEAR_LIMIT;
+		int shift = offset / SUB_BUCKET_COUNT + 1;
+		long mantissa = SUB_BUCKET_COUNT + offset % SUB_BUCKET_COUNT;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
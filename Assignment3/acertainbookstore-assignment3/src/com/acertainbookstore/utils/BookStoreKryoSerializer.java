@@ -8,6 +8,7 @@ import java.io.OutputStream;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import org.objenesis.strategy.StdInstantiatorStrategy;
@@ -20,9 +21,21 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
  */
 public final class BookStoreKryoSerializer implements BookStoreSerializer {
 
+	/** The Constant OUTPUT_BUFFER_SIZE, the bytes written to a stream at once. */
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+	/** The Constant MAX_RETAINED_CAPACITY, the largest buffer kept between responses. */
+	private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
 	/** The binary stream. */
 	private final Kryo binaryStream;
 
+	/** The output written to the response, its buffer kept between responses. */
+	private final Output streamOutput = new Output(OUTPUT_BUFFER_SIZE);
+
+	/** The buffer of the books of the next response, null until one is needed. */
+	private BookRecordBuffer recordBuffer = null;
+
 	/**
 	 * Instantiates a new {@link BookStoreKryoSerializer}.
 	 */
@@ -30,6 +43,23 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
 		binaryStream.register(ImmutableStockBook.class);
+		binaryStream.register(BookRecordBuffer.class, new BookRecordBuffer.RecordSerializer());
+	}
+
+	/**
+	 * Gets the buffer the books of the next response are written into. The
+	 * serializer keeps one buffer, since a thread serializes one response at
+	 * a time, unless a large response grew it past
+	 * {@link #MAX_RETAINED_CAPACITY}.
+	 *
+	 * @return the buffer
+	 */
+	public BookRecordBuffer getRecordBuffer() {
+		if (recordBuffer == null) {
+			recordBuffer = new BookRecordBuffer();
+		}
+
+		return recordBuffer;
 	}
 
 	/*
@@ -48,6 +78,35 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object, java.io.OutputStream)
+	 */
+	@Override
+	public void serialize(Object object, OutputStream outStream) throws IOException {
+		streamOutput.setOutputStream(outStream);
+		try {
+			binaryStream.writeClassAndObject(streamOutput, object);
+			streamOutput.flush();
+		} catch (KryoException ex) {
+			// Output wraps the errors of the stream
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+
+			throw ex;
+		} finally {
+			streamOutput.setOutputStream(null);
+
+			if (recordBuffer != null && recordBuffer.capacity() > MAX_RETAINED_CAPACITY) {
+				recordBuffer = null;
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
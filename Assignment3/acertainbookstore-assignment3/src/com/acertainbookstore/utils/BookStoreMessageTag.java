@@ -34,5 +34,44 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the top rated books message. */
+	GETTOPRATEDBOOKS,
+
+	/** The tag for the books in demand message. */
+	GETBOOKSINDEMAND,
+
+	/** The tag for the prepare buy books message of a transaction. */
+	PREPAREBUYBOOKS,
+
+	/** The tag for the commit transaction message. */
+	COMMITTRANSACTION,
+
+	/** The tag for the abort transaction message. */
+	ABORTTRANSACTION,
+
+	/** The tag for the prepared transactions message. */
+	GETPREPAREDTRANSACTIONS,
+
+	/** The tag for the replication log message of a replica. */
+	GETREPLICATIONLOG,
+
+	/** The tag for the search books message. */
+	SEARCHBOOKS,
+
+	/** The tag for the query books message. */
+	QUERYBOOKS,
+
+	/** The tag for the reserve books message. */
+	RESERVEBOOKS,
+
+	/** The tag for the confirm reservation message. */
+	CONFIRMRESERVATION,
+
+	/** The tag for the release reservation message. */
+	RELEASERESERVATION;
 }
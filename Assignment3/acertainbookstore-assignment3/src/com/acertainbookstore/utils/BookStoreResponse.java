@@ -7,16 +7,23 @@ import com.acertainbookstore.business.Book;
 /**
  * {@link BookStoreResponse} is the data structure that encapsulates a HTTP
  * response from the bookstore server to the client. The data structure contains
- * error messages from the server if an error occurred.
+ * the error code and message from the server if an error occurred, rather than
+ * the exception, which the client only builds when it throws it.
  */
 public class BookStoreResponse {
 
-	/** The exception. */
-	private BookStoreException exception;
+	/** The error code, null if no error occurred. */
+	private BookStoreErrorCode errorCode;
+
+	/** The error message. */
+	private String errorMessage;
 
 	/** The list. */
 	private List<?> list;
 
+	/** The version of the store, 0 if it is not versioned. */
+	private long version;
+
 	/**
 	 * Instantiates a new {@link BookStoreResponse}.
 	 *
@@ -58,21 +65,51 @@ public class BookStoreResponse {
 	}
 
 	/**
-	 * Gets the exception.
+	 * Gets the exception, built from the error code and message.
 	 *
-	 * @return the exception
+	 * @return the exception, null if no error occurred
 	 */
 	public BookStoreException getException() {
-		return exception;
+		return (errorCode != null) ? new BookStoreException(errorCode, errorMessage) : null;
 	}
 
 	/**
-	 * Sets the exception.
+	 * Sets the exception, of which the response keeps the error code and
+	 * message.
 	 *
 	 * @param exception
 	 *            the new exception
 	 */
 	public void setException(BookStoreException exception) {
-		this.exception = exception;
+		this.errorCode = (exception != null) ? exception.getErrorCode() : null;
+		this.errorMessage = (exception != null) ? exception.getMessage() : null;
+	}
+
+	/**
+	 * Gets the error code.
+	 *
+	 * @return the error code, null if no error occurred
+	 */
+	public BookStoreErrorCode getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * Gets the version of the store when the request was served.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the version of the store.
+	 *
+	 * @param version
+	 *            the new version
+	 */
+	public void setVersion(long version) {
+		this.version = version;
 	}
 }
@@ -10,7 +10,9 @@ import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 
+import com.acertainbookstore.business.BookQuery;
 import com.acertainbookstore.client.BookStoreClientConstants;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.thoughtworks.xstream.XStream;
@@ -72,6 +74,19 @@ public final class BookStoreUtility {
 		return copies < 1;
 	}
 
+	/**
+	 * Checks if is invalid query, i.e. its price range is empty or not a
+	 * range of numbers, it has no order, or a negative limit.
+	 *
+	 * @param query
+	 *            the query
+	 * @return true, if is invalid query
+	 */
+	public static boolean isInvalidQuery(BookQuery query) {
+		return !(query.getMinPrice() <= query.getMaxPrice()) || Float.isNaN(query.getMinAverageRating())
+				|| query.getOrder() == null || query.getLimit() < 0;
+	}
+
 	/**
 	 * Checks if a string is empty or null.
 	 *
@@ -128,26 +143,6 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
-	/**
-	 * Convert a request URI to the message tags supported in CertainBookStore.
-	 *
-	 * @param requestURI
-	 *            the request URI
-	 * @return the book store message tag
-	 */
-	public static BookStoreMessageTag convertURItoMessageTag(String requestURI) {
-
-		try {
-			return BookStoreMessageTag.valueOf(requestURI.substring(1).toUpperCase());
-		} catch (IllegalArgumentException | NullPointerException ex) {
-			// Enumeration type matching failed so non supported message or the
-			// request URI was empty.
-			System.err.println(ex.getStackTrace());
-		}
-
-		return null;
-	}
-
 	/**
 	 * Perform HTTP exchange.
 	 *
@@ -197,6 +192,12 @@ public final class BookStoreUtility {
 			throw new BookStoreException(BookStoreClientConstants.STR_ERR_CLIENT_REQUEST_EXCEPTION, ex);
 		}
 
+		// The server has no route for the path, and answers with no content
+		if (response.getStatus() == HttpStatus.NOT_FOUND_404) {
+			throw new BookStoreException(BookStoreErrorCode.UNSUPPORTED,
+					bookStoreRequest.getURLString() + BookStoreConstants.NOT_AVAILABLE);
+		}
+
 		BookStoreResponse bookStoreResponse;
 
 		try {
@@ -0,0 +1,180 @@
+package com.acertainbookstore.utils;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+
+/**
+ * {@link ReplicationLogEntry} is a write applied by the primary, shipped to
+ * the replicas to be applied in the same order. A {@link Operation#RESTORE}
+ * entry carries a snapshot of the whole store instead, for a replica too far
+ * behind to catch up from the log.
+ */
+public class ReplicationLogEntry {
+
+	/**
+	 * The operations of the entries.
+	 */
+	public enum Operation {
+
+		/** Adds books, the argument is a set of stock books. */
+		ADD_BOOKS,
+
+		/** Adds copies, the argument is a set of book copies. */
+		ADD_COPIES,
+
+		/** Updates editor picks, the argument is a set of editor picks. */
+		UPDATE_EDITOR_PICKS,
+
+		/** Buys books, the argument is a set of book copies. */
+		BUY_BOOKS,
+
+		/** Rates books, the argument is a set of ratings. */
+		RATE_BOOKS,
+
+		/** Removes books, the argument is a set of ISBNs. */
+		REMOVE_BOOKS,
+
+		/** Removes all books. */
+		REMOVE_ALL_BOOKS,
+
+		/** Prepares a purchase of a transaction, the argument is a set of book copies. */
+		PREPARE_BUY_BOOKS,
+
+		/** Commits a transaction. */
+		COMMIT_TRANSACTION,
+
+		/** Aborts a transaction. */
+		ABORT_TRANSACTION,
+
+		/** Replaces the store, the argument is the list of its stock books. */
+		RESTORE;
+	}
+
+	/** The version of the primary after the entry. */
+	private long version;
+
+	/** The operation. */
+	private Operation operation;
+
+	/** The argument of the operation. */
+	private Object argument;
+
+	/** The transaction id of a transaction operation. */
+	private String transactionId;
+
+	/** The prepared purchases of a restore. */
+	private Map<String, Set<BookCopy>> preparedPurchases;
+
+	/**
+	 * Instantiates a new {@link ReplicationLogEntry}.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param argument
+	 *            the argument
+	 * @param transactionId
+	 *            the transaction id, or null
+	 */
+	public ReplicationLogEntry(Operation operation, Object argument, String transactionId) {
+		this.setOperation(operation);
+		this.setArgument(argument);
+		this.setTransactionId(transactionId);
+	}
+
+	/**
+	 * Gets the version.
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the version.
+	 *
+	 * @param version
+	 *            the new version
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Gets the operation.
+	 *
+	 * @return the operation
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * Sets the operation.
+	 *
+	 * @param operation
+	 *            the new operation
+	 */
+	public void setOperation(Operation operation) {
+		this.operation = operation;
+	}
+
+	/**
+	 * Gets the argument.
+	 *
+	 * @return the argument
+	 */
+	public Object getArgument() {
+		return argument;
+	}
+
+	/**
+	 * Sets the argument.
+	 *
+	 * @param argument
+	 *            the new argument
+	 */
+	public void setArgument(Object argument) {
+		this.argument = argument;
+	}
+
+	/**
+	 * Gets the transaction id.
+	 *
+	 * @return the transaction id
+	 */
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * Sets the transaction id.
+	 *
+	 * @param transactionId
+	 *            the new transaction id
+	 */
+	public void setTransactionId(String transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	/**
+	 * Gets the prepared purchases.
+	 *
+	 * @return the prepared purchases
+	 */
+	public Map<String, Set<BookCopy>> getPreparedPurchases() {
+		return preparedPurchases;
+	}
+
+	/**
+	 * Sets the prepared purchases.
+	 *
+	 * @param preparedPurchases
+	 *            the prepared purchases
+	 */
+	public void setPreparedPurchases(Map<String, Set<BookCopy>> preparedPurchases) {
+		this.preparedPurchases = preparedPurchases;
+	}
+}
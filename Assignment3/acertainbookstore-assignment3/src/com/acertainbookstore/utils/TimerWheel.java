@@ -0,0 +1,163 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link TimerWheel} is a hashed timing wheel: a ring of slots, each a list of
+ * the items due in one tick, or in that tick plus a multiple of the number of
+ * slots. Scheduling an item and expiring the items due cost O(1) per item,
+ * however many items are pending, unlike a priority queue. Items are never
+ * expired early, and at most one tick late plus the time between two calls to
+ * {@link #advance(long, Consumer)}.
+ *
+ * Items cannot be cancelled; an owner that keeps its own record of the live
+ * items simply ignores the expiry of items it no longer holds.
+ *
+ * @param <T>
+ *            the type of the items
+ */
+public final class TimerWheel<T> {
+
+	/** The duration of a tick in nanoseconds. */
+	private final long tickNanos;
+
+	/** The slots. */
+	private final List<LinkedList<Entry<T>>> slots;
+
+	/** The time in nanoseconds of tick 0. */
+	private final long startNanos;
+
+	/** The last tick expired. */
+	private long currentTick = 0;
+
+	/** The number of pending items. */
+	private int size = 0;
+
+	/**
+	 * An item and the tick it is due at.
+	 *
+	 * @param <T>
+	 *            the type of the item
+	 */
+	private static final class Entry<T> {
+
+		/** The item. */
+		private final T item;
+
+		/** The tick the item is due at. */
+		private final long deadlineTick;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param item
+		 *            the item
+		 * @param deadlineTick
+		 *            the tick the item is due at
+		 */
+		private Entry(T item, long deadlineTick) {
+			this.item = item;
+			this.deadlineTick = deadlineTick;
+		}
+	}
+
+	/**
+	 * Instantiates a new {@link TimerWheel}.
+	 *
+	 * @param numSlots
+	 *            the number of slots, ideally covering the usual delays
+	 * @param tickMillis
+	 *            the duration of a tick in milliseconds
+	 */
+	public TimerWheel(int numSlots, long tickMillis) {
+		if (numSlots <= 0 || tickMillis <= 0) {
+			throw new IllegalArgumentException("A timer wheel needs slots and a positive tick");
+		}
+
+		this.tickNanos = tickMillis * 1000000L;
+		this.slots = new ArrayList<>(numSlots);
+		this.startNanos = System.nanoTime();
+
+		for (int slot = 0; slot < numSlots; slot++) {
+			slots.add(new LinkedList<>());
+		}
+	}
+
+	/**
+	 * Gets the duration of a tick.
+	 *
+	 * @return the duration of a tick in milliseconds
+	 */
+	public long getTickMillis() {
+		return tickNanos / 1000000L;
+	}
+
+	/**
+	 * Schedules an item.
+	 *
+	 * @param item
+	 *            the item
+	 * @param deadlineNanos
+	 *            the time the item is due at, as given by
+	 *            {@link System#nanoTime()}
+	 */
+	public synchronized void schedule(T item, long deadlineNanos) {
+		// Round up so that the item is never expired before its deadline
+		long deadlineTick = Math.max(currentTick + 1, (deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+		slots.get((int) (deadlineTick % slots.size())).add(new Entry<>(item, deadlineTick));
+		size++;
+	}
+
+	/**
+	 * Expires the items due by a time. The items are handed to the consumer
+	 * after the wheel is unlocked, so the consumer may schedule new items.
+	 *
+	 * @param nowNanos
+	 *            the time, as given by {@link System#nanoTime()}
+	 * @param onExpiry
+	 *            the consumer of the expired items
+	 */
+	public void advance(long nowNanos, Consumer<? super T> onExpiry) {
+		List<T> expired = new ArrayList<>();
+
+		synchronized (this) {
+			long nowTick = (nowNanos - startNanos) / tickNanos;
+
+			// Past a full turn every slot is visited once
+			long lastTick = Math.min(nowTick, currentTick + slots.size());
+
+			for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+				Iterator<Entry<T>> entries = slots.get((int) (tick % slots.size())).iterator();
+
+				while (entries.hasNext()) {
+					Entry<T> entry = entries.next();
+
+					if (entry.deadlineTick <= nowTick) {
+						entries.remove();
+						expired.add(entry.item);
+					}
+				}
+			}
+
+			currentTick = Math.max(currentTick, nowTick);
+			size -= expired.size();
+		}
+
+		for (T item : expired) {
+			onExpiry.accept(item);
+		}
+	}
+
+	/**
+	 * Gets the number of pending items.
+	 *
+	 * @return the number of pending items
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}